@@ -0,0 +1,298 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.choosemuse.libmuse.Muse;
+import com.choosemuse.libmuse.MuseFileFactory;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Long-lived home of the headband connection and everything fed from it,
+ * so that capture carries on across Activity recreation and while the app
+ * is in the background. The work itself is done by an IngestSession.
+ *
+ * Activities bind to the service and use it through the Binder's service()
+ * as a client API: connect, disconnect, attach a ring for samples. While a
+ * headband is connected the service is started and in the foreground, so it
+ * outlives its clients; disconnecting lets it stop once they unbind. Every
+ * connect starts a new recording session under sessions/ in the downloads
+ * directory, as does every headband of a group session (see SessionFiles);
+ * sessions cut short by a crash are recovered when the service is created.
+ */
+public class IngestService extends Service {
+    private static final String TAG = "IngestService";
+    private static final int NOTIFICATION_ID = 1;
+    // Optional binary stream of every sample to a desktop host; see
+    // StreamReceiver for the other end.
+    private static final boolean STREAM_TO_HOST = false;
+    private static final String STREAM_HOST = "10.0.0.3";
+    private static final int STREAM_PORT = 333;
+
+    // The session's packet statistics and connection go to the log every
+    // STATS_LOG_INTERVAL_MS while connected.
+    private static final int STATS_LOG_INTERVAL_MS = 30000;
+
+    /** What bound clients get: a handle on the running service. */
+    public class LocalBinder extends Binder {
+        public IngestService service() {
+            return IngestService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler handler = new Handler();
+    private final Runnable logStats = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, session.summary());
+            handler.postDelayed(this, STATS_LOG_INTERVAL_MS);
+        }
+    };
+    private IngestSession session;
+    private Muse muse = null;
+    private MultiMuseSession groupSession = null;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        session = new IngestSession();
+        if (STREAM_TO_HOST) {
+            final NetworkStreamer streamer = new NetworkStreamer(STREAM_HOST, STREAM_PORT);
+            try {
+                streamer.start();
+                session.setStreamer(streamer);
+            } catch (IOException e) {
+                Log.w(TAG, "streaming disabled", e);
+            }
+        }
+        final File sessions = new File(getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS), "sessions");
+        session.executeOnFileThread(new Runnable() {
+            @Override
+            public void run() {
+                recoverSessions(sessions);
+            }
+        });
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Started only to stay alive while connected; nothing to do here.
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        handler.removeCallbacks(logStats);
+        disconnectAll();
+        // Closing waits up to 10 s for the file thread to finish the
+        // recording, which must not happen on the main thread.
+        final IngestSession s = session;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    s.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                Log.i(TAG, s.summary());
+            }
+        }, "IngestSession-close").start();
+        super.onDestroy();
+    }
+
+    public IngestSession session() {
+        return session;
+    }
+
+    /** The connected headband, or null for none or a simulated one. */
+    public Muse muse() {
+        return muse;
+    }
+
+    /**
+     * Connects muse, or a SimulatedDataSource if muse is null, and starts a
+     * new recording session.
+     */
+    public void connect(Muse muse) {
+        this.muse = muse;
+        final File dir = getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
+        session.startRecording(new Callable<SessionWriter>() {
+            @Override
+            public SessionWriter call() {
+                return openSession(dir, new File(dir, "sessions"));
+            }
+        });
+        session.connect(muse == null ?
+            new SimulatedDataSource("simulator", new SimulatedDataSource.Config()) :
+            new MuseDataSource(muse));
+        // Keep running when the activity goes away, at foreground priority
+        // so that recording is not cut short for memory.
+        startService(new Intent(this, IngestService.class));
+        startForeground(NOTIFICATION_ID, notification());
+        handler.removeCallbacks(logStats);
+        handler.postDelayed(logStats, STATS_LOG_INTERVAL_MS);
+    }
+
+    /** Disconnects at the user's request; no reconnecting after this. */
+    public void disconnect() {
+        if (!session.isConnected()) {
+            return;
+        }
+        handler.removeCallbacks(logStats);
+        Log.i(TAG, session.summary());
+        session.disconnect();
+        session.stopRecording("Disconnect clicked");
+        muse = null;
+        if (groupSession == null) {
+            stopForeground(true);
+            stopSelf();
+        }
+    }
+
+    public void setDataTransmission(boolean enabled) {
+        if (muse != null) {
+            muse.enableDataTransmission(enabled);
+        }
+    }
+
+    public boolean isGroupSessionRunning() {
+        return groupSession != null;
+    }
+
+    /** Group session: every muse with its own pipeline and recording. */
+    public void connectAll(List<Muse> muses) {
+        if (groupSession != null) {
+            return;
+        }
+        groupSession = new MultiMuseSession();
+        groupSession.connectAll(muses, new File(getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS), "sessions"));
+        startService(new Intent(this, IngestService.class));
+        startForeground(NOTIFICATION_ID, notification());
+    }
+
+    public void disconnectAll() {
+        if (groupSession == null) {
+            return;
+        }
+        groupSession.disconnectAll();
+        groupSession = null;
+        if (!session.isConnected()) {
+            stopForeground(true);
+            stopSelf();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private Notification notification() {
+        final Intent open = new Intent(this, MainActivity.class).setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        // getNotification() rather than build(), which needs API 16.
+        return new Notification.Builder(this)
+            .setContentTitle(getString(R.string.app_name))
+            .setContentText(getString(R.string.recording))
+            .setSmallIcon(R.drawable.ic_launcher)
+            .setOngoing(true)
+            .setContentIntent(PendingIntent.getActivity(this, 0, open, 0))
+            .getNotification();
+    }
+
+    // Brings sessions cut short by a crash back to their last flush. Runs on
+    // the file thread before a new session starts; a session that was closed
+    // cleanly costs one journal record to check. The .msc, columnar and
+    // rollup copies are left as they are and may run ahead of the .muse
+    // segments (see SessionFiles).
+    private void recoverSessions(File sessions) {
+        final File[] dirs = sessions.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        final List<File> backfill = new ArrayList<>();
+        for (File d : dirs) {
+            try {
+                final SessionJournal.Recovery r = SessionJournal.recover(d, ".muse");
+                if (r.recovered) {
+                    Log.i(TAG, "recovered " + d.getName() + ": " + r);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "cannot recover " + d, e);
+            }
+            if (d.isDirectory() && !new File(d, SessionRollups.FILE_NAME).exists()) {
+                backfill.add(d);
+            }
+        }
+        if (backfill.isEmpty()) {
+            return;
+        }
+        // Reading whole sessions back takes long, and the file thread has
+        // the record ring to drain, so the rollups are built on a thread of
+        // their own. The sessions were listed before any new one started.
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                for (File d : backfill) {
+                    backfillRollups(d);
+                }
+            }
+        }, "rollup-backfill").start();
+    }
+
+    // Builds the rollups of a session recorded before they existed from its
+    // segments, in one pass. Written aside and renamed when complete, so an
+    // interrupted backfill is simply redone next time.
+    private void backfillRollups(File session) {
+        final File partial = new File(session, SessionRollups.FILE_NAME + ".tmp");
+        try {
+            final SessionRollups rollups = new SessionRollups(partial);
+            try {
+                for (int i = 0; SessionJournal.segmentFile(session, i, ".muse").exists(); ++i) {
+                    final SampleSource source =
+                        new MuseFileSampleSource(SessionJournal.segmentFile(session, i, ".muse"));
+                    try {
+                        rollups.addAll(source);
+                    } finally {
+                        source.close();
+                    }
+                }
+            } finally {
+                rollups.close();
+            }
+            if (!partial.renameTo(new File(session, SessionRollups.FILE_NAME))) {
+                throw new IOException("cannot rename " + partial);
+            }
+            Log.i(TAG, "rollups for " + session.getName() + ": " + rollups.summary());
+        } catch (IOException e) {
+            Log.w(TAG, "cannot build rollups for " + session, e);
+        }
+    }
+
+    private SessionWriter openSession(File dir, File sessions) {
+        final File session = SessionFiles.newSession(sessions, null);
+        try {
+            return SessionFiles.open(session);
+        } catch (IOException e) {
+            Log.e(TAG, "cannot start session in " + session, e);
+            return new MuseSessionWriter(
+                MuseFileFactory.getMuseFileWriter(new File(dir, "new_muse_file.muse")));
+        }
+    }
+}
@@ -5,21 +5,11 @@
 
 package com.choosemuse.example.libmuse;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.lang.UnsatisfiedLinkError;
-import java.net.Socket;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 import com.choosemuse.libmuse.Accelerometer;
 import com.choosemuse.libmuse.AnnotationData;
@@ -30,16 +20,10 @@ import com.choosemuse.libmuse.LibmuseVersion;
 import com.choosemuse.libmuse.LogManager;
 import com.choosemuse.libmuse.MessageType;
 import com.choosemuse.libmuse.Muse;
-import com.choosemuse.libmuse.MuseArtifactPacket;
 import com.choosemuse.libmuse.MuseConfiguration;
-import com.choosemuse.libmuse.MuseConnectionListener;
-import com.choosemuse.libmuse.MuseConnectionPacket;
-import com.choosemuse.libmuse.MuseDataListener;
 import com.choosemuse.libmuse.MuseDataPacket;
-import com.choosemuse.libmuse.MuseDataPacketType;
 import com.choosemuse.libmuse.MuseFileFactory;
 import com.choosemuse.libmuse.MuseFileReader;
-import com.choosemuse.libmuse.MuseFileWriter;
 import com.choosemuse.libmuse.MuseListener;
 import com.choosemuse.libmuse.MuseManagerAndroid;
 import com.choosemuse.libmuse.MuseVersion;
@@ -49,12 +33,16 @@ import com.choosemuse.libmuse.ResultLevel;
 import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Environment;
-import android.os.Looper;
 import android.os.Handler;
+import android.os.IBinder;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -76,6 +64,8 @@ import android.support.v4.content.ContextCompat;
  * For simplicity we create Listeners as inner classes of MainActivity. We pass
  * reference to MainActivity as we want listeners to update UI thread in this
  * example app.
+ * The connection and recording live in IngestService, which the activity
+ * binds to; the activity only shows what the service's session produces.
  *
  * Usage instructions:
  * 1. Enable bluetooth on your device
@@ -91,16 +81,51 @@ import android.support.v4.content.ContextCompat;
 public class MainActivity extends Activity implements OnClickListener {
     private final String TAG = "TestLibMuseAndroid";
 
+    // Set to connect to SimulatedDataSource instead of a paired headband,
+    // e.g. to load test the pipeline on an emulator.
+    private static final boolean SIMULATE_HEADBAND = false;
+    private static final ConnectionState[] CONNECTION_STATES = ConnectionState.values();
+
     private ArrayAdapter<String> spinnerAdapter;
     private boolean dataTransmission = true;
     private MuseManagerAndroid manager = null;
-    private Muse muse = null;
-    private ConnectionListener connectionListener = null;
-    private DataListener dataListener = null;
+    private SessionClient sessionClient = null;
+
+    // The service is bound from onCreate to onDestroy. Samples come from its
+    // session through uiRing, a single-producer/single-consumer ring the UI
+    // tick drains every frame: nothing is allocated or locked per packet,
+    // and a stalled UI drops samples instead of growing a queue.
+    private IngestService service = null;
+    private static final int UI_RING_SIZE = 1024;
+    private final SampleRing uiRing = new SampleRing(UI_RING_SIZE);
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((IngestService.LocalBinder) binder).service();
+            final IngestSession session = service.session();
+            session.attach(uiRing, sessionClient);
+            waveformView.setPyramid(session.waveform());
+            final ConnectionSupervisor sv = session.supervisor();
+            if (sv != null) {
+                versionText.setText(sv.source().name());
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+        }
+    };
+
+    // Shown by the waveform view: the last ten seconds or the last ten
+    // minutes of the session's EEG.
+    private static final int WAVEFORM_SHORT_WINDOW = 10 * 256;
+    private static final int WAVEFORM_LONG_WINDOW = IngestSession.WAVEFORM_SAMPLES;
 
     // Note: the array lengths here are taken from the comments in
     // MuseDataPacketType, which specify 3 values for accelerometer and 6
-    // values for EEG and EEG-derived packets.
+    // values for EEG and EEG-derived packets. They and the stale flags are
+    // only touched on the UI thread.
     private final double[] eegBuffer = new double[6];
     private boolean eegStale = false;
     private final double[] alphaBuffer = new double[6];
@@ -108,32 +133,57 @@ public class MainActivity extends Activity implements OnClickListener {
     private final double[] accelBuffer = new double[3];
     private boolean accelStale = false;
 
-    // helper methods to get different packet values
-    private void getEegChannelValues(double[] buffer, MuseDataPacket p) {
-        buffer[0] = p.getEegChannelValue(Eeg.EEG1);
-        buffer[1] = p.getEegChannelValue(Eeg.EEG2);
-        buffer[2] = p.getEegChannelValue(Eeg.EEG3);
-        buffer[3] = p.getEegChannelValue(Eeg.EEG4);
-        buffer[4] = p.getEegChannelValue(Eeg.AUX_LEFT);
-        buffer[5] = p.getEegChannelValue(Eeg.AUX_RIGHT);
-    }
-
-    private void getAccelValues(MuseDataPacket p) {
-        accelBuffer[0] = p.getAccelerometerValue(Accelerometer.FORWARD_BACKWARD);
-        accelBuffer[1] = p.getAccelerometerValue(Accelerometer.UP_DOWN);
-        accelBuffer[2] = p.getAccelerometerValue(Accelerometer.LEFT_RIGHT);
-    }
+    // View references are looked up once in onCreate. The number views
+    // render into their own buffers and skip setText when the shown text
+    // would not change, so a UI tick does not allocate.
+    private static final int VALUE_WIDTH = 6;
+    private static final int VALUE_DECIMALS = 2;
+    private NumberView[] eegViews;
+    private NumberView[] accelViews;
+    private NumberView[] alphaViews;
+    private TextView statusText;
+    private TextView versionText;
+    private TextView brainStateText;
+    // What brainStateText shows, so it is only rebuilt when that changes.
+    private int shownLabel = -1;
+    private long shownPercent = -1;
+    private WaveformView waveformView;
+    private int waveformWindow = WAVEFORM_SHORT_WINDOW;
 
     private final Handler handler = new Handler();
 
     // We update the UI from this Runnable instead of in packet handlers
     // because packets come in at high frequency -- 220Hz or more for raw EEG
-    // -- and it only makes sense to update the UI at about 60fps. The update
-    // functions do some string allocation, so this reduces our memory
-    // footprint and makes GC pauses less frequent/noticeable.
+    // -- and it only makes sense to update the UI once per display refresh.
+    // uiScheduler runs it on vsync, only after new samples arrived and only
+    // while the Activity is in the foreground. The update functions only
+    // touch views whose text changed.
+    private final SampleSink uiSink = new SampleSink() {
+        @Override
+        public void accept(brainPacket s) {
+            switch (s.type) {
+                case brainPacket.TYPE_EEG:
+                    System.arraycopy(s.values, 0, eegBuffer, 0, Math.min(s.size, eegBuffer.length));
+                    eegStale = true;
+                    break;
+                case brainPacket.TYPE_ACCELEROMETER:
+                    System.arraycopy(s.values, 0, accelBuffer, 0, Math.min(s.size, accelBuffer.length));
+                    accelStale = true;
+                    break;
+                case brainPacket.TYPE_ALPHA_RELATIVE:
+                    System.arraycopy(s.values, 0, alphaBuffer, 0, Math.min(s.size, alphaBuffer.length));
+                    alphaStale = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+    };
+
     private final Runnable tickUi = new Runnable() {
         @Override
         public void run() {
+            uiRing.drainAll(uiSink);
             if (eegStale) {
                 updateEeg();
             }
@@ -143,24 +193,9 @@ public class MainActivity extends Activity implements OnClickListener {
             if (alphaStale) {
                 updateAlpha();
             }
-            handler.postDelayed(tickUi, 1000 / 60);
-        }
-    };
-
-    private final AtomicReference<MuseFileWriter> fileWriter = new AtomicReference<>();
-    private final AtomicReference<Handler> fileHandler = new AtomicReference<>();
-
-    private final Thread fileThread = new Thread() {
-        @Override
-        public void run() {
-            Looper.prepare();
-            fileHandler.set(new Handler());
-            final File dir = getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
-            fileWriter.set(MuseFileFactory.getMuseFileWriter(new File(dir, "new_muse_file.muse")));
-            //Connect();
-            Looper.loop();
         }
     };
+    private final UiScheduler uiScheduler = new UiScheduler(handler, tickUi);
 
     static {
         // Try to load our own all-in-one JNI lib. If it fails, rely on libmuse
@@ -171,172 +206,71 @@ public class MainActivity extends Activity implements OnClickListener {
         }
     }
 
-    public void receiveMuseConnectionPacket(final MuseConnectionPacket p) {
-        final ConnectionState current = p.getCurrentConnectionState();
-        final String status = p.getPreviousConnectionState().toString().
+    public void receiveConnectionState(final int previous, final int current) {
+        final String status = CONNECTION_STATES[previous].toString().
             concat(" -> ").
-            concat(current.toString());
+            concat(CONNECTION_STATES[current].toString());
         Log.i(TAG, status);
-        if (p.getCurrentConnectionState() == ConnectionState.DISCONNECTED) {
-            handler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    if (muse != null) {
-                        muse.runAsynchronously();
-                    }
-                }
-            }, 20);
-        }
+        final IngestService svc = service;
+        final Muse muse = svc == null ? null : svc.muse();
+        final ConnectionSupervisor sv = svc == null ? null : svc.session().supervisor();
         handler.post(new Runnable() {
             @Override public void run() {
-                final TextView statusText = (TextView)findViewById(R.id.con_status);
                 statusText.setText(status);
-                final TextView museVersionText = (TextView)findViewById(R.id.version);
-                if (current == ConnectionState.CONNECTED) {
+                if (current == DataSource.STATE_CONNECTED && muse != null) {
                     final MuseVersion museVersion = muse.getMuseVersion();
                     final String version = museVersion.getFirmwareType().
                         concat(" - ").concat(museVersion.getFirmwareVersion()).
                         concat(" - ").concat(Integer.toString(museVersion.getProtocolVersion()));
-                    museVersionText.setText(version);
+                    versionText.setText(version);
+                } else if (current == DataSource.STATE_CONNECTED && sv != null) {
+                    versionText.setText(sv.source().name());
                 } else {
-                    museVersionText.setText(R.string.undefined);
+                    versionText.setText(R.string.undefined);
                 }
             }
         });
     }
 
-    public void receiveMuseDataPacket(final MuseDataPacket p) {
-        Handler h = fileHandler.get();
-        if (h != null) {
-            h.post(new Runnable() {
-                @Override
-                public void run() {
-                    fileWriter.get().addDataPacket(0, p);
-                }
-            });
-        }
-        final long n = p.valuesSize();
-        switch (p.packetType()) {
-            case EEG:
-                assert(eegBuffer.length >= n);
-                getEegChannelValues(eegBuffer,p);
-                eegStale = true;
-                break;
-//            case ACCELEROMETER:
-//                assert(accelBuffer.length >= n);
-//                getAccelValues(p);
-//                accelStale = true;
-//                break;
-            case ALPHA_RELATIVE:
-                assert(alphaBuffer.length >= n);
-                getEegChannelValues(alphaBuffer,p);
-                alphaStale = true;
-                break;
-            default:
-                break;
-        }
-    }
-
     private void updateAccel() {
-        TextView acc_x = (TextView)findViewById(R.id.acc_x);
-        TextView acc_y = (TextView)findViewById(R.id.acc_y);
-        TextView acc_z = (TextView)findViewById(R.id.acc_z);
-        acc_x.setText(String.format("%6.2f", accelBuffer[0]));
-        acc_y.setText(String.format("%6.2f", accelBuffer[1]));
-        acc_z.setText(String.format("%6.2f", accelBuffer[2]));
+        accelStale = false;
+        for (int i = 0; i < accelViews.length; ++i) {
+            accelViews[i].set(accelBuffer[i]);
+        }
     }
-//    public void Connect(){
-//        try {
-//            Socket SOCK = new Socket("10.0.0.3", 333);
-//            PrintWriter pw = new PrintWriter(SOCK.getOutputStream());
-//            pw.println("FROM ANDROID!");
-//        } catch (UnknownHostException e) {
-//            // TODO Auto-generated catch block
-//            e.printStackTrace();
-//        } catch (IOException e) {
-//            // TODO Auto-generated catch block
-//            e.printStackTrace();
-//        }
-//    }
-//    Socket socket = null;
-//    public String dstAddress;
-//    public int dstPort;
     public Boolean avgB = true;
     private void updateEeg() {
-        TextView tp9 = (TextView)findViewById(R.id.eeg_tp9);
-        TextView fp1 = (TextView)findViewById(R.id.eeg_fp1);
-        TextView fp2 = (TextView)findViewById(R.id.eeg_fp2);
-        TextView tp10 = (TextView)findViewById(R.id.eeg_tp10);
-        if(eegBuffer[0] > 1100){
-            tp9.setText("1");
-            avgB = true;
-        }else {
-            tp9.setText("0");
-            avgB = false;
-        }if(eegBuffer[1] > 1100){
-            fp1.setText("1");
-            avgB = true;
-        }else {
-            fp1.setText("0");
-            avgB = false;
-        }if (eegBuffer[2] > 1100) {
-            fp2.setText("1");
-            avgB = true;
-        }else {
-            fp2.setText("0");
-            avgB = false;
-        }if (eegBuffer[3] > 1100) {
-            tp10.setText("1");
-            avgB = true;
-        }else {
-            tp10.setText("0");
-            avgB = false;
+        eegStale = false;
+        final IngestService svc = service;
+        if (svc == null) {
+            return;
+        }
+        final int active = svc.session().detector().activeMask();
+        for (int i = 0; i < eegViews.length; ++i) {
+            eegViews[i].set((active >> i) & 1);
+        }
+        avgB = active != 0;
+        final BrainStateClassifier state = svc.session().brainState();
+        final int label = state.label();
+        final long percent = Math.round(state.confidence() * 100);
+        if (label >= 0 && (label != shownLabel || percent != shownPercent)) {
+            shownLabel = label;
+            shownPercent = percent;
+            brainStateText.setText(state.model().label(label) + " " + percent + "%");
         }
-//
-//        try {
-//            socket = new Socket(dstAddress, dstPort);
-//
-//            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(
-//                    1024);
-//            byte[] buffer = new byte[1024];
-//
-//            int bytesRead;
-//            InputStream inputStream = socket.getInputStream();
-//
-//         /*
-//          * notice: inputStream.read() will block if no data return
-//          */
-//            while ((bytesRead = inputStream.read(buffer)) != -1) {
-//                byteArrayOutputStream.write(buffer, 0, bytesRead);
-//            }
-//
-//        } catch (UnknownHostException e) {
-//            // TODO Auto-generated catch block
-//            e.printStackTrace();
-//        } catch (IOException e) {
-//            // TODO Auto-generated catch block
-//            e.printStackTrace();
-//        } finally {
-//            //do stuff
-//        }
+        waveformView.invalidate();
     }
-//    private String getBrainForce(double rawEeg[]){
-//
-//        d.format("%6.2f", eegBuffer[1]);
-//    }
 
     private void updateAlpha() {
-        TextView elem1 = (TextView)findViewById(R.id.elem1);
-        elem1.setText(String.format("%6.2f", alphaBuffer[Eeg.EEG1.ordinal()]));
-        TextView elem2 = (TextView)findViewById(R.id.elem2);
-        elem2.setText(String.format("%6.2f", alphaBuffer[Eeg.EEG2.ordinal()]));
-        TextView elem3 = (TextView)findViewById(R.id.elem3);
-        elem3.setText(String.format("%6.2f", alphaBuffer[Eeg.EEG3.ordinal()]));
-        TextView elem4 = (TextView)findViewById(R.id.elem4);
-        elem4.setText(String.format("%6.2f", alphaBuffer[Eeg.EEG4.ordinal()]));
+        alphaStale = false;
+        alphaViews[0].set(alphaBuffer[Eeg.EEG1.ordinal()]);
+        alphaViews[1].set(alphaBuffer[Eeg.EEG2.ordinal()]);
+        alphaViews[2].set(alphaBuffer[Eeg.EEG3.ordinal()]);
+        alphaViews[3].set(alphaBuffer[Eeg.EEG4.ordinal()]);
     }
 
-    public void receiveMuseArtifactPacket(final MuseArtifactPacket p) {
+    private NumberView numberView(int id, int width, int decimals) {
+        return new NumberView((TextView) findViewById(id), width, decimals);
     }
 
     public void museListChanged() {
@@ -366,8 +300,6 @@ public class MainActivity extends Activity implements OnClickListener {
         manager = MuseManagerAndroid.getInstance();
         manager.setContext(this);
 
-        fileThread.start();
-
         Log.i(TAG, "libmuse version=" + LibmuseVersion.instance().getString());
 
         // The ACCESS_COARSE_LOCATION permission is required to use the
@@ -399,11 +331,33 @@ public class MainActivity extends Activity implements OnClickListener {
 
         WeakReference<MainActivity> weakActivity =
             new WeakReference<MainActivity>(this);
-        connectionListener = new ConnectionListener(weakActivity);
-        dataListener = new DataListener(weakActivity);
+        sessionClient = new SessionClient(weakActivity);
         manager.setMuseListener(new MuseL(weakActivity));
 
         setContentView(R.layout.activity_main);
+        statusText = (TextView) findViewById(R.id.con_status);
+        versionText = (TextView) findViewById(R.id.version);
+        brainStateText = (TextView) findViewById(R.id.brain_state);
+        eegViews = new NumberView[] {
+            numberView(R.id.eeg_tp9, 1, 0),
+            numberView(R.id.eeg_fp1, 1, 0),
+            numberView(R.id.eeg_fp2, 1, 0),
+            numberView(R.id.eeg_tp10, 1, 0),
+        };
+        accelViews = new NumberView[] {
+            numberView(R.id.acc_x, VALUE_WIDTH, VALUE_DECIMALS),
+            numberView(R.id.acc_y, VALUE_WIDTH, VALUE_DECIMALS),
+            numberView(R.id.acc_z, VALUE_WIDTH, VALUE_DECIMALS),
+        };
+        waveformView = (WaveformView) findViewById(R.id.waveform);
+        waveformView.setWindowSamples(waveformWindow);
+        waveformView.setOnClickListener(this);
+        alphaViews = new NumberView[] {
+            numberView(R.id.elem1, VALUE_WIDTH, VALUE_DECIMALS),
+            numberView(R.id.elem2, VALUE_WIDTH, VALUE_DECIMALS),
+            numberView(R.id.elem3, VALUE_WIDTH, VALUE_DECIMALS),
+            numberView(R.id.elem4, VALUE_WIDTH, VALUE_DECIMALS),
+        };
         Button refreshButton = (Button) findViewById(R.id.refresh);
         refreshButton.setOnClickListener(this);
         Button connectButton = (Button) findViewById(R.id.connect);
@@ -412,12 +366,33 @@ public class MainActivity extends Activity implements OnClickListener {
         disconnectButton.setOnClickListener(this);
         Button pauseButton = (Button) findViewById(R.id.pause);
         pauseButton.setOnClickListener(this);
+        Button connectAllButton = (Button) findViewById(R.id.connect_all);
+        connectAllButton.setOnClickListener(this);
 
         spinnerAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_spinner_item);
         Spinner musesSpinner = (Spinner) findViewById(R.id.muses_spinner);
         musesSpinner.setAdapter(spinnerAdapter);
 
-        handler.post(tickUi);
+        uiScheduler.setRefreshRate(getWindowManager().getDefaultDisplay().getRefreshRate());
+
+        bindService(new Intent(this, IngestService.class), serviceConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onDestroy() {
+        // The service keeps running while connected; only stop listening.
+        if (service != null) {
+            service.session().detach(sessionClient);
+            service = null;
+        }
+        unbindService(serviceConnection);
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        uiScheduler.start();
     }
 
     protected void onPause() {
@@ -425,6 +400,8 @@ public class MainActivity extends Activity implements OnClickListener {
         // It is important to call stopListening when the Activity is paused
         // to avoid a resource leak from the LibMuse library.
         manager.stopListening();
+        uiScheduler.stop();
+        Log.i(TAG, "ui: " + uiScheduler.summary());
     }
 
 
@@ -437,43 +414,43 @@ public class MainActivity extends Activity implements OnClickListener {
         } else if (v.getId() == R.id.connect) {
             manager.stopListening();
             List<Muse> pairedMuses = manager.getMuses();
-            if (pairedMuses.size() < 1 ||
+            if (service == null) {
+                Log.w(TAG, "not bound to the ingest service yet");
+            } else if (SIMULATE_HEADBAND) {
+                service.connect(null);
+            } else if (pairedMuses.size() < 1 ||
                 musesSpinner.getAdapter().getCount() < 1) {
                 Log.w("MUSEAPP", "There is nothing to connect to");
             } else {
-                muse = pairedMuses.get(musesSpinner.getSelectedItemPosition());
-                muse.unregisterAllListeners();
-                muse.registerConnectionListener(connectionListener);
-                muse.registerDataListener(dataListener, MuseDataPacketType.EEG);
-                muse.registerDataListener(dataListener, MuseDataPacketType.ALPHA_RELATIVE);
-                muse.registerDataListener(dataListener, MuseDataPacketType.ACCELEROMETER);
-                muse.registerDataListener(dataListener, MuseDataPacketType.BATTERY);
-                muse.registerDataListener(dataListener, MuseDataPacketType.DRL_REF);
-                muse.registerDataListener(dataListener, MuseDataPacketType.QUANTIZATION);
-                muse.runAsynchronously();
-            }            
+                service.connect(pairedMuses.get(musesSpinner.getSelectedItemPosition()));
+            }
         } else if (v.getId() == R.id.disconnect) {
-            if (muse != null) {
-                muse.unregisterAllListeners();
-                muse.disconnect(false);
-
-                Handler h = fileHandler.get();
-                if (h != null) {
-                    h.post(new Runnable() {
-                        @Override public void run() {
-                            MuseFileWriter w = fileWriter.get();
-                            w.addAnnotationString(0, "Disconnect clicked");
-                            w.flush();
-                            w.close();
-                        }
-                    });
-                }
+            if (service != null) {
+                // User intent: no reconnecting after this.
+                service.disconnect();
             }
         } else if (v.getId() == R.id.pause) {
             dataTransmission = !dataTransmission;
-            if (muse != null) {
-                muse.enableDataTransmission(dataTransmission);
+            if (service != null) {
+                service.setDataTransmission(dataTransmission);
             }
+        } else if (v.getId() == R.id.connect_all) {
+            // Group session: every paired headband with its own pipeline.
+            // Pressing again ends it.
+            if (service == null) {
+                Log.w(TAG, "not bound to the ingest service yet");
+            } else if (!service.isGroupSessionRunning()) {
+                manager.stopListening();
+                service.connectAll(manager.getMuses());
+            } else {
+                service.disconnectAll();
+            }
+        } else if (v.getId() == R.id.waveform) {
+            // Tap the waveform to switch between the last ten seconds and
+            // the last ten minutes.
+            waveformWindow = waveformWindow == WAVEFORM_SHORT_WINDOW ?
+                WAVEFORM_LONG_WINDOW : WAVEFORM_SHORT_WINDOW;
+            waveformView.setWindowSamples(waveformWindow);
         }
     }
 
@@ -524,34 +501,21 @@ public class MainActivity extends Activity implements OnClickListener {
 
     // Listener translators follow.
 
-    class ConnectionListener extends MuseConnectionListener {
-        final WeakReference<MainActivity> activityRef;
-
-        ConnectionListener(final WeakReference<MainActivity> activityRef) {
-            this.activityRef = activityRef;
-        }
-
-        @Override
-        public void receiveMuseConnectionPacket(final MuseConnectionPacket p, final Muse muse) {
-            activityRef.get().receiveMuseConnectionPacket(p);
-        }
-    }
-
-    class DataListener extends MuseDataListener {
+    class SessionClient implements IngestSession.Client {
         final WeakReference<MainActivity> activityRef;
 
-        DataListener(final WeakReference<MainActivity> activityRef) {
+        SessionClient(final WeakReference<MainActivity> activityRef) {
             this.activityRef = activityRef;
         }
 
         @Override
-        public void receiveMuseDataPacket(final MuseDataPacket p, final Muse muse) {
-            activityRef.get().receiveMuseDataPacket(p);
+        public void onSamplesAvailable() {
+            activityRef.get().uiScheduler.requestFrame();
         }
 
         @Override
-        public void receiveMuseArtifactPacket(final MuseArtifactPacket p, final Muse muse) {
-            activityRef.get().receiveMuseArtifactPacket(p);
+        public void onConnectionState(final int previous, final int current) {
+            activityRef.get().receiveConnectionState(previous, current);
         }
     }
 
@@ -0,0 +1,125 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.choosemuse.libmuse.Muse;
+
+import android.util.Log;
+
+/**
+ * Group session: connects several data sources at once and gives each its
+ * own DevicePipeline (ingest ring, recorder, band powers and detector).
+ * All pipelines are drained by one SessionManager pool, and every source
+ * is kept connected by its own ConnectionSupervisor.
+ */
+class MultiMuseSession {
+    private static final String TAG = "MultiMuseSession";
+    private static final int RING_SIZE = 4096;
+    private static final int RECORD_BATCH_SIZE = 256;
+    private static final int RECORD_BATCH_WINDOW_MS = 250;
+    private static final int RECORD_FLUSH_INTERVAL_MS = 5000;
+
+    private final SessionManager manager = new SessionManager();
+    private final List<ConnectionSupervisor> supervisors = new ArrayList<>();
+    private final Map<ConnectionSupervisor, PacketStats> stats = new HashMap<>();
+
+    /**
+     * Connects every muse and records each as its own session under
+     * sessions, named by the start time and the muse's MAC address.
+     */
+    void connectAll(List<Muse> devices, File sessions) {
+        for (Muse muse : devices) {
+            final String name = muse.getMacAddress().replace(":", "");
+            final File session = SessionFiles.newSession(sessions, name);
+            SessionWriter writer;
+            try {
+                writer = SessionFiles.open(session);
+            } catch (IOException e) {
+                Log.e(TAG, "cannot record " + name + " in " + session, e);
+                writer = null;
+            }
+            add(new MuseDataSource(muse), writer);
+        }
+    }
+
+    /** Starts source with its own pipeline; writer may be null to not record. */
+    void add(DataSource source, SessionWriter writer) {
+        final BatchRecorder recorder = writer == null ? null : new BatchRecorder(writer,
+            RECORD_BATCH_SIZE, RECORD_BATCH_WINDOW_MS, RECORD_FLUSH_INTERVAL_MS);
+        final PacketStats packetStats = new PacketStats();
+        if (recorder != null) {
+            recorder.setQueueLatency(packetStats.queueLatency());
+        }
+        final DevicePipeline pipeline = manager.add(new DevicePipeline(
+            source.name(), RING_SIZE, recorder, new BandPowerEngine(), new EegDetector()));
+        final ConnectionSupervisor supervisor = new ConnectionSupervisor(source);
+        supervisor.setListener(new Listener(source.name(), pipeline, packetStats));
+        supervisor.connect();
+        supervisors.add(supervisor);
+        stats.put(supervisor, packetStats);
+    }
+
+    /**
+     * Stops every supervisor, then closes the pipelines on a background
+     * thread: closing flushes every recorder and waits up to 5 s for the
+     * workers, which must not happen on the main thread.
+     */
+    void disconnectAll() {
+        for (ConnectionSupervisor supervisor : supervisors) {
+            supervisor.setListener(null);
+            supervisor.shutdown();
+            Log.i(TAG, supervisor.summary());
+            Log.i(TAG, supervisor.source().name() + " packets: " + stats.get(supervisor).summary());
+        }
+        supervisors.clear();
+        stats.clear();
+        Log.i(TAG, manager.summary());
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    manager.shutdown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "MultiMuseSession-close").start();
+    }
+
+    String summary() {
+        return manager.summary();
+    }
+
+    private static final class Listener implements DataSource.Listener {
+        final String name;
+        final DevicePipeline pipeline;
+        final PacketStats stats;
+
+        Listener(String name, DevicePipeline pipeline, PacketStats stats) {
+            this.name = name;
+            this.pipeline = pipeline;
+            this.stats = stats;
+        }
+
+        @Override
+        public void onSample(final brainPacket p) {
+            stats.record(p);
+            pipeline.offer(p);
+        }
+
+        @Override
+        public void onArtifact(final long timestamp, final boolean headbandOn,
+                               final boolean blink, final boolean jawClench) {
+        }
+
+        @Override
+        public void onConnectionState(final int previous, final int current) {
+            Log.i(TAG, name + ": " + previous + " -> " + current);
+        }
+    }
+}
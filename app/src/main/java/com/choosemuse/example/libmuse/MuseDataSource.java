@@ -0,0 +1,103 @@
+package com.choosemuse.example.libmuse;
+
+import com.choosemuse.libmuse.Muse;
+import com.choosemuse.libmuse.MuseArtifactPacket;
+import com.choosemuse.libmuse.MuseConnectionListener;
+import com.choosemuse.libmuse.MuseConnectionPacket;
+import com.choosemuse.libmuse.MuseDataListener;
+import com.choosemuse.libmuse.MuseDataPacket;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+/**
+ * DataSource backed by a real headband. Registers for the packet types the
+ * app uses and translates libmuse callbacks into DataSource.Listener calls
+ * on the libmuse callback thread.
+ */
+class MuseDataSource implements DataSource {
+    static final MuseDataPacketType[] DATA_TYPES = {
+        MuseDataPacketType.EEG,
+        MuseDataPacketType.ALPHA_RELATIVE,
+        MuseDataPacketType.ACCELEROMETER,
+        MuseDataPacketType.BATTERY,
+        MuseDataPacketType.DRL_REF,
+        MuseDataPacketType.QUANTIZATION,
+        // Delivered to receiveMuseArtifactPacket rather than as data.
+        MuseDataPacketType.ARTIFACTS,
+    };
+
+    private final Muse muse;
+    private final brainPacket packet = new brainPacket();
+    private volatile Listener listener;
+
+    // New libmuse listeners for every start(), bound to the Listener set at
+    // the time, so a late callback of an earlier connection reaches the
+    // Listener that connection started with.
+    private static MuseConnectionListener connectionListener(final Listener l) {
+        return new MuseConnectionListener() {
+            @Override
+            public void receiveMuseConnectionPacket(final MuseConnectionPacket p, final Muse muse) {
+                if (l != null) {
+                    l.onConnectionState(p.getPreviousConnectionState().ordinal(),
+                                        p.getCurrentConnectionState().ordinal());
+                }
+            }
+        };
+    }
+
+    private MuseDataListener dataListener(final Listener l) {
+        return new MuseDataListener() {
+            @Override
+            public void receiveMuseDataPacket(final MuseDataPacket p, final Muse muse) {
+                if (l != null) {
+                    MusePackets.copy(packet, p);
+                    packet.receivedNanos = System.nanoTime();
+                    l.onSample(packet);
+                }
+            }
+
+            @Override
+            public void receiveMuseArtifactPacket(final MuseArtifactPacket p, final Muse muse) {
+                if (l != null) {
+                    l.onArtifact(System.currentTimeMillis() * 1000L,
+                                 p.getHeadbandOn(), p.getBlink(), p.getJawClench());
+                }
+            }
+        };
+    }
+
+    MuseDataSource(Muse muse) {
+        this.muse = muse;
+    }
+
+    Muse muse() {
+        return muse;
+    }
+
+    @Override
+    public String name() {
+        return muse.getName().concat(muse.getMacAddress());
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void start() {
+        final Listener l = listener;
+        final MuseDataListener dataListener = dataListener(l);
+        muse.unregisterAllListeners();
+        muse.registerConnectionListener(connectionListener(l));
+        for (MuseDataPacketType type : DATA_TYPES) {
+            muse.registerDataListener(dataListener, type);
+        }
+        muse.runAsynchronously();
+    }
+
+    @Override
+    public void stop() {
+        muse.unregisterAllListeners();
+        muse.disconnect(false);
+    }
+}
@@ -0,0 +1,81 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.choosemuse.libmuse.MessageType;
+import com.choosemuse.libmuse.MuseDataPacket;
+import com.choosemuse.libmuse.MuseFileFactory;
+import com.choosemuse.libmuse.MuseFileReader;
+import com.choosemuse.libmuse.Result;
+import com.choosemuse.libmuse.ResultLevel;
+
+/**
+ * Copies the data packets and annotations of an existing .muse file into a
+ * SessionWriter, e.g. to build the columnar copy of a session that was
+ * recorded before ColumnarSessionWriter existed, and to index its events.
+ * The data packets include the band powers and DRL_REF, which libmuse
+ * files as MUSE_ELEMENTS.
+ */
+final class MuseFileConverter {
+    private MuseFileConverter() {
+    }
+
+    /** Converts museFile into a columnar session directory. */
+    static long toColumnar(File museFile, File columnarDir) throws IOException {
+        final ColumnarSessionWriter out = new ColumnarSessionWriter(columnarDir);
+        try {
+            return convert(museFile, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Converts museFile into a columnar session directory and indexes its
+     * annotations, in the same single pass. The columnar copy then serves
+     * samples around any of the events without reading the file again.
+     */
+    static EventStore index(File museFile, File columnarDir) throws IOException {
+        final EventStore events = new EventStore();
+        final ColumnarSessionWriter columns = new ColumnarSessionWriter(columnarDir);
+        try {
+            convert(museFile, new MultiSessionWriter(columns, events));
+        } finally {
+            columns.close();
+        }
+        return events;
+    }
+
+    /**
+     * Streams museFile into out in one pass. Returns the number of data
+     * packets written. Does not close out.
+     */
+    static long convert(File museFile, SessionWriter out) throws IOException {
+        if (!museFile.exists()) {
+            throw new IOException(museFile + " doesn't exist");
+        }
+        final MuseFileReader reader = MuseFileFactory.getMuseFileReader(museFile);
+        final brainPacket s = new brainPacket();
+        long count = 0;
+        try {
+            Result res = reader.gotoNextMessage();
+            while (res.getLevel() == ResultLevel.R_INFO && !res.getInfo().contains("EOF")) {
+                if (reader.getMessageType() == MessageType.ANNOTATION) {
+                    out.annotate(reader.getMessageTimestamp(), reader.getAnnotation().getData());
+                } else {
+                    final MuseDataPacket p = MusePackets.recordedPacket(reader);
+                    if (p != null) {
+                        MusePackets.copy(s, p);
+                        out.write(s);
+                        ++count;
+                    }
+                }
+                res = reader.gotoNextMessage();
+            }
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+}
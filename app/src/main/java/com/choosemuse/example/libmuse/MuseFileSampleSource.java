@@ -0,0 +1,70 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.choosemuse.libmuse.MuseDataPacket;
+import com.choosemuse.libmuse.MuseFileFactory;
+import com.choosemuse.libmuse.MuseFileReader;
+import com.choosemuse.libmuse.Result;
+import com.choosemuse.libmuse.ResultLevel;
+
+/**
+ * SampleSource over a .muse file, decoded by libmuse's MuseFileReader.
+ * It returns the same data packets as MuseFileConverter, including the band
+ * powers and DRL_REF that libmuse files as MUSE_ELEMENTS. Other messages
+ * are skipped.
+ */
+class MuseFileSampleSource implements SampleSource {
+    private final MuseFileReader reader;
+    private boolean eof = false;
+
+    MuseFileSampleSource(File file) throws IOException {
+        if (!file.exists()) {
+            throw new IOException(file + " doesn't exist");
+        }
+        reader = MuseFileFactory.getMuseFileReader(file);
+    }
+
+    @Override
+    public boolean next(brainPacket into) {
+        while (!eof) {
+            final Result res = reader.gotoNextMessage();
+            if (res.getLevel() != ResultLevel.R_INFO || res.getInfo().contains("EOF")) {
+                eof = true;
+                break;
+            }
+            final MuseDataPacket p = MusePackets.recordedPacket(reader);
+            if (p != null) {
+                MusePackets.copy(into, p);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        reader.close();
+    }
+
+    /** ReplayEngine job replaying one .muse file into sink. */
+    static ReplayEngine.Job job(final File file, final SampleSink sink) {
+        return new ReplayEngine.Job() {
+            @Override
+            public String name() {
+                return file.getName();
+            }
+
+            @Override
+            public SampleSource open() throws IOException {
+                return new MuseFileSampleSource(file);
+            }
+
+            @Override
+            public SampleSink sink() {
+                return sink;
+            }
+        };
+    }
+}
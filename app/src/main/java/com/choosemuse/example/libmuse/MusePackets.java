@@ -0,0 +1,93 @@
+package com.choosemuse.example.libmuse;
+
+import com.choosemuse.libmuse.Accelerometer;
+import com.choosemuse.libmuse.Battery;
+import com.choosemuse.libmuse.DrlRef;
+import com.choosemuse.libmuse.Eeg;
+import com.choosemuse.libmuse.Gyro;
+import com.choosemuse.libmuse.MuseFileReader;
+import com.choosemuse.libmuse.MuseDataPacket;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+/**
+ * Conversions from libmuse packets to brainPacket records, shared by the
+ * live data listener and the .muse file readers.
+ */
+final class MusePackets {
+    // Enum values() returns a fresh array on every call, so keep our own.
+    private static final Eeg[] EEG_CHANNELS = Eeg.values();
+    private static final Gyro[] GYRO_AXES = Gyro.values();
+    private static final Battery[] BATTERY_VALUES = Battery.values();
+    private static final DrlRef[] DRL_REF_VALUES = DrlRef.values();
+
+    // helper methods to get different packet values
+    static void getEegChannelValues(double[] buffer, MuseDataPacket p) {
+        buffer[0] = p.getEegChannelValue(Eeg.EEG1);
+        buffer[1] = p.getEegChannelValue(Eeg.EEG2);
+        buffer[2] = p.getEegChannelValue(Eeg.EEG3);
+        buffer[3] = p.getEegChannelValue(Eeg.EEG4);
+        buffer[4] = p.getEegChannelValue(Eeg.AUX_LEFT);
+        buffer[5] = p.getEegChannelValue(Eeg.AUX_RIGHT);
+    }
+
+    static void getAccelValues(double[] buffer, MuseDataPacket p) {
+        buffer[0] = p.getAccelerometerValue(Accelerometer.FORWARD_BACKWARD);
+        buffer[1] = p.getAccelerometerValue(Accelerometer.UP_DOWN);
+        buffer[2] = p.getAccelerometerValue(Accelerometer.LEFT_RIGHT);
+    }
+
+    // Copies the values of p into dst using the typed getters, which unlike
+    // p.values() do not box.
+    static void copy(brainPacket dst, MuseDataPacket p) {
+        final MuseDataPacketType type = p.packetType();
+        dst.set(p.timestamp(), type.ordinal(), (int) p.valuesSize());
+        final double[] v = dst.values;
+        switch (type) {
+            case ACCELEROMETER:
+                getAccelValues(v, p);
+                break;
+            case GYRO:
+                for (int i = 0; i < dst.size && i < GYRO_AXES.length; ++i) {
+                    v[i] = p.getGyroValue(GYRO_AXES[i]);
+                }
+                break;
+            case BATTERY:
+                for (int i = 0; i < dst.size && i < BATTERY_VALUES.length; ++i) {
+                    v[i] = p.getBatteryValue(BATTERY_VALUES[i]);
+                }
+                break;
+            case DRL_REF:
+                for (int i = 0; i < dst.size && i < DRL_REF_VALUES.length; ++i) {
+                    v[i] = p.getDrlRefValue(DRL_REF_VALUES[i]);
+                }
+                break;
+            default:
+                // EEG, QUANTIZATION and the EEG-derived band packets all
+                // carry one value per EEG channel.
+                for (int i = 0; i < dst.size && i < EEG_CHANNELS.length; ++i) {
+                    v[i] = p.getEegChannelValue(EEG_CHANNELS[i]);
+                }
+                break;
+        }
+    }
+
+    /**
+     * The data packet of the reader's current message if it is one we
+     * record, or null. Besides the raw streams this includes the packets
+     * libmuse files under MUSE_ELEMENTS, such as the band powers and
+     * DRL_REF. Artifact packets carry flags rather than values and are
+     * left out, as are the dropped-sample counts.
+     */
+    static MuseDataPacket recordedPacket(MuseFileReader reader) {
+        switch (reader.getMessageType()) {
+            case EEG: case BATTERY: case ACCELEROMETER: case QUANTIZATION: case GYRO: case MUSE_ELEMENTS:
+                final MuseDataPacket p = reader.getDataPacket();
+                return p.packetType() == MuseDataPacketType.ARTIFACTS ? null : p;
+            default:
+                return null;
+        }
+    }
+
+    private MusePackets() {
+    }
+}
@@ -0,0 +1,52 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.ArrayList;
+
+import com.choosemuse.libmuse.MuseDataPacket;
+import com.choosemuse.libmuse.MuseDataPacketType;
+import com.choosemuse.libmuse.MuseFileWriter;
+
+/**
+ * SessionWriter that records into a .muse file through libmuse's
+ * MuseFileWriter. Records are turned back into MuseDataPackets on the
+ * recording thread, which owns this object.
+ */
+public class MuseSessionWriter implements SessionWriter {
+    // Enum values() returns a fresh array on every call, so keep our own.
+    private static final MuseDataPacketType[] PACKET_TYPES = MuseDataPacketType.values();
+
+    private final MuseFileWriter writer;
+    private final ArrayList<Double> packetValues = new ArrayList<>(brainPacket.MAX_VALUES);
+
+    public MuseSessionWriter(MuseFileWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void write(brainPacket s) {
+        // This is the one place a recorded sample still allocates: libmuse
+        // only builds packets from a list of boxed values, and makePacket
+        // returns a new native packet each time with no way to refill one.
+        // It runs on the recording thread, not on the data listener.
+        packetValues.clear();
+        for (int i = 0; i < s.size; ++i) {
+            packetValues.add(s.values[i]);
+        }
+        writer.addDataPacket(0, MuseDataPacket.makePacket(PACKET_TYPES[s.type], s.timestamp, packetValues));
+    }
+
+    @Override
+    public void annotate(long timestamp, String text) {
+        writer.addAnnotationString(0, text);
+    }
+
+    @Override
+    public void flush() {
+        writer.flush();
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+    }
+}
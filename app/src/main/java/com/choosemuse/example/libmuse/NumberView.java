@@ -0,0 +1,27 @@
+package com.choosemuse.example.libmuse;
+
+import android.widget.TextView;
+
+/**
+ * A TextView showing one number, updated from the UI tick without
+ * allocating: the text is rendered into a char buffer owned by this object
+ * and setText is only called when the value changes at the shown precision.
+ */
+final class NumberView {
+    private final TextView view;
+    private final FixedPointText text;
+
+    NumberView(TextView view, int width, int decimals) {
+        this.view = view;
+        this.text = new FixedPointText(width, decimals);
+    }
+
+    void set(double value) {
+        if (text.update(value)) {
+            // TextView keeps a reference to the array rather than copying
+            // it; that is fine because we only change it right before the
+            // next setText.
+            view.setText(text.chars(), 0, text.length());
+        }
+    }
+}
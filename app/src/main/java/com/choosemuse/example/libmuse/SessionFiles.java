@@ -0,0 +1,83 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import com.choosemuse.libmuse.MuseFileFactory;
+
+import android.util.Log;
+
+/**
+ * How a recording session is laid out on disk, shared by the single
+ * headband session and every headband of a group session. Each session
+ * gets its own directory under sessions/, named by its start time, holding
+ * journaled .muse segments with a compressed .msc copy of each, a columnar
+ * copy and the rollups. IngestService recovers all of them the same way
+ * after a crash.
+ *
+ * Only the .muse segments are journaled, so recovery cuts back only them.
+ * The .msc copies, the columnar copy and the rollups are written in the
+ * same batches but not truncated, and after a crash they can run ahead of
+ * the recovered session by up to one flush interval. Their readers skip
+ * the torn record a crash leaves at the end.
+ */
+final class SessionFiles {
+    private static final String TAG = "SessionFiles";
+    // Each session directory is split into segments of at most
+    // SEGMENT_MAX_MS or SEGMENT_MAX_BYTES. Every flush is journaled, so a
+    // crash loses at most one flush interval.
+    private static final long SEGMENT_MAX_MS = 10 * 60 * 1000;
+    private static final long SEGMENT_MAX_BYTES = 64 * 1024 * 1024;
+
+    private SessionFiles() {
+    }
+
+    /**
+     * Directory for a session starting now, under sessions. suffix tells
+     * apart sessions started together, e.g. one per headband; it may be
+     * null.
+     */
+    static File newSession(File sessions, String suffix) {
+        final String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        return new File(sessions, suffix == null ? name : name + "-" + suffix);
+    }
+
+    /**
+     * Opens the writer for a new session in session. Fails only if the
+     * segments cannot be written; the columnar copy and the rollups are
+     * left out, with a warning, if they cannot.
+     */
+    static SessionWriter open(File session) throws IOException {
+        SessionWriter writer = new SegmentedSessionWriter(session, ".muse", new SegmentedSessionWriter.Factory() {
+            @Override
+            public SessionWriter open(File file) throws IOException {
+                // A losslessly compressed copy of each segment next to it,
+                // several times smaller, for keeping long sessions and
+                // uploading them.
+                final File compressed = new File(file.getParentFile(),
+                    file.getName().replace(".muse", ".msc"));
+                return new MultiSessionWriter(
+                    new MuseSessionWriter(MuseFileFactory.getMuseFileWriter(file)),
+                    new CompressedSessionWriter(compressed));
+            }
+        }, SEGMENT_MAX_BYTES, SEGMENT_MAX_MS);
+        // Keep a columnar copy of the whole session for fast seeking.
+        try {
+            writer = new MultiSessionWriter(writer,
+                new ColumnarSessionWriter(new File(session, "columns")));
+        } catch (IOException e) {
+            Log.w(TAG, "columnar recording disabled", e);
+        }
+        // Per-channel aggregates at 1 s to 10 min for history views.
+        try {
+            writer = new MultiSessionWriter(writer,
+                new SessionRollups(new File(session, SessionRollups.FILE_NAME)));
+        } catch (IOException e) {
+            Log.w(TAG, "rollups disabled", e);
+        }
+        return writer;
+    }
+}
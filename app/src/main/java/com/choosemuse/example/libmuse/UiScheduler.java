@@ -0,0 +1,243 @@
+package com.choosemuse.example.libmuse;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a UI frame callback on demand, at most once per display refresh.
+ *
+ * Producers call requestFrame() from any thread when there is something new
+ * to show; requests are coalesced so at most one frame is pending at a time.
+ * Frames are aligned to vsync with Choreographer on API 16+, and fall back
+ * to Handler.postAtTime capped at the refresh rate on older devices. Between
+ * stop() and start(), e.g. while the Activity is paused, no frames run at
+ * all; a request made meanwhile is served on start().
+ *
+ * Only requestFrame() may be called off the UI thread.
+ */
+final class UiScheduler {
+    private static final float DEFAULT_REFRESH_RATE = 60.0f;
+
+    private final Handler handler;
+    private final Runnable frame;
+    private final Ticker ticker;
+
+    private final AtomicBoolean requested = new AtomicBoolean();
+    private volatile long requestedAtNanos = 0;
+
+    // UI thread only.
+    private boolean running = false;
+    private boolean frameScheduled = false;
+    private long periodNanos;
+
+    // Written on the UI thread, volatile for readers elsewhere.
+    private volatile long frames = 0;
+    private volatile long skippedFrames = 0;
+    private volatile long overBudgetFrames = 0;
+    private volatile long totalWorkNanos = 0;
+    private volatile long maxWorkNanos = 0;
+    private volatile long totalLatencyNanos = 0;
+    private volatile long maxLatencyNanos = 0;
+
+    UiScheduler(Handler handler, Runnable frame) {
+        this.handler = handler;
+        this.frame = frame;
+        this.ticker = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ?
+            new VsyncTicker(this) : new HandlerTicker(this, handler);
+        setRefreshRate(DEFAULT_REFRESH_RATE);
+    }
+
+    /** Sets the display refresh rate, which caps the frame rate. */
+    void setRefreshRate(float hz) {
+        if (!(hz > 1.0f)) {
+            hz = DEFAULT_REFRESH_RATE;
+        }
+        periodNanos = (long) (1e9 / hz);
+    }
+
+    void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        if (requested.get()) {
+            scheduleFrame();
+        }
+    }
+
+    void stop() {
+        running = false;
+        if (frameScheduled) {
+            frameScheduled = false;
+            ticker.cancel();
+        }
+        handler.removeCallbacks(schedule);
+    }
+
+    /**
+     * Asks for a frame. Cheap enough to call for every sample: only the
+     * first request after a frame does any work.
+     */
+    void requestFrame() {
+        if (!requested.get() && requested.compareAndSet(false, true)) {
+            requestedAtNanos = System.nanoTime();
+            handler.post(schedule);
+        }
+    }
+
+    private final Runnable schedule = new Runnable() {
+        @Override
+        public void run() {
+            scheduleFrame();
+        }
+    };
+
+    private void scheduleFrame() {
+        if (running && !frameScheduled) {
+            frameScheduled = true;
+            ticker.post(periodNanos);
+        }
+    }
+
+    // Called by the ticker on the UI thread. frameTimeNanos is on the
+    // System.nanoTime() time base.
+    void onFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        if (!running) {
+            return;
+        }
+        // Clear the request before running the frame, so data arriving
+        // while it runs asks for another one.
+        final long requestedAt = requestedAtNanos;
+        requested.set(false);
+
+        final long start = System.nanoTime();
+        frame.run();
+        final long work = System.nanoTime() - start;
+
+        // A request can always be served by the next vsync; every further
+        // refresh period it waited is a skipped frame.
+        final long latency = Math.max(0, frameTimeNanos - requestedAt);
+        final long missed = (latency - periodNanos) / periodNanos;
+        if (missed > 0) {
+            skippedFrames += missed;
+        }
+        if (work > periodNanos) {
+            ++overBudgetFrames;
+        }
+        totalWorkNanos += work;
+        maxWorkNanos = Math.max(maxWorkNanos, work);
+        totalLatencyNanos += latency;
+        maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        ++frames;
+    }
+
+    long frames() {
+        return frames;
+    }
+
+    /** Refresh periods a requested frame waited beyond the first. */
+    long skippedFrames() {
+        return skippedFrames;
+    }
+
+    /** Frames whose callback took longer than one refresh period. */
+    long overBudgetFrames() {
+        return overBudgetFrames;
+    }
+
+    long meanWorkNanos() {
+        final long n = frames;
+        return n == 0 ? 0 : totalWorkNanos / n;
+    }
+
+    long maxWorkNanos() {
+        return maxWorkNanos;
+    }
+
+    /** Time from the first request to the start of the frame serving it. */
+    long meanLatencyNanos() {
+        final long n = frames;
+        return n == 0 ? 0 : totalLatencyNanos / n;
+    }
+
+    long maxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    String summary() {
+        return "frames=" + frames() +
+            " skipped=" + skippedFrames() +
+            " over budget=" + overBudgetFrames() +
+            " work mean/max=" + meanWorkNanos() / 1000 + "/" + maxWorkNanos() / 1000 + "us" +
+            " latency mean/max=" + meanLatencyNanos() / 1000 + "/" + maxLatencyNanos() / 1000 + "us";
+    }
+
+    private interface Ticker {
+        void post(long periodNanos);
+
+        void cancel();
+    }
+
+    // Kept in its own class so Choreographer is never loaded before API 16.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class VsyncTicker implements Ticker, Choreographer.FrameCallback {
+        private final UiScheduler scheduler;
+        private final Choreographer choreographer = Choreographer.getInstance();
+
+        VsyncTicker(UiScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void post(long periodNanos) {
+            choreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void cancel() {
+            choreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            scheduler.onFrame(frameTimeNanos);
+        }
+    }
+
+    // Pre-Jelly Bean: no vsync signal, so space frames at least one period
+    // apart on the uptime clock.
+    private static final class HandlerTicker implements Ticker, Runnable {
+        private final UiScheduler scheduler;
+        private final Handler handler;
+        private long lastFrameMillis = 0;
+
+        HandlerTicker(UiScheduler scheduler, Handler handler) {
+            this.scheduler = scheduler;
+            this.handler = handler;
+        }
+
+        @Override
+        public void post(long periodNanos) {
+            final long now = SystemClock.uptimeMillis();
+            final long next = lastFrameMillis + Math.max(1, periodNanos / 1000000);
+            handler.postAtTime(this, Math.max(now, next));
+        }
+
+        @Override
+        public void cancel() {
+            handler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            lastFrameMillis = SystemClock.uptimeMillis();
+            scheduler.onFrame(System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.choosemuse.example.libmuse;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Scrolling waveform of the EEG channels, one lane per channel, drawn from
+ * a MinMaxPyramid as one vertical min/max line per pixel column. Drawing
+ * costs the same for a ten second and a ten minute window. Each lane is
+ * scaled to the range of its visible data.
+ */
+public class WaveformView extends View {
+    private static final int[] COLORS = {Color.GREEN, Color.CYAN, Color.YELLOW, Color.MAGENTA};
+
+    private final Paint paint = new Paint();
+    private MinMaxPyramid pyramid;
+    private int windowSamples = 10 * 256;
+
+    // Sized to the view width in onSizeChanged; drawing does not allocate.
+    private float[] min = new float[0];
+    private float[] max = new float[0];
+    private float[] lines = new float[0];
+
+    public WaveformView(Context context) {
+        super(context);
+        paint.setStrokeWidth(1.0f);
+    }
+
+    public WaveformView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        paint.setStrokeWidth(1.0f);
+    }
+
+    /** Sets the data to draw. UI thread only, like the setters below. */
+    public void setPyramid(MinMaxPyramid pyramid) {
+        this.pyramid = pyramid;
+        invalidate();
+    }
+
+    /** Sets how many of the most recent samples span the view width. */
+    public void setWindowSamples(int windowSamples) {
+        this.windowSamples = windowSamples;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        min = new float[w];
+        max = new float[w];
+        lines = new float[w * 4];
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        canvas.drawColor(Color.BLACK);
+        final MinMaxPyramid p = pyramid;
+        final int columns = min.length;
+        if (p == null || columns == 0) {
+            return;
+        }
+        final long to = p.samples();
+        final long from = to - windowSamples;
+        final int channels = p.channels();
+        final float laneHeight = (float) getHeight() / channels;
+
+        for (int c = 0; c < channels; ++c) {
+            p.render(c, from, to, columns, min, max);
+            float lo = Float.POSITIVE_INFINITY;
+            float hi = Float.NEGATIVE_INFINITY;
+            for (int x = 0; x < columns; ++x) {
+                // NaN compares false, so empty columns are skipped.
+                if (min[x] < lo) {
+                    lo = min[x];
+                }
+                if (max[x] > hi) {
+                    hi = max[x];
+                }
+            }
+            if (lo > hi) {
+                continue;
+            }
+            final float top = c * laneHeight;
+            final float scale = hi > lo ? (laneHeight - 2) / (hi - lo) : 0;
+            int n = 0;
+            for (int x = 0; x < columns; ++x) {
+                if (min[x] != min[x]) {
+                    continue;
+                }
+                final float yMax = top + 1 + (hi - max[x]) * scale;
+                final float yMin = top + 1 + (hi - min[x]) * scale;
+                lines[n++] = x;
+                lines[n++] = yMax;
+                lines[n++] = x;
+                // Keep flat columns visible.
+                lines[n++] = Math.max(yMin, yMax + 1);
+            }
+            paint.setColor(COLORS[c % COLORS.length]);
+            canvas.drawLines(lines, 0, n, paint);
+        }
+    }
+}
@@ -1,8 +0,0 @@
-package com.choosemuse.example.libmuse;
-
-/**
- * Created by tickelbottom on 4/23/2016.
- */
-public class brainPacket {
-//    int
-}
@@ -0,0 +1,132 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StreamAligner over one second of headband data per invocation: 256 Hz EEG,
+ * 52 Hz accelerometer and 10 Hz relative alpha, each delivered in order but
+ * with its own random delay, interleaved by arrival. The time per operation
+ * is the CPU one second of data costs. The frames put out, and those with a
+ * stale stream, are reported as auxiliary counters; StreamAlignerTest
+ * checks the latency the stage adds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AlignerBenchmark {
+    private static final long SECOND = 1000000;
+
+    @Param({"hold", "nearest", "linear"})
+    public String interpolation;
+
+    private StreamAligner aligner;
+    private brainPacket[] second;
+    private final brainPacket sample = new brainPacket();
+    private long offset = 0;
+    private double sum = 0;
+
+    @Setup
+    public void setup() {
+        final int mode = interpolation.equals("hold") ? StreamAligner.HOLD :
+            interpolation.equals("nearest") ? StreamAligner.NEAREST : StreamAligner.LINEAR;
+        aligner = new StreamAligner(256, mode, 200000, 500000, new StreamAligner.FrameListener() {
+            @Override
+            public void onFrame(long timestamp, double[] values, int staleMask) {
+                sum += values[0];
+            }
+        });
+        aligner.addStream(brainPacket.TYPE_EEG, 4, 256);
+        aligner.addStream(brainPacket.TYPE_ACCELEROMETER, 3, 64);
+        aligner.addStream(brainPacket.TYPE_ALPHA_RELATIVE, 4, 16);
+
+        final Random random = new Random(42);
+        final List<long[]> arrivals = new ArrayList<>();
+        addStream(arrivals, random, brainPacket.TYPE_EEG, 256, 30000);
+        addStream(arrivals, random, brainPacket.TYPE_ACCELEROMETER, 52, 30000);
+        addStream(arrivals, random, brainPacket.TYPE_ALPHA_RELATIVE, 10, 100000);
+        Collections.sort(arrivals, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[0] < b[0] ? -1 : a[0] > b[0] ? 1 : 0;
+            }
+        });
+        second = new brainPacket[arrivals.size()];
+        for (int i = 0; i < second.length; ++i) {
+            final long[] a = arrivals.get(i);
+            final SyntheticPacket p =
+                a[2] == brainPacket.TYPE_EEG ? SyntheticPacket.eeg(random, a[1]) :
+                a[2] == brainPacket.TYPE_ACCELEROMETER ? SyntheticPacket.accelerometer(random) :
+                SyntheticPacket.alphaRelative(random);
+            p.setTimestamp(a[1]);
+            second[i] = SyntheticPacket.record(p);
+        }
+    }
+
+    // Arrival time, timestamp and type of one second of a stream. The delay
+    // never lets a packet overtake the one before it.
+    private static void addStream(List<long[]> out, Random random, int type, int rate, long maxDelay) {
+        long previous = 0;
+        for (int i = 0; i < rate; ++i) {
+            final long timestamp = i * SECOND / rate;
+            previous = Math.max(previous, timestamp + (long) (random.nextDouble() * maxDelay));
+            out.add(new long[] {previous, timestamp, type});
+        }
+    }
+
+    /**
+     * Frames the aligner put out, and how many of them had a stale stream,
+     * per iteration; divided by ops/s they are frames per second of data.
+     */
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class Frames {
+        public long frames;
+        public long staleFrames;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            frames = 0;
+            staleFrames = 0;
+        }
+    }
+
+    @Benchmark
+    public double oneSecond(Frames counters) {
+        final long frames = aligner.frames();
+        final long stale = aligner.staleFrames();
+        // Every second of data goes out with later timestamps; packets
+        // delayed past the end of a second arrive early in the next one,
+        // which the aligner sees as slightly early, not out of order.
+        for (brainPacket s : second) {
+            sample.copyFrom(s);
+            sample.timestamp += offset;
+            aligner.accept(sample);
+        }
+        offset += SECOND;
+        counters.frames += aligner.frames() - frames;
+        counters.staleFrames += aligner.staleFrames() - stale;
+        return sum;
+    }
+}
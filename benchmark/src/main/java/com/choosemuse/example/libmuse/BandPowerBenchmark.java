@@ -0,0 +1,54 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Band power extraction over one second of 256 Hz EEG per invocation, so the
+ * reported time per operation is the cost of one sample and 256x that is the
+ * share of a second one headband costs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BandPowerBenchmark {
+    private static final int RATE = 256;
+
+    @Param({"64", "256"})
+    public int hop;
+
+    private BandPowerEngine engine;
+    private brainPacket[] second;
+
+    @Setup
+    public void setup() {
+        engine = new BandPowerEngine(5, RATE, 256, hop, 4);
+        // 10 Hz alpha on top of noise
+        second = SyntheticPacket.eegSecond(new Random(42), RATE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RATE)
+    public long oneSecond() {
+        for (int i = 0; i < RATE; ++i) {
+            engine.accept(second[i]);
+        }
+        return engine.windowCount();
+    }
+}
@@ -0,0 +1,94 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one window of the brain state stage: the features, the model on
+ * its own, and both. Each features() and window() invocation feeds one hop
+ * of 64 samples, which completes exactly one window, so the time per
+ * operation is the time per window (budget: 1 ms).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BrainStateBenchmark {
+    private static final int RATE = 256;
+    private static final int HOP = 64;
+
+    private final Random random = new Random(42);
+    private final FeatureExtractor extractor = new FeatureExtractor();
+    private final BrainStateClassifier classifier = new BrainStateClassifier();
+    private final LinearModel model = BrainStateClassifier.defaultModel(extractor);
+    private final double[] probabilities = new double[3];
+    private brainPacket[] hops;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        // Ten seconds, cycled; alpha-heavy and beta-heavy halves.
+        hops = new brainPacket[10 * RATE];
+        for (int i = 0; i < hops.length; ++i) {
+            hops[i] = sample(i, random);
+        }
+        for (int i = 0; i < RATE; ++i) {
+            extractor.accept(hops[i]);
+            classifier.accept(hops[i]);
+        }
+        next = RATE;
+    }
+
+    @Benchmark
+    public double[] features() {
+        for (int i = 0; i < HOP; ++i) {
+            extractor.accept(hops[next++]);
+        }
+        if (next == hops.length) {
+            next = 0;
+        }
+        return extractor.features();
+    }
+
+    @Benchmark
+    public int inference() {
+        return model.classify(extractor.features(), probabilities);
+    }
+
+    @Benchmark
+    public int window() {
+        for (int i = 0; i < HOP; ++i) {
+            classifier.accept(hops[next++]);
+        }
+        if (next == hops.length) {
+            next = 0;
+        }
+        return classifier.label();
+    }
+
+    private static brainPacket sample(int i, Random random) {
+        final brainPacket s = new brainPacket();
+        s.set(1000000L + i * 1000000L / RATE, brainPacket.TYPE_EEG, 6);
+        final double t = (double) i / RATE;
+        final boolean relaxed = (i / (5 * RATE)) % 2 == 0;
+        for (int c = 0; c < s.size; ++c) {
+            s.values[c] = 800.0 + random.nextGaussian() * 5.0 +
+                (relaxed ? 20.0 * Math.sin(2 * Math.PI * 10.0 * t + c) :
+                           10.0 * Math.sin(2 * Math.PI * 20.0 * t + c));
+        }
+        return s;
+    }
+}
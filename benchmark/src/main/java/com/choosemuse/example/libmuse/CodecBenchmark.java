@@ -0,0 +1,207 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * BlockCodec against the raw layout and against gzip (Deflater) on the same
+ * block of EEG. One operation is one block of BLOCK samples. The encoders
+ * count the raw bytes they take in and the bytes they put out as auxiliary
+ * counters, so in/out is the compression ratio and in is the raw MB/s.
+ *
+ * The data is synthetic by default:
+ *   quantized  ADC counts times the headband's scale, like real recordings
+ *   float      the same signal without quantization, the codec's worst case
+ * or the first EEG samples of a recording made with BinarySessionWriter,
+ * given with -p session=/path/to/file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    private static final int BLOCK = CompressedSessionWriter.DEFAULT_BLOCK_SIZE;
+    private static final int WIDTH = 6;
+    private static final double EEG_SCALE = 1682.815 / 1023.0;
+
+    @Param({"quantized", "float"})
+    public String data;
+
+    @Param({""})
+    public String session;
+
+    private final long[] timestamps = new long[BLOCK];
+    private final double[][] values = new double[brainPacket.MAX_VALUES][BLOCK];
+    private final long[] decodedTimestamps = new long[BLOCK];
+    private final double[][] decodedValues = new double[brainPacket.MAX_VALUES][BLOCK];
+    private final BlockCodec codec = new BlockCodec(BLOCK);
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final Inflater inflater = new Inflater();
+
+    private ByteBuffer raw;
+    private byte[] rawBytes;
+    private byte[] encoded;
+    private int encodedLength;
+    private byte[] deflated;
+    private int deflatedLength;
+    private byte[] scratch;
+
+    @Setup
+    public void setup() throws IOException {
+        if (session.isEmpty()) {
+            synthesize();
+        } else {
+            load(new File(session));
+        }
+        raw = ByteBuffer.allocate(BLOCK * (8 + WIDTH * 8));
+        rawBytes = raw.array();
+        rawEncode(new Bytes());
+
+        final byte[] e = codec.encode(WIDTH, BLOCK, timestamps, values);
+        encodedLength = codec.encodedLength();
+        encoded = new byte[encodedLength];
+        System.arraycopy(e, 0, encoded, 0, encodedLength);
+
+        scratch = new byte[rawBytes.length * 2 + 64];
+        deflatedLength = deflate();
+        deflated = new byte[deflatedLength];
+        System.arraycopy(scratch, 0, deflated, 0, deflatedLength);
+    }
+
+    @TearDown
+    public void tearDown() {
+        deflater.end();
+        inflater.end();
+    }
+
+    private void synthesize() {
+        final Random random = new Random(42);
+        long ts = 0;
+        for (int i = 0; i < BLOCK; ++i) {
+            ts += 3906 + random.nextInt(5) - 2;
+            timestamps[i] = ts;
+            for (int c = 0; c < WIDTH; ++c) {
+                final double counts = 512 + 100 * Math.sin(i * 0.05 + c) + random.nextGaussian() * 20;
+                values[c][i] = "float".equals(data) ? counts * EEG_SCALE : Math.rint(counts) * EEG_SCALE;
+            }
+        }
+    }
+
+    private void load(File file) throws IOException {
+        final BinarySessionReader reader = new BinarySessionReader(file);
+        try {
+            final brainPacket s = new brainPacket();
+            int n = 0;
+            while (n < BLOCK && reader.next(s)) {
+                if (s.type == brainPacket.TYPE_EEG) {
+                    timestamps[n] = s.timestamp;
+                    for (int c = 0; c < WIDTH; ++c) {
+                        values[c][n] = c < s.size ? s.values[c] : 0;
+                    }
+                    ++n;
+                }
+            }
+            if (n < BLOCK) {
+                throw new IOException(file + " has fewer than " + BLOCK + " EEG samples");
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** Bytes into and out of the encoders over one iteration. */
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long in;
+        public long out;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            in = 0;
+            out = 0;
+        }
+    }
+
+    /** The BinarySessionWriter layout without record headers. */
+    @Benchmark
+    public int rawEncode(Bytes bytes) {
+        raw.clear();
+        for (int i = 0; i < BLOCK; ++i) {
+            raw.putLong(timestamps[i]);
+            for (int c = 0; c < WIDTH; ++c) {
+                raw.putDouble(values[c][i]);
+            }
+        }
+        bytes.in += rawBytes.length;
+        bytes.out += raw.position();
+        return raw.position();
+    }
+
+    @Benchmark
+    public int codecEncode(Bytes bytes) {
+        codec.encode(WIDTH, BLOCK, timestamps, values);
+        bytes.in += rawBytes.length;
+        bytes.out += codec.encodedLength();
+        return codec.encodedLength();
+    }
+
+    @Benchmark
+    public double codecDecode() {
+        codec.decode(encoded, 0, encodedLength, WIDTH, BLOCK, decodedTimestamps, decodedValues);
+        return decodedValues[0][BLOCK - 1];
+    }
+
+    @Benchmark
+    public int gzipEncode(Bytes bytes) {
+        final int n = deflate();
+        bytes.in += rawBytes.length;
+        bytes.out += n;
+        return n;
+    }
+
+    @Benchmark
+    public int gzipDecode() throws DataFormatException {
+        inflater.reset();
+        inflater.setInput(deflated, 0, deflatedLength);
+        int n = 0;
+        while (!inflater.finished()) {
+            n += inflater.inflate(scratch, n, scratch.length - n);
+        }
+        return n;
+    }
+
+    private int deflate() {
+        deflater.reset();
+        deflater.setInput(rawBytes);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished()) {
+            n += deflater.deflate(scratch, n, scratch.length - n);
+        }
+        return n;
+    }
+}
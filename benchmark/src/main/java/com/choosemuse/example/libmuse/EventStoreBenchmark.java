@@ -0,0 +1,63 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Range queries on the event index of sessions of different lengths, with
+ * an event every two seconds on average; the cost should grow with the
+ * number of events found, not with the session.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EventStoreBenchmark {
+    @Param({"1", "10"})
+    public int hours;
+
+    private final Random random = new Random(42);
+    private EventStore events;
+    private long length;
+
+    @Setup
+    public void setup() {
+        events = new EventStore();
+        length = hours * 3600L * 1000000L;
+        long t = 0;
+        while (t < length) {
+            t += random.nextInt(4000000);
+            // Markers, short episodes and the odd long stretch.
+            final int r = random.nextInt(100);
+            final long duration = r < 60 ? 0 : r < 99 ? random.nextInt(2000000) : random.nextInt(600000000);
+            events.add(random.nextInt(5), t, t + duration, "event");
+        }
+    }
+
+    /** The events in a random ten second stretch. */
+    @Benchmark
+    public List<EventStore.Event> overlapping() {
+        final long from = (long) (random.nextDouble() * length);
+        return events.overlapping(from, from + 10000000);
+    }
+
+    @Benchmark
+    public EventStore.Event next() {
+        return events.next((long) (random.nextDouble() * length), EventStore.USER);
+    }
+}
@@ -0,0 +1,104 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Number formatting done by updateAccel and updateAlpha on every UI tick:
+ * the original String.format calls against FixedPointText. With -prof gc,
+ * gc.alloc.rate.norm for the fixedPoint* and frame* benchmarks should be 0.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+    private static final int VALUES = 1024;
+
+    private final double[] values = new double[VALUES];
+    private int next;
+    private final char[] buffer = new char[32];
+    // One UI frame: three accelerometer and four alpha fields.
+    private final FixedPointText[] fields = new FixedPointText[7];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int i = 0; i < VALUES; ++i) {
+            values[i] = random.nextGaussian() * 10.0;
+        }
+        for (int i = 0; i < fields.length; ++i) {
+            fields[i] = new FixedPointText(6, 2);
+        }
+    }
+
+    private double nextValue() {
+        next = (next + 1) & (VALUES - 1);
+        return values[next];
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        return String.format("%6.2f", nextValue());
+    }
+
+    /** One accelerometer update: three fields. */
+    @Benchmark
+    public void updateAccel(Blackhole bh) {
+        bh.consume(String.format("%6.2f", nextValue()));
+        bh.consume(String.format("%6.2f", nextValue()));
+        bh.consume(String.format("%6.2f", nextValue()));
+    }
+
+    /** One alpha update: four fields. */
+    @Benchmark
+    public void updateAlpha(Blackhole bh) {
+        bh.consume(String.format("%6.2f", nextValue()));
+        bh.consume(String.format("%6.2f", nextValue()));
+        bh.consume(String.format("%6.2f", nextValue()));
+        bh.consume(String.format("%6.2f", nextValue()));
+    }
+
+    @Benchmark
+    public int fixedPoint() {
+        return FixedPointText.format(nextValue(), 6, 2, buffer, 0);
+    }
+
+    /** A frame where every field changed and is re-rendered. */
+    @Benchmark
+    public int frameChanged() {
+        int rendered = 0;
+        for (int i = 0; i < fields.length; ++i) {
+            if (fields[i].update(nextValue())) {
+                ++rendered;
+            }
+        }
+        return rendered;
+    }
+
+    /** A frame where nothing changed at the shown precision. */
+    @Benchmark
+    public int frameUnchanged() {
+        int rendered = 0;
+        for (int i = 0; i < fields.length; ++i) {
+            if (fields[i].update(values[i])) {
+                ++rendered;
+            }
+        }
+        return rendered;
+    }
+}
@@ -0,0 +1,163 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handing samples from the libmuse callback thread to a consumer. The
+ * "post" variants stand in for Handler.post: a Runnable and a queue node are
+ * allocated per packet and the queue is lock-protected, like Looper's
+ * MessageQueue. The "ring" variants go through SampleRing's preallocated
+ * slots instead.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class HandoffBenchmark {
+    static final int BATCH = 64;
+    static final int CAPACITY = 4096;
+
+    /** Sink that keeps the consumed values reachable so nothing is elided. */
+    static final class Consumer implements SampleSink {
+        double last;
+
+        @Override
+        public void accept(brainPacket s) {
+            last = s.values[0];
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Single {
+        final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+        final SampleRing ring = new SampleRing(CAPACITY);
+        final Consumer consumer = new Consumer();
+        SyntheticPacket packet;
+        long timestamp;
+
+        @Setup
+        public void setup() {
+            packet = SyntheticPacket.eeg(new Random(42));
+        }
+    }
+
+    /** Posts a batch then runs it on the same thread: pure per-sample cost. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double post(final Single st) {
+        for (int i = 0; i < BATCH; ++i) {
+            st.packet.setTimestamp(++st.timestamp);
+            final brainPacket s = new brainPacket();
+            MusePackets.copy(s, st.packet);
+            st.queue.offer(new Runnable() {
+                @Override
+                public void run() {
+                    st.consumer.accept(s);
+                }
+            });
+        }
+        Runnable r;
+        while ((r = st.queue.poll()) != null) {
+            r.run();
+        }
+        return st.consumer.last;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public double ring(Single st) {
+        for (int i = 0; i < BATCH; ++i) {
+            st.packet.setTimestamp(++st.timestamp);
+            brainPacket slot = st.ring.claim();
+            if (slot != null) {
+                MusePackets.copy(slot, st.packet);
+                st.ring.publish();
+            }
+        }
+        st.ring.drainAll(st.consumer);
+        return st.consumer.last;
+    }
+
+    @State(Scope.Group)
+    public static class Shared {
+        final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>(CAPACITY);
+        final SampleRing ring = new SampleRing(CAPACITY);
+        final Consumer consumer = new Consumer();
+        SyntheticPacket packet;
+        long timestamp;
+
+        @Setup
+        public void setup() {
+            packet = SyntheticPacket.eeg(new Random(42));
+        }
+    }
+
+    // Cross-thread variants: one producer and one consumer thread running
+    // concurrently. A full queue or ring drops the sample, so compare the
+    // producer rate together with ring.dropCount()/failed offers.
+
+    @Benchmark
+    @Group("postThreaded")
+    @GroupThreads(1)
+    public boolean postProducer(final Shared st) {
+        st.packet.setTimestamp(++st.timestamp);
+        final brainPacket s = new brainPacket();
+        MusePackets.copy(s, st.packet);
+        return st.queue.offer(new Runnable() {
+            @Override
+            public void run() {
+                st.consumer.accept(s);
+            }
+        });
+    }
+
+    @Benchmark
+    @Group("postThreaded")
+    @GroupThreads(1)
+    public double postConsumer(Shared st) {
+        Runnable r;
+        while ((r = st.queue.poll()) != null) {
+            r.run();
+        }
+        return st.consumer.last;
+    }
+
+    @Benchmark
+    @Group("ringThreaded")
+    @GroupThreads(1)
+    public boolean ringProducer(Shared st) {
+        st.packet.setTimestamp(++st.timestamp);
+        brainPacket slot = st.ring.claim();
+        if (slot == null) {
+            return false;
+        }
+        MusePackets.copy(slot, st.packet);
+        st.ring.publish();
+        return true;
+    }
+
+    @Benchmark
+    @Group("ringThreaded")
+    @GroupThreads(1)
+    public int ringConsumer(Shared st) {
+        return st.ring.drainAll(st.consumer);
+    }
+}
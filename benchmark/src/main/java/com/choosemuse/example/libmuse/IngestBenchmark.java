@@ -0,0 +1,74 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one libmuse packet into a brainPacket, the first thing the
+ * data listener does for every sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class IngestBenchmark {
+    private SyntheticPacket eeg;
+    private SyntheticPacket accel;
+    private final brainPacket sample = new brainPacket();
+    private final double[] buffer = new double[6];
+    private long timestamp;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        eeg = SyntheticPacket.eeg(random);
+        accel = SyntheticPacket.accelerometer(random);
+    }
+
+    /** The typed getters, as used by MusePackets.getEegChannelValues. */
+    @Benchmark
+    public double[] eegChannelValues() {
+        MusePackets.getEegChannelValues(buffer, eeg);
+        return buffer;
+    }
+
+    /** The boxed values() list the original listener iterated over. */
+    @Benchmark
+    public double eegBoxedValues() {
+        ArrayList<Double> values = eeg.values();
+        double sum = 0;
+        for (int i = 0; i < values.size(); ++i) {
+            sum += values.get(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void copyEeg(Blackhole bh) {
+        eeg.setTimestamp(++timestamp);
+        MusePackets.copy(sample, eeg);
+        bh.consume(sample);
+    }
+
+    @Benchmark
+    public void copyAccelerometer(Blackhole bh) {
+        accel.setTimestamp(++timestamp);
+        MusePackets.copy(sample, accel);
+        bh.consume(sample);
+    }
+}
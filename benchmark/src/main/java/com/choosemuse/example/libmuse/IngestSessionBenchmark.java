@@ -0,0 +1,129 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-sample work IngestService's session does on the libmuse callback
+ * thread: statistics, band powers, detector, waveform and the copies into
+ * the record ring and one UI client's ring, with the session's own file
+ * thread recording into a writer that discards. One invocation is a second
+ * of 256 Hz EEG; the UI ring is drained once per invocation, like a UI
+ * that keeps up. Samples either ring had to drop are reported as auxiliary
+ * counters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class IngestSessionBenchmark {
+    private static final int RATE = 256;
+
+    private IngestSession session;
+    private final SampleRing uiRing = new SampleRing(1024);
+    private brainPacket[] second;
+    private long timestamp = 0;
+    private long notified = 0;
+
+    private final SampleSink ui = new SampleSink() {
+        @Override
+        public void accept(brainPacket s) {
+        }
+    };
+
+    @Setup
+    public void setup() {
+        session = new IngestSession();
+        session.startRecording(new Callable<SessionWriter>() {
+            @Override
+            public SessionWriter call() {
+                return new SessionWriter() {
+                    @Override
+                    public void write(brainPacket s) {
+                    }
+
+                    @Override
+                    public void annotate(long timestamp, String text) {
+                    }
+
+                    @Override
+                    public void flush() {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        });
+        session.attach(uiRing, new IngestSession.Client() {
+            @Override
+            public void onSamplesAvailable() {
+                ++notified;
+            }
+
+            @Override
+            public void onConnectionState(int previous, int current) {
+            }
+        });
+        second = SyntheticPacket.eegSecond(new Random(42), RATE);
+    }
+
+    /**
+     * Samples the file thread and the UI did not keep up with, per
+     * iteration. Both should stay at zero.
+     */
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class Drops {
+        public long recordDrops;
+        public long uiDrops;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            recordDrops = 0;
+            uiDrops = 0;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RATE)
+    public long oneSecond(Drops drops) {
+        final long recordDrops = session.recordRing().dropCount();
+        final long uiDrops = uiRing.dropCount();
+        for (int i = 0; i < RATE; ++i) {
+            final brainPacket s = second[i];
+            timestamp += 3906;
+            s.timestamp = timestamp;
+            s.receivedNanos = System.nanoTime();
+            session.onSample(s);
+        }
+        uiRing.drainAll(ui);
+        drops.recordDrops += session.recordRing().dropCount() - recordDrops;
+        drops.uiDrops += uiRing.dropCount() - uiDrops;
+        return notified;
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        session.close();
+    }
+}
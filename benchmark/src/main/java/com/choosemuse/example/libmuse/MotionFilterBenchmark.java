@@ -0,0 +1,150 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the motion filter per EEG sample, with the accelerometer packets
+ * of the same second interleaved as they arrive from the headband, with
+ * the synthetic motion artifacts MotionFilterTest checks the filter on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MotionFilterBenchmark {
+    private static final int EEG_RATE = 256;
+    private static final int ACCEL_RATE = 52;
+    private static final int CHANNELS = 4;
+    // Injected artifact, microvolts per g for each channel and axis, for
+    // the acceleration and for it 40 ms earlier.
+    private static final double[][] GAIN = {
+        { 60, -20, 10 }, { -40, 30, 0 }, { 10, 50, -30 }, { 0, -10, 70 } };
+    private static final double[][] DELAYED_GAIN = {
+        { -20, 0, 10 }, { 10, -10, 0 }, { 0, 20, 0 }, { 15, 0, -25 } };
+    private static final double DELAY = 0.040;
+
+    private final Sink sink = new Sink();
+    private final MotionFilter filter = new MotionFilter(sink);
+    // One second of packets in arrival order, replayed with growing
+    // timestamps.
+    private brainPacket[] second;
+    private long[] offsets;
+    private long base = 0;
+
+    // Keeps the last cleaned value so the work is not optimized away.
+    private static final class Sink implements SampleSink {
+        double last;
+
+        @Override
+        public void accept(brainPacket s) {
+            last = s.values[0];
+        }
+    }
+
+    // Synthetic session: head movement as bursts of slow sway and nods,
+    // and EEG as an alpha rhythm over noise, both functions of time.
+    private static final class Synthetic {
+        final Random random;
+        final double[] noise = new double[CHANNELS];
+        final boolean moving;
+
+        Synthetic(long seed, boolean moving) {
+            this.random = new Random(seed);
+            this.moving = moving;
+        }
+
+        // Head acceleration in g, gravity excluded.
+        double motion(int axis, double t) {
+            if (!moving) {
+                return 0.0;
+            }
+            // Movement comes and goes every few seconds.
+            final double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * 0.13 * t + axis);
+            return envelope * (0.15 * Math.sin(2 * Math.PI * 0.7 * t + 1.3 * axis) +
+                0.08 * Math.sin(2 * Math.PI * 2.3 * t + 0.4 * axis) +
+                0.04 * Math.sin(2 * Math.PI * 5.1 * t + 2.0 * axis));
+        }
+
+        // What the accelerometer reads: gravity, movement and sensor noise.
+        double accel(int axis, double t) {
+            return (axis == 2 ? 1.0 : 0.0) + motion(axis, t) + random.nextGaussian() * 0.002;
+        }
+
+        double artifact(int channel, double t) {
+            double a = 0.0;
+            for (int axis = 0; axis < 3; ++axis) {
+                a += GAIN[channel][axis] * motion(axis, t) + DELAYED_GAIN[channel][axis] * motion(axis, t - DELAY);
+            }
+            return a;
+        }
+
+        // Fills clean with the EEG without artifacts at t.
+        void eeg(double t, double[] clean) {
+            for (int c = 0; c < CHANNELS; ++c) {
+                noise[c] = 0.9 * noise[c] + random.nextGaussian() * 3.0;
+                clean[c] = 800.0 + 10.0 * Math.sin(2 * Math.PI * 10.0 * t + c) + noise[c];
+            }
+        }
+    }
+
+    @Setup
+    public void setup() {
+        final Synthetic synthetic = new Synthetic(42, true);
+        second = new brainPacket[EEG_RATE + ACCEL_RATE];
+        offsets = new long[second.length];
+        final double[] clean = new double[CHANNELS];
+        int e = 0;
+        int a = 0;
+        for (int i = 0; i < second.length; ++i) {
+            final brainPacket s = new brainPacket();
+            // Merge the two streams by time.
+            if (a < ACCEL_RATE && (long) a * EEG_RATE <= (long) e * ACCEL_RATE) {
+                offsets[i] = a * 1000000L / ACCEL_RATE;
+                s.set(offsets[i], brainPacket.TYPE_ACCELEROMETER, 3);
+                for (int axis = 0; axis < 3; ++axis) {
+                    s.values[axis] = synthetic.accel(axis, offsets[i] / 1e6);
+                }
+                ++a;
+            } else {
+                offsets[i] = e * 1000000L / EEG_RATE;
+                s.set(offsets[i], brainPacket.TYPE_EEG, 6);
+                synthetic.eeg(offsets[i] / 1e6, clean);
+                for (int c = 0; c < CHANNELS; ++c) {
+                    s.values[c] = clean[c] + synthetic.artifact(c, offsets[i] / 1e6);
+                }
+                ++e;
+            }
+            second[i] = s;
+        }
+        for (int i = 0; i < 10; ++i) {
+            second();
+        }
+    }
+
+    /** One EEG sample, and its share of the accelerometer packets. */
+    @Benchmark
+    @OperationsPerInvocation(EEG_RATE)
+    public double second() {
+        for (int i = 0; i < second.length; ++i) {
+            second[i].timestamp = base + offsets[i];
+            filter.accept(second[i]);
+        }
+        base += 1000000L;
+        return sink.last;
+    }
+}
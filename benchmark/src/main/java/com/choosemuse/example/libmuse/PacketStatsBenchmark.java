@@ -0,0 +1,68 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost PacketStats adds to every packet on the listener path, and of the
+ * snapshot behind the periodic log line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PacketStatsBenchmark {
+    private final PacketStats stats = new PacketStats();
+    private final LogHistogram histogram = new LogHistogram(60000000L);
+    private final brainPacket sample = new brainPacket();
+    private final Random random = new Random(42);
+    private long timestamp = 1000000;
+    private long received = 1;
+
+    @Setup
+    public void setup() {
+        // Fill the histograms so snapshots walk realistic buckets.
+        for (int i = 0; i < 100000; ++i) {
+            record();
+            histogram.record(random.nextInt(100000));
+        }
+    }
+
+    /** One EEG packet at 256 Hz with some arrival jitter. */
+    @Benchmark
+    public void record() {
+        timestamp += 3906;
+        received += 3906000 + random.nextInt(2000000);
+        sample.set(timestamp, brainPacket.TYPE_EEG, 6);
+        sample.receivedNanos = received;
+        stats.record(sample);
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        histogram.record(timestamp++ & 0xfffff);
+    }
+
+    @Benchmark
+    public long histogramPercentile() {
+        return histogram.percentile(99);
+    }
+
+    @Benchmark
+    public PacketStats.Snapshot snapshot() {
+        return stats.snapshot();
+    }
+}
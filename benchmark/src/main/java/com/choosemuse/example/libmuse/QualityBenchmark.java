@@ -0,0 +1,71 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the quality stage per EEG sample, and of queries over the masks
+ * of a ten hour session.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class QualityBenchmark {
+    private static final int SESSION_WINDOWS = 10 * 3600;
+
+    private final QualityMonitor monitor = new QualityMonitor();
+    private final QualityTimeline session = new QualityTimeline(1000000);
+    private final brainPacket sample = new brainPacket();
+    private final Random random = new Random(42);
+    private long timestamp = 1000000;
+
+    @Setup
+    public void setup() {
+        // Mostly clean, with a blink now and then and an occasional stretch
+        // of noise on one channel.
+        for (int i = 0; i < SESSION_WINDOWS; ++i) {
+            int mask = 0;
+            if (random.nextInt(10) == 0) {
+                mask |= QualityMonitor.BLINK;
+            }
+            if (random.nextInt(500) == 0) {
+                mask |= 1 << (QualityMonitor.NOISY + random.nextInt(4));
+            }
+            session.append(mask);
+        }
+    }
+
+    @Benchmark
+    public void accept() {
+        timestamp += 3906;
+        sample.set(timestamp, brainPacket.TYPE_EEG, 6);
+        for (int c = 0; c < 6; ++c) {
+            sample.values[c] = 800.0 + random.nextGaussian() * 20.0;
+        }
+        monitor.accept(sample);
+    }
+
+    @Benchmark
+    public int countUnusable() {
+        return session.count(0, SESSION_WINDOWS, QualityMonitor.UNUSABLE);
+    }
+
+    @Benchmark
+    public int nextOffHead() {
+        return session.nextWith(0, QualityMonitor.OFF_HEAD);
+    }
+}
@@ -0,0 +1,91 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File write path: one EEG sample through BatchRecorder into a
+ * BinarySessionWriter, and the same write without batching. Each iteration
+ * writes a fresh temporary file. The batches and flushes the recorder did
+ * are reported as auxiliary counters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RecorderBenchmark {
+    @Param({"1", "256"})
+    public int batchSize;
+
+    private File file;
+    private BinarySessionWriter writer;
+    private BatchRecorder recorder;
+    private final brainPacket sample = new brainPacket();
+    private long timestamp;
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        file = File.createTempFile("recorder", ".bin");
+        writer = new BinarySessionWriter(file);
+        recorder = new BatchRecorder(writer, batchSize, 250, 5000);
+        sample.copyFrom(SyntheticPacket.record(SyntheticPacket.eeg(new Random(42))));
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        recorder.close();
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /** What the recorder did over one iteration. */
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class Work {
+        public long batches;
+        public long flushes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            batches = 0;
+            flushes = 0;
+        }
+    }
+
+    @Benchmark
+    public void recorder(Work work) {
+        final long batches = recorder.batchesCommitted();
+        final long flushes = recorder.flushCount();
+        sample.timestamp = ++timestamp;
+        recorder.accept(sample);
+        recorder.poll(System.nanoTime());
+        work.batches += recorder.batchesCommitted() - batches;
+        work.flushes += recorder.flushCount() - flushes;
+    }
+
+    @Benchmark
+    public void writerOnly() throws IOException {
+        sample.timestamp = ++timestamp;
+        writer.write(sample);
+    }
+}
@@ -0,0 +1,74 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rollups: the cost of adding an EEG sample while recording, and of
+ * aggregating a random stretch of sessions of different lengths, which
+ * should not depend on the length of either.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RollupBenchmark {
+    private static final int RATE = 256;
+
+    @Param({"1", "10"})
+    public int hours;
+
+    private final Random random = new Random(42);
+    private final SessionRollups.Stats stats = new SessionRollups.Stats();
+    private SessionRollups recorded;
+    private SessionRollups live;
+    private brainPacket[] samples;
+    private long length;
+    private long next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        samples = SyntheticPacket.eegSecond(random, RATE);
+        length = hours * 3600L * 1000000L;
+        recorded = new SessionRollups();
+        for (long n = 0; n < hours * 3600L * RATE; ++n) {
+            add(recorded, n);
+        }
+        recorded.close();
+        live = new SessionRollups();
+    }
+
+    private void add(SessionRollups rollups, long n) throws IOException {
+        final brainPacket s = samples[(int) (n % RATE)];
+        s.timestamp = n * 1000000L / RATE;
+        rollups.write(s);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        add(live, next++);
+    }
+
+    /** One channel over a random stretch of up to an hour. */
+    @Benchmark
+    public double aggregate() {
+        final long from = (long) (random.nextDouble() * length);
+        recorded.aggregate(brainPacket.TYPE_EEG, 1, from, from + (long) (random.nextDouble() * 3.6e9), stats);
+        return stats.mean;
+    }
+}
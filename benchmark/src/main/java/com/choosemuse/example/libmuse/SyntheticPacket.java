@@ -0,0 +1,136 @@
+package com.choosemuse.example.libmuse;
+
+import com.choosemuse.libmuse.Accelerometer;
+import com.choosemuse.libmuse.Battery;
+import com.choosemuse.libmuse.DrlRef;
+import com.choosemuse.libmuse.Eeg;
+import com.choosemuse.libmuse.Gyro;
+import com.choosemuse.libmuse.MuseDataPacket;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * A MuseDataPacket backed by a plain array, standing in for the JNI packets
+ * libmuse hands to the data listener. Like the real packet, values() builds
+ * a fresh boxed list on every call.
+ */
+class SyntheticPacket extends MuseDataPacket {
+    private final MuseDataPacketType type;
+    private final double[] values;
+    private long timestamp;
+
+    SyntheticPacket(MuseDataPacketType type, int size) {
+        this.type = type;
+        this.values = new double[size];
+    }
+
+    /** Fills the packet with EEG-like values around 800 uV. */
+    static SyntheticPacket eeg(Random random) {
+        SyntheticPacket p = new SyntheticPacket(MuseDataPacketType.EEG, 6);
+        for (int i = 0; i < p.values.length; ++i) {
+            p.values[i] = 800.0 + random.nextGaussian() * 40.0;
+        }
+        return p;
+    }
+
+    /**
+     * EEG at timestamp (microseconds): a 20 uV, 10 Hz alpha rhythm over
+     * noise on every channel, with the same offset as eeg(random).
+     */
+    static SyntheticPacket eeg(Random random, long timestamp) {
+        SyntheticPacket p = new SyntheticPacket(MuseDataPacketType.EEG, 6);
+        p.timestamp = timestamp;
+        for (int i = 0; i < p.values.length; ++i) {
+            p.values[i] = 800.0 + 20.0 * Math.sin(2 * Math.PI * 10.0 * timestamp / 1e6) +
+                random.nextGaussian() * 10.0;
+        }
+        return p;
+    }
+
+    static SyntheticPacket accelerometer(Random random) {
+        SyntheticPacket p = new SyntheticPacket(MuseDataPacketType.ACCELEROMETER, 3);
+        for (int i = 0; i < p.values.length; ++i) {
+            p.values[i] = random.nextGaussian() * 0.1;
+        }
+        return p;
+    }
+
+    static SyntheticPacket alphaRelative(Random random) {
+        SyntheticPacket p = new SyntheticPacket(MuseDataPacketType.ALPHA_RELATIVE, 4);
+        for (int i = 0; i < p.values.length; ++i) {
+            p.values[i] = 0.3 + random.nextGaussian() * 0.05;
+        }
+        return p;
+    }
+
+    /** p as a record, converted the way the data listener converts packets. */
+    static brainPacket record(SyntheticPacket p) {
+        final brainPacket s = new brainPacket();
+        MusePackets.copy(s, p);
+        return s;
+    }
+
+    /** One second of EEG records at rate Hz, see eeg(random, timestamp). */
+    static brainPacket[] eegSecond(Random random, int rate) {
+        final brainPacket[] second = new brainPacket[rate];
+        for (int i = 0; i < rate; ++i) {
+            second[i] = record(eeg(random, i * 1000000L / rate));
+        }
+        return second;
+    }
+
+    void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public MuseDataPacketType packetType() {
+        return type;
+    }
+
+    @Override
+    public long timestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public ArrayList<Double> values() {
+        ArrayList<Double> list = new ArrayList<>(values.length);
+        for (double v : values) {
+            list.add(v);
+        }
+        return list;
+    }
+
+    @Override
+    public long valuesSize() {
+        return values.length;
+    }
+
+    @Override
+    public double getEegChannelValue(Eeg channel) {
+        return values[channel.ordinal()];
+    }
+
+    @Override
+    public double getBatteryValue(Battery value) {
+        return values[value.ordinal()];
+    }
+
+    @Override
+    public double getAccelerometerValue(Accelerometer axis) {
+        return values[axis.ordinal()];
+    }
+
+    @Override
+    public double getGyroValue(Gyro axis) {
+        return values[axis.ordinal()];
+    }
+
+    @Override
+    public double getDrlRefValue(DrlRef value) {
+        return values[value.ordinal()];
+    }
+}
@@ -0,0 +1,104 @@
+package com.choosemuse.example.libmuse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MinMaxPyramid: decimation cost per EEG sample, and the cost of reducing a
+ * ten minute window of four channels to one frame of min/max columns, next
+ * to a plain scan over the raw samples.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class WaveformBenchmark {
+    private static final int RATE = 256;
+    private static final int CHANNELS = 4;
+    private static final int WINDOW = 10 * 60 * RATE;
+
+    @Param({"540", "1080"})
+    public int columns;
+
+    private MinMaxPyramid pyramid;
+    private brainPacket[] second;
+    private float[][] raw;
+    private float[] min;
+    private float[] max;
+
+    @Setup
+    public void setup() {
+        pyramid = new MinMaxPyramid(CHANNELS, WINDOW);
+        second = SyntheticPacket.eegSecond(new Random(42), RATE);
+        raw = new float[CHANNELS][WINDOW];
+        for (int i = 0; i < WINDOW; ++i) {
+            brainPacket s = second[i % RATE];
+            pyramid.accept(s);
+            for (int c = 0; c < CHANNELS; ++c) {
+                raw[c][i] = (float) s.values[c];
+            }
+        }
+        min = new float[columns];
+        max = new float[columns];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RATE)
+    public long decimate() {
+        for (int i = 0; i < RATE; ++i) {
+            pyramid.accept(second[i]);
+        }
+        return pyramid.samples();
+    }
+
+    /** One frame: all channels over the last ten minutes. */
+    @Benchmark
+    public float renderFrame() {
+        final long to = pyramid.samples();
+        float sum = 0;
+        for (int c = 0; c < CHANNELS; ++c) {
+            pyramid.render(c, to - WINDOW, to, columns, min, max);
+            sum += max[columns - 1];
+        }
+        return sum;
+    }
+
+    /** The same frame computed by scanning every raw sample. */
+    @Benchmark
+    public float scanFrame() {
+        final double perColumn = (double) WINDOW / columns;
+        float sum = 0;
+        for (int c = 0; c < CHANNELS; ++c) {
+            final float[] v = raw[c];
+            for (int x = 0; x < columns; ++x) {
+                final int from = (int) (x * perColumn);
+                final int to = (int) ((x + 1) * perColumn);
+                float lo = v[from];
+                float hi = v[from];
+                for (int i = from + 1; i < to; ++i) {
+                    lo = Math.min(lo, v[i]);
+                    hi = Math.max(hi, v[i]);
+                }
+                min[x] = lo;
+                max[x] = hi;
+            }
+            sum += max[columns - 1];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,193 @@
+package com.choosemuse.example.libmuse;
+
+/**
+ * Streaming per-channel band power from raw EEG samples.
+ *
+ * Each channel keeps the last windowSize samples in a circular buffer.
+ * Every hop samples the window is detrended, Hann-tapered and transformed,
+ * the power spectrum is summed into the delta, theta, alpha, beta and gamma
+ * bands, and the result is averaged Welch-style with the previous
+ * segments - 1 windows. All buffers and the FFT tables are allocated in the
+ * constructor, so accept() produces no garbage. The taper is computed with
+ * StrictMath, as in FeatureExtractor, so a replay gives the same powers on
+ * any JVM.
+ *
+ * Not thread-safe: feed it from one thread. The arrays returned by
+ * absolute() and relative() are owned by the engine and overwritten on
+ * every window; listeners must copy what they keep.
+ */
+public class BandPowerEngine implements SampleSink {
+    public static final int DELTA = 0;
+    public static final int THETA = 1;
+    public static final int ALPHA = 2;
+    public static final int BETA = 3;
+    public static final int GAMMA = 4;
+    public static final int BAND_COUNT = 5;
+
+    // Band edges in Hz, [low, high).
+    private static final double[] BAND_LOW = { 1.0, 4.0, 7.5, 13.0, 30.0 };
+    private static final double[] BAND_HIGH = { 4.0, 7.5, 13.0, 30.0, 44.0 };
+
+    /** Called after every hop with the averaged band powers of all channels. */
+    public interface Listener {
+        void onBandPowers(long timestamp, double[][] absolute, double[][] relative);
+    }
+
+    private final int channels;
+    private final int windowSize;
+    private final int mask;
+    private final int hop;
+    private final int segments;
+    private final Fft fft;
+    private final double[] window;
+    private final int[] bandFirstBin = new int[BAND_COUNT];
+    private final int[] bandLastBin = new int[BAND_COUNT];
+
+    private final double[][] history;
+    private int writePos = 0;
+    private long filled = 0;
+    private int sinceLastWindow = 0;
+
+    private final double[] re;
+    private final double[] im;
+    // Band powers of the last `segments` windows, per channel, and their sum.
+    private final double[][][] segmentPowers;
+    private final double[][] segmentSum;
+    private int segmentPos = 0;
+    private int segmentCount = 0;
+
+    private final double[][] absolute;
+    private final double[][] relative;
+    private long windows = 0;
+    private Listener listener;
+
+    /**
+     * @param channels   number of EEG channels to analyse, from the first
+     * @param sampleRate EEG sample rate in Hz
+     * @param windowSize FFT length, a power of two
+     * @param hop        samples between windows; windowSize - hop is the overlap
+     * @param segments   number of windows averaged, 1 for none
+     */
+    public BandPowerEngine(int channels, double sampleRate, int windowSize, int hop, int segments) {
+        if (channels < 1 || channels > brainPacket.MAX_VALUES) {
+            throw new IllegalArgumentException("channels out of range: " + channels);
+        }
+        if (hop < 1 || hop > windowSize || segments < 1) {
+            throw new IllegalArgumentException("bad hop or segment count");
+        }
+        this.channels = channels;
+        this.windowSize = windowSize;
+        this.mask = windowSize - 1;
+        this.hop = hop;
+        this.segments = segments;
+        fft = new Fft(windowSize);
+        window = new double[windowSize];
+        for (int i = 0; i < windowSize; ++i) {
+            window[i] = 0.5 - 0.5 * StrictMath.cos(2 * Math.PI * i / (windowSize - 1));
+        }
+        final double binHz = sampleRate / windowSize;
+        for (int b = 0; b < BAND_COUNT; ++b) {
+            bandFirstBin[b] = Math.max(1, (int) Math.ceil(BAND_LOW[b] / binHz));
+            bandLastBin[b] = Math.min(windowSize / 2, (int) Math.ceil(BAND_HIGH[b] / binHz) - 1);
+        }
+        history = new double[channels][windowSize];
+        re = new double[windowSize];
+        im = new double[windowSize];
+        segmentPowers = new double[segments][channels][BAND_COUNT];
+        segmentSum = new double[channels][BAND_COUNT];
+        absolute = new double[channels][BAND_COUNT];
+        relative = new double[channels][BAND_COUNT];
+    }
+
+    /** 4 headband channels plus AUX at 256 Hz, 1 s windows every 1/4 s. */
+    public BandPowerEngine() {
+        this(5, 256.0, 256, 64, 4);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void accept(brainPacket s) {
+        if (s.type != brainPacket.TYPE_EEG) {
+            return;
+        }
+        final int n = Math.min(channels, s.size);
+        for (int c = 0; c < n; ++c) {
+            history[c][writePos] = s.values[c];
+        }
+        writePos = (writePos + 1) & mask;
+        ++filled;
+        if (++sinceLastWindow >= hop && filled >= windowSize) {
+            sinceLastWindow = 0;
+            computeWindow(s.timestamp);
+        }
+    }
+
+    private void computeWindow(long timestamp) {
+        final double[][] current = segmentPowers[segmentPos];
+        for (int c = 0; c < channels; ++c) {
+            final double[] h = history[c];
+            // Remove the DC offset so it does not leak into the delta band.
+            double mean = 0.0;
+            for (int i = 0; i < windowSize; ++i) {
+                mean += h[i];
+            }
+            mean /= windowSize;
+            // writePos is the oldest sample; unroll the circle while tapering.
+            for (int i = 0; i < windowSize; ++i) {
+                re[i] = (h[(writePos + i) & mask] - mean) * window[i];
+                im[i] = 0.0;
+            }
+            fft.transform(re, im);
+            final double[] bands = current[c];
+            final double[] sum = segmentSum[c];
+            for (int b = 0; b < BAND_COUNT; ++b) {
+                double p = 0.0;
+                for (int k = bandFirstBin[b]; k <= bandLastBin[b]; ++k) {
+                    p += re[k] * re[k] + im[k] * im[k];
+                }
+                // Replace the oldest segment in the running sum.
+                sum[b] += p - bands[b];
+                bands[b] = p;
+            }
+        }
+        segmentPos = (segmentPos + 1) % segments;
+        if (segmentCount < segments) {
+            ++segmentCount;
+        }
+        for (int c = 0; c < channels; ++c) {
+            double total = 0.0;
+            for (int b = 0; b < BAND_COUNT; ++b) {
+                absolute[c][b] = segmentSum[c][b] / segmentCount;
+                total += absolute[c][b];
+            }
+            for (int b = 0; b < BAND_COUNT; ++b) {
+                relative[c][b] = total > 0.0 ? absolute[c][b] / total : 0.0;
+            }
+        }
+        ++windows;
+        if (listener != null) {
+            listener.onBandPowers(timestamp, absolute, relative);
+        }
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    /** Averaged band power per channel and band, as of the last window. */
+    public double[][] absolute() {
+        return absolute;
+    }
+
+    /** absolute() divided by the channel's total power over all bands. */
+    public double[][] relative() {
+        return relative;
+    }
+
+    public long windowCount() {
+        return windows;
+    }
+}
@@ -0,0 +1,214 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.IOException;
+
+/**
+ * Recording stage between a SampleRing and a SessionWriter.
+ *
+ * Samples are copied into a preallocated batch and committed to the writer
+ * when the batch is full or when its oldest sample is older than the batch
+ * window. The writer is flushed to durable storage every flush interval, so
+ * a crash loses at most that much data. The owner calls poll() regularly
+ * (e.g. after every drain) so the time-based limits apply even when no new
+ * samples arrive.
+ *
+ * Not thread-safe: all calls are expected on the recording thread. Errors
+ * from the writer are kept in lastError() instead of being thrown from
+ * accept(), and the recorder stops writing after the first one. Samples
+ * accepted after close() are discarded.
+ */
+public class BatchRecorder implements SampleSink {
+    private final SessionWriter writer;
+    private final brainPacket[] batch;
+    private final long batchWindowNanos;
+    private final long flushIntervalNanos;
+
+    private int batchCount = 0;
+    private long batchStartNanos;
+    private long lastFlushNanos;
+    private IOException lastError = null;
+    private boolean closed = false;
+    private LogHistogram queueLatency = null;
+
+    // Statistics.
+    private final long startNanos;
+    private long samplesWritten = 0;
+    private long batchesCommitted = 0;
+    private long flushCount = 0;
+    private long lastFlushLatencyNanos = 0;
+    private long maxFlushLatencyNanos = 0;
+    private long totalFlushLatencyNanos = 0;
+
+    public BatchRecorder(SessionWriter writer, int batchSize,
+                         long batchWindowMillis, long flushIntervalMillis) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.writer = writer;
+        this.batch = new brainPacket[batchSize];
+        for (int i = 0; i < batchSize; ++i) {
+            batch[i] = new brainPacket();
+        }
+        this.batchWindowNanos = batchWindowMillis * 1000000L;
+        this.flushIntervalNanos = flushIntervalMillis * 1000000L;
+        this.startNanos = System.nanoTime();
+        this.lastFlushNanos = startNanos;
+    }
+
+    @Override
+    public void accept(brainPacket s) {
+        if (batchCount == 0) {
+            batchStartNanos = System.nanoTime();
+        }
+        batch[batchCount++].copyFrom(s);
+        if (batchCount == batch.length) {
+            commit();
+        }
+    }
+
+    /**
+     * Records, for every sample written, the microseconds from its
+     * receivedNanos to the write, e.g. into PacketStats.queueLatency().
+     */
+    public void setQueueLatency(LogHistogram histogram) {
+        this.queueLatency = histogram;
+    }
+
+    /** Applies the batch window and flush interval as of nowNanos. */
+    public void poll(long nowNanos) {
+        if (batchCount > 0 && nowNanos - batchStartNanos >= batchWindowNanos) {
+            commit();
+        }
+        if (nowNanos - lastFlushNanos >= flushIntervalNanos) {
+            flush();
+        }
+    }
+
+    /** Hands the current batch to the writer. */
+    public void commit() {
+        if (batchCount == 0) {
+            return;
+        }
+        if (lastError == null && !closed) {
+            try {
+                for (int i = 0; i < batchCount; ++i) {
+                    writer.write(batch[i]);
+                }
+                if (queueLatency != null) {
+                    recordQueueLatency();
+                }
+                samplesWritten += batchCount;
+                ++batchesCommitted;
+            } catch (IOException e) {
+                lastError = e;
+            }
+        }
+        batchCount = 0;
+    }
+
+    private void recordQueueLatency() {
+        final long now = System.nanoTime();
+        for (int i = 0; i < batchCount; ++i) {
+            if (batch[i].receivedNanos != 0) {
+                queueLatency.record((now - batch[i].receivedNanos) / 1000);
+            }
+        }
+    }
+
+    /** Commits the current batch and makes everything written durable. */
+    public void flush() {
+        commit();
+        final long t0 = System.nanoTime();
+        lastFlushNanos = t0;
+        if (lastError != null || closed) {
+            return;
+        }
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            lastError = e;
+            return;
+        }
+        final long latency = System.nanoTime() - t0;
+        ++flushCount;
+        lastFlushLatencyNanos = latency;
+        totalFlushLatencyNanos += latency;
+        if (latency > maxFlushLatencyNanos) {
+            maxFlushLatencyNanos = latency;
+        }
+    }
+
+    /** Commits pending samples and writes an annotation after them. */
+    public void annotate(long timestamp, String text) {
+        commit();
+        if (lastError == null && !closed) {
+            try {
+                writer.annotate(timestamp, text);
+            } catch (IOException e) {
+                lastError = e;
+            }
+        }
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        try {
+            writer.close();
+        } catch (IOException e) {
+            if (lastError == null) {
+                lastError = e;
+            }
+        }
+    }
+
+    public IOException lastError() {
+        return lastError;
+    }
+
+    public int pendingCount() {
+        return batchCount;
+    }
+
+    public long samplesWritten() {
+        return samplesWritten;
+    }
+
+    public long batchesCommitted() {
+        return batchesCommitted;
+    }
+
+    public long flushCount() {
+        return flushCount;
+    }
+
+    public long lastFlushLatencyNanos() {
+        return lastFlushLatencyNanos;
+    }
+
+    public long maxFlushLatencyNanos() {
+        return maxFlushLatencyNanos;
+    }
+
+    public long meanFlushLatencyNanos() {
+        return flushCount == 0 ? 0 : totalFlushLatencyNanos / flushCount;
+    }
+
+    /** Samples committed per second since the recorder was created. */
+    public double samplesPerSecond() {
+        final long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0.0 : samplesWritten * 1e9 / elapsed;
+    }
+
+    public String summary() {
+        return "written=" + samplesWritten +
+            " batches=" + batchesCommitted +
+            " rate=" + Math.round(samplesPerSecond()) + "/s" +
+            " flushes=" + flushCount +
+            " flush mean/max=" + meanFlushLatencyNanos() / 1000 + "/" +
+            maxFlushLatencyNanos / 1000 + "us";
+    }
+}
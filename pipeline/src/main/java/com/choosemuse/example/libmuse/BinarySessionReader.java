@@ -0,0 +1,64 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads back the samples of a file written by BinarySessionWriter.
+ * Annotations are skipped.
+ */
+public class BinarySessionReader implements SampleSource {
+    private final DataInputStream in;
+
+    public BinarySessionReader(File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        if (in.readInt() != BinarySessionWriter.MAGIC) {
+            in.close();
+            throw new IOException(file + " is not a binary session");
+        }
+    }
+
+    @Override
+    public boolean next(brainPacket into) throws IOException {
+        while (true) {
+            final int kind = in.read();
+            if (kind < 0) {
+                return false;
+            }
+            try {
+                if (kind == BinarySessionWriter.RECORD_SAMPLE) {
+                    final int type = in.readUnsignedByte();
+                    final int size = in.readUnsignedByte();
+                    into.set(in.readLong(), type, size);
+                    for (int i = 0; i < size; ++i) {
+                        final double v = in.readDouble();
+                        if (i < brainPacket.MAX_VALUES) {
+                            into.values[i] = v;
+                        }
+                    }
+                    return true;
+                } else if (kind == BinarySessionWriter.RECORD_ANNOTATION) {
+                    in.readLong();
+                    final int length = in.readInt();
+                    if (in.skipBytes(length) != length) {
+                        return false;
+                    }
+                } else {
+                    throw new IOException("unknown record " + kind);
+                }
+            } catch (EOFException e) {
+                // A record cut short by a crash ends the session.
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,98 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * File-backed SessionWriter with a trivial binary layout, used where
+ * MuseFileWriter is not available (plain JVM runs and benchmarks).
+ *
+ * The file starts with MAGIC and is followed by records:
+ *   sample:     RECORD_SAMPLE, type (byte), size (byte), timestamp (long),
+ *               size doubles
+ *   annotation: RECORD_ANNOTATION, timestamp (long), length (int),
+ *               UTF-8 bytes
+ * all big-endian.
+ */
+public class BinarySessionWriter implements SessionWriter {
+    public static final int MAGIC = 0x4d534231; // "MSB1"
+    public static final byte RECORD_SAMPLE = 1;
+    public static final byte RECORD_ANNOTATION = 2;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long bytesWritten = 0;
+
+    public BinarySessionWriter(File file) throws IOException {
+        out = new FileOutputStream(file);
+        channel = out.getChannel();
+        buffer.putInt(MAGIC);
+    }
+
+    @Override
+    public void write(brainPacket s) throws IOException {
+        ensure(2 + 8 + 8 * s.size + 1);
+        buffer.put(RECORD_SAMPLE);
+        buffer.put((byte) s.type);
+        buffer.put((byte) s.size);
+        buffer.putLong(s.timestamp);
+        for (int i = 0; i < s.size; ++i) {
+            buffer.putDouble(s.values[i]);
+        }
+    }
+
+    @Override
+    public void annotate(long timestamp, String text) throws IOException {
+        final byte[] bytes = text.getBytes(UTF8);
+        ensure(1 + 8 + 4 + bytes.length);
+        buffer.put(RECORD_ANNOTATION);
+        buffer.putLong(timestamp);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Bytes handed to the file so far, excluding what is still buffered. */
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+        if (buffer.remaining() < bytes) {
+            throw new IOException("record of " + bytes + " bytes exceeds buffer");
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,430 @@
+package com.choosemuse.example.libmuse;
+
+/**
+ * Lossless codec for a block of samples of one packet type: timestamps and
+ * up to brainPacket.MAX_VALUES channels of doubles. Every block is coded on
+ * its own, so any block can be decoded without the ones before it.
+ *
+ * Timestamps are coded as the first timestamp and delta, then Rice-coded
+ * zigzag delta-of-deltas, which is a few bits per sample at a steady rate.
+ *
+ * Each channel picks one of two modes:
+ *
+ *   scaled   Headband values are ADC counts times a fixed scale. If nearly
+ *            all values of the block are exactly count * scale for one
+ *            scale, the counts are predicted from the previous one or two
+ *            (delta or linear, whichever is smaller over the block) and the
+ *            residuals Rice coded. Values that do not fit are stored raw.
+ *   xor      Otherwise each value is XORed with the better of the delta and
+ *            linear predictions and only the non-zero low bytes are kept,
+ *            after a 4 bit header holding the predictor and byte count.
+ *
+ * A codec instance holds scratch buffers and is not thread safe.
+ */
+final class BlockCodec {
+    // Rice codes with a quotient this long or longer are escaped to the raw
+    // 64 bit value, which bounds the cost of outliers such as gaps.
+    private static final int ESCAPE = 24;
+    private static final int MODE_XOR = 0;
+    private static final int MODE_SCALED = 1;
+    // Largest magnitude of a scaled count, so that count * scale stays
+    // exact in a double.
+    private static final double MAX_COUNT = 1L << 50;
+
+    private final int capacity;
+    private final long[] counts;
+    private final long[] residuals;
+    private final BitWriter writer;
+    private final BitReader reader = new BitReader();
+
+    BlockCodec(int capacity) {
+        this.capacity = capacity;
+        this.counts = new long[capacity];
+        this.residuals = new long[capacity];
+        this.writer = new BitWriter(maxEncodedSize(brainPacket.MAX_VALUES, capacity));
+    }
+
+    /**
+     * Upper bound on the samples length bytes of a block of the given width
+     * can hold: past the first two, every sample takes at least one bit of
+     * timestamp and two bits per channel.
+     */
+    static long maxCount(int width, int length) {
+        return 2 + 8L * length / (1 + 2 * width);
+    }
+
+    /** Upper bound on the bytes encode() produces. */
+    static int maxEncodedSize(int width, int count) {
+        // Worst cases per value: an escaped Rice code plus a raw exception
+        // in scaled mode, and per channel and block a few headers.
+        final long bits = (long) count * (ESCAPE + 1 + 64 + width * (ESCAPE + 1 + 64 + 1 + 64))
+            + width * (2 + 64 + 6 + ESCAPE + 1 + 64) + 3 * 64 + 6;
+        return (int) (bits / 8 + 8);
+    }
+
+    /**
+     * Encodes count samples and returns the encoded bytes, valid until the
+     * next call. values[c][i] is channel c of sample i.
+     */
+    byte[] encode(int width, int count, long[] timestamps, double[][] values) {
+        if (count > capacity) {
+            throw new IllegalArgumentException("block of " + count + " > " + capacity);
+        }
+        final BitWriter w = writer;
+        w.reset();
+        encodeTimestamps(w, count, timestamps);
+        for (int c = 0; c < width; ++c) {
+            if (!encodeScaled(w, count, values[c])) {
+                encodeXor(w, count, values[c]);
+            }
+        }
+        w.finish();
+        return w.buffer;
+    }
+
+    /** Number of bytes of the last encode(). */
+    int encodedLength() {
+        return writer.position;
+    }
+
+    void decode(byte[] in, int offset, int length, int width, int count,
+                long[] timestamps, double[][] values) {
+        final BitReader r = reader;
+        r.reset(in, offset, length);
+        decodeTimestamps(r, count, timestamps);
+        for (int c = 0; c < width; ++c) {
+            if (r.readBits(1) == MODE_SCALED) {
+                decodeScaled(r, count, values[c]);
+            } else {
+                decodeXor(r, count, values[c]);
+            }
+        }
+    }
+
+    private void encodeTimestamps(BitWriter w, int count, long[] ts) {
+        if (count == 0) {
+            return;
+        }
+        w.writeBits(ts[0], 64);
+        if (count == 1) {
+            return;
+        }
+        w.writeBits(ts[1] - ts[0], 64);
+        final int n = count - 2;
+        for (int i = 0; i < n; ++i) {
+            residuals[i] = zigzag((ts[i + 2] - ts[i + 1]) - (ts[i + 1] - ts[i]));
+        }
+        writeRiceBlock(w, residuals, n);
+    }
+
+    private void decodeTimestamps(BitReader r, int count, long[] ts) {
+        if (count == 0) {
+            return;
+        }
+        ts[0] = r.readBits(64);
+        if (count == 1) {
+            return;
+        }
+        long delta = r.readBits(64);
+        ts[1] = ts[0] + delta;
+        final int k = (int) r.readBits(6);
+        for (int i = 2; i < count; ++i) {
+            delta += unzigzag(r.readRice(k));
+            ts[i] = ts[i - 1] + delta;
+        }
+    }
+
+    // Writes the Rice parameter, then the values.
+    private static void writeRiceBlock(BitWriter w, long[] v, int n) {
+        final int k = riceParameter(v, n);
+        w.writeBits(k, 6);
+        for (int i = 0; i < n; ++i) {
+            w.writeRice(v[i], k);
+        }
+    }
+
+    private boolean encodeScaled(BitWriter w, int count, double[] v) {
+        if (count < 3) {
+            return false;
+        }
+        final int limit = count / 16;
+        final double scale = findScale(v, count, limit);
+        if (scale == 0) {
+            return false;
+        }
+        for (int i = 0; i < count; ++i) {
+            counts[i] = (long) Math.rint(v[i] / scale);
+        }
+        // Pick the predictor with the smaller residuals over the block.
+        double deltaCost = 0;
+        double linearCost = 0;
+        for (int i = 2; i < count; ++i) {
+            deltaCost += Math.abs(counts[i] - counts[i - 1]);
+            linearCost += Math.abs(counts[i] - 2 * counts[i - 1] + counts[i - 2]);
+        }
+        final boolean linear = linearCost < deltaCost;
+
+        w.writeBits(MODE_SCALED, 1);
+        w.writeBits(Double.doubleToRawLongBits(scale), 64);
+        w.writeBits(linear ? 1 : 0, 1);
+        residuals[0] = zigzag(counts[0]);
+        residuals[1] = zigzag(counts[1] - counts[0]);
+        for (int i = 2; i < count; ++i) {
+            final long prediction = linear ? 2 * counts[i - 1] - counts[i - 2] : counts[i - 1];
+            residuals[i] = zigzag(counts[i] - prediction);
+        }
+        writeRiceBlock(w, residuals, count);
+        for (int i = 0; i < count; ++i) {
+            final long bits = Double.doubleToRawLongBits(v[i]);
+            if (bits == Double.doubleToRawLongBits(counts[i] * scale)) {
+                w.writeBits(0, 1);
+            } else {
+                w.writeBits(1, 1);
+                w.writeBits(bits, 64);
+            }
+        }
+        return true;
+    }
+
+    private void decodeScaled(BitReader r, int count, double[] v) {
+        final double scale = Double.longBitsToDouble(r.readBits(64));
+        final boolean linear = r.readBits(1) == 1;
+        final int k = (int) r.readBits(6);
+        long previous = 0;
+        long beforePrevious = 0;
+        for (int i = 0; i < count; ++i) {
+            final long residual = unzigzag(r.readRice(k));
+            final long c;
+            if (i == 0) {
+                c = residual;
+            } else if (i == 1 || !linear) {
+                c = previous + residual;
+            } else {
+                c = 2 * previous - beforePrevious + residual;
+            }
+            counts[i] = c;
+            beforePrevious = previous;
+            previous = c;
+        }
+        for (int i = 0; i < count; ++i) {
+            if (r.readBits(1) == 0) {
+                v[i] = counts[i] * scale;
+            } else {
+                v[i] = Double.longBitsToDouble(r.readBits(64));
+            }
+        }
+    }
+
+    /**
+     * Returns a scale s such that at most limit values are not exactly
+     * rint(v / s) * s, or 0 if none was found. The candidates come from the
+     * smallest step between neighbouring values, refined against the
+     * largest value.
+     */
+    private static double findScale(double[] v, int count, int limit) {
+        double step = Double.POSITIVE_INFINITY;
+        int largest = 0;
+        for (int i = 0; i < count; ++i) {
+            if (!(Math.abs(v[i]) <= Math.abs(v[largest]))) {
+                largest = i;
+            }
+            if (i > 0) {
+                final double d = Math.abs(v[i] - v[i - 1]);
+                if (d > 0 && d < step) {
+                    step = d;
+                }
+            }
+        }
+        if (step == Double.POSITIVE_INFINITY) {
+            // Constant block, or NaNs.
+            step = v[0] != 0 ? Math.abs(v[0]) : 1.0;
+        }
+        if (!(step > 0) || Double.isInfinite(step)) {
+            return 0;
+        }
+        final double n = Math.rint(v[largest] / step);
+        final double refined = n != 0 ? Math.abs(v[largest] / n) : step;
+        final double[] candidates = {refined, Math.nextUp(refined), Math.nextAfter(refined, 0), step};
+        for (double s : candidates) {
+            if (s > 0 && misses(v, count, s, limit) <= limit) {
+                return s;
+            }
+        }
+        return 0;
+    }
+
+    // Counts values not representable as a count times s, stopping early
+    // once past limit.
+    private static int misses(double[] v, int count, double s, int limit) {
+        int misses = 0;
+        for (int i = 0; i < count && misses <= limit; ++i) {
+            final double c = Math.rint(v[i] / s);
+            if (!(Math.abs(c) < MAX_COUNT) ||
+                Double.doubleToRawLongBits(c * s) != Double.doubleToRawLongBits(v[i])) {
+                ++misses;
+            }
+        }
+        return misses;
+    }
+
+    private static void encodeXor(BitWriter w, int count, double[] v) {
+        w.writeBits(MODE_XOR, 1);
+        long previous = 0;
+        long beforePrevious = 0;
+        for (int i = 0; i < count; ++i) {
+            final long bits = Double.doubleToRawLongBits(v[i]);
+            final long delta = bits ^ previous;
+            final long linear = bits ^ linearPrediction(previous, beforePrevious);
+            final boolean useLinear = Long.numberOfLeadingZeros(linear) > Long.numberOfLeadingZeros(delta);
+            final long residual = useLinear ? linear : delta;
+            final int zeroBytes = Math.min(7, Long.numberOfLeadingZeros(residual) >>> 3);
+            w.writeBits((useLinear ? 8 : 0) | zeroBytes, 4);
+            w.writeBits(residual, 64 - 8 * zeroBytes);
+            beforePrevious = previous;
+            previous = bits;
+        }
+    }
+
+    private static void decodeXor(BitReader r, int count, double[] v) {
+        long previous = 0;
+        long beforePrevious = 0;
+        for (int i = 0; i < count; ++i) {
+            final int header = (int) r.readBits(4);
+            final long residual = r.readBits(64 - 8 * (header & 7));
+            final long prediction = (header & 8) != 0 ?
+                linearPrediction(previous, beforePrevious) : previous;
+            final long bits = residual ^ prediction;
+            v[i] = Double.longBitsToDouble(bits);
+            beforePrevious = previous;
+            previous = bits;
+        }
+    }
+
+    // Falls back to the delta predictor when the extrapolation is NaN: the
+    // payload of a NaN computed from NaN or infinite inputs is up to the
+    // hardware, and the decoder has to arrive at the same bits.
+    private static long linearPrediction(long previous, long beforePrevious) {
+        final double a = Double.longBitsToDouble(previous);
+        final double b = Double.longBitsToDouble(beforePrevious);
+        final double p = 2 * a - b;
+        return p != p ? previous : Double.doubleToRawLongBits(p);
+    }
+
+    // Rice parameter close to optimal for geometrically distributed values.
+    private static int riceParameter(long[] v, int n) {
+        if (n == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < n; ++i) {
+            // Unsigned, so that escaped huge values still count as huge.
+            sum += v[i] >= 0 ? v[i] : 1.8e19;
+        }
+        final double mean = sum / n;
+        if (mean < 2) {
+            return 0;
+        }
+        return Math.min(62, 63 - Long.numberOfLeadingZeros((long) Math.min(mean, 4.0e18)));
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static final class BitWriter {
+        final byte[] buffer;
+        int position;
+        private long accumulator;
+        private int bits;
+
+        BitWriter(int size) {
+            buffer = new byte[size];
+        }
+
+        void reset() {
+            position = 0;
+            accumulator = 0;
+            bits = 0;
+        }
+
+        void writeBits(long value, int n) {
+            if (n > 32) {
+                writeBits(value >>> 32, n - 32);
+                value &= 0xffffffffL;
+                n = 32;
+            }
+            accumulator = (accumulator << n) | (value & ((1L << n) - 1));
+            bits += n;
+            while (bits >= 8) {
+                bits -= 8;
+                buffer[position++] = (byte) (accumulator >>> bits);
+            }
+        }
+
+        void writeRice(long value, int k) {
+            final long q = value >>> k;
+            if (q < ESCAPE) {
+                // q ones, a zero, then the k low bits.
+                writeBits(((1L << q) - 1) << 1, (int) q + 1);
+                writeBits(value, k);
+            } else {
+                writeBits((1L << ESCAPE) - 1, ESCAPE);
+                writeBits(value, 64);
+            }
+        }
+
+        void finish() {
+            if (bits > 0) {
+                buffer[position++] = (byte) (accumulator << (8 - bits));
+                bits = 0;
+            }
+        }
+    }
+
+    private static final class BitReader {
+        private byte[] buffer;
+        private int position;
+        private int end;
+        private long accumulator;
+        private int bits;
+
+        void reset(byte[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.position = offset;
+            this.end = offset + length;
+            this.accumulator = 0;
+            this.bits = 0;
+        }
+
+        long readBits(int n) {
+            if (n > 32) {
+                final long high = readBits(n - 32);
+                return (high << 32) | readBits(32);
+            }
+            while (bits < n) {
+                if (position >= end) {
+                    throw new IllegalArgumentException("block truncated");
+                }
+                accumulator = (accumulator << 8) | (buffer[position++] & 0xff);
+                bits += 8;
+            }
+            bits -= n;
+            return (accumulator >>> bits) & ((1L << n) - 1);
+        }
+
+        long readRice(int k) {
+            int q = 0;
+            while (q < ESCAPE && readBits(1) == 1) {
+                ++q;
+            }
+            if (q == ESCAPE) {
+                return readBits(64);
+            }
+            return ((long) q << k) | readBits(k);
+        }
+    }
+}
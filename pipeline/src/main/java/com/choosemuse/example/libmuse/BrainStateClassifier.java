@@ -0,0 +1,148 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.Arrays;
+
+/**
+ * Classifies every window of a FeatureExtractor with a Model and keeps the
+ * latest label and its confidence (the model's probability for it), for the
+ * UI and anything else that wants a brain state rather than raw features.
+ *
+ * The cost of every window goes into two histograms in nanoseconds, one
+ * for the features (kept by the extractor) and one for inference. Like the
+ * extractor it runs on the feeding thread and allocates nothing per window;
+ * label() and confidence() may be read from any thread.
+ */
+public class BrainStateClassifier implements SampleSink, FeatureExtractor.Listener {
+    /** A classifier over fixed-length feature vectors. */
+    public interface Model {
+        int features();
+
+        int classes();
+
+        String label(int k);
+
+        /** Fills probabilities (classes() long) and returns the most likely class. */
+        int classify(double[] features, double[] probabilities);
+    }
+
+    /** Called on the feeding thread after every window. */
+    public interface Listener {
+        void onBrainState(long timestamp, int label, double confidence);
+    }
+
+    private static final long HIGHEST_NANOS = 1000000000L;
+
+    private final FeatureExtractor extractor;
+    private final Model model;
+    private final double[] probabilities;
+    private final LogHistogram inferenceNanos = new LogHistogram(HIGHEST_NANOS);
+    private volatile int label = -1;
+    private volatile double confidence = 0.0;
+    private Listener listener;
+
+    public BrainStateClassifier(FeatureExtractor extractor, Model model) {
+        if (model.features() != extractor.size()) {
+            throw new IllegalArgumentException("model takes " + model.features() +
+                " features, extractor makes " + extractor.size());
+        }
+        this.extractor = extractor;
+        this.model = model;
+        this.probabilities = new double[model.classes()];
+        extractor.setListener(this);
+    }
+
+    public BrainStateClassifier(FeatureExtractor extractor) {
+        this(extractor, defaultModel(extractor));
+    }
+
+    /** Default features and defaultModel(). */
+    public BrainStateClassifier() {
+        this(new FeatureExtractor());
+    }
+
+    /**
+     * Hand-set stand-in until a trained model is loaded with
+     * LinearModel.read(): "relaxed" follows the mean log alpha/beta ratio
+     * over the channels, "focused" the mean engagement, and "neutral" wins
+     * while neither is clearly up.
+     */
+    public static LinearModel defaultModel(FeatureExtractor extractor) {
+        final int n = extractor.size();
+        final double[] mean = new double[n];
+        final double[] scale = new double[n];
+        Arrays.fill(scale, 1.0);
+        final double[][] weights = new double[3][n];
+        for (int c = 0; c < 4; ++c) {
+            final int alphaBeta = extractor.indexOf("alpha/beta " + c);
+            final int engagement = extractor.indexOf("engagement " + c);
+            if (alphaBeta >= 0) {
+                weights[0][alphaBeta] = 0.25;
+            }
+            if (engagement >= 0) {
+                weights[2][engagement] = 0.25;
+            }
+        }
+        return new LinearModel(new String[] { "relaxed", "neutral", "focused" },
+            mean, scale, weights, new double[] { 0.0, 0.5, 0.0 });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void accept(brainPacket s) {
+        extractor.accept(s);
+    }
+
+    @Override
+    public void onFeatures(long timestamp, double[] features) {
+        final long t1 = System.nanoTime();
+        final int k = model.classify(features, probabilities);
+        final long t2 = System.nanoTime();
+        inferenceNanos.record(t2 - t1);
+        confidence = probabilities[k];
+        label = k;
+        if (listener != null) {
+            listener.onBrainState(timestamp, k, probabilities[k]);
+        }
+    }
+
+    public FeatureExtractor extractor() {
+        return extractor;
+    }
+
+    public Model model() {
+        return model;
+    }
+
+    /** Class of the last window, -1 before the first. */
+    public int label() {
+        return label;
+    }
+
+    public String labelName() {
+        final int k = label;
+        return k < 0 ? "none" : model.label(k);
+    }
+
+    public double confidence() {
+        return confidence;
+    }
+
+    /** Probabilities of the last window; feeding thread only. */
+    public double[] probabilities() {
+        return probabilities;
+    }
+
+    /** Nanoseconds per window spent on the model. */
+    public LogHistogram inferenceNanos() {
+        return inferenceNanos;
+    }
+
+    public String summary() {
+        return "state=" + labelName() + " (" + Math.round(confidence * 100) + "%) windows=" +
+            inferenceNanos.count() + " features " + extractor.nanos().summary("ns") +
+            " inference " + inferenceNanos.summary("ns");
+    }
+}
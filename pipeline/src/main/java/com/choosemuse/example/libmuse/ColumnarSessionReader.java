@@ -0,0 +1,184 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Read side of ColumnarSessionWriter. Every column file is memory-mapped
+ * read-only when the stream of a packet type is first requested.
+ *
+ * Seeking uses the sparse timestamp index and then the timestamp column
+ * within one index stride, so it is O(log n) and touches only a few pages.
+ * window() returns a view onto the mapped column, not a copy. events()
+ * indexes the annotations in one pass over their (small) file.
+ *
+ * A stream has as many rows as its shortest column, so the torn tail a
+ * crash leaves behind is not read.
+ */
+public class ColumnarSessionReader {
+    private final File dir;
+    private final Stream[] streams = new Stream[brainPacket.TYPE_COUNT];
+
+    public ColumnarSessionReader(File dir) throws IOException {
+        if (!dir.isDirectory()) {
+            throw new IOException(dir + " is not a columnar session");
+        }
+        this.dir = dir;
+    }
+
+    /** The session's annotations as events, indexed for time-range queries. */
+    public EventStore events() throws IOException {
+        final EventStore events = new EventStore();
+        final File file = new File(dir, ColumnarSessionWriter.ANNOTATIONS);
+        if (!file.exists()) {
+            return events;
+        }
+        final ByteBuffer buffer = map(file);
+        final Charset utf8 = Charset.forName("UTF-8");
+        // A crash can leave a partial record at the end; it is ignored.
+        while (buffer.remaining() >= 12) {
+            final long timestamp = buffer.getLong();
+            final int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                break;
+            }
+            final byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            events.annotate(timestamp, new String(bytes, utf8));
+        }
+        return events;
+    }
+
+    /** Returns the stream of the given packet type, or null if none was recorded. */
+    public Stream stream(int type) throws IOException {
+        if (type < 0 || type >= streams.length) {
+            return null;
+        }
+        if (streams[type] == null) {
+            final File ts = new File(dir, ColumnarSessionWriter.timestampFile(type));
+            if (!ts.exists()) {
+                return null;
+            }
+            streams[type] = new Stream(type);
+        }
+        return streams[type];
+    }
+
+    public final class Stream {
+        private final LongBuffer timestamps;
+        private final LongBuffer index;
+        private final DoubleBuffer[] values;
+        private final int rows;
+
+        Stream(int type) throws IOException {
+            timestamps = map(new File(dir, ColumnarSessionWriter.timestampFile(type))).asLongBuffer();
+            index = map(new File(dir, ColumnarSessionWriter.indexFile(type))).asLongBuffer();
+            int width = 0;
+            while (new File(dir, ColumnarSessionWriter.valueFile(type, width)).exists()) {
+                ++width;
+            }
+            values = new DoubleBuffer[width];
+            // Columns are appended one after the other, so after a crash
+            // they can differ in length. Only rows present in all of them
+            // are complete.
+            int complete = timestamps.limit();
+            for (int i = 0; i < width; ++i) {
+                values[i] = map(new File(dir, ColumnarSessionWriter.valueFile(type, i))).asDoubleBuffer();
+                complete = Math.min(complete, values[i].limit());
+            }
+            rows = complete;
+        }
+
+        public int rows() {
+            return rows;
+        }
+
+        public int width() {
+            return values.length;
+        }
+
+        public long timestamp(int row) {
+            return timestamps.get(row);
+        }
+
+        public double value(int column, int row) {
+            return values[column].get(row);
+        }
+
+        /** First row whose timestamp is >= timestamp, or rows() if there is none. */
+        public int seek(long timestamp) {
+            final int entries = Math.min(index.limit(), (rows + ColumnarSessionWriter.INDEX_STRIDE - 1) /
+                ColumnarSessionWriter.INDEX_STRIDE);
+            final int k = lowerBound(index, 0, entries, timestamp);
+            if (k == 0) {
+                return 0;
+            }
+            final int from = (k - 1) * ColumnarSessionWriter.INDEX_STRIDE + 1;
+            final int to = Math.min(k * ColumnarSessionWriter.INDEX_STRIDE, rows);
+            return lowerBound(timestamps, from, to, timestamp);
+        }
+
+        /**
+         * Zero-copy view of one value column between rows from (inclusive)
+         * and to (exclusive).
+         */
+        public DoubleBuffer window(int column, int from, int to) {
+            final DoubleBuffer view = values[column].duplicate();
+            view.limit(to);
+            view.position(from);
+            return view.slice();
+        }
+
+        /** Zero-copy view of the timestamps between rows from and to. */
+        public LongBuffer timestamps(int from, int to) {
+            final LongBuffer view = timestamps.duplicate();
+            view.limit(to);
+            view.position(from);
+            return view.slice();
+        }
+
+        /** View of one value column for samples with from <= timestamp < to. */
+        public DoubleBuffer window(int column, long from, long to) {
+            return window(column, seek(from), seek(to));
+        }
+
+        /** View of one value column from margin before e to margin after it. */
+        public DoubleBuffer around(int column, EventStore.Event e, long marginMicros) {
+            return window(column, e.start - marginMicros, e.end + marginMicros + 1);
+        }
+    }
+
+    // First position in [from, to) holding a value >= key, or to.
+    private static int lowerBound(LongBuffer buffer, int from, int to, long key) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (buffer.get(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return buffer;
+        } finally {
+            // The mapping stays valid after the file is closed.
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * SessionWriter that stores a session as one directory of column files,
+ * laid out for ColumnarSessionReader to memory-map:
+ *
+ *   t&lt;type&gt;.ts      timestamps of every sample of that packet type (long)
+ *   t&lt;type&gt;.c&lt;n&gt;    value n of every sample of that type (double)
+ *   t&lt;type&gt;.idx     every INDEX_STRIDE-th timestamp (long), a sparse index
+ *   annotations     timestamp (long), length (int), UTF-8 bytes
+ *
+ * All values are big-endian. The number of value columns of a type is taken
+ * from its first sample. Timestamps are expected to be non-decreasing per
+ * type, which is what the reader's binary searches rely on.
+ */
+public class ColumnarSessionWriter implements SessionWriter {
+    public static final int INDEX_STRIDE = 256;
+    static final String ANNOTATIONS = "annotations";
+
+    private static final int COLUMN_BUFFER_SIZE = 8 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static String timestampFile(int type) {
+        return "t" + type + ".ts";
+    }
+
+    static String indexFile(int type) {
+        return "t" + type + ".idx";
+    }
+
+    static String valueFile(int type, int column) {
+        return "t" + type + ".c" + column;
+    }
+
+    private final File dir;
+    private final Stream[] streams = new Stream[brainPacket.TYPE_COUNT];
+    private final Column annotations;
+
+    public ColumnarSessionWriter(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        this.dir = dir;
+        annotations = new Column(new File(dir, ANNOTATIONS));
+    }
+
+    @Override
+    public void write(brainPacket s) throws IOException {
+        if (s.type < 0 || s.type >= streams.length) {
+            return;
+        }
+        Stream stream = streams[s.type];
+        if (stream == null) {
+            stream = new Stream(s.type, s.size);
+            streams[s.type] = stream;
+        }
+        stream.append(s);
+    }
+
+    @Override
+    public void annotate(long timestamp, String text) throws IOException {
+        final byte[] bytes = text.getBytes(UTF8);
+        annotations.putLong(timestamp);
+        annotations.putInt(bytes.length);
+        annotations.put(bytes);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (Stream stream : streams) {
+            if (stream != null) {
+                stream.flush();
+            }
+        }
+        annotations.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException first = null;
+        for (Stream stream : streams) {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    if (first == null) {
+                        first = e;
+                    }
+                }
+            }
+        }
+        try {
+            annotations.close();
+        } catch (IOException e) {
+            if (first == null) {
+                first = e;
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+
+    // Columns of one packet type.
+    private final class Stream {
+        final Column timestamps;
+        final Column index;
+        final Column[] values;
+        long rows = 0;
+
+        Stream(int type, int width) throws IOException {
+            timestamps = new Column(new File(dir, timestampFile(type)));
+            index = new Column(new File(dir, indexFile(type)));
+            values = new Column[width];
+            for (int i = 0; i < width; ++i) {
+                values[i] = new Column(new File(dir, valueFile(type, i)));
+            }
+        }
+
+        void append(brainPacket s) throws IOException {
+            if (rows % INDEX_STRIDE == 0) {
+                index.putLong(s.timestamp);
+            }
+            timestamps.putLong(s.timestamp);
+            for (int i = 0; i < values.length; ++i) {
+                values[i].putDouble(i < s.size ? s.values[i] : Double.NaN);
+            }
+            ++rows;
+        }
+
+        void flush() throws IOException {
+            timestamps.flush();
+            index.flush();
+            for (Column c : values) {
+                c.flush();
+            }
+        }
+
+        void close() throws IOException {
+            timestamps.close();
+            index.close();
+            for (Column c : values) {
+                c.close();
+            }
+        }
+    }
+
+    // One append-only file with its own write buffer.
+    private static final class Column {
+        final FileOutputStream out;
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(COLUMN_BUFFER_SIZE);
+
+        Column(File file) throws IOException {
+            out = new FileOutputStream(file);
+            channel = out.getChannel();
+        }
+
+        void putLong(long v) throws IOException {
+            ensure(8);
+            buffer.putLong(v);
+        }
+
+        void putDouble(double v) throws IOException {
+            ensure(8);
+            buffer.putDouble(v);
+        }
+
+        void putInt(int v) throws IOException {
+            ensure(4);
+            buffer.putInt(v);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                final int n = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                drain();
+            }
+        }
+
+        void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void flush() throws IOException {
+            drain();
+            channel.force(false);
+        }
+
+        void close() throws IOException {
+            try {
+                drain();
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Random access to a file written by CompressedSessionWriter.
+ *
+ * The block index comes from the footer, or is rebuilt by scanning the file
+ * if the writer did not get to close it. Any block can then be decoded on
+ * its own with readBlock(), and findBlock() locates the block holding a
+ * timestamp. As a SampleSource the reader returns the samples block by
+ * block in file order, so they are in timestamp order within each type but
+ * not across types. Annotations are skipped.
+ */
+public class CompressedSessionReader implements SampleSource {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final BlockCodec codec;
+    private final ByteBuffer header = ByteBuffer.allocate(CompressedSessionWriter.BLOCK_HEADER_SIZE);
+    private byte[] data = new byte[0];
+
+    private long[] offsets = new long[64];
+    private byte[] types = new byte[64];
+    private int[] counts = new int[64];
+    private long[] firstTimestamps = new long[64];
+    private long[] lastTimestamps = new long[64];
+    private int blocks = 0;
+    private int maxCount = 0;
+
+    // Sequential read state for next().
+    private final long[] timestamps;
+    private final double[][] values;
+    private int block = -1;
+    private int width = 0;
+    private int count = 0;
+    private int row = 0;
+
+    public CompressedSessionReader(File f) throws IOException {
+        file = new RandomAccessFile(f, "r");
+        channel = file.getChannel();
+        try {
+            if (file.length() < 4 || file.readInt() != CompressedSessionWriter.MAGIC) {
+                throw new IOException(f + " is not a compressed session");
+            }
+            if (!readIndex()) {
+                scanIndex();
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        for (int i = 0; i < blocks; ++i) {
+            maxCount = Math.max(maxCount, counts[i]);
+        }
+        codec = new BlockCodec(Math.max(1, maxCount));
+        timestamps = new long[Math.max(1, maxCount)];
+        values = new double[brainPacket.MAX_VALUES][Math.max(1, maxCount)];
+    }
+
+    public int blockCount() {
+        return blocks;
+    }
+
+    public int blockType(int block) {
+        return types[block];
+    }
+
+    public int blockSize(int block) {
+        return counts[block];
+    }
+
+    public long blockFirstTimestamp(int block) {
+        return firstTimestamps[block];
+    }
+
+    public long blockLastTimestamp(int block) {
+        return lastTimestamps[block];
+    }
+
+    /** Largest blockSize(), the array length readBlock() needs. */
+    public int maxBlockSize() {
+        return maxCount;
+    }
+
+    /**
+     * Index of the block of the given type holding timestamp, i.e. the last
+     * one starting at or before it, or the first block of the type if all
+     * start later. -1 if the file has no block of that type.
+     */
+    public int findBlock(int type, long timestamp) {
+        int found = -1;
+        for (int i = 0; i < blocks; ++i) {
+            if (types[i] != type) {
+                continue;
+            }
+            if (found < 0 || firstTimestamps[i] <= timestamp) {
+                found = i;
+            }
+            if (firstTimestamps[i] > timestamp) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Decodes one block into timestamps[row] and values[channel][row] and
+     * returns its width; the row count is blockSize(block).
+     */
+    public int readBlock(int block, long[] timestamps, double[][] values) throws IOException {
+        header.clear();
+        readFully(header, offsets[block]);
+        header.flip();
+        header.get();
+        header.get();
+        final int w = header.get() & 0xff;
+        final int n = header.getInt();
+        final int length = header.getInt();
+        if (n != counts[block] || w > brainPacket.MAX_VALUES || length < 0) {
+            throw new IOException("block " + block + " is corrupt");
+        }
+        if (data.length < length) {
+            data = new byte[length];
+        }
+        readFully(ByteBuffer.wrap(data, 0, length), offsets[block] + CompressedSessionWriter.BLOCK_HEADER_SIZE);
+        try {
+            codec.decode(data, 0, length, w, n, timestamps, values);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("block " + block + " is corrupt", e);
+        }
+        return w;
+    }
+
+    @Override
+    public boolean next(brainPacket into) throws IOException {
+        while (row >= count) {
+            if (++block >= blocks) {
+                return false;
+            }
+            width = readBlock(block, timestamps, values);
+            count = counts[block];
+            row = 0;
+        }
+        into.set(timestamps[row], types[block], width);
+        for (int c = 0; c < width; ++c) {
+            into.values[c] = values[c][row];
+        }
+        ++row;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    // Reads the index written on close. False if there is none.
+    private boolean readIndex() throws IOException {
+        final long length = file.length();
+        if (length < 4 + CompressedSessionWriter.FOOTER_SIZE) {
+            return false;
+        }
+        file.seek(length - CompressedSessionWriter.FOOTER_SIZE);
+        final long indexOffset = file.readLong();
+        if (file.readInt() != CompressedSessionWriter.MAGIC || indexOffset < 4 || indexOffset >= length) {
+            return false;
+        }
+        file.seek(indexOffset);
+        if (file.readByte() != CompressedSessionWriter.RECORD_INDEX) {
+            return false;
+        }
+        final int n = file.readInt();
+        if (n < 0 || n > (length - indexOffset) / CompressedSessionWriter.INDEX_ENTRY_SIZE) {
+            return false;
+        }
+        final ByteBuffer entries = ByteBuffer.allocate(n * CompressedSessionWriter.INDEX_ENTRY_SIZE);
+        readFully(entries, indexOffset + 1 + 4);
+        entries.flip();
+        for (int i = 0; i < n; ++i) {
+            final long offset = entries.getLong();
+            final byte type = entries.get();
+            final int count = entries.getInt();
+            // The counts size the decode buffers: a corrupt one must not.
+            if (offset < 4 || offset >= indexOffset || count < 1 || count > CompressedSessionWriter.MAX_BLOCK_SIZE) {
+                blocks = 0;
+                return false;
+            }
+            add(offset, type, count, entries.getLong(), entries.getLong());
+        }
+        return true;
+    }
+
+    // Walks the records from the start, stopping at the first incomplete
+    // one. The timestamp range of each block is taken from its first bytes,
+    // which hold the first timestamp; the last one needs a decode.
+    private void scanIndex() throws IOException {
+        final long length = file.length();
+        long position = 4;
+        final ByteBuffer first = ByteBuffer.allocate(8);
+        while (position < length) {
+            file.seek(position);
+            final int kind = file.readByte();
+            if (kind == CompressedSessionWriter.RECORD_BLOCK) {
+                if (position + CompressedSessionWriter.BLOCK_HEADER_SIZE > length) {
+                    break;
+                }
+                final int type = file.readByte();
+                final int width = file.readByte() & 0xff;
+                final int n = file.readInt();
+                final int size = file.readInt();
+                final long end = position + CompressedSessionWriter.BLOCK_HEADER_SIZE + size;
+                // n sizes the decode buffers, so a bit flip in it must not
+                // pass for a huge block.
+                if (n <= 0 || n > CompressedSessionWriter.MAX_BLOCK_SIZE || width > brainPacket.MAX_VALUES ||
+                    size < 8 || end > length || n > BlockCodec.maxCount(width, size)) {
+                    break;
+                }
+                first.clear();
+                readFully(first, position + CompressedSessionWriter.BLOCK_HEADER_SIZE);
+                add(position, (byte) type, n, first.getLong(0), Long.MIN_VALUE);
+                position = end;
+            } else if (kind == CompressedSessionWriter.RECORD_ANNOTATION) {
+                if (position + 1 + 8 + 4 > length) {
+                    break;
+                }
+                file.readLong();
+                position += 1 + 8 + 4 + file.readInt();
+            } else {
+                break;
+            }
+        }
+        // Last timestamps need the blocks decoded; do it once here.
+        int max = 1;
+        for (int i = 0; i < blocks; ++i) {
+            max = Math.max(max, counts[i]);
+        }
+        final BlockCodec codec = new BlockCodec(max);
+        final long[] ts = new long[max];
+        final double[][] v = new double[brainPacket.MAX_VALUES][max];
+        for (int i = 0; i < blocks; ++i) {
+            header.clear();
+            readFully(header, offsets[i]);
+            header.flip();
+            header.position(2);
+            final int w = header.get() & 0xff;
+            header.getInt();
+            final int size = header.getInt();
+            if (data.length < size) {
+                data = new byte[size];
+            }
+            readFully(ByteBuffer.wrap(data, 0, size), offsets[i] + CompressedSessionWriter.BLOCK_HEADER_SIZE);
+            try {
+                codec.decode(data, 0, size, w, counts[i], ts, v);
+            } catch (IllegalArgumentException e) {
+                // A torn last block: drop it and everything after.
+                blocks = i;
+                break;
+            }
+            lastTimestamps[i] = ts[counts[i] - 1];
+        }
+    }
+
+    private void add(long offset, byte type, int count, long first, long last) {
+        if (blocks == offsets.length) {
+            final int size = blocks * 2;
+            offsets = Arrays.copyOf(offsets, size);
+            types = Arrays.copyOf(types, size);
+            counts = Arrays.copyOf(counts, size);
+            firstTimestamps = Arrays.copyOf(firstTimestamps, size);
+            lastTimestamps = Arrays.copyOf(lastTimestamps, size);
+        }
+        offsets[blocks] = offset;
+        types[blocks] = type;
+        counts[blocks] = count;
+        firstTimestamps[blocks] = first;
+        lastTimestamps[blocks] = last;
+        ++blocks;
+    }
+
+    private void readFully(ByteBuffer into, long position) throws IOException {
+        while (into.hasRemaining()) {
+            final int n = channel.read(into, position);
+            if (n < 0) {
+                throw new IOException("unexpected end of file");
+            }
+            position += n;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * SessionWriter that stores samples losslessly compressed with BlockCodec.
+ *
+ * Samples are collected per packet type into blocks of up to blockSize
+ * samples; a full block is encoded and appended to the file, so memory is
+ * bounded by one block per type seen. Block order in the file is the order
+ * blocks filled up, and within a type blocks are in timestamp order.
+ *
+ * Layout, big-endian:
+ *   MAGIC
+ *   records:
+ *     block:      RECORD_BLOCK, type (byte), width (byte), count (int),
+ *                 length (int), length bytes of BlockCodec data
+ *     annotation: RECORD_ANNOTATION, timestamp (long), length (int),
+ *                 UTF-8 bytes
+ *   on close:
+ *     index:      RECORD_INDEX, blocks (int), per block: offset (long),
+ *                 type (byte), count (int), first and last timestamp (long)
+ *     footer:     offset of the index record (long), MAGIC
+ *
+ * A file without the footer, e.g. after a crash, can still be read: the
+ * reader rebuilds the index by scanning the blocks.
+ */
+public class CompressedSessionWriter implements SessionWriter {
+    public static final int MAGIC = 0x4d534332; // "MSC2"
+    public static final byte RECORD_BLOCK = 1;
+    public static final byte RECORD_ANNOTATION = 2;
+    public static final byte RECORD_INDEX = 3;
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    /** Largest block size; readers take a block claiming more as corrupt. */
+    public static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    static final int BLOCK_HEADER_SIZE = 1 + 1 + 1 + 4 + 4;
+    static final int INDEX_ENTRY_SIZE = 8 + 1 + 4 + 8 + 8;
+    static final int FOOTER_SIZE = 8 + 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final int blockSize;
+    private final BlockCodec codec;
+    private final Block[] blocks = new Block[brainPacket.TYPE_COUNT];
+
+    // Index of the blocks written so far, grown as needed.
+    private long[] indexOffsets = new long[64];
+    private byte[] indexTypes = new byte[64];
+    private int[] indexCounts = new int[64];
+    private long[] indexFirst = new long[64];
+    private long[] indexLast = new long[64];
+    private int indexSize = 0;
+
+    private long position = 4;
+    private long samplesWritten = 0;
+    private boolean closed = false;
+
+    private static final class Block {
+        final long[] timestamps;
+        final double[][] values;
+        int width = 0;
+        int count = 0;
+
+        Block(int size) {
+            timestamps = new long[size];
+            values = new double[brainPacket.MAX_VALUES][size];
+        }
+    }
+
+    public CompressedSessionWriter(File file, int blockSize) throws IOException {
+        if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize out of range: " + blockSize);
+        }
+        this.blockSize = blockSize;
+        this.codec = new BlockCodec(blockSize);
+        out = new FileOutputStream(file);
+        channel = out.getChannel();
+        buffer.putInt(MAGIC);
+    }
+
+    public CompressedSessionWriter(File file) throws IOException {
+        this(file, DEFAULT_BLOCK_SIZE);
+    }
+
+    @Override
+    public void write(brainPacket s) throws IOException {
+        if (s.type < 0 || s.type >= blocks.length) {
+            return;
+        }
+        Block b = blocks[s.type];
+        if (b == null) {
+            b = blocks[s.type] = new Block(blockSize);
+        }
+        final int width = Math.min(s.size, brainPacket.MAX_VALUES);
+        if (b.count > 0 && width != b.width) {
+            writeBlock(s.type, b);
+        }
+        b.width = width;
+        b.timestamps[b.count] = s.timestamp;
+        for (int c = 0; c < width; ++c) {
+            b.values[c][b.count] = s.values[c];
+        }
+        if (++b.count == blockSize) {
+            writeBlock(s.type, b);
+        }
+        ++samplesWritten;
+    }
+
+    @Override
+    public void annotate(long timestamp, String text) throws IOException {
+        final byte[] bytes = text.getBytes(UTF8);
+        ensure(1 + 8 + 4 + bytes.length);
+        buffer.put(RECORD_ANNOTATION);
+        buffer.putLong(timestamp);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        position += 1 + 8 + 4 + bytes.length;
+    }
+
+    /**
+     * Writes out the partial blocks and forces the file to storage. Frequent
+     * flushes produce small blocks and cost compression.
+     */
+    @Override
+    public void flush() throws IOException {
+        writePartialBlocks();
+        drain();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writePartialBlocks();
+            final long indexOffset = position;
+            ensure(1 + 4);
+            buffer.put(RECORD_INDEX);
+            buffer.putInt(indexSize);
+            for (int i = 0; i < indexSize; ++i) {
+                ensure(INDEX_ENTRY_SIZE);
+                buffer.putLong(indexOffsets[i]);
+                buffer.put(indexTypes[i]);
+                buffer.putInt(indexCounts[i]);
+                buffer.putLong(indexFirst[i]);
+                buffer.putLong(indexLast[i]);
+            }
+            ensure(FOOTER_SIZE);
+            buffer.putLong(indexOffset);
+            buffer.putInt(MAGIC);
+            drain();
+            channel.force(false);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Bytes in the file so far, including what is still buffered. */
+    public long bytesWritten() {
+        return position;
+    }
+
+    public long samplesWritten() {
+        return samplesWritten;
+    }
+
+    private void writePartialBlocks() throws IOException {
+        for (int type = 0; type < blocks.length; ++type) {
+            final Block b = blocks[type];
+            if (b != null && b.count > 0) {
+                writeBlock(type, b);
+            }
+        }
+    }
+
+    private void writeBlock(int type, Block b) throws IOException {
+        final byte[] data = codec.encode(b.width, b.count, b.timestamps, b.values);
+        final int length = codec.encodedLength();
+        addIndexEntry(position, type, b.count, b.timestamps[0], b.timestamps[b.count - 1]);
+
+        ensure(BLOCK_HEADER_SIZE);
+        buffer.put(RECORD_BLOCK);
+        buffer.put((byte) type);
+        buffer.put((byte) b.width);
+        buffer.putInt(b.count);
+        buffer.putInt(length);
+        if (buffer.remaining() < length) {
+            drain();
+        }
+        if (buffer.remaining() >= length) {
+            buffer.put(data, 0, length);
+        } else {
+            // Only with very large blocks: bypass the buffer.
+            final ByteBuffer wrapped = ByteBuffer.wrap(data, 0, length);
+            while (wrapped.hasRemaining()) {
+                channel.write(wrapped);
+            }
+        }
+        position += BLOCK_HEADER_SIZE + length;
+        b.count = 0;
+    }
+
+    private void addIndexEntry(long offset, int type, int count, long first, long last) {
+        if (indexSize == indexOffsets.length) {
+            final int size = indexSize * 2;
+            indexOffsets = Arrays.copyOf(indexOffsets, size);
+            indexTypes = Arrays.copyOf(indexTypes, size);
+            indexCounts = Arrays.copyOf(indexCounts, size);
+            indexFirst = Arrays.copyOf(indexFirst, size);
+            indexLast = Arrays.copyOf(indexLast, size);
+        }
+        indexOffsets[indexSize] = offset;
+        indexTypes[indexSize] = (byte) type;
+        indexCounts[indexSize] = count;
+        indexFirst[indexSize] = first;
+        indexLast[indexSize] = last;
+        ++indexSize;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+        if (buffer.remaining() < bytes) {
+            throw new IOException("record of " + bytes + " bytes exceeds buffer");
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
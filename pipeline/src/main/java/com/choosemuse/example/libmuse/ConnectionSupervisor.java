@@ -0,0 +1,469 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a DataSource connected for as long as the user wants it to be.
+ *
+ * connect() and disconnect() record the user's intent. While it is to be
+ * connected, a drop (DISCONNECTED) schedules a reconnect after an
+ * exponential backoff with jitter: attempt n waits a random time between
+ * half and all of min(maxDelay, baseDelay * 2^n). The attempt count goes
+ * back to zero once a connection has held for stableMillis, so a link that
+ * keeps dropping right after connecting keeps backing off. An attempt
+ * stuck in CONNECTING for connectTimeoutMillis is abandoned and retried.
+ * After disconnect(), or NEEDS_UPDATE from the source, nothing is retried.
+ *
+ * Each attempt starts the source with a listener of its own, tagged with
+ * the attempt's generation. Connection events from an earlier attempt,
+ * e.g. the DISCONNECTED of one abandoned on timeout arriving late, are
+ * ignored. The source is always started and stopped outside the lock,
+ * since it calls back into the supervisor from its own thread.
+ *
+ * Samples and artifacts are passed straight through to the listener. The
+ * consumers downstream (rings, recorder, band powers) stay allocated across
+ * drops, so data continues into the same buffers after a reconnect.
+ *
+ * Every drop-to-reconnect episode is measured: time to reconnect, the gap
+ * in sample timestamps, the EEG packets lost in it (from the EEG rate
+ * before the drop) and the attempts it took.
+ */
+public class ConnectionSupervisor {
+    public static final int IDLE = 0;
+    public static final int CONNECTING = 1;
+    public static final int CONNECTED = 2;
+    public static final int WAITING = 3;
+    public static final int FAILED = 4;
+
+    private static final String[] STATE_NAMES = {"idle", "connecting", "connected", "waiting", "failed"};
+    private static final int EPISODE_HISTORY = 32;
+
+    /** One drop and the reconnect that ended it. */
+    public static final class Episode {
+        /** From the DISCONNECTED event to CONNECTED. */
+        public long reconnectNanos;
+        /** Between the last sample before the drop and the first after it. */
+        public long gapMicros;
+        /** EEG packets expected in the gap that never arrived. */
+        public long packetsLost;
+        public int attempts;
+
+        @Override
+        public String toString() {
+            return "reconnect=" + reconnectNanos / 1000000 + "ms gap=" + gapMicros / 1000 +
+                "ms lost=" + packetsLost + " attempts=" + attempts;
+        }
+    }
+
+    private final DataSource source;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownScheduler;
+    private final Random random;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long stableMillis;
+    private final long connectTimeoutMillis;
+    private volatile DataSource.Listener listener;
+
+    // Guarded by this.
+    private boolean wanted = false;
+    private int state = IDLE;
+    private int attempt = 0;
+    private int generation = 0;
+    private ScheduledFuture<?> pending;
+    private long connectedAtNanos;
+    private long droppedAtNanos;
+    private int episodeAttempts;
+    private boolean inEpisode = false;
+    private long lastTimestampBeforeDrop;
+    private double eegIntervalBeforeDrop;
+    private final ArrayDeque<Episode> history = new ArrayDeque<>();
+
+    // Sample path, source thread only.
+    private long lastTimestamp = 0;
+    private long lastEegTimestamp = 0;
+    private double eegIntervalMicros = 0;
+    private volatile boolean awaitingFirstSample = false;
+
+    private volatile long drops = 0;
+    private volatile long reconnects = 0;
+    private volatile long attempts = 0;
+    private volatile long timeouts = 0;
+    private volatile long totalReconnectNanos = 0;
+    private volatile long maxReconnectNanos = 0;
+    private volatile long totalGapMicros = 0;
+    private volatile long maxGapMicros = 0;
+    private volatile long packetsLost = 0;
+
+    public ConnectionSupervisor(DataSource source, ScheduledExecutorService scheduler, Random random,
+                                long baseDelayMillis, long maxDelayMillis, long stableMillis,
+                                long connectTimeoutMillis) {
+        this.source = source;
+        this.scheduler = scheduler;
+        this.ownScheduler = false;
+        this.random = random;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.stableMillis = stableMillis;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /** 0.5 s to 30 s backoff, 10 s to be stable, 20 s connect timeout. */
+    public ConnectionSupervisor(DataSource source) {
+        this.source = source;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "ConnectionSupervisor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.ownScheduler = true;
+        this.random = new Random();
+        this.baseDelayMillis = 500;
+        this.maxDelayMillis = 30000;
+        this.stableMillis = 10000;
+        this.connectTimeoutMillis = 20000;
+    }
+
+    public void setListener(DataSource.Listener listener) {
+        this.listener = listener;
+    }
+
+    public DataSource source() {
+        return source;
+    }
+
+    /** The user wants to be connected: connect now and keep reconnecting. */
+    public void connect() {
+        final Attempt a;
+        synchronized (this) {
+            wanted = true;
+            attempt = 0;
+            // An attempt under way keeps its timeout.
+            if (state == CONNECTED || state == CONNECTING) {
+                return;
+            }
+            cancelPending();
+            a = startAttempt();
+        }
+        begin(a);
+    }
+
+    /** The user wants to be disconnected: stop the source, never retry. */
+    public void disconnect() {
+        synchronized (this) {
+            wanted = false;
+            cancelPending();
+            state = IDLE;
+            if (inEpisode) {
+                // An unfinished episode is not a reconnect; forget it.
+                inEpisode = false;
+            }
+        }
+        // Outside the lock: the source may call back into onConnectionState.
+        source.stop();
+    }
+
+    /** Stops the source and the supervisor's own scheduler thread. */
+    public void shutdown() {
+        disconnect();
+        if (ownScheduler) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public synchronized int state() {
+        return state;
+    }
+
+    public synchronized boolean wantsConnection() {
+        return wanted;
+    }
+
+    // The listener of one attempt.
+    private final class Attempt implements DataSource.Listener {
+        final int generation;
+
+        Attempt(int generation) {
+            this.generation = generation;
+        }
+
+        @Override
+        public void onSample(brainPacket s) {
+            sample(s);
+        }
+
+        @Override
+        public void onArtifact(long timestamp, boolean headbandOn, boolean blink, boolean jawClench) {
+            final DataSource.Listener l = listener;
+            if (l != null) {
+                l.onArtifact(timestamp, headbandOn, blink, jawClench);
+            }
+        }
+
+        @Override
+        public void onConnectionState(int previous, int current) {
+            connectionState(generation, previous, current);
+        }
+    }
+
+    private void sample(brainPacket s) {
+        if (awaitingFirstSample) {
+            firstSampleAfterReconnect(s.timestamp);
+        }
+        lastTimestamp = s.timestamp;
+        if (s.type == brainPacket.TYPE_EEG) {
+            if (lastEegTimestamp != 0 && s.timestamp > lastEegTimestamp) {
+                final double interval = s.timestamp - lastEegTimestamp;
+                // Smoothed, so one late packet does not skew the estimate.
+                eegIntervalMicros = eegIntervalMicros == 0 ? interval :
+                    eegIntervalMicros + (interval - eegIntervalMicros) / 64.0;
+            }
+            lastEegTimestamp = s.timestamp;
+        }
+        final DataSource.Listener l = listener;
+        if (l != null) {
+            l.onSample(s);
+        }
+    }
+
+    private void connectionState(int from, int previous, int current) {
+        synchronized (this) {
+            if (from != generation) {
+                // A late event of an attempt given up on already.
+                return;
+            }
+            if (wanted) {
+                if (current == DataSource.STATE_CONNECTED) {
+                    connected();
+                } else if (current == DataSource.STATE_DISCONNECTED) {
+                    dropped();
+                } else if (current == DataSource.STATE_NEEDS_UPDATE) {
+                    cancelPending();
+                    state = FAILED;
+                    wanted = false;
+                }
+            }
+        }
+        final DataSource.Listener l = listener;
+        if (l != null) {
+            l.onConnectionState(previous, current);
+        }
+    }
+
+    // Caller holds the lock.
+    private void connected() {
+        cancelPending();
+        state = CONNECTED;
+        connectedAtNanos = System.nanoTime();
+        if (inEpisode) {
+            final long elapsed = connectedAtNanos - droppedAtNanos;
+            totalReconnectNanos += elapsed;
+            maxReconnectNanos = Math.max(maxReconnectNanos, elapsed);
+            ++reconnects;
+            final Episode e = new Episode();
+            e.reconnectNanos = elapsed;
+            e.attempts = episodeAttempts;
+            e.gapMicros = -1;
+            addEpisode(e);
+            // The gap is only known at the first sample.
+            awaitingFirstSample = true;
+            inEpisode = false;
+        }
+    }
+
+    // Caller holds the lock.
+    private void dropped() {
+        if (state == CONNECTED) {
+            final long heldNanos = System.nanoTime() - connectedAtNanos;
+            if (heldNanos >= TimeUnit.MILLISECONDS.toNanos(stableMillis)) {
+                attempt = 0;
+            }
+            ++drops;
+            droppedAtNanos = System.nanoTime();
+            episodeAttempts = 0;
+            inEpisode = true;
+            lastTimestampBeforeDrop = lastTimestamp;
+            eegIntervalBeforeDrop = eegIntervalMicros;
+        }
+        if (state == CONNECTED || state == CONNECTING) {
+            scheduleRetry();
+        }
+    }
+
+    private void firstSampleAfterReconnect(long timestamp) {
+        synchronized (this) {
+            awaitingFirstSample = false;
+            final Episode e = history.peekLast();
+            if (e == null || e.gapMicros >= 0) {
+                return;
+            }
+            e.gapMicros = lastTimestampBeforeDrop == 0 ? 0 : Math.max(0, timestamp - lastTimestampBeforeDrop);
+            if (eegIntervalBeforeDrop > 0) {
+                e.packetsLost = Math.max(0, Math.round(e.gapMicros / eegIntervalBeforeDrop) - 1);
+            }
+            totalGapMicros += e.gapMicros;
+            maxGapMicros = Math.max(maxGapMicros, e.gapMicros);
+            packetsLost += e.packetsLost;
+        }
+        // Intervals across the gap are not sample intervals.
+        lastEegTimestamp = 0;
+    }
+
+    // Caller holds the lock.
+    private void scheduleRetry() {
+        cancelPending();
+        state = WAITING;
+        final long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 30));
+        final long delay = cap / 2 + (long) (random.nextDouble() * (cap - cap / 2));
+        ++attempt;
+        pending = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                retry();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void retry() {
+        final Attempt a;
+        synchronized (this) {
+            if (!wanted || state != WAITING) {
+                return;
+            }
+            pending = null;
+            a = startAttempt();
+        }
+        begin(a);
+    }
+
+    // Caller holds the lock, and calls begin() with the result once it has
+    // let go of it.
+    private Attempt startAttempt() {
+        state = CONNECTING;
+        ++generation;
+        ++attempts;
+        if (inEpisode) {
+            ++episodeAttempts;
+        }
+        pending = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                timedOut();
+            }
+        }, connectTimeoutMillis, TimeUnit.MILLISECONDS);
+        return new Attempt(generation);
+    }
+
+    private void begin(Attempt a) {
+        source.setListener(a);
+        source.start();
+        synchronized (this) {
+            if (wanted || a.generation != generation) {
+                return;
+            }
+        }
+        // disconnect() ran while the source was starting, and may have
+        // stopped it before it started.
+        source.stop();
+    }
+
+    private void timedOut() {
+        synchronized (this) {
+            if (!wanted || state != CONNECTING) {
+                return;
+            }
+            ++timeouts;
+            pending = null;
+            // Whatever this attempt still reports is stale from now on.
+            ++generation;
+        }
+        source.stop();
+        // Its DISCONNECTED is ignored, so the next attempt is scheduled here.
+        synchronized (this) {
+            if (wanted && state == CONNECTING) {
+                scheduleRetry();
+            }
+        }
+    }
+
+    // Caller holds the lock.
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    // Caller holds the lock.
+    private void addEpisode(Episode e) {
+        if (history.size() == EPISODE_HISTORY) {
+            history.removeFirst();
+        }
+        history.addLast(e);
+    }
+
+    /** The most recent episodes, oldest first. */
+    public synchronized List<Episode> episodes() {
+        return new ArrayList<>(history);
+    }
+
+    public long drops() {
+        return drops;
+    }
+
+    public long reconnects() {
+        return reconnects;
+    }
+
+    /** Connection attempts, including the first. */
+    public long attempts() {
+        return attempts;
+    }
+
+    public long timeouts() {
+        return timeouts;
+    }
+
+    public long meanReconnectNanos() {
+        final long n = reconnects;
+        return n == 0 ? 0 : totalReconnectNanos / n;
+    }
+
+    public long maxReconnectNanos() {
+        return maxReconnectNanos;
+    }
+
+    public long meanGapMicros() {
+        final long n = reconnects;
+        return n == 0 ? 0 : totalGapMicros / n;
+    }
+
+    public long maxGapMicros() {
+        return maxGapMicros;
+    }
+
+    public long packetsLost() {
+        return packetsLost;
+    }
+
+    public synchronized String summary() {
+        return source.name() + ": " + STATE_NAMES[state] +
+            " drops=" + drops() + " reconnects=" + reconnects() +
+            " attempts=" + attempts() + " timeouts=" + timeouts() +
+            " reconnect mean/max=" + meanReconnectNanos() / 1000000 + "/" +
+            maxReconnectNanos() / 1000000 + "ms" +
+            " gap mean/max=" + meanGapMicros() / 1000 + "/" + maxGapMicros() / 1000 + "ms" +
+            " lost=" + packetsLost();
+    }
+}
@@ -0,0 +1,44 @@
+package com.choosemuse.example.libmuse;
+
+/**
+ * Something that produces live samples and connection events: a real
+ * headband (MuseDataSource in the app) or SimulatedDataSource.
+ *
+ * Connection states are libmuse ConnectionState ordinals, repeated here so
+ * the pipeline does not depend on libmuse.
+ */
+public interface DataSource {
+    int STATE_UNKNOWN = 0;
+    int STATE_CONNECTED = 1;
+    int STATE_CONNECTING = 2;
+    int STATE_DISCONNECTED = 3;
+    int STATE_NEEDS_UPDATE = 4;
+
+    /**
+     * Receives the output of a source, on the source's own thread. The
+     * record passed to onSample() is owned by the source and only valid
+     * during the call.
+     */
+    interface Listener {
+        void onSample(brainPacket s);
+
+        void onArtifact(long timestamp, boolean headbandOn, boolean blink, boolean jawClench);
+
+        void onConnectionState(int previous, int current);
+    }
+
+    String name();
+
+    /**
+     * Sets the listener for connections started from now on. A connection
+     * started earlier keeps reporting to the listener it started with, up
+     * to and including its DISCONNECTED.
+     */
+    void setListener(Listener listener);
+
+    /** Connects, or reconnects after a drop; returns immediately. */
+    void start();
+
+    /** Disconnects and stops producing. */
+    void stop();
+}
@@ -0,0 +1,150 @@
+package com.choosemuse.example.libmuse;
+
+/**
+ * Everything one headband needs on its own: an ingest ring written by the
+ * device's callback thread, and a recorder and analytics stages that a
+ * SessionManager worker drains it into. Devices share nothing, so a slow
+ * or noisy headband cannot hold up the others beyond its share of worker
+ * time.
+ */
+public class DevicePipeline {
+    private final String name;
+    private final SampleRing ring;
+    private final BatchRecorder recorder;
+    private final BandPowerEngine bandPowers;
+    private final EegDetector detector;
+
+    // Drain-side statistics, written by whichever worker drains this device
+    // and read by anyone. drain() and close() are synchronized only so that a
+    // close racing with a last scheduled drain cannot make two consumers.
+    private volatile long processed = 0;
+    private volatile long latencyNanosTotal = 0;
+    private volatile long latencyNanosMax = 0;
+    private volatile long latencySamples = 0;
+    private final long createdNanos = System.nanoTime();
+
+    private final SampleSink stages = new SampleSink() {
+        @Override
+        public void accept(brainPacket s) {
+            if (s.receivedNanos != 0) {
+                final long latency = System.nanoTime() - s.receivedNanos;
+                latencyNanosTotal += latency;
+                ++latencySamples;
+                if (latency > latencyNanosMax) {
+                    latencyNanosMax = latency;
+                }
+            }
+            if (recorder != null) {
+                recorder.accept(s);
+            }
+            if (bandPowers != null) {
+                bandPowers.accept(s);
+            }
+            if (detector != null) {
+                detector.accept(s);
+            }
+        }
+    };
+
+    /** recorder, bandPowers and detector may each be null to skip that stage. */
+    public DevicePipeline(String name, int ringCapacity, BatchRecorder recorder,
+                          BandPowerEngine bandPowers, EegDetector detector) {
+        this.name = name;
+        this.ring = new SampleRing(ringCapacity);
+        this.recorder = recorder;
+        this.bandPowers = bandPowers;
+        this.detector = detector;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Producer side: returns a slot to fill, or null if the ring is full.
+     * Set receivedNanos on it for latency accounting, then publish().
+     */
+    public brainPacket claim() {
+        return ring.claim();
+    }
+
+    public void publish() {
+        ring.publish();
+    }
+
+    /** Producer side: copies s into the ring; false if it was dropped. */
+    public boolean offer(brainPacket s) {
+        final brainPacket slot = ring.claim();
+        if (slot == null) {
+            return false;
+        }
+        slot.copyFrom(s);
+        if (slot.receivedNanos == 0) {
+            slot.receivedNanos = System.nanoTime();
+        }
+        ring.publish();
+        return true;
+    }
+
+    /** Worker side: runs everything queued through the stages. */
+    public synchronized int drain(long nowNanos) {
+        final int n = ring.drainAll(stages);
+        processed += n;
+        if (recorder != null) {
+            recorder.poll(nowNanos);
+        }
+        return n;
+    }
+
+    /** Worker side: drains what is left and closes the recorder. */
+    public synchronized void close() {
+        drain(System.nanoTime());
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
+    public SampleRing ring() {
+        return ring;
+    }
+
+    public BatchRecorder recorder() {
+        return recorder;
+    }
+
+    public BandPowerEngine bandPowers() {
+        return bandPowers;
+    }
+
+    public EegDetector detector() {
+        return detector;
+    }
+
+    public long processed() {
+        return processed;
+    }
+
+    public double samplesPerSecond() {
+        final long elapsed = System.nanoTime() - createdNanos;
+        return elapsed <= 0 ? 0.0 : processed * 1e9 / elapsed;
+    }
+
+    /** Mean time from claim() to the stages, in nanoseconds. */
+    public long meanLatencyNanos() {
+        final long n = latencySamples;
+        return n == 0 ? 0 : latencyNanosTotal / n;
+    }
+
+    public long maxLatencyNanos() {
+        return latencyNanosMax;
+    }
+
+    public String summary() {
+        return name +
+            ": processed=" + processed +
+            " rate=" + Math.round(samplesPerSecond()) + "/s" +
+            " latency mean/max=" + meanLatencyNanos() / 1000 + "/" + latencyNanosMax / 1000 + "us" +
+            " ring hw=" + ring.highWaterMark() +
+            " dropped=" + ring.dropCount();
+    }
+}
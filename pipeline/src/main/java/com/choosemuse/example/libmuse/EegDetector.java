@@ -0,0 +1,141 @@
+package com.choosemuse.example.libmuse;
+
+/**
+ * Per-channel adaptive threshold detector over raw EEG.
+ *
+ * Every sample updates an exponentially weighted running mean and variance
+ * of its channel. A channel turns active when a sample exceeds
+ * mean + onSigmas * sd and turns inactive again only once a sample drops
+ * below mean + offSigmas * sd (hysteresis). A state change must then hold
+ * for debounceSamples before another one is reported, which suppresses
+ * chatter around the threshold. Nothing is reported during the first
+ * warmupSamples while the statistics settle.
+ *
+ * Work per sample is O(1) per channel and nothing is allocated. Listener
+ * callbacks carry the timestamp of the sample that caused them. The
+ * detector is fed from one thread; activeMask() may be read from any.
+ */
+public class EegDetector implements SampleSink {
+    /** Called on the feeding thread whenever a channel changes state. */
+    public interface Listener {
+        void onDetection(int channel, long timestamp, boolean active, double value);
+    }
+
+    private final int channels;
+    private final double weight;
+    private final double onSigmas;
+    private final double offSigmas;
+    private final int debounceSamples;
+    private final long warmupSamples;
+
+    private final double[] mean;
+    private final double[] variance;
+    private final boolean[] active;
+    private final long[] lastChange;
+    private long samples = 0;
+    private volatile int activeMask = 0;
+    private Listener listener;
+
+    /**
+     * @param channels        number of EEG channels to watch, from the first
+     * @param timeConstant    samples over which the running statistics adapt
+     * @param onSigmas        activation threshold in standard deviations
+     * @param offSigmas       release threshold, below onSigmas
+     * @param debounceSamples minimum samples between two state changes
+     * @param warmupSamples   samples to observe before reporting anything
+     */
+    public EegDetector(int channels, int timeConstant, double onSigmas, double offSigmas,
+                       int debounceSamples, long warmupSamples) {
+        if (channels < 1 || channels > brainPacket.MAX_VALUES) {
+            throw new IllegalArgumentException("channels out of range: " + channels);
+        }
+        if (offSigmas > onSigmas) {
+            throw new IllegalArgumentException("offSigmas must not exceed onSigmas");
+        }
+        this.channels = channels;
+        this.weight = 1.0 / Math.max(1, timeConstant);
+        this.onSigmas = onSigmas;
+        this.offSigmas = offSigmas;
+        this.debounceSamples = debounceSamples;
+        this.warmupSamples = warmupSamples;
+        mean = new double[channels];
+        variance = new double[channels];
+        active = new boolean[channels];
+        lastChange = new long[channels];
+    }
+
+    /** The four headband channels, adapting over ~2 s at 256 Hz. */
+    public EegDetector() {
+        this(4, 512, 4.0, 2.0, 32, 256);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void accept(brainPacket s) {
+        if (s.type != brainPacket.TYPE_EEG) {
+            return;
+        }
+        final long n = samples++;
+        final int count = Math.min(channels, s.size);
+        int mask = activeMask;
+        for (int c = 0; c < count; ++c) {
+            final double x = s.values[c];
+            if (Double.isNaN(x)) {
+                continue;
+            }
+            if (n == 0) {
+                mean[c] = x;
+                continue;
+            }
+            final double sd = Math.sqrt(variance[c]);
+            if (n >= warmupSamples && n - lastChange[c] >= debounceSamples) {
+                final boolean on = active[c];
+                if (!on && x > mean[c] + onSigmas * sd) {
+                    active[c] = true;
+                    lastChange[c] = n;
+                    mask |= 1 << c;
+                    if (listener != null) {
+                        listener.onDetection(c, s.timestamp, true, x);
+                    }
+                } else if (on && x < mean[c] + offSigmas * sd) {
+                    active[c] = false;
+                    lastChange[c] = n;
+                    mask &= ~(1 << c);
+                    if (listener != null) {
+                        listener.onDetection(c, s.timestamp, false, x);
+                    }
+                }
+            }
+            // Exponentially weighted mean and variance (West's update).
+            final double diff = x - mean[c];
+            final double incr = weight * diff;
+            mean[c] += incr;
+            variance[c] = (1.0 - weight) * (variance[c] + diff * incr);
+        }
+        activeMask = mask;
+    }
+
+    public boolean isActive(int channel) {
+        return (activeMask & (1 << channel)) != 0;
+    }
+
+    /** Bit c is set while channel c is active. */
+    public int activeMask() {
+        return activeMask;
+    }
+
+    public double mean(int channel) {
+        return mean[channel];
+    }
+
+    public double standardDeviation(int channel) {
+        return Math.sqrt(variance[channel]);
+    }
+
+    public long sampleCount() {
+        return samples;
+    }
+}
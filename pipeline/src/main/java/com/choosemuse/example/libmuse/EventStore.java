@@ -0,0 +1,326 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only store of session events -- user markers, detector and
+ * artifact episodes, stretches of bad signal -- each a kind, a start and end
+ * timestamp (equal for instant markers) and a text, with an interval index
+ * for time-range queries.
+ *
+ * Events are kept in the order they were added, which is what get() walks,
+ * and indexed by start time: a sorted array of starts, and over it an
+ * implicit binary tree holding the latest end in every subtree. Finding the
+ * events that overlap a time range is then O(log n) plus O(log n) per event
+ * found, whatever the session length. Adding is O(log n) when events come
+ * roughly in start order, as they do from a live session; an event that
+ * starts before ones already added costs the shift of those.
+ *
+ * Recordings carry events as annotations, one per event, whose text is
+ * Event.toString(). The text repeats the start, because .muse files stamp
+ * annotations with the time they were written. As a SessionWriter the store
+ * indexes the annotations written to it, so a MultiSessionWriter can index
+ * a session in the same pass that records or converts it. Annotations in
+ * other formats become NOTE events. Thread-safe.
+ */
+public class EventStore implements SessionWriter {
+    public static final int NOTE = 0;
+    public static final int USER = 1;
+    public static final int DETECTOR = 2;
+    public static final int ARTIFACT = 3;
+    public static final int QUALITY = 4;
+
+    private static final String[] KIND_NAMES = { "note", "user", "detector", "artifact", "quality" };
+
+    /** One event; immutable. */
+    public static final class Event {
+        public final int kind;
+        public final long start;
+        public final long end;
+        public final String text;
+
+        public Event(int kind, long start, long end, String text) {
+            this.kind = kind;
+            this.start = start;
+            this.end = Math.max(start, end);
+            this.text = text;
+        }
+
+        public long durationMicros() {
+            return end - start;
+        }
+
+        /** The annotation text the event is recorded as: "kind @start [+duration] [text]". */
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(kindName(kind)).append(" @").append(start);
+            if (end > start) {
+                sb.append(" +").append(end - start);
+            }
+            if (text.length() > 0) {
+                sb.append(' ').append(text);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final List<Event> log = new ArrayList<>();
+    // Positions in log, and their starts, ordered by start.
+    private int[] order = new int[64];
+    private long[] starts = new long[64];
+    // Implicit tree over the sorted positions: node k covers children 2k and
+    // 2k + 1, leaves are at leaves + position; each holds the latest end
+    // below it.
+    private int leaves = 64;
+    private long[] maxEnd = newTree(64);
+    private long lastTimestamp = 0;
+
+    public static String kindName(int kind) {
+        return kind >= 0 && kind < KIND_NAMES.length ? KIND_NAMES[kind] : "kind " + kind;
+    }
+
+    /**
+     * The event an annotation at timestamp stands for: "kind [@start]
+     * [+duration] [text]" as written by Event.toString(), or else a NOTE
+     * at timestamp with the whole text.
+     */
+    public static Event parse(long timestamp, String annotation) {
+        final String[] tokens = annotation.split(" ", 4);
+        final int kind = Arrays.asList(KIND_NAMES).indexOf(tokens[0]);
+        if (kind < 0) {
+            return new Event(NOTE, timestamp, timestamp, annotation);
+        }
+        long start = timestamp;
+        long duration = 0;
+        int k = 1;
+        if (k < tokens.length && tokens[k].startsWith("@") && isNumber(tokens[k], 1)) {
+            start = Long.parseLong(tokens[k++].substring(1));
+        }
+        if (k < tokens.length && tokens[k].startsWith("+") && isNumber(tokens[k], 1)) {
+            duration = Long.parseLong(tokens[k++].substring(1));
+        }
+        final StringBuilder text = new StringBuilder();
+        for (; k < tokens.length; ++k) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(tokens[k]);
+        }
+        return new Event(kind, start, start + duration, text.toString());
+    }
+
+    // An optional minus and 1 to 18 digits from index from on, which always
+    // fits a long.
+    private static boolean isNumber(String s, int from) {
+        if (from < s.length() && s.charAt(from) == '-') {
+            ++from;
+        }
+        if (from >= s.length() || s.length() - from > 18) {
+            return false;
+        }
+        for (int i = from; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Event add(int kind, long start, long end, String text) {
+        final Event e = new Event(kind, start, end, text);
+        add(e);
+        return e;
+    }
+
+    /** An instant event at timestamp. */
+    public Event mark(int kind, long timestamp, String text) {
+        return add(kind, timestamp, timestamp, text);
+    }
+
+    public synchronized void add(Event e) {
+        final int n = log.size();
+        if (n == leaves) {
+            grow();
+        }
+        log.add(e);
+        // Usually the latest start, so the search from the end stops at once.
+        int pos = n;
+        while (pos > 0 && starts[pos - 1] > e.start) {
+            --pos;
+        }
+        System.arraycopy(order, pos, order, pos + 1, n - pos);
+        System.arraycopy(starts, pos, starts, pos + 1, n - pos);
+        order[pos] = n;
+        starts[pos] = e.start;
+        for (int i = pos; i <= n; ++i) {
+            maxEnd[leaves + i] = log.get(order[i]).end;
+        }
+        // Parents of the leaves that changed, level by level.
+        int from = (leaves + pos) >> 1;
+        int to = (leaves + n) >> 1;
+        while (from >= 1) {
+            for (int k = from; k <= to; ++k) {
+                maxEnd[k] = Math.max(maxEnd[2 * k], maxEnd[2 * k + 1]);
+            }
+            from >>= 1;
+            to >>= 1;
+        }
+    }
+
+    public synchronized int size() {
+        return log.size();
+    }
+
+    /** The index-th event added. */
+    public synchronized Event get(int index) {
+        return log.get(index);
+    }
+
+    /**
+     * Events with start < to and end >= from, i.e. those overlapping
+     * [from, to) (a marker at from included), in start order.
+     */
+    public synchronized List<Event> overlapping(long from, long to) {
+        final List<Event> out = new ArrayList<>();
+        final int limit = lowerBound(to);
+        if (limit > 0) {
+            collect(1, 0, leaves, limit, from, out);
+        }
+        return out;
+    }
+
+    /** Events of kind (or of any kind, for -1) overlapping [from, to). */
+    public List<Event> overlapping(long from, long to, int kind) {
+        final List<Event> all = overlapping(from, to);
+        if (kind < 0) {
+            return all;
+        }
+        final List<Event> out = new ArrayList<>();
+        for (Event e : all) {
+            if (e.kind == kind) {
+                out.add(e);
+            }
+        }
+        return out;
+    }
+
+    /** First event of kind (-1 for any) starting at or after timestamp, or null. */
+    public synchronized Event next(long timestamp, int kind) {
+        final int n = log.size();
+        for (int i = lowerBound(timestamp); i < n; ++i) {
+            final Event e = log.get(order[i]);
+            if (kind < 0 || e.kind == kind) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /** Last event of kind (-1 for any) starting before timestamp, or null. */
+    public synchronized Event previous(long timestamp, int kind) {
+        for (int i = lowerBound(timestamp) - 1; i >= 0; --i) {
+            final Event e = log.get(order[i]);
+            if (kind < 0 || e.kind == kind) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    // Walks the subtree of node, covering sorted positions [lo, hi), for
+    // events below limit that end at or after from.
+    private void collect(int node, int lo, int hi, int limit, long from, List<Event> out) {
+        if (lo >= limit || maxEnd[node] < from) {
+            return;
+        }
+        if (hi - lo == 1) {
+            out.add(log.get(order[lo]));
+            return;
+        }
+        final int mid = (lo + hi) >>> 1;
+        collect(2 * node, lo, mid, limit, from, out);
+        collect(2 * node + 1, mid, hi, limit, from, out);
+    }
+
+    // First sorted position whose start is >= timestamp.
+    private int lowerBound(long timestamp) {
+        int lo = 0;
+        int hi = log.size();
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (starts[mid] < timestamp) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void grow() {
+        leaves *= 2;
+        order = Arrays.copyOf(order, leaves);
+        starts = Arrays.copyOf(starts, leaves);
+        maxEnd = newTree(leaves);
+        final int n = log.size();
+        for (int i = 0; i < n; ++i) {
+            maxEnd[leaves + i] = log.get(order[i]).end;
+        }
+        for (int k = leaves - 1; k >= 1; --k) {
+            maxEnd[k] = Math.max(maxEnd[2 * k], maxEnd[2 * k + 1]);
+        }
+    }
+
+    private static long[] newTree(int leaves) {
+        final long[] tree = new long[2 * leaves];
+        Arrays.fill(tree, Long.MIN_VALUE);
+        return tree;
+    }
+
+    // SessionWriter: index the annotations of a recording.
+
+    @Override
+    public synchronized void write(brainPacket s) {
+        lastTimestamp = s.timestamp;
+    }
+
+    /**
+     * Adds the event the annotation stands for. A timestamp of 0 (libmuse
+     * stamps those itself) is taken as the time of the last sample written.
+     */
+    @Override
+    public void annotate(long timestamp, String text) {
+        final long t;
+        synchronized (this) {
+            t = timestamp != 0 ? timestamp : lastTimestamp;
+        }
+        add(parse(t, text));
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public synchronized String summary() {
+        final int[] counts = new int[KIND_NAMES.length];
+        for (Event e : log) {
+            if (e.kind >= 0 && e.kind < counts.length) {
+                ++counts[e.kind];
+            }
+        }
+        final StringBuilder sb = new StringBuilder("events=").append(log.size());
+        for (int k = 0; k < counts.length; ++k) {
+            if (counts[k] > 0) {
+                sb.append(' ').append(KIND_NAMES[k]).append('=').append(counts[k]);
+            }
+        }
+        return sb.toString();
+    }
+}
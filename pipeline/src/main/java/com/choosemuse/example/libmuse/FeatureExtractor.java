@@ -0,0 +1,375 @@
+package com.choosemuse.example.libmuse;
+
+/**
+ * Sliding-window feature vectors over raw EEG, for classifiers.
+ *
+ * Every hop samples the last windowSize samples of each channel are
+ * detrended and, Hann-tapered, transformed into a power spectrum; then each
+ * FeatureSet in turn writes its features into one vector, which goes to the
+ * listener. Feature sets are pluggable; the default ones are
+ *
+ *   BAND_RATIOS    per channel: log theta/beta, log alpha/beta and log
+ *                  beta/(alpha + theta) (engagement)
+ *   HJORTH         per channel: log activity, mobility, complexity
+ *   ENTROPY        per channel: spectral entropy over 1-44 Hz, from 0 (one
+ *                  line) to 1 (flat spectrum)
+ *   CORRELATION    correlation of every pair of channels, from their
+ *                  covariance
+ *
+ * All buffers are allocated in the constructor and nothing after; the time
+ * every window takes is kept in nanos(). The
+ * taper, the FFT tables and the logarithms go through StrictMath, so the
+ * same samples give bit-identical vectors on every JVM and device:
+ * replaying a recording reproduces what was computed live. Not
+ * thread-safe: feed it from one thread.
+ */
+public class FeatureExtractor implements SampleSink {
+    /** Called on the feeding thread with every new vector, valid during the call. */
+    public interface Listener {
+        void onFeatures(long timestamp, double[] features);
+    }
+
+    /** One window of samples handed to the feature sets. */
+    public static final class Window {
+        public final int channels;
+        public final int length;
+        public final double sampleRate;
+        /** Detrended samples, [channel][oldest first]. */
+        public final double[][] samples;
+        /** Power per FFT bin up to Nyquist, [channel][bin]. */
+        public final double[][] power;
+        public final double binHz;
+
+        Window(int channels, int length, double sampleRate) {
+            this.channels = channels;
+            this.length = length;
+            this.sampleRate = sampleRate;
+            this.samples = new double[channels][length];
+            this.power = new double[channels][length / 2 + 1];
+            this.binHz = sampleRate / length;
+        }
+
+        /** Power summed over [low, high) Hz. */
+        public double bandPower(int channel, double low, double high) {
+            final int first = Math.max(1, (int) Math.ceil(low / binHz));
+            final int last = Math.min(length / 2, (int) Math.ceil(high / binHz) - 1);
+            double p = 0.0;
+            for (int k = first; k <= last; ++k) {
+                p += power[channel][k];
+            }
+            return p;
+        }
+    }
+
+    /** A group of features computed from each window. */
+    public interface FeatureSet {
+        int size(int channels);
+
+        String name(int channels, int i);
+
+        /** Writes size(w.channels) features at out[offset]; must not allocate. */
+        void compute(Window w, double[] out, int offset);
+    }
+
+    // Keeps logarithms of empty bands finite.
+    private static final double EPSILON = 1e-12;
+
+    public static final FeatureSet BAND_RATIOS = new FeatureSet() {
+        @Override
+        public int size(int channels) {
+            return 3 * channels;
+        }
+
+        @Override
+        public String name(int channels, int i) {
+            final String[] names = { "theta/beta", "alpha/beta", "engagement" };
+            return names[i % 3] + " " + i / 3;
+        }
+
+        @Override
+        public void compute(Window w, double[] out, int offset) {
+            for (int c = 0; c < w.channels; ++c) {
+                final double theta = w.bandPower(c, 4.0, 8.0) + EPSILON;
+                final double alpha = w.bandPower(c, 8.0, 13.0) + EPSILON;
+                final double beta = w.bandPower(c, 13.0, 30.0) + EPSILON;
+                out[offset++] = StrictMath.log(theta / beta);
+                out[offset++] = StrictMath.log(alpha / beta);
+                out[offset++] = StrictMath.log(beta / (alpha + theta));
+            }
+        }
+    };
+
+    public static final FeatureSet HJORTH = new FeatureSet() {
+        @Override
+        public int size(int channels) {
+            return 3 * channels;
+        }
+
+        @Override
+        public String name(int channels, int i) {
+            final String[] names = { "activity", "mobility", "complexity" };
+            return names[i % 3] + " " + i / 3;
+        }
+
+        @Override
+        public void compute(Window w, double[] out, int offset) {
+            for (int c = 0; c < w.channels; ++c) {
+                final double[] x = w.samples[c];
+                // Variances of the signal and of its first and second
+                // differences; the samples are already detrended.
+                double v0 = 0.0;
+                double v1 = 0.0;
+                double v2 = 0.0;
+                for (int i = 0; i < w.length; ++i) {
+                    v0 += x[i] * x[i];
+                    if (i >= 1) {
+                        final double d1 = x[i] - x[i - 1];
+                        v1 += d1 * d1;
+                        if (i >= 2) {
+                            final double d2 = d1 - (x[i - 1] - x[i - 2]);
+                            v2 += d2 * d2;
+                        }
+                    }
+                }
+                v0 /= w.length;
+                v1 /= w.length - 1;
+                v2 /= w.length - 2;
+                final double mobility = Math.sqrt(v1 / (v0 + EPSILON));
+                final double mobility1 = Math.sqrt(v2 / (v1 + EPSILON));
+                out[offset++] = StrictMath.log(v0 + EPSILON);
+                out[offset++] = mobility;
+                out[offset++] = mobility1 / (mobility + EPSILON);
+            }
+        }
+    };
+
+    public static final FeatureSet ENTROPY = new FeatureSet() {
+        @Override
+        public int size(int channels) {
+            return channels;
+        }
+
+        @Override
+        public String name(int channels, int i) {
+            return "entropy " + i;
+        }
+
+        @Override
+        public void compute(Window w, double[] out, int offset) {
+            final int first = Math.max(1, (int) Math.ceil(1.0 / w.binHz));
+            final int last = Math.min(w.length / 2, (int) Math.ceil(44.0 / w.binHz) - 1);
+            final double norm = StrictMath.log(last - first + 1);
+            for (int c = 0; c < w.channels; ++c) {
+                final double[] p = w.power[c];
+                double total = 0.0;
+                for (int k = first; k <= last; ++k) {
+                    total += p[k];
+                }
+                double h = 0.0;
+                if (total > 0.0) {
+                    for (int k = first; k <= last; ++k) {
+                        if (p[k] > 0.0) {
+                            final double q = p[k] / total;
+                            h -= q * StrictMath.log(q);
+                        }
+                    }
+                }
+                out[offset + c] = h / norm;
+            }
+        }
+    };
+
+    public static final FeatureSet CORRELATION = new FeatureSet() {
+        @Override
+        public int size(int channels) {
+            return channels * (channels - 1) / 2;
+        }
+
+        @Override
+        public String name(int channels, int i) {
+            for (int a = 0; a < channels; ++a) {
+                final int pairs = channels - 1 - a;
+                if (i < pairs) {
+                    return "correlation " + a + "-" + (a + 1 + i);
+                }
+                i -= pairs;
+            }
+            return "correlation";
+        }
+
+        @Override
+        public void compute(Window w, double[] out, int offset) {
+            for (int a = 0; a < w.channels; ++a) {
+                final double[] x = w.samples[a];
+                for (int b = a + 1; b < w.channels; ++b) {
+                    final double[] y = w.samples[b];
+                    double xy = 0.0;
+                    double xx = 0.0;
+                    double yy = 0.0;
+                    for (int i = 0; i < w.length; ++i) {
+                        xy += x[i] * y[i];
+                        xx += x[i] * x[i];
+                        yy += y[i] * y[i];
+                    }
+                    out[offset++] = xy / (Math.sqrt(xx * yy) + EPSILON);
+                }
+            }
+        }
+    };
+
+    private final int channels;
+    private final int windowSize;
+    private final int mask;
+    private final int hop;
+    private final FeatureSet[] sets;
+    private final int[] offsets;
+    private final double[] features;
+    private final Fft fft;
+    private final double[] taper;
+    private final double[] re;
+    private final double[] im;
+    private final double[][] history;
+    private final Window window;
+    private int writePos = 0;
+    private long filled = 0;
+    private int sinceLastWindow = 0;
+    private final LogHistogram nanos = new LogHistogram(1000000000L);
+    private Listener listener;
+
+    /**
+     * @param channels   EEG channels to use, from the first
+     * @param sampleRate EEG sample rate in Hz
+     * @param windowSize samples per window, a power of two
+     * @param hop        samples between windows
+     * @param sets       the features, in vector order
+     */
+    public FeatureExtractor(int channels, double sampleRate, int windowSize, int hop, FeatureSet... sets) {
+        if (channels < 1 || channels > brainPacket.MAX_VALUES) {
+            throw new IllegalArgumentException("channels out of range: " + channels);
+        }
+        if (hop < 1 || hop > windowSize) {
+            throw new IllegalArgumentException("bad hop: " + hop);
+        }
+        this.channels = channels;
+        this.windowSize = windowSize;
+        this.mask = windowSize - 1;
+        this.hop = hop;
+        this.sets = sets.clone();
+        offsets = new int[sets.length + 1];
+        for (int i = 0; i < sets.length; ++i) {
+            offsets[i + 1] = offsets[i] + sets[i].size(channels);
+        }
+        features = new double[offsets[sets.length]];
+        fft = new Fft(windowSize);
+        taper = new double[windowSize];
+        for (int i = 0; i < windowSize; ++i) {
+            taper[i] = 0.5 - 0.5 * StrictMath.cos(2 * Math.PI * i / (windowSize - 1));
+        }
+        re = new double[windowSize];
+        im = new double[windowSize];
+        history = new double[channels][windowSize];
+        window = new Window(channels, windowSize, sampleRate);
+    }
+
+    /** The four headband channels at 256 Hz, 1 s windows every 1/4 s, all default features. */
+    public FeatureExtractor() {
+        this(4, 256.0, 256, 64, BAND_RATIOS, HJORTH, ENTROPY, CORRELATION);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return features.length;
+    }
+
+    public String name(int feature) {
+        for (int i = 0; i < sets.length; ++i) {
+            if (feature < offsets[i + 1]) {
+                return sets[i].name(channels, feature - offsets[i]);
+            }
+        }
+        throw new IndexOutOfBoundsException("feature " + feature);
+    }
+
+    /** Position of the feature called name, or -1. */
+    public int indexOf(String name) {
+        for (int i = 0; i < features.length; ++i) {
+            if (name(i).equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void accept(brainPacket s) {
+        if (s.type != brainPacket.TYPE_EEG) {
+            return;
+        }
+        for (int c = 0; c < channels; ++c) {
+            history[c][writePos] = c < s.size ? s.values[c] : 0.0;
+        }
+        writePos = (writePos + 1) & mask;
+        ++filled;
+        if (++sinceLastWindow >= hop && filled >= windowSize) {
+            sinceLastWindow = 0;
+            computeWindow(s.timestamp);
+        }
+    }
+
+    private void computeWindow(long timestamp) {
+        final long start = System.nanoTime();
+        for (int c = 0; c < channels; ++c) {
+            final double[] h = history[c];
+            final double[] x = window.samples[c];
+            double mean = 0.0;
+            for (int i = 0; i < windowSize; ++i) {
+                mean += h[i];
+            }
+            mean /= windowSize;
+            // writePos is the oldest sample.
+            for (int i = 0; i < windowSize; ++i) {
+                x[i] = h[(writePos + i) & mask] - mean;
+                re[i] = x[i] * taper[i];
+                im[i] = 0.0;
+            }
+            fft.transform(re, im);
+            final double[] p = window.power[c];
+            for (int k = 0; k < p.length; ++k) {
+                p[k] = re[k] * re[k] + im[k] * im[k];
+            }
+        }
+        for (int i = 0; i < sets.length; ++i) {
+            sets[i].compute(window, features, offsets[i]);
+        }
+        nanos.record(System.nanoTime() - start);
+        if (listener != null) {
+            listener.onFeatures(timestamp, features);
+        }
+    }
+
+    /** The last vector computed. */
+    public double[] features() {
+        return features;
+    }
+
+    public long windowCount() {
+        return nanos.count();
+    }
+
+    /** Nanoseconds spent on each window, listener excluded. */
+    public LogHistogram nanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < features.length; ++i) {
+            sb.append(i == 0 ? "" : ", ").append(name(i)).append('=').append(features[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package com.choosemuse.example.libmuse;
+
+/**
+ * In-place iterative radix-2 FFT of a fixed size. The twiddle factors and
+ * the bit-reversal permutation are computed once in the constructor, so
+ * transform() does not allocate. The twiddles come from StrictMath, so
+ * results are the same on every platform.
+ */
+public final class Fft {
+    private final int n;
+    private final double[] cos;
+    private final double[] sin;
+    private final int[] reversed;
+
+    public Fft(int n) {
+        if (n < 2 || Integer.bitCount(n) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + n);
+        }
+        this.n = n;
+        cos = new double[n / 2];
+        sin = new double[n / 2];
+        for (int i = 0; i < n / 2; ++i) {
+            cos[i] = StrictMath.cos(-2 * Math.PI * i / n);
+            sin[i] = StrictMath.sin(-2 * Math.PI * i / n);
+        }
+        final int bits = Integer.numberOfTrailingZeros(n);
+        reversed = new int[n];
+        for (int i = 0; i < n; ++i) {
+            reversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /** Forward transform of re + i*im, in place. */
+    public void transform(double[] re, double[] im) {
+        for (int i = 0; i < n; ++i) {
+            final int j = reversed[i];
+            if (j > i) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int size = 2; size <= n; size <<= 1) {
+            final int half = size >> 1;
+            final int step = n / size;
+            for (int start = 0; start < n; start += size) {
+                for (int k = 0; k < half; ++k) {
+                    final double wr = cos[k * step];
+                    final double wi = sin[k * step];
+                    final int a = start + k;
+                    final int b = a + half;
+                    final double tr = re[b] * wr - im[b] * wi;
+                    final double ti = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
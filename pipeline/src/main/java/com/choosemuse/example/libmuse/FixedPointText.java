@@ -0,0 +1,152 @@
+package com.choosemuse.example.libmuse;
+
+/**
+ * A number rendered as right-aligned fixed-point text into a reusable char
+ * buffer, the allocation-free replacement for String.format("%6.2f", v).
+ *
+ * update() only re-renders when the value changes at the displayed
+ * precision, and reports whether it did, so callers can skip redundant
+ * TextView.setText calls. Values round half away from zero; negative values
+ * that round to zero are shown without a sign. Magnitudes too large for the
+ * scaled value to fit in a long, and NaN, are shown as "NaN"/"Infinity"
+ * style markers.
+ */
+public class FixedPointText {
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L
+    };
+    // Longest digit string a long can produce, plus sign and decimal point.
+    private static final int MAX_CHARS = 21;
+    private static final char[] NAN = "NaN".toCharArray();
+    private static final char[] INFINITY = "Infinity".toCharArray();
+    private static final char[] NEGATIVE_INFINITY = "-Infinity".toCharArray();
+
+    // Quantized values outside the long range; see quantize().
+    private static final long QUANTIZED_NAN = Long.MIN_VALUE;
+    private static final long QUANTIZED_POSITIVE_OVERFLOW = Long.MAX_VALUE;
+    private static final long QUANTIZED_NEGATIVE_OVERFLOW = Long.MIN_VALUE + 1;
+
+    private final int width;
+    private final int decimals;
+    private final char[] chars;
+    private int length = 0;
+    private long shown = 0;
+    private boolean valid = false;
+
+    public FixedPointText(int width, int decimals) {
+        if (decimals < 0 || decimals >= POWERS_OF_TEN.length) {
+            throw new IllegalArgumentException("decimals: " + decimals);
+        }
+        this.width = width;
+        this.decimals = decimals;
+        this.chars = new char[Math.max(width, MAX_CHARS)];
+    }
+
+    /**
+     * Sets the value to display. Returns true if the text changed, in which
+     * case chars()/length() hold the new text.
+     */
+    public boolean update(double value) {
+        final long q = quantize(value, decimals);
+        if (valid && q == shown) {
+            return false;
+        }
+        shown = q;
+        valid = true;
+        length = render(q, width, decimals, chars, 0);
+        return true;
+    }
+
+    /** Forgets the shown value so the next update() always re-renders. */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * The rendered text. The array is reused by the next update() that
+     * returns true.
+     */
+    public char[] chars() {
+        return chars;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Formats value into out at offset and returns the number of chars
+     * written. out must have max(width, 21) chars of room after offset,
+     * which is also used as scratch space. Equivalent to
+     * "%<width>.<decimals>f" except for the rounding details noted above.
+     */
+    public static int format(double value, int width, int decimals, char[] out, int offset) {
+        return render(quantize(value, decimals), width, decimals, out, offset);
+    }
+
+    /** value scaled by 10^decimals and rounded, or one of the markers. */
+    static long quantize(double value, int decimals) {
+        if (value != value) {
+            return QUANTIZED_NAN;
+        }
+        final double scaled = Math.abs(value) * POWERS_OF_TEN[decimals] + 0.5;
+        // Leave room for the markers at both ends of the long range.
+        if (scaled >= 9.0e18) {
+            return value > 0 ? QUANTIZED_POSITIVE_OVERFLOW : QUANTIZED_NEGATIVE_OVERFLOW;
+        }
+        final long q = (long) scaled;
+        return value < 0 ? -q : q;
+    }
+
+    private static int render(long q, int width, int decimals, char[] out, int offset) {
+        if (q == QUANTIZED_NAN) {
+            return pad(NAN, width, out, offset);
+        } else if (q == QUANTIZED_POSITIVE_OVERFLOW) {
+            return pad(INFINITY, width, out, offset);
+        } else if (q == QUANTIZED_NEGATIVE_OVERFLOW) {
+            return pad(NEGATIVE_INFINITY, width, out, offset);
+        }
+        final boolean negative = q < 0;
+        long rest = negative ? -q : q;
+
+        // Digits, decimal point and sign are written backwards from the end of
+        // the available room, then moved to the front.
+        int digits = 0;
+        final int end = offset + Math.max(width, MAX_CHARS);
+        int pos = end;
+        do {
+            if (decimals > 0 && digits == decimals) {
+                out[--pos] = '.';
+            }
+            out[--pos] = (char) ('0' + (int) (rest % 10));
+            rest /= 10;
+            ++digits;
+        } while (rest != 0 || digits <= decimals);
+        if (negative) {
+            out[--pos] = '-';
+        }
+        final int count = end - pos;
+
+        // Right-align: move the text to the front, padded to width.
+        final int padding = Math.max(0, width - count);
+        for (int i = 0; i < padding; ++i) {
+            out[offset + i] = ' ';
+        }
+        System.arraycopy(out, pos, out, offset + padding, count);
+        return padding + count;
+    }
+
+    private static int pad(char[] text, int width, char[] out, int offset) {
+        final int padding = Math.max(0, width - text.length);
+        for (int i = 0; i < padding; ++i) {
+            out[offset + i] = ' ';
+        }
+        System.arraycopy(text, 0, out, offset + padding, text.length);
+        return padding + text.length;
+    }
+}
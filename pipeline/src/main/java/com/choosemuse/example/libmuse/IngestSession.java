@@ -0,0 +1,462 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything between a headband and its consumers, with no Android in it:
+ * the supervised connection, the analytics run on every sample, the
+ * recording, and the rings that hand samples to attached clients (UIs).
+ * The app's IngestService owns one for as long as it runs, so activities
+ * come and go without interrupting capture; on a JVM it can be driven by a
+ * SimulatedDataSource or a file to measure throughput.
+ *
+ * Samples arrive on the source's thread, which runs the analytics stages
+ * and copies each sample into recordRing and every client's ring. A file
+ * thread owned by the session drains recordRing into the recorder every
+ * drainIntervalMillis; while nothing is recording, it just empties it.
+ *
+ * Detector and artifact episodes, stretches of bad signal quality and user
+ * marks go into an EventStore; the file thread adds each event to the
+ * recording as an annotation, which is how recordings carry them.
+ */
+public class IngestSession implements DataSource.Listener {
+    public static final int RECORD_RING_SIZE = 4096;
+    public static final int DRAIN_INTERVAL_MS = 20;
+    // The recorder commits to the writer in batches of RECORD_BATCH_SIZE
+    // samples or every RECORD_BATCH_WINDOW_MS, whichever comes first, and
+    // flushes to storage every RECORD_FLUSH_INTERVAL_MS.
+    public static final int RECORD_BATCH_SIZE = 256;
+    public static final int RECORD_BATCH_WINDOW_MS = 250;
+    public static final int RECORD_FLUSH_INTERVAL_MS = 5000;
+    // Ten minutes of 256 Hz EEG for waveform views.
+    public static final int WAVEFORM_SAMPLES = 10 * 60 * 256;
+    /** Text of the ARTIFACT events for the headband being off. */
+    public static final String OFF_HEAD = "off head";
+
+    /**
+     * A consumer attached with attach(). Called on the source's thread, so
+     * implementations only signal their own thread.
+     */
+    public interface Client {
+        /** At least one new sample is in the client's ring. */
+        void onSamplesAvailable();
+
+        void onConnectionState(int previous, int current);
+    }
+
+    private static final class Attachment {
+        final SampleRing ring;
+        final Client client;
+
+        Attachment(SampleRing ring, Client client) {
+            this.ring = ring;
+            this.client = client;
+        }
+    }
+
+    private final PacketStats stats = new PacketStats();
+    private final BandPowerEngine bandPowers = new BandPowerEngine();
+    private final EegDetector detector = new EegDetector();
+    private final BrainStateClassifier brainState = new BrainStateClassifier();
+    private final MinMaxPyramid waveform = new MinMaxPyramid(4, WAVEFORM_SAMPLES);
+    private final QualityMonitor quality = new QualityMonitor();
+    // The analytics see EEG with head movement taken out.
+    private final MotionFilter motion = new MotionFilter(new SampleSink() {
+        @Override
+        public void accept(brainPacket s) {
+            bandPowers.accept(s);
+            detector.accept(s);
+            brainState.accept(s);
+        }
+    });
+    private final EventStore events = new EventStore();
+    private final SampleRing recordRing;
+    private final ScheduledExecutorService file;
+    private volatile NetworkStreamer streamer;
+    private volatile Attachment[] attachments = new Attachment[0];
+
+    // Source thread only, apart from the volatile timestamp used by mark().
+    private volatile long lastEegTimestamp = 0;
+    private final long[] detectionStart = new long[brainPacket.MAX_VALUES];
+    // Start of the open headband off, blink and jaw clench episodes, or -1.
+    private final long[] artifactStart = { -1, -1, -1 };
+    private boolean motionResetPending = false;
+    private ConnectionSupervisor supervisor;
+
+    // File thread only.
+    private BatchRecorder recorder;
+    private int eventsRecorded = 0;
+    private int qualityTagged = 0;
+    private int qualityMask = 0;
+    private int qualityRunStart = 0;
+    private final SampleSink discard = new SampleSink() {
+        @Override
+        public void accept(brainPacket s) {
+        }
+    };
+    private volatile String lastRecording = "none";
+
+    public IngestSession(int recordRingSize, long drainIntervalMillis) {
+        recordRing = new SampleRing(recordRingSize);
+        file = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "IngestSession-file");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        detector.setListener(new EegDetector.Listener() {
+            @Override
+            public void onDetection(int channel, long timestamp, boolean active, double value) {
+                if (active) {
+                    detectionStart[channel] = timestamp;
+                } else {
+                    events.add(EventStore.DETECTOR, detectionStart[channel], timestamp, "channel " + channel);
+                }
+            }
+        });
+        file.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, drainIntervalMillis, drainIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public IngestSession() {
+        this(RECORD_RING_SIZE, DRAIN_INTERVAL_MS);
+    }
+
+    /** Connects source under a ConnectionSupervisor, replacing any other. */
+    public void connect(DataSource source) {
+        disconnect();
+        final ConnectionSupervisor sv = new ConnectionSupervisor(source);
+        sv.setListener(this);
+        synchronized (this) {
+            supervisor = sv;
+        }
+        sv.connect();
+    }
+
+    /** Disconnects for good: the supervisor will not reconnect. */
+    public void disconnect() {
+        final ConnectionSupervisor sv;
+        synchronized (this) {
+            sv = supervisor;
+            supervisor = null;
+        }
+        if (sv != null) {
+            sv.setListener(null);
+            sv.shutdown();
+        }
+    }
+
+    /** The current connection, or null. */
+    public synchronized ConnectionSupervisor supervisor() {
+        return supervisor;
+    }
+
+    public synchronized boolean isConnected() {
+        return supervisor != null;
+    }
+
+    /**
+     * Closes the previous recording, if any, and records everything from
+     * then on into the writer that open returns. open is called, and the
+     * writer used, on the file thread only, so it may do I/O.
+     */
+    public void startRecording(final Callable<SessionWriter> open) {
+        file.execute(new Runnable() {
+            @Override
+            public void run() {
+                finishRecording(null);
+                final SessionWriter writer;
+                try {
+                    writer = open.call();
+                } catch (Exception e) {
+                    lastRecording = "cannot start: " + e;
+                    return;
+                }
+                recorder = new BatchRecorder(writer,
+                    RECORD_BATCH_SIZE, RECORD_BATCH_WINDOW_MS, RECORD_FLUSH_INTERVAL_MS);
+                recorder.setQueueLatency(stats.queueLatency());
+                eventsRecorded = events.size();
+            }
+        });
+    }
+
+    /** Closes the recording after what is queued, with note as its last annotation. */
+    public void stopRecording(final String note) {
+        file.execute(new Runnable() {
+            @Override
+            public void run() {
+                finishRecording(note);
+            }
+        });
+    }
+
+    /** Runs task on the file thread, after everything queued there. */
+    public void executeOnFileThread(Runnable task) {
+        file.execute(task);
+    }
+
+    /** Disconnects, closes the recording and stops the file thread. */
+    public void close() throws InterruptedException {
+        disconnect();
+        stopRecording("session closed");
+        file.shutdown();
+        file.awaitTermination(10, TimeUnit.SECONDS);
+        final NetworkStreamer s = streamer;
+        if (s != null) {
+            s.stop();
+        }
+    }
+
+    /**
+     * Sends every sample to s as well; s is started by the caller and
+     * stopped by close().
+     */
+    public void setStreamer(NetworkStreamer s) {
+        streamer = s;
+    }
+
+    /**
+     * Has new samples copied into ring (which only client consumes) and
+     * connection changes reported to client.
+     */
+    public synchronized void attach(SampleRing ring, Client client) {
+        final Attachment[] a = Arrays.copyOf(attachments, attachments.length + 1);
+        a[a.length - 1] = new Attachment(ring, client);
+        attachments = a;
+    }
+
+    public synchronized void detach(Client client) {
+        final Attachment[] a = attachments;
+        for (int i = 0; i < a.length; ++i) {
+            if (a[i].client == client) {
+                final Attachment[] b = new Attachment[a.length - 1];
+                System.arraycopy(a, 0, b, 0, i);
+                System.arraycopy(a, i + 1, b, i, a.length - i - 1);
+                attachments = b;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onSample(brainPacket s) {
+        stats.record(s);
+        if (motionResetPending && s.type == brainPacket.TYPE_EEG) {
+            motionResetPending = false;
+            motion.reset();
+        }
+        motion.accept(s);
+        waveform.accept(s);
+        quality.accept(s);
+        if (s.type == brainPacket.TYPE_EEG) {
+            lastEegTimestamp = s.timestamp;
+        }
+        recordRing.offer(s);
+        final NetworkStreamer n = streamer;
+        if (n != null) {
+            n.offer(s);
+        }
+        final Attachment[] a = attachments;
+        for (int i = 0; i < a.length; ++i) {
+            if (a[i].ring.offer(s)) {
+                a[i].client.onSamplesAvailable();
+            }
+        }
+    }
+
+    @Override
+    public void onArtifact(long timestamp, boolean headbandOn, boolean blink, boolean jawClench) {
+        quality.onArtifact(headbandOn, blink, jawClench);
+        if (headbandOn && artifactStart[0] >= 0) {
+            // Put back on: the electrodes sit differently now. The filter is
+            // reset at the next EEG sample, which is what replayMotion()
+            // does from the end of the recorded OFF_HEAD event.
+            motionResetPending = true;
+        }
+        // Artifact packets are stamped with host time; the episodes are put
+        // on the EEG clock like everything else in the session.
+        final long t = lastEegTimestamp;
+        artifactEdge(0, !headbandOn, t, OFF_HEAD);
+        artifactEdge(1, blink, t, "blink");
+        artifactEdge(2, jawClench, t, "jaw clench");
+    }
+
+    private void artifactEdge(int k, boolean on, long t, String text) {
+        if (on && artifactStart[k] < 0) {
+            artifactStart[k] = t;
+        } else if (!on && artifactStart[k] >= 0) {
+            events.add(EventStore.ARTIFACT, artifactStart[k], t, text);
+            artifactStart[k] = -1;
+        }
+    }
+
+    /**
+     * A sink that drives motion the way the session drove its own filter,
+     * for replaying a recording into the analytics: it resets motion before
+     * the first EEG sample after the end of every OFF_HEAD event in events.
+     * Samples must come in the order they arrived live, which for formats
+     * that store each packet type apart is timestamp order, and the
+     * recording must start with the session for the filter to start from
+     * the same state.
+     */
+    public static SampleSink replayMotion(final MotionFilter motion, EventStore events) {
+        final List<Long> ends = new ArrayList<>();
+        for (int i = 0; i < events.size(); ++i) {
+            final EventStore.Event e = events.get(i);
+            if (e.kind == EventStore.ARTIFACT && e.text.equals(OFF_HEAD)) {
+                ends.add(e.end);
+            }
+        }
+        Collections.sort(ends);
+        return new SampleSink() {
+            private int next = 0;
+
+            @Override
+            public void accept(brainPacket s) {
+                if (s.type == brainPacket.TYPE_EEG && next < ends.size() && ends.get(next) < s.timestamp) {
+                    while (next < ends.size() && ends.get(next) < s.timestamp) {
+                        ++next;
+                    }
+                    motion.reset();
+                }
+                motion.accept(s);
+            }
+        };
+    }
+
+    /** Adds a user event at the time of the latest EEG sample. */
+    public EventStore.Event mark(String text) {
+        return events.mark(EventStore.USER, lastEegTimestamp, text);
+    }
+
+    @Override
+    public void onConnectionState(int previous, int current) {
+        final Attachment[] a = attachments;
+        for (int i = 0; i < a.length; ++i) {
+            a[i].client.onConnectionState(previous, current);
+        }
+    }
+
+    // File thread.
+    private void drain() {
+        tagQuality();
+        final BatchRecorder r = recorder;
+        if (r == null) {
+            recordRing.drainAll(discard);
+            return;
+        }
+        recordRing.drainAll(r);
+        recordEvents(r);
+        r.poll(System.nanoTime());
+    }
+
+    // File thread. Turns every run of windows with the same non-zero quality
+    // mask into one event, so a session can be cut into good and bad
+    // stretches without recomputing anything.
+    private void tagQuality() {
+        final QualityTimeline timeline = quality.timeline();
+        final int n = timeline.size();
+        for (int i = qualityTagged; i < n; ++i) {
+            final int mask = timeline.mask(i);
+            if (mask != qualityMask) {
+                if (qualityMask != 0) {
+                    events.add(EventStore.QUALITY, timeline.startOf(qualityRunStart), timeline.endOf(i - 1),
+                        QualityMonitor.describe(qualityMask));
+                }
+                qualityMask = mask;
+                qualityRunStart = i;
+            }
+        }
+        qualityTagged = n;
+    }
+
+    // File thread. Annotates the recording with the events added since.
+    private void recordEvents(BatchRecorder r) {
+        final int n = events.size();
+        for (int i = eventsRecorded; i < n; ++i) {
+            final EventStore.Event e = events.get(i);
+            r.annotate(e.start, e.toString());
+        }
+        eventsRecorded = n;
+    }
+
+    // File thread.
+    private void finishRecording(String note) {
+        final BatchRecorder r = recorder;
+        if (r == null) {
+            return;
+        }
+        recordRing.drainAll(r);
+        recordEvents(r);
+        if (note != null) {
+            r.annotate(0, note);
+        }
+        r.close();
+        recorder = null;
+        lastRecording = r.lastError() == null ? r.summary() : r.summary() + " error=" + r.lastError();
+    }
+
+    public PacketStats stats() {
+        return stats;
+    }
+
+    public BandPowerEngine bandPowers() {
+        return bandPowers;
+    }
+
+    public EegDetector detector() {
+        return detector;
+    }
+
+    public BrainStateClassifier brainState() {
+        return brainState;
+    }
+
+    public MotionFilter motion() {
+        return motion;
+    }
+
+    public MinMaxPyramid waveform() {
+        return waveform;
+    }
+
+    public EventStore events() {
+        return events;
+    }
+
+    public QualityMonitor quality() {
+        return quality;
+    }
+
+    public SampleRing recordRing() {
+        return recordRing;
+    }
+
+    public String summary() {
+        final ConnectionSupervisor sv = supervisor();
+        return (sv == null ? "disconnected" : sv.summary()) +
+            "; record ring: depth=" + recordRing.depth() +
+            " high water=" + recordRing.highWaterMark() +
+            " dropped=" + recordRing.dropCount() +
+            "; last recording: " + lastRecording +
+            "; quality: " + quality.summary() +
+            "; motion: " + motion.summary() +
+            "; brain state: " + brainState.summary() +
+            "; " + events.summary() +
+            "; packets: " + stats.summary();
+    }
+}
@@ -0,0 +1,155 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multinomial logistic regression over a feature vector: the features are
+ * standardized, every class scores bias + weights . features, and softmax
+ * turns the scores into probabilities. Inference is one pass over the
+ * weights, no allocation, and StrictMath.exp, so it is as reproducible as
+ * the features.
+ *
+ * Trained models are read with read() from a text file:
+ *
+ *   features &lt;n&gt;
+ *   mean &lt;n numbers&gt;
+ *   scale &lt;n numbers&gt;
+ *   class &lt;label&gt; &lt;bias&gt; &lt;n weights&gt;    (one line per class)
+ *
+ * with blank lines and lines starting with # ignored.
+ */
+public class LinearModel implements BrainStateClassifier.Model {
+    private final String[] labels;
+    private final double[] mean;
+    private final double[] scale;
+    private final double[][] weights;
+    private final double[] bias;
+
+    public LinearModel(String[] labels, double[] mean, double[] scale, double[][] weights, double[] bias) {
+        if (weights.length != labels.length || bias.length != labels.length || labels.length < 2) {
+            throw new IllegalArgumentException("need weights and a bias for each of at least two classes");
+        }
+        for (double[] w : weights) {
+            if (w.length != mean.length || scale.length != mean.length) {
+                throw new IllegalArgumentException("weights, mean and scale differ in length");
+            }
+        }
+        this.labels = labels.clone();
+        this.mean = mean.clone();
+        this.scale = scale.clone();
+        this.weights = new double[weights.length][];
+        for (int k = 0; k < weights.length; ++k) {
+            this.weights[k] = weights[k].clone();
+        }
+        this.bias = bias.clone();
+    }
+
+    @Override
+    public int features() {
+        return mean.length;
+    }
+
+    @Override
+    public int classes() {
+        return labels.length;
+    }
+
+    @Override
+    public String label(int k) {
+        return labels[k];
+    }
+
+    @Override
+    public int classify(double[] features, double[] probabilities) {
+        int best = 0;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < labels.length; ++k) {
+            final double[] w = weights[k];
+            double z = bias[k];
+            for (int i = 0; i < w.length; ++i) {
+                if (w[i] != 0.0) {
+                    z += w[i] * (features[i] - mean[i]) / scale[i];
+                }
+            }
+            probabilities[k] = z;
+            if (z > max) {
+                max = z;
+                best = k;
+            }
+        }
+        double sum = 0.0;
+        for (int k = 0; k < labels.length; ++k) {
+            probabilities[k] = StrictMath.exp(probabilities[k] - max);
+            sum += probabilities[k];
+        }
+        for (int k = 0; k < labels.length; ++k) {
+            probabilities[k] /= sum;
+        }
+        return best;
+    }
+
+    public static LinearModel read(BufferedReader in) throws IOException {
+        int n = -1;
+        double[] mean = null;
+        double[] scale = null;
+        final List<String> labels = new ArrayList<>();
+        final List<double[]> weights = new ArrayList<>();
+        final List<Double> bias = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null) {
+            ++lineNumber;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            final String[] f = line.split("\\s+");
+            try {
+                if (f[0].equals("features")) {
+                    n = Integer.parseInt(f[1]);
+                } else if (n < 0) {
+                    throw new IOException("line " + lineNumber + ": features must come first");
+                } else if (f[0].equals("mean")) {
+                    mean = numbers(f, 1, n, lineNumber);
+                } else if (f[0].equals("scale")) {
+                    scale = numbers(f, 1, n, lineNumber);
+                } else if (f[0].equals("class")) {
+                    labels.add(f[1]);
+                    bias.add(Double.parseDouble(f[2]));
+                    weights.add(numbers(f, 3, n, lineNumber));
+                } else {
+                    throw new IOException("line " + lineNumber + ": unknown key " + f[0]);
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IOException("line " + lineNumber + ": " + e);
+            }
+        }
+        if (mean == null || scale == null) {
+            throw new IOException("model without mean or scale");
+        }
+        final double[] b = new double[bias.size()];
+        for (int k = 0; k < b.length; ++k) {
+            b[k] = bias.get(k);
+        }
+        try {
+            return new LinearModel(labels.toArray(new String[labels.size()]), mean, scale,
+                weights.toArray(new double[weights.size()][]), b);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private static double[] numbers(String[] f, int from, int n, int lineNumber) throws IOException {
+        if (f.length - from != n) {
+            throw new IOException("line " + lineNumber + ": expected " + n + " numbers");
+        }
+        final double[] v = new double[n];
+        for (int i = 0; i < n; ++i) {
+            v[i] = Double.parseDouble(f[from + i]);
+        }
+        return v;
+    }
+}
@@ -0,0 +1,124 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-memory histogram of non-negative long values, in the style of
+ * HdrHistogram: values below 64 get a bucket each, larger ones go into 32
+ * linear buckets per power of two, so any recorded value is known to within
+ * about 3% whatever its magnitude. Values above the configured maximum are
+ * counted in the top bucket; min, max and mean are exact.
+ *
+ * record() is a handful of arithmetic operations and never allocates. One
+ * thread records; other threads may read, and see counts that are at most
+ * a few records behind.
+ */
+public class LogHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private final long[] counts;
+    private final long highest;
+    private volatile long count = 0;
+    private long total = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /** Tracks values up to highest at full resolution. */
+    public LogHistogram(long highest) {
+        this.highest = Math.max(highest, 2 * SUB_COUNT);
+        this.counts = new long[index(this.highest) + 1];
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        ++counts[index(Math.min(value, highest))];
+        total += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        ++count;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public long mean() {
+        final long n = count;
+        return n == 0 ? 0 : total / n;
+    }
+
+    /**
+     * The value below which the given percentage (0 to 100) of the recorded
+     * values lie, as the middle of its bucket.
+     */
+    public long percentile(double percent) {
+        final long n = count;
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percent / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(middle(i), max);
+            }
+        }
+        return max;
+    }
+
+    /** Adds the contents of other, which must have the same maximum. */
+    public void add(LogHistogram other) {
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        count += other.count;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+        count = 0;
+    }
+
+    public String summary(String unit) {
+        return "p50=" + percentile(50) + " p99=" + percentile(99) + " max=" + max() + unit;
+    }
+
+    private static int index(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    private static long middle(int index) {
+        if (index < 2 * SUB_COUNT) {
+            return index;
+        }
+        final int shift = (index >> SUB_BITS) - 1;
+        final long low = (long) (index - (shift << SUB_BITS)) << shift;
+        return low + ((1L << shift) >> 1);
+    }
+}
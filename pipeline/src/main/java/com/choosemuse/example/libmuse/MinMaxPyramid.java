@@ -0,0 +1,177 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.Arrays;
+
+/**
+ * Multi-resolution min/max history of the EEG channels, for drawing long
+ * waveforms in time proportional to the screen width rather than to the
+ * number of samples.
+ *
+ * Level 0 keeps the raw samples; every level above keeps the min and max
+ * of FACTOR consecutive buckets of the level below. Buckets are completed
+ * as samples arrive, which adds FACTOR / (FACTOR - 1) min/max steps per
+ * channel per sample on average over all levels, and nothing is allocated
+ * after construction. render() picks the coarsest level that still has at
+ * least one bucket per output column, so a column aggregates at most
+ * FACTOR + 1 buckets whatever the window length.
+ *
+ * Single writer, any number of readers: accept() publishes each sample with
+ * a volatile write of the sample count and render() only reads data that
+ * was published. The rings hold an extra eighth of the capacity so that the
+ * writer does not overwrite the window a reader is rendering unless the
+ * reader stalls for that long.
+ */
+public class MinMaxPyramid implements SampleSink {
+    public static final int FACTOR = 4;
+    private static final int FACTOR_SHIFT = 2;
+    // Stop adding levels when the coarsest ring would be shorter than this.
+    private static final int MIN_LEVEL_SIZE = 64;
+
+    private final int channels;
+    private final int capacity;
+    private final int levels;
+    // [level][channel][bucket]; level 0 stores the raw samples in both.
+    private final float[][][] min;
+    private final float[][][] max;
+    private final int[] sizes;
+
+    private volatile long samples = 0;
+
+    public MinMaxPyramid(int channels, int capacity) {
+        this.channels = channels;
+        this.capacity = capacity;
+        final int room = capacity + capacity / 8;
+        int levels = 1;
+        while ((room >> (FACTOR_SHIFT * levels)) >= MIN_LEVEL_SIZE) {
+            ++levels;
+        }
+        this.levels = levels;
+        // Make the raw ring a whole number of top-level buckets so that each
+        // level covers exactly the same samples.
+        final int top = 1 << (FACTOR_SHIFT * (levels - 1));
+        final int size0 = (room + top - 1) / top * top;
+
+        min = new float[levels][][];
+        max = new float[levels][][];
+        sizes = new int[levels];
+        for (int k = 0; k < levels; ++k) {
+            sizes[k] = size0 >> (FACTOR_SHIFT * k);
+            min[k] = new float[channels][sizes[k]];
+            max[k] = k == 0 ? min[k] : new float[channels][sizes[k]];
+        }
+    }
+
+    /** Four channels of 256 Hz EEG for ten minutes. */
+    public MinMaxPyramid() {
+        this(4, 10 * 60 * 256);
+    }
+
+    @Override
+    public void accept(brainPacket s) {
+        if (s.type != brainPacket.TYPE_EEG) {
+            return;
+        }
+        final long n = samples;
+        final int slot = (int) (n % sizes[0]);
+        final float[][] raw = min[0];
+        for (int c = 0; c < channels; ++c) {
+            raw[c][slot] = c < s.size ? (float) s.values[c] : 0.0f;
+        }
+        // Complete every level whose bucket ends with this sample.
+        final long done = n + 1;
+        for (int k = 1; k < levels; ++k) {
+            final int shift = FACTOR_SHIFT * k;
+            if ((done & ((1L << shift) - 1)) != 0) {
+                break;
+            }
+            final long bucket = (done >> shift) - 1;
+            final int to = (int) (bucket % sizes[k]);
+            // The FACTOR buckets below are consecutive and, since the ring
+            // sizes are multiples of FACTOR, do not wrap.
+            final int from = (int) ((bucket << FACTOR_SHIFT) % sizes[k - 1]);
+            for (int c = 0; c < channels; ++c) {
+                final float[] lowMin = min[k - 1][c];
+                final float[] lowMax = max[k - 1][c];
+                float lo = lowMin[from];
+                float hi = lowMax[from];
+                for (int i = 1; i < FACTOR; ++i) {
+                    lo = Math.min(lo, lowMin[from + i]);
+                    hi = Math.max(hi, lowMax[from + i]);
+                }
+                min[k][c][to] = lo;
+                max[k][c][to] = hi;
+            }
+        }
+        samples = done;
+    }
+
+    /**
+     * Reduces samples [from, to) of a channel to columns min/max pairs.
+     * Columns with no data -- before the start of the kept history, or in
+     * the last partial bucket of the chosen level -- are set to NaN.
+     * Returns the level used.
+     */
+    public int render(int channel, long from, long to, int columns, float[] outMin, float[] outMax) {
+        final long total = samples;
+        Arrays.fill(outMin, 0, columns, Float.NaN);
+        Arrays.fill(outMax, 0, columns, Float.NaN);
+        if (columns <= 0 || to <= from) {
+            return 0;
+        }
+        final double perColumn = (double) (to - from) / columns;
+        int level = 0;
+        while (level + 1 < levels && (1L << (FACTOR_SHIFT * (level + 1))) <= perColumn) {
+            ++level;
+        }
+        final int shift = FACTOR_SHIFT * level;
+        final float[] lowMin = min[level][channel];
+        final float[] highMax = max[level][channel];
+        final int size = sizes[level];
+        // Complete buckets still in the history.
+        final long newest = total >> shift;
+        final long oldest = (Math.max(0, total - capacity) + (1L << shift) - 1) >> shift;
+
+        for (int i = 0; i < columns; ++i) {
+            final long s0 = from + (long) (i * perColumn);
+            final long s1 = from + (long) ((i + 1) * perColumn);
+            // Round outwards to whole buckets so that no peak is lost; a
+            // column may show a few samples of its neighbours.
+            long b0 = Math.max(s0 >> shift, oldest);
+            final long b1 = Math.min(Math.max((s1 + (1L << shift) - 1) >> shift, b0 + 1), newest);
+            if (b0 >= b1) {
+                continue;
+            }
+            int slot = (int) (b0 % size);
+            float lo = lowMin[slot];
+            float hi = highMax[slot];
+            while (++b0 < b1) {
+                if (++slot == size) {
+                    slot = 0;
+                }
+                lo = Math.min(lo, lowMin[slot]);
+                hi = Math.max(hi, highMax[slot]);
+            }
+            outMin[i] = lo;
+            outMax[i] = hi;
+        }
+        return level;
+    }
+
+    /** Number of EEG samples accepted so far. */
+    public long samples() {
+        return samples;
+    }
+
+    public int channels() {
+        return channels;
+    }
+
+    /** Samples of history render() is guaranteed to find. */
+    public int capacity() {
+        return capacity;
+    }
+
+    public int levels() {
+        return levels;
+    }
+}
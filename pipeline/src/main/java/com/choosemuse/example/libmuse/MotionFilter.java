@@ -0,0 +1,321 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.Arrays;
+
+/**
+ * Removes head-movement artifacts from raw EEG using the accelerometer as
+ * a reference, and hands every packet on to a downstream sink with the EEG
+ * cleaned.
+ *
+ * Both signals first go through a DC blocker, so gravity and the electrode
+ * offset are not modelled. The last few accelerometer samples of the three
+ * axes are kept in a delay line at the accelerometer's own rate (about
+ * 50 Hz). At each EEG timestamp the whole line is interpolated between its
+ * state at the two newest accelerometer samples, or held at the newest when
+ * the EEG is ahead. That vector is the reference for one recursive least
+ * squares filter per EEG channel. Each filter estimates the part of its
+ * channel that follows the movement, and that part is subtracted from the
+ * raw sample. Only the motion estimate is removed, so the channel keeps its
+ * offset and whatever the accelerometer cannot explain. EEG that does not
+ * correlate with movement settles to weights near zero and passes through
+ * almost unchanged.
+ *
+ * RLS rather than LMS: the EEG is usually stronger than the artifact and
+ * the taps are strongly correlated, which leaves LMS choosing between
+ * converging in minutes and a noisy fit. The inverse correlation matrix of
+ * RLS depends only on the reference, so all channels share one. Each EEG
+ * sample costs one update of it (quadratic in the taps) plus one weight
+ * update per channel. Its trace is capped so it cannot blow up while the
+ * head is still and the reference carries no information.
+ *
+ * When the accelerometer has been silent for longer than
+ * maxAccelAgeMicros, EEG passes through untouched and the weights are kept
+ * for when it is back. The input and removed power of every channel are
+ * tracked as exponential averages for removedDb().
+ *
+ * A NaN EEG value is passed on as it is and leaves the channel's state
+ * alone; an accelerometer sample with a NaN is ignored.
+ *
+ * All state lives in arrays allocated by the constructor, and nothing is
+ * allocated per sample. Not thread-safe: feed it from one thread.
+ */
+public class MotionFilter implements SampleSink {
+    public static final class Config {
+        /** EEG channels to clean, from the first. */
+        public int channels = 4;
+        public double eegRate = 256.0;
+        public double accelRate = 52.0;
+        /** Accelerometer samples per axis in the reference. */
+        public int taps = 3;
+        /** RLS forgetting factor per EEG sample; 0.9999 remembers about 40 s. */
+        public double forgetting = 0.9999;
+        /** Starting diagonal of the inverse correlation matrix. */
+        public double initialGain = 100.0;
+        /** Cap on the trace of the inverse correlation matrix. */
+        public double maxTrace = 1e3;
+        /** DC blocker cutoff in Hz, for both signals. */
+        public double dcCutoff = 0.05;
+        public long maxAccelAgeMicros = 200000;
+        /** Smoothing of the power estimates, per EEG sample. */
+        public double powerSmoothing = 0.001;
+    }
+
+    private static final int AXES = 3;
+
+    private final SampleSink downstream;
+    private final int channels;
+    private final int taps;
+    private final double forgetting;
+    private final double initialGain;
+    private final double maxTrace;
+    private final double eegPole;
+    private final double accelPole;
+    private final long maxAccelAgeMicros;
+    private final double smoothing;
+
+    // Timestamps of the two newest accelerometer samples.
+    private long accelTime0 = Long.MIN_VALUE;
+    private long accelTime1 = Long.MIN_VALUE;
+    // DC blocker state: last input and output of each axis and channel.
+    private final double[] accelIn = new double[AXES];
+    private final double[] accelOut = new double[AXES];
+    private final double[] eegIn;
+    private final double[] eegOut;
+    private boolean eegPrimed = false;
+    // Delay line, [axis][taps + 1] ring of blocked accelerometer samples,
+    // newest at linePos.
+    private final double[][] line;
+    private int linePos = 0;
+
+    private final double[] reference;
+    // Inverse correlation matrix of the reference, and the gain vector.
+    private final double[][] p;
+    private final double[] gain;
+    // [channel][axis * taps + tap]
+    private final double[][] weights;
+    private final double[] inputPower;
+    private final double[] removedPower;
+
+    private final brainPacket out = new brainPacket();
+    private long filtered = 0;
+    private long passed = 0;
+
+    public MotionFilter(Config config, SampleSink downstream) {
+        if (config.channels < 1 || config.channels > brainPacket.MAX_VALUES) {
+            throw new IllegalArgumentException("channels out of range: " + config.channels);
+        }
+        if (config.taps < 1) {
+            throw new IllegalArgumentException("need at least one tap");
+        }
+        this.downstream = downstream;
+        this.channels = config.channels;
+        this.taps = config.taps;
+        this.forgetting = config.forgetting;
+        this.initialGain = config.initialGain;
+        this.maxTrace = config.maxTrace;
+        this.eegPole = Math.exp(-2 * Math.PI * config.dcCutoff / config.eegRate);
+        this.accelPole = Math.exp(-2 * Math.PI * config.dcCutoff / config.accelRate);
+        this.maxAccelAgeMicros = config.maxAccelAgeMicros;
+        this.smoothing = config.powerSmoothing;
+        eegIn = new double[channels];
+        eegOut = new double[channels];
+        line = new double[AXES][taps + 1];
+        reference = new double[AXES * taps];
+        p = new double[AXES * taps][AXES * taps];
+        gain = new double[AXES * taps];
+        weights = new double[channels][AXES * taps];
+        inputPower = new double[channels];
+        removedPower = new double[channels];
+        reset();
+    }
+
+    public MotionFilter(SampleSink downstream) {
+        this(new Config(), downstream);
+    }
+
+    @Override
+    public void accept(brainPacket s) {
+        if (s.type == brainPacket.TYPE_ACCELEROMETER) {
+            addAccel(s);
+            downstream.accept(s);
+        } else if (s.type == brainPacket.TYPE_EEG) {
+            downstream.accept(clean(s));
+        } else {
+            downstream.accept(s);
+        }
+    }
+
+    private void addAccel(brainPacket s) {
+        if (s.size < AXES || s.timestamp <= accelTime1) {
+            return;
+        }
+        // A NaN would stay in the blockers and the line for good.
+        for (int a = 0; a < AXES; ++a) {
+            if (Double.isNaN(s.values[a])) {
+                return;
+            }
+        }
+        if (accelTime1 == Long.MIN_VALUE || s.timestamp - accelTime1 > maxAccelAgeMicros) {
+            // First sample after a gap: start the blockers at its level so
+            // they don't ring, and the line empty.
+            for (int a = 0; a < AXES; ++a) {
+                accelIn[a] = s.values[a];
+                accelOut[a] = 0.0;
+                Arrays.fill(line[a], 0.0);
+            }
+            accelTime1 = Long.MIN_VALUE;
+        }
+        linePos = linePos == 0 ? taps : linePos - 1;
+        for (int a = 0; a < AXES; ++a) {
+            final double x = s.values[a];
+            accelOut[a] = x - accelIn[a] + accelPole * accelOut[a];
+            accelIn[a] = x;
+            line[a][linePos] = accelOut[a];
+        }
+        accelTime0 = accelTime1;
+        accelTime1 = s.timestamp;
+    }
+
+    private brainPacket clean(brainPacket s) {
+        out.set(s.timestamp, s.type, s.size);
+        out.receivedNanos = s.receivedNanos;
+        System.arraycopy(s.values, 0, out.values, 0, s.size);
+        final int n = Math.min(channels, s.size);
+        if (accelTime0 == Long.MIN_VALUE || Math.abs(s.timestamp - accelTime1) > maxAccelAgeMicros) {
+            eegPrimed = false;
+            ++passed;
+            return out;
+        }
+        if (!eegPrimed) {
+            for (int c = 0; c < n; ++c) {
+                eegIn[c] = s.values[c];
+                eegOut[c] = 0.0;
+            }
+            eegPrimed = true;
+        }
+
+        // The line at the EEG timestamp, between its last two states.
+        double f = 1.0;
+        if (s.timestamp < accelTime1) {
+            f = s.timestamp <= accelTime0 ? 0.0 :
+                (double) (s.timestamp - accelTime0) / (accelTime1 - accelTime0);
+        }
+        for (int a = 0; a < AXES; ++a) {
+            final double[] l = line[a];
+            int pos = linePos;
+            for (int k = 0; k < taps; ++k) {
+                final int older = pos == taps ? 0 : pos + 1;
+                reference[a * taps + k] = l[older] + f * (l[pos] - l[older]);
+                pos = older;
+            }
+        }
+        updateGain();
+
+        for (int c = 0; c < n; ++c) {
+            final double x = s.values[c];
+            if (Double.isNaN(x)) {
+                // Passed on as it is; it must not reach the blocker or the
+                // weights, which would stay NaN.
+                continue;
+            }
+            if (Double.isNaN(eegIn[c])) {
+                // Primed on a NaN: prime on this sample instead.
+                eegIn[c] = x;
+                eegOut[c] = 0.0;
+            }
+            eegOut[c] = x - eegIn[c] + eegPole * eegOut[c];
+            eegIn[c] = x;
+            final double d = eegOut[c];
+            final double[] w = weights[c];
+            double y = 0.0;
+            for (int i = 0; i < w.length; ++i) {
+                y += w[i] * reference[i];
+            }
+            // A priori error; the weights move along the gain.
+            final double e = d - y;
+            for (int i = 0; i < w.length; ++i) {
+                w[i] += gain[i] * e;
+            }
+            out.values[c] = x - y;
+            inputPower[c] += smoothing * (d * d - inputPower[c]);
+            removedPower[c] += smoothing * (y * y - removedPower[c]);
+        }
+        ++filtered;
+        return out;
+    }
+
+    // Gain vector for the current reference u, and the update of P:
+    // gain = P u / (forgetting + u' P u), P = (P - gain (P u)') / forgetting.
+    private void updateGain() {
+        final int m = reference.length;
+        double den = forgetting;
+        double trace = 0.0;
+        for (int i = 0; i < m; ++i) {
+            final double[] row = p[i];
+            double pu = 0.0;
+            for (int j = 0; j < m; ++j) {
+                pu += row[j] * reference[j];
+            }
+            gain[i] = pu;
+            den += reference[i] * pu;
+            trace += row[i];
+        }
+        // Past the cap, stop forgetting until the reference carries
+        // information again. P is updated on one side of the diagonal and
+        // mirrored: round-off that makes it asymmetric would otherwise grow
+        // by 1 / forgetting every sample until the filter diverges.
+        final double scale = trace > maxTrace ? 1.0 : 1.0 / forgetting;
+        for (int i = 0; i < m; ++i) {
+            final double[] row = p[i];
+            final double gi = gain[i] / den;
+            for (int j = 0; j <= i; ++j) {
+                row[j] = (row[j] - gi * gain[j]) * scale;
+                p[j][i] = row[j];
+            }
+        }
+        for (int i = 0; i < m; ++i) {
+            gain[i] /= den;
+        }
+    }
+
+    /** Forgets what was learned, e.g. when the headband is put on again. */
+    public void reset() {
+        for (double[] w : weights) {
+            Arrays.fill(w, 0.0);
+        }
+        for (int i = 0; i < p.length; ++i) {
+            Arrays.fill(p[i], 0.0);
+            p[i][i] = initialGain;
+        }
+        Arrays.fill(inputPower, 0.0);
+        Arrays.fill(removedPower, 0.0);
+        accelTime0 = Long.MIN_VALUE;
+        accelTime1 = Long.MIN_VALUE;
+        eegPrimed = false;
+    }
+
+    /** EEG samples cleaned so far. */
+    public long filtered() {
+        return filtered;
+    }
+
+    /** EEG samples passed through for lack of accelerometer data. */
+    public long passed() {
+        return passed;
+    }
+
+    /** Recent removed power relative to the channel's own (DC-free) power in dB; 0 until known. */
+    public double removedDb(int channel) {
+        final double in = inputPower[channel];
+        final double removed = removedPower[channel];
+        return in > 0.0 && removed > 0.0 ? 10.0 * Math.log10(removed / in) : 0.0;
+    }
+
+    public String summary() {
+        final StringBuilder sb = new StringBuilder("filtered=" + filtered + " passed=" + passed + " removed");
+        for (int c = 0; c < channels; ++c) {
+            sb.append(c == 0 ? " " : "/").append(Math.round(removedDb(c))).append("dB");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.IOException;
+
+/**
+ * Writes the same recording to several SessionWriters, e.g. a .muse file
+ * and a columnar copy next to it. Every writer gets every call even if an
+ * earlier one failed; the first failure is rethrown afterwards.
+ */
+public class MultiSessionWriter implements SessionWriter {
+    private final SessionWriter[] writers;
+
+    public MultiSessionWriter(SessionWriter... writers) {
+        this.writers = writers;
+    }
+
+    @Override
+    public void write(brainPacket s) throws IOException {
+        IOException first = null;
+        for (SessionWriter w : writers) {
+            try {
+                w.write(s);
+            } catch (IOException e) {
+                if (first == null) {
+                    first = e;
+                }
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+
+    @Override
+    public void annotate(long timestamp, String text) throws IOException {
+        IOException first = null;
+        for (SessionWriter w : writers) {
+            try {
+                w.annotate(timestamp, text);
+            } catch (IOException e) {
+                if (first == null) {
+                    first = e;
+                }
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        IOException first = null;
+        for (SessionWriter w : writers) {
+            try {
+                w.flush();
+            } catch (IOException e) {
+                if (first == null) {
+                    first = e;
+                }
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException first = null;
+        for (SessionWriter w : writers) {
+            try {
+                w.close();
+            } catch (IOException e) {
+                if (first == null) {
+                    first = e;
+                }
+            }
+        }
+        if (first != null) {
+            throw first;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+
+/**
+ * Streams samples to a desktop host over TCP in compact binary frames (see
+ * StreamFrames).
+ *
+ * offer() copies a sample into an SPSC ring and returns; a dedicated sender
+ * thread packs the ring into frames of up to maxSamplesPerFrame samples, at
+ * least every frameIntervalMillis, and writes them on a non-blocking
+ * SocketChannel. A lost connection is retried with exponential backoff and
+ * jitter. While the socket cannot take more data the BackPressure policy
+ * decides what happens to new samples.
+ */
+public class NetworkStreamer {
+    public enum BackPressure {
+        /** Leave samples queued; once the ring is full new ones are dropped. */
+        DROP_NEWEST,
+        /** Discard queued samples so the freshest data goes out first. */
+        DROP_OLDEST,
+        /** Keep only the latest sample of each packet type. */
+        COALESCE
+    }
+
+    private static final long MIN_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 10000;
+
+    private final InetSocketAddress address;
+    private final BackPressure policy;
+    private final int maxSamplesPerFrame;
+    private final long frameIntervalNanos;
+    private final SampleRing ring;
+    private final ByteBuffer out;
+    private final brainPacket[] latest = new brainPacket[brainPacket.TYPE_COUNT];
+    private final boolean[] hasLatest = new boolean[brainPacket.TYPE_COUNT];
+    private final Random random = new Random();
+
+    private volatile boolean running = false;
+    private Thread thread;
+    private Selector selector;
+    private SocketChannel channel;
+    private long backoffMillis = MIN_BACKOFF_MILLIS;
+    private long lastFrameNanos;
+    private int sequence = 0;
+
+    // Statistics, written by the sender thread only.
+    private volatile long framesSent = 0;
+    private volatile long samplesSent = 0;
+    private volatile long bytesSent = 0;
+    private volatile long samplesDiscarded = 0;
+    private volatile long samplesCoalesced = 0;
+    private volatile long connects = 0;
+    private volatile long connectedSinceNanos = 0;
+    private volatile long maxQueueMicros = 0;
+    private volatile long startNanos = 0;
+
+    public NetworkStreamer(String host, int port, BackPressure policy,
+                           int ringCapacity, int maxSamplesPerFrame, long frameIntervalMillis) {
+        this.address = InetSocketAddress.createUnresolved(host, port);
+        this.policy = policy;
+        this.maxSamplesPerFrame = Math.min(maxSamplesPerFrame, Short.MAX_VALUE);
+        this.frameIntervalNanos = frameIntervalMillis * 1000000L;
+        this.ring = new SampleRing(ringCapacity);
+        this.out = ByteBuffer.allocateDirect(StreamFrames.HEADER_SIZE +
+            this.maxSamplesPerFrame * StreamFrames.MAX_SAMPLE_SIZE);
+        this.out.flip();
+        for (int i = 0; i < latest.length; ++i) {
+            latest[i] = new brainPacket();
+        }
+    }
+
+    public NetworkStreamer(String host, int port) {
+        this(host, port, BackPressure.DROP_OLDEST, 4096, 64, 20);
+    }
+
+    /** Queues s for sending. Producer thread only; never blocks. */
+    public boolean offer(brainPacket s) {
+        return ring.offer(s);
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        selector = Selector.open();
+        startNanos = System.nanoTime();
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "NetworkStreamer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loop() {
+        long nextConnectNanos = System.nanoTime();
+        lastFrameNanos = nextConnectNanos;
+        try {
+            while (running) {
+                final long now = System.nanoTime();
+                if (channel == null) {
+                    if (now >= nextConnectNanos) {
+                        if (!connect()) {
+                            nextConnectNanos = System.nanoTime() + nextBackoffNanos();
+                        }
+                    } else {
+                        discardWhileDisconnected();
+                        selector.select(Math.max(1, (nextConnectNanos - now) / 1000000L));
+                    }
+                    continue;
+                }
+                try {
+                    if (!out.hasRemaining()) {
+                        final long wait = frameIntervalNanos - (now - lastFrameNanos);
+                        if (ring.depth() < maxSamplesPerFrame && wait > 0) {
+                            selector.select(Math.max(1, wait / 1000000L));
+                            continue;
+                        }
+                        buildFrame();
+                        lastFrameNanos = now;
+                        if (!out.hasRemaining()) {
+                            continue;
+                        }
+                    }
+                    bytesSent += channel.write(out);
+                    if (out.hasRemaining()) {
+                        applyBackPressure();
+                        final SelectionKey key = channel.register(selector, SelectionKey.OP_WRITE);
+                        selector.select(Math.max(1, frameIntervalNanos / 1000000L));
+                        key.interestOps(0);
+                        selector.selectedKeys().clear();
+                    }
+                } catch (IOException e) {
+                    disconnect();
+                    nextConnectNanos = System.nanoTime() + nextBackoffNanos();
+                }
+            }
+        } catch (IOException e) {
+            // The selector itself failed; nothing left to do but stop.
+        } finally {
+            disconnect();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+
+    private boolean connect() {
+        try {
+            final InetSocketAddress resolved = new InetSocketAddress(address.getHostName(), address.getPort());
+            final SocketChannel c = SocketChannel.open();
+            c.configureBlocking(false);
+            c.socket().setTcpNoDelay(true);
+            c.connect(resolved);
+            final SelectionKey key = c.register(selector, SelectionKey.OP_CONNECT);
+            final long deadline = System.nanoTime() + MAX_BACKOFF_MILLIS * 1000000L;
+            while (running && !c.finishConnect()) {
+                if (System.nanoTime() > deadline) {
+                    c.close();
+                    return false;
+                }
+                selector.select(100);
+                selector.selectedKeys().clear();
+                discardWhileDisconnected();
+            }
+            key.interestOps(0);
+            channel = c;
+            out.clear();
+            out.flip();
+            backoffMillis = MIN_BACKOFF_MILLIS;
+            ++connects;
+            connectedSinceNanos = System.nanoTime();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void disconnect() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignored
+            }
+            channel = null;
+            connectedSinceNanos = 0;
+        }
+    }
+
+    // Equal jitter: half the current backoff plus a random share of the
+    // other half, so retries spread out but never come back to back. The
+    // backoff doubles on every failure up to MAX_BACKOFF_MILLIS.
+    private long nextBackoffNanos() {
+        final long delay = backoffMillis / 2 + (long) (random.nextDouble() * backoffMillis / 2);
+        backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+        return delay * 1000000L;
+    }
+
+    // Packs coalesced samples first, then the ring, into out.
+    private void buildFrame() {
+        out.clear();
+        out.position(StreamFrames.HEADER_SIZE);
+        int count = 0;
+        for (int t = 0; t < latest.length && count < maxSamplesPerFrame; ++t) {
+            if (hasLatest[t]) {
+                putSample(latest[t]);
+                hasLatest[t] = false;
+                ++count;
+            }
+        }
+        count += ring.drain(frameSink, maxSamplesPerFrame - count);
+        if (count == 0) {
+            out.clear();
+            out.flip();
+            return;
+        }
+        final int length = out.position();
+        out.putInt(0, length - 4);
+        out.putInt(4, StreamFrames.MAGIC);
+        out.putInt(8, sequence++);
+        out.putLong(12, StreamFrames.nowMicros());
+        out.putShort(20, (short) count);
+        out.flip();
+        ++framesSent;
+        samplesSent += count;
+    }
+
+    private final SampleSink frameSink = new SampleSink() {
+        @Override
+        public void accept(brainPacket s) {
+            putSample(s);
+        }
+    };
+
+    private void putSample(brainPacket s) {
+        out.put((byte) s.type);
+        out.put((byte) s.size);
+        out.putLong(s.timestamp);
+        for (int i = 0; i < s.size; ++i) {
+            out.putFloat((float) s.values[i]);
+        }
+        final long age = StreamFrames.nowMicros() - s.timestamp;
+        if (age > maxQueueMicros && age < 60000000L) {
+            maxQueueMicros = age;
+        }
+    }
+
+    private final SampleSink discardSink = new SampleSink() {
+        @Override
+        public void accept(brainPacket s) {
+            ++samplesDiscarded;
+        }
+    };
+
+    private final SampleSink coalesceSink = new SampleSink() {
+        @Override
+        public void accept(brainPacket s) {
+            if (s.type < 0 || s.type >= latest.length) {
+                ++samplesDiscarded;
+                return;
+            }
+            if (hasLatest[s.type]) {
+                ++samplesCoalesced;
+            }
+            latest[s.type].copyFrom(s);
+            hasLatest[s.type] = true;
+        }
+    };
+
+    private void applyBackPressure() {
+        switch (policy) {
+            case DROP_OLDEST:
+                ring.drainAll(discardSink);
+                break;
+            case COALESCE:
+                ring.drainAll(coalesceSink);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Without a connection there is nowhere to send to; keep the ring from
+    // filling up with stale data unless the policy asks to keep it.
+    private void discardWhileDisconnected() {
+        if (policy != BackPressure.DROP_NEWEST) {
+            applyBackPressure();
+        }
+    }
+
+    public boolean isConnected() {
+        return connectedSinceNanos != 0;
+    }
+
+    public long framesSent() {
+        return framesSent;
+    }
+
+    public long samplesSent() {
+        return samplesSent;
+    }
+
+    public long bytesSent() {
+        return bytesSent;
+    }
+
+    /** Average outgoing bandwidth since start(). */
+    public double bytesPerSecond() {
+        final long elapsed = System.nanoTime() - startNanos;
+        return startNanos == 0 || elapsed <= 0 ? 0.0 : bytesSent * 1e9 / elapsed;
+    }
+
+    /** Samples lost to back-pressure, including ring overflows. */
+    public long samplesDropped() {
+        return samplesDiscarded + ring.dropCount();
+    }
+
+    public long samplesCoalesced() {
+        return samplesCoalesced;
+    }
+
+    public long connectCount() {
+        return connects;
+    }
+
+    /** Largest age of a sample, by its own timestamp, when it was framed. */
+    public long maxQueueMicros() {
+        return maxQueueMicros;
+    }
+
+    public SampleRing ring() {
+        return ring;
+    }
+
+    public String summary() {
+        return "connected=" + isConnected() +
+            " connects=" + connects +
+            " frames=" + framesSent +
+            " samples=" + samplesSent +
+            " bytes=" + bytesSent +
+            " rate=" + Math.round(bytesPerSecond()) + "B/s" +
+            " dropped=" + samplesDropped() +
+            " coalesced=" + samplesCoalesced +
+            " max queue=" + maxQueueMicros / 1000 + "ms";
+    }
+}
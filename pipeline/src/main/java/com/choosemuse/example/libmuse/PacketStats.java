@@ -0,0 +1,217 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per packet type instrumentation of the data listener path, cheap enough
+ * to leave on: record() costs a few arithmetic operations and two histogram
+ * updates, and allocates only the first time a type is seen.
+ *
+ * For every type it tracks:
+ *   arrival rate     packets per second of host time
+ *   interval         device timestamp interval, as a histogram
+ *   jitter           |host interval - device interval|, as a histogram:
+ *                    how far arrival spacing departs from sample spacing
+ *   gaps             device intervals over 1.5 times the usual interval,
+ *                    and the packets missing in them; libmuse packets
+ *                    carry no sequence number, so this is the sequence check
+ *   drift            device clock against the host clock in ppm, from the
+ *                    minimum host-minus-device offset of each DRIFT_WINDOW
+ *                    compared to that of the first window; taking minima
+ *                    leaves out queueing and Bluetooth delays
+ *
+ * plus one histogram of queue latency, receivedNanos to the write into the
+ * session writer, fed by BatchRecorder through queueLatency().
+ *
+ * record() is called on the listener thread and the queue latency on the
+ * recording thread. snapshot() may be called from anywhere and reads
+ * without locking, so its numbers may be a few packets apart.
+ */
+public class PacketStats {
+    /** Length of the windows that drift is measured over. */
+    public static final long DRIFT_WINDOW_NANOS = 10000000000L;
+
+    // Intervals and latencies are in microseconds; a minute is plenty.
+    private static final long HIGHEST_MICROS = 60000000L;
+    private static final int WARMUP_INTERVALS = 16;
+
+    private final TypeStats[] types = new TypeStats[brainPacket.TYPE_COUNT];
+    private final LogHistogram queueLatency = new LogHistogram(HIGHEST_MICROS);
+
+    private static final class TypeStats {
+        final LogHistogram interval = new LogHistogram(HIGHEST_MICROS);
+        final LogHistogram jitter = new LogHistogram(HIGHEST_MICROS);
+        volatile long count = 0;
+        long firstNanos;
+        volatile long lastNanos;
+        long lastTimestamp;
+        double usualInterval = 0;
+        int intervals = 0;
+        volatile long gaps = 0;
+        volatile long missing = 0;
+
+        // Drift: offset minimum of the current window and of the first.
+        long windowStartNanos;
+        long windowMin = Long.MAX_VALUE;
+        long baseMin = Long.MAX_VALUE;
+        long baseNanos;
+        volatile double driftPpm = 0;
+    }
+
+    /** One packet type in a snapshot. */
+    public static final class TypeSnapshot {
+        public int type;
+        public long count;
+        public double rate;
+        public long intervalP50Micros;
+        public long jitterP50Micros;
+        public long jitterP99Micros;
+        public long jitterMaxMicros;
+        public long gaps;
+        public long missing;
+        public double driftPpm;
+
+        @Override
+        public String toString() {
+            return typeName(type) + " n=" + count + " rate=" + Math.round(rate * 10) / 10.0 + "/s" +
+                " interval=" + intervalP50Micros + "us" +
+                " jitter p50/p99/max=" + jitterP50Micros + "/" + jitterP99Micros + "/" + jitterMaxMicros + "us" +
+                " gaps=" + gaps + " missing=" + missing +
+                " drift=" + Math.round(driftPpm * 10) / 10.0 + "ppm";
+        }
+    }
+
+    /** All types seen so far, and the queue latency. */
+    public static final class Snapshot {
+        public final List<TypeSnapshot> types = new ArrayList<>();
+        public long queueCount;
+        public long queueP50Micros;
+        public long queueP99Micros;
+        public long queueMaxMicros;
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            for (TypeSnapshot t : types) {
+                sb.append(t).append("; ");
+            }
+            return sb.append("queue p50/p99/max=").append(queueP50Micros).append('/')
+                .append(queueP99Micros).append('/').append(queueMaxMicros).append("us").toString();
+        }
+    }
+
+    /** Records s, which needs receivedNanos set. */
+    public void record(brainPacket s) {
+        if (s.type < 0 || s.type >= types.length || s.receivedNanos == 0) {
+            return;
+        }
+        TypeStats t = types[s.type];
+        if (t == null) {
+            t = types[s.type] = new TypeStats();
+        }
+        final long now = s.receivedNanos;
+        if (t.count == 0 || s.timestamp < t.lastTimestamp) {
+            // First packet, or the device clock restarted: start over.
+            t.firstNanos = now;
+            t.windowStartNanos = now;
+            t.windowMin = Long.MAX_VALUE;
+            t.baseMin = Long.MAX_VALUE;
+            t.usualInterval = 0;
+            t.intervals = 0;
+        } else {
+            final long device = s.timestamp - t.lastTimestamp;
+            final long host = (now - t.lastNanos) / 1000;
+            t.interval.record(device);
+            t.jitter.record(Math.abs(host - device));
+            checkGap(t, device);
+        }
+        trackDrift(t, now, now / 1000 - s.timestamp);
+        t.lastTimestamp = s.timestamp;
+        t.lastNanos = now;
+        ++t.count;
+    }
+
+    /** Histogram of microseconds from receivedNanos to the session writer. */
+    public LogHistogram queueLatency() {
+        return queueLatency;
+    }
+
+    public Snapshot snapshot() {
+        final Snapshot snapshot = new Snapshot();
+        for (int type = 0; type < types.length; ++type) {
+            final TypeStats t = types[type];
+            if (t == null) {
+                continue;
+            }
+            final TypeSnapshot ts = new TypeSnapshot();
+            ts.type = type;
+            ts.count = t.count;
+            final long elapsed = t.lastNanos - t.firstNanos;
+            ts.rate = elapsed <= 0 ? 0.0 : (ts.count - 1) * 1e9 / elapsed;
+            ts.intervalP50Micros = t.interval.percentile(50);
+            ts.jitterP50Micros = t.jitter.percentile(50);
+            ts.jitterP99Micros = t.jitter.percentile(99);
+            ts.jitterMaxMicros = t.jitter.max();
+            ts.gaps = t.gaps;
+            ts.missing = t.missing;
+            ts.driftPpm = t.driftPpm;
+            snapshot.types.add(ts);
+        }
+        snapshot.queueCount = queueLatency.count();
+        snapshot.queueP50Micros = queueLatency.percentile(50);
+        snapshot.queueP99Micros = queueLatency.percentile(99);
+        snapshot.queueMaxMicros = queueLatency.max();
+        return snapshot;
+    }
+
+    public String summary() {
+        return snapshot().toString();
+    }
+
+    private static void checkGap(TypeStats t, long device) {
+        if (t.intervals >= WARMUP_INTERVALS && device > 1.5 * t.usualInterval) {
+            ++t.gaps;
+            t.missing += Math.max(1, Math.round(device / t.usualInterval) - 1);
+            return;
+        }
+        // Smoothed over the last few dozen intervals; gaps stay out of it.
+        ++t.intervals;
+        t.usualInterval = t.usualInterval == 0 ? device :
+            t.usualInterval + (device - t.usualInterval) / Math.min(t.intervals, 32);
+    }
+
+    private static void trackDrift(TypeStats t, long now, long offset) {
+        if (offset < t.windowMin) {
+            t.windowMin = offset;
+        }
+        if (now - t.windowStartNanos < DRIFT_WINDOW_NANOS) {
+            return;
+        }
+        if (t.baseMin == Long.MAX_VALUE) {
+            t.baseMin = t.windowMin;
+            t.baseNanos = t.windowStartNanos;
+        } else {
+            // Host minus device offset growing: the device clock is slow.
+            t.driftPpm = -(t.windowMin - t.baseMin) * 1e3 / (t.windowStartNanos - t.baseNanos) * 1e6;
+        }
+        t.windowStartNanos = now;
+        t.windowMin = Long.MAX_VALUE;
+    }
+
+    static String typeName(int type) {
+        switch (type) {
+            case brainPacket.TYPE_ACCELEROMETER: return "accel";
+            case brainPacket.TYPE_GYRO: return "gyro";
+            case brainPacket.TYPE_EEG: return "eeg";
+            case brainPacket.TYPE_DROPPED_ACCELEROMETER: return "dropped accel";
+            case brainPacket.TYPE_DROPPED_EEG: return "dropped eeg";
+            case brainPacket.TYPE_QUANTIZATION: return "quantization";
+            case brainPacket.TYPE_BATTERY: return "battery";
+            case brainPacket.TYPE_DRL_REF: return "drl ref";
+            case brainPacket.TYPE_ALPHA_ABSOLUTE: return "alpha abs";
+            case brainPacket.TYPE_ALPHA_RELATIVE: return "alpha rel";
+            default: return "type " + type;
+        }
+    }
+}
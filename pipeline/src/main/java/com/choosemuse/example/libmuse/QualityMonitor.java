@@ -0,0 +1,307 @@
+package com.choosemuse.example.libmuse;
+
+/**
+ * Streaming signal quality stage: combines libmuse's artifact packets with
+ * statistics of the raw EEG into one bitset per window, appended to a
+ * QualityTimeline that analytics and the recorder use to skip or tag bad
+ * stretches of a session.
+ *
+ * Windows are cut on the EEG timestamps. Within a window every channel's
+ * variance and the number of samples at the rails are accumulated; when the
+ * window closes a channel is flagged FLAT if it hardly moved (electrode off
+ * or railed), NOISY if its variance is over the limit (movement, poor
+ * contact) and SATURATED if too many samples sat at the rails. Quantization
+ * packets flag the channels the headband sent at a coarser quantization,
+ * DRL/REF packets flag the reference electrodes when they leave their
+ * range, and artifact packets set BLINK, JAW_CLENCH and OFF_HEAD. Those
+ * packets carry no usable window of their own (artifacts come stamped with
+ * host time), so they mark the window that is open when they arrive. A
+ * window with too few EEG samples, including every window of a gap, gets
+ * SPARSE.
+ *
+ * accept() costs a few additions per channel and never allocates, except
+ * when the timeline grows. Fed from one thread; the timeline, currentMask()
+ * and the counters may be read from any.
+ */
+public class QualityMonitor implements SampleSink {
+    // Per-channel flags: bit (flag + channel).
+    public static final int FLAT = 0;
+    public static final int NOISY = 6;
+    public static final int SATURATED = 12;
+    public static final int QUANTIZED = 18;
+    // Whole-window flags.
+    public static final int BLINK = 1 << 24;
+    public static final int JAW_CLENCH = 1 << 25;
+    public static final int OFF_HEAD = 1 << 26;
+    public static final int DRL_REF = 1 << 27;
+    public static final int SPARSE = 1 << 28;
+
+    /** Blinks and jaw clenches: usually tagged rather than thrown away. */
+    public static final int ARTIFACTS = BLINK | JAW_CLENCH;
+    /** Everything that makes a window unusable for analysis. */
+    public static final int UNUSABLE = OFF_HEAD | DRL_REF | SPARSE |
+        channels(FLAT) | channels(NOISY) | channels(SATURATED);
+
+    // A clock jump of more than this is taken as a restart rather than a gap.
+    private static final long MAX_GAP_MICROS = 24L * 3600 * 1000000;
+
+    public static final class Config {
+        public long windowMicros = 1000000;
+        public int channels = 4;
+        public double eegRate = 256.0;
+        /** Below this variance (uV^2) a channel is FLAT. */
+        public double minVariance = 1.0;
+        /** Above this variance a channel is NOISY: 100 uV standard deviation. */
+        public double maxVariance = 100.0 * 100.0;
+        /** EEG range of the headband, in uV. */
+        public double railLow = 0.0;
+        public double railHigh = 1682.815;
+        /** Samples this close to a rail count as saturated. */
+        public double railMargin = 1.0;
+        /** Fraction of saturated samples that flags the channel. */
+        public double saturationFraction = 0.01;
+        /** Quantization level (1, 2, 4, ...) from which a channel is QUANTIZED. */
+        public double maxQuantization = 4.0;
+        /** Range of the DRL and REF values outside of which DRL_REF is set. */
+        public double drlRefLow = 0.0;
+        public double drlRefHigh = 1682.815;
+        /** Fraction of the expected EEG samples below which a window is SPARSE. */
+        public double minFill = 0.5;
+    }
+
+    private final Config config;
+    private final int channels;
+    private final QualityTimeline timeline;
+    private final double expectedSamples;
+
+    private final double[] shift;
+    private final double[] sum;
+    private final double[] sumSquares;
+    private final int[] saturated;
+    private int samples = 0;
+    private int flags = 0;
+    private boolean started = false;
+    private long windowEnd;
+
+    private volatile long badWindows = 0;
+
+    public QualityMonitor(Config config) {
+        if (config.channels < 1 || config.channels > brainPacket.MAX_VALUES) {
+            throw new IllegalArgumentException("channels out of range: " + config.channels);
+        }
+        this.config = config;
+        this.channels = config.channels;
+        this.timeline = new QualityTimeline(config.windowMicros);
+        this.expectedSamples = config.eegRate * config.windowMicros / 1e6;
+        shift = new double[channels];
+        sum = new double[channels];
+        sumSquares = new double[channels];
+        saturated = new int[channels];
+    }
+
+    /** Four channels of 256 Hz EEG in one-second windows. */
+    public QualityMonitor() {
+        this(new Config());
+    }
+
+    /** The bits of flag for every channel, e.g. channels(NOISY). */
+    public static int channels(int flag) {
+        return ((1 << brainPacket.MAX_VALUES) - 1) << flag;
+    }
+
+    /** All per-channel bits of one channel. */
+    public static int channel(int channel) {
+        return (1 << (FLAT + channel)) | (1 << (NOISY + channel)) |
+            (1 << (SATURATED + channel)) | (1 << (QUANTIZED + channel));
+    }
+
+    @Override
+    public void accept(brainPacket s) {
+        switch (s.type) {
+            case brainPacket.TYPE_EEG:
+                acceptEeg(s);
+                break;
+            case brainPacket.TYPE_QUANTIZATION:
+                for (int c = 0; c < channels && c < s.size; ++c) {
+                    if (s.values[c] >= config.maxQuantization) {
+                        flags |= 1 << (QUANTIZED + c);
+                    }
+                }
+                break;
+            case brainPacket.TYPE_DRL_REF:
+                for (int i = 0; i < s.size && i < 2; ++i) {
+                    if (s.values[i] <= config.drlRefLow || s.values[i] >= config.drlRefHigh) {
+                        flags |= DRL_REF;
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** An artifact packet; marks the open window. */
+    public void onArtifact(boolean headbandOn, boolean blink, boolean jawClench) {
+        if (!headbandOn) {
+            flags |= OFF_HEAD;
+        }
+        if (blink) {
+            flags |= BLINK;
+        }
+        if (jawClench) {
+            flags |= JAW_CLENCH;
+        }
+    }
+
+    private void acceptEeg(brainPacket s) {
+        final long t = s.timestamp;
+        if (!started) {
+            timeline.anchor(0, t);
+            windowEnd = t + config.windowMicros;
+            started = true;
+        } else if (t >= windowEnd || t < windowEnd - 2 * config.windowMicros) {
+            closeWindow(t);
+        }
+        if (samples == 0) {
+            // Sums are taken around the first sample, which keeps the
+            // variance accurate on top of the ~800 uV offset.
+            for (int c = 0; c < channels; ++c) {
+                shift[c] = c < s.size ? s.values[c] : 0.0;
+            }
+        }
+        final double low = config.railLow + config.railMargin;
+        final double high = config.railHigh - config.railMargin;
+        for (int c = 0; c < channels; ++c) {
+            final double v = c < s.size ? s.values[c] : 0.0;
+            final double d = v - shift[c];
+            sum[c] += d;
+            sumSquares[c] += d * d;
+            if (v <= low || v >= high) {
+                ++saturated[c];
+            }
+        }
+        ++samples;
+    }
+
+    // Closes the open window and any empty ones up to the window of t. A
+    // clock that went back, or jumped too far ahead, restarts the windows at t.
+    private void closeWindow(long t) {
+        append(evaluate());
+        long ahead = t - windowEnd;
+        if (ahead < 0 || ahead > MAX_GAP_MICROS) {
+            timeline.anchor(timeline.size(), t);
+            windowEnd = t + config.windowMicros;
+            return;
+        }
+        windowEnd += config.windowMicros;
+        while (ahead >= config.windowMicros) {
+            append(SPARSE);
+            windowEnd += config.windowMicros;
+            ahead -= config.windowMicros;
+        }
+    }
+
+    private void append(int mask) {
+        timeline.append(mask);
+        if ((mask & UNUSABLE) != 0) {
+            ++badWindows;
+        }
+    }
+
+    // Mask of the open window; resets the accumulators.
+    private int evaluate() {
+        int mask = flags;
+        final int n = samples;
+        if (n < config.minFill * expectedSamples) {
+            mask |= SPARSE;
+        }
+        for (int c = 0; c < channels; ++c) {
+            if (n >= 2) {
+                final double variance = (sumSquares[c] - sum[c] * sum[c] / n) / (n - 1);
+                if (variance < config.minVariance) {
+                    mask |= 1 << (FLAT + c);
+                } else if (variance > config.maxVariance) {
+                    mask |= 1 << (NOISY + c);
+                }
+                if (saturated[c] > config.saturationFraction * n) {
+                    mask |= 1 << (SATURATED + c);
+                }
+            }
+            sum[c] = 0.0;
+            sumSquares[c] = 0.0;
+            saturated[c] = 0;
+        }
+        samples = 0;
+        flags = 0;
+        return mask;
+    }
+
+    public QualityTimeline timeline() {
+        return timeline;
+    }
+
+    /**
+     * Flags raised so far in the open window (artifacts, quantization and
+     * DRL/REF); the EEG statistics are only judged when it closes.
+     */
+    public int currentMask() {
+        return flags;
+    }
+
+    public long windows() {
+        return timeline.size();
+    }
+
+    /** Windows with any UNUSABLE bit. */
+    public long badWindows() {
+        return badWindows;
+    }
+
+    /** Readable list of the flags in mask, e.g. "blink noisy 0,2". */
+    public static String describe(int mask) {
+        if (mask == 0) {
+            return "ok";
+        }
+        final StringBuilder sb = new StringBuilder();
+        describeChannels(sb, mask, FLAT, "flat");
+        describeChannels(sb, mask, NOISY, "noisy");
+        describeChannels(sb, mask, SATURATED, "saturated");
+        describeChannels(sb, mask, QUANTIZED, "quantized");
+        describeFlag(sb, mask, BLINK, "blink");
+        describeFlag(sb, mask, JAW_CLENCH, "jaw clench");
+        describeFlag(sb, mask, OFF_HEAD, "off head");
+        describeFlag(sb, mask, DRL_REF, "drl/ref");
+        describeFlag(sb, mask, SPARSE, "sparse");
+        return sb.toString();
+    }
+
+    private static void describeChannels(StringBuilder sb, int mask, int flag, String name) {
+        final int bits = (mask >>> flag) & ((1 << brainPacket.MAX_VALUES) - 1);
+        if (bits == 0) {
+            return;
+        }
+        describeFlag(sb, 1, 1, name);
+        char separator = ' ';
+        for (int c = 0; c < brainPacket.MAX_VALUES; ++c) {
+            if ((bits & (1 << c)) != 0) {
+                sb.append(separator).append(c);
+                separator = ',';
+            }
+        }
+    }
+
+    private static void describeFlag(StringBuilder sb, int mask, int flag, String name) {
+        if ((mask & flag) != 0) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(name);
+        }
+    }
+
+    public String summary() {
+        final int n = timeline.size();
+        return "windows=" + n + " bad=" + badWindows +
+            " artifacts=" + timeline.count(0, n, ARTIFACTS);
+    }
+}
@@ -0,0 +1,199 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.Arrays;
+
+/**
+ * Signal quality of a session as one int bitset per fixed-length window,
+ * with the bits defined in QualityMonitor. An hour of one-second windows is
+ * 14 KB, so a whole session stays in memory and can be written out as is.
+ *
+ * Besides the masks, the OR of every BLOCK windows is kept, so queries over
+ * long ranges -- "is anything in the last hour flagged", "where is the next
+ * window without saturation" -- skip clean blocks 64 windows at a time.
+ *
+ * Every window keeps the timestamp it started at, fixed when it is
+ * appended, so a jump of the source clock (see anchor()) moves only the
+ * windows after it.
+ *
+ * Single writer, any number of readers: append() publishes each window,
+ * mask and start, with a volatile write of the size, and readers only look
+ * at windows below the size they read.
+ */
+public class QualityTimeline {
+    public static final int BLOCK = 64;
+    private static final int BLOCK_SHIFT = 6;
+
+    private final long windowMicros;
+    // Start of window 0 of the current run of windows; see anchor().
+    private volatile long origin = 0;
+    private volatile int[] masks = new int[BLOCK * 16];
+    private volatile long[] starts = new long[BLOCK * 16];
+    private volatile int[] blocks = new int[16];
+    private volatile int size = 0;
+
+    public QualityTimeline(long windowMicros) {
+        if (windowMicros <= 0) {
+            throw new IllegalArgumentException("windowMicros must be positive");
+        }
+        this.windowMicros = windowMicros;
+    }
+
+    public long windowMicros() {
+        return windowMicros;
+    }
+
+    /** Timestamp at which window 0 starts. */
+    public long origin() {
+        return startOf(0);
+    }
+
+    /**
+     * Has window index, and those after it, start at timestamp; used when
+     * the source clock jumps. Windows appended already keep their starts.
+     * Writer only; readers see the new times from the next append() on.
+     */
+    public void anchor(int index, long timestamp) {
+        origin = timestamp - index * windowMicros;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Start timestamp of window index. Past the last window, and before the
+     * first, it is extrapolated from the nearest one.
+     */
+    public long startOf(int index) {
+        final int n = size;
+        if (n == 0) {
+            return origin + index * windowMicros;
+        }
+        final long[] s = starts;
+        if (index < 0) {
+            return s[0] + index * windowMicros;
+        }
+        return index < n ? s[index] : s[n - 1] + (long) (index - n + 1) * windowMicros;
+    }
+
+    /** End timestamp of window index. */
+    public long endOf(int index) {
+        return startOf(index) + windowMicros;
+    }
+
+    /**
+     * Window that timestamp falls into, counting back from the last window;
+     * may be negative or past size(). Windows before a clock jump are not
+     * found by time.
+     */
+    public int indexOf(long timestamp) {
+        final int n = size;
+        final long base = n == 0 ? origin : starts[n - 1];
+        final long d = timestamp - base;
+        final int last = Math.max(n - 1, 0);
+        return last + (int) (d >= 0 ? d / windowMicros : (d - windowMicros + 1) / windowMicros);
+    }
+
+    public void append(int mask) {
+        final int n = size;
+        int[] m = masks;
+        int[] b = blocks;
+        long[] s = starts;
+        if (n == m.length) {
+            m = Arrays.copyOf(m, m.length * 2);
+            b = Arrays.copyOf(b, b.length * 2);
+            s = Arrays.copyOf(s, s.length * 2);
+        }
+        m[n] = mask;
+        b[n >> BLOCK_SHIFT] |= mask;
+        s[n] = origin + n * windowMicros;
+        masks = m;
+        blocks = b;
+        starts = s;
+        size = n + 1;
+    }
+
+    /** Mask of window index, 0 outside the timeline. */
+    public int mask(int index) {
+        final int n = size;
+        return index < 0 || index >= n ? 0 : masks[index];
+    }
+
+    /** OR of the masks of windows [from, to). */
+    public int union(int from, int to) {
+        final int n = size;
+        final int[] m = masks;
+        final int[] b = blocks;
+        from = Math.max(from, 0);
+        to = Math.min(to, n);
+        int u = 0;
+        int i = from;
+        while (i < to) {
+            if ((i & (BLOCK - 1)) == 0 && i + BLOCK <= to) {
+                u |= b[i >> BLOCK_SHIFT];
+                i += BLOCK;
+            } else {
+                u |= m[i++];
+            }
+        }
+        return u;
+    }
+
+    /** Number of windows in [from, to) with any of bits set. */
+    public int count(int from, int to, int bits) {
+        final int n = size;
+        final int[] m = masks;
+        final int[] b = blocks;
+        from = Math.max(from, 0);
+        to = Math.min(to, n);
+        int count = 0;
+        int i = from;
+        while (i < to) {
+            if ((i & (BLOCK - 1)) == 0 && i + BLOCK <= to && (b[i >> BLOCK_SHIFT] & bits) == 0) {
+                i += BLOCK;
+                continue;
+            }
+            if ((m[i++] & bits) != 0) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /** First window at or after from with any of bits set, or -1. */
+    public int nextWith(int from, int bits) {
+        final int n = size;
+        final int[] m = masks;
+        final int[] b = blocks;
+        int i = Math.max(from, 0);
+        while (i < n) {
+            if ((i & (BLOCK - 1)) == 0 && (b[i >> BLOCK_SHIFT] & bits) == 0) {
+                i += BLOCK;
+                continue;
+            }
+            if ((m[i] & bits) != 0) {
+                return i;
+            }
+            ++i;
+        }
+        return -1;
+    }
+
+    /** First window at or after from with none of bits set, or -1. */
+    public int nextWithout(int from, int bits) {
+        final int n = size;
+        final int[] m = masks;
+        for (int i = Math.max(from, 0); i < n; ++i) {
+            if ((m[i] & bits) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Copy of the masks of all windows so far. */
+    public int[] toArray() {
+        final int n = size;
+        return Arrays.copyOf(masks, n);
+    }
+}
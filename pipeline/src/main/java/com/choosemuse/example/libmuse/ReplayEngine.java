@@ -0,0 +1,179 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays recorded sessions into the same SampleSink stages the live path
+ * uses, one file per task on a ForkJoinPool.
+ *
+ * Every file is streamed: its source is decoded into a small preallocated
+ * block of records which is handed to the sink and then reused, so memory
+ * stays bounded by BLOCK_SIZE records per worker no matter how long the
+ * sessions are. Each job gets its own sink, since sinks are not expected to
+ * be thread-safe. A job that fails, with an IOException or any runtime
+ * exception, is counted in Stats and the others carry on.
+ */
+public class ReplayEngine {
+    static final int BLOCK_SIZE = 256;
+
+    /** One file to replay. */
+    public interface Job {
+        String name();
+
+        SampleSource open() throws IOException;
+
+        SampleSink sink();
+    }
+
+    /** Totals of one replay() call. */
+    public static final class Stats {
+        public final int files;
+        public final int failedFiles;
+        public final long samples;
+        public final long elapsedNanos;
+        public final String firstError;
+
+        Stats(int files, int failedFiles, long samples, long elapsedNanos, String firstError) {
+            this.files = files;
+            this.failedFiles = failedFiles;
+            this.samples = samples;
+            this.elapsedNanos = elapsedNanos;
+            this.firstError = firstError;
+        }
+
+        public double filesPerSecond() {
+            return elapsedNanos <= 0 ? 0.0 : files * 1e9 / elapsedNanos;
+        }
+
+        public double samplesPerSecond() {
+            return elapsedNanos <= 0 ? 0.0 : samples * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "files=" + files +
+                " failed=" + failedFiles +
+                " samples=" + samples +
+                " files/s=" + Math.round(filesPerSecond()) +
+                " samples/s=" + Math.round(samplesPerSecond()) +
+                (firstError == null ? "" : " error=" + firstError);
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    public ReplayEngine(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    public ReplayEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Replays all jobs and blocks until they are done. */
+    public Stats replay(List<? extends Job> jobs) {
+        final AtomicLong samples = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final String[] firstError = new String[1];
+        final long t0 = System.nanoTime();
+        pool.invoke(new Fan(jobs, 0, jobs.size(), samples, failed, firstError));
+        final long elapsed = System.nanoTime() - t0;
+        synchronized (firstError) {
+            return new Stats(jobs.size(), (int) failed.get(), samples.get(), elapsed, firstError[0]);
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /** Replays a single file on the calling thread. Returns the sample count. */
+    public static long replayOne(Job job) throws IOException {
+        final brainPacket[] block = new brainPacket[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE; ++i) {
+            block[i] = new brainPacket();
+        }
+        return replayOne(job, block);
+    }
+
+    private static long replayOne(Job job, brainPacket[] block) throws IOException {
+        final SampleSource source = job.open();
+        final SampleSink sink = job.sink();
+        long count = 0;
+        try {
+            while (true) {
+                int n = 0;
+                while (n < block.length && source.next(block[n])) {
+                    ++n;
+                }
+                for (int i = 0; i < n; ++i) {
+                    sink.accept(block[i]);
+                }
+                count += n;
+                if (n < block.length) {
+                    return count;
+                }
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    // Splits the job list in halves until one job is left, then replays it.
+    private static final class Fan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<? extends Job> jobs;
+        private final int from;
+        private final int to;
+        private final AtomicLong samples;
+        private final AtomicLong failed;
+        private final String[] firstError;
+
+        Fan(List<? extends Job> jobs, int from, int to,
+            AtomicLong samples, AtomicLong failed, String[] firstError) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+            this.samples = samples;
+            this.failed = failed;
+            this.firstError = firstError;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new Fan(jobs, from, mid, samples, failed, firstError),
+                          new Fan(jobs, mid, to, samples, failed, firstError));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+            final Job job = jobs.get(from);
+            try {
+                samples.addAndGet(replayOne(job));
+            } catch (IOException e) {
+                fail(job, e.getMessage());
+            } catch (RuntimeException e) {
+                // A bug in one sink or a corrupt file the source trips over
+                // must not abort the replay of every other file.
+                fail(job, e.toString());
+            }
+        }
+
+        private void fail(Job job, String error) {
+            failed.incrementAndGet();
+            synchronized (firstError) {
+                if (firstError[0] == null) {
+                    firstError[0] = job.name() + ": " + error;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer ring of preallocated brainPacket
+ * slots.
+ *
+ * The producer (the libmuse callback thread) fills a slot in place with
+ * claim()/publish(); the consumer empties the ring in batches with drain().
+ * Neither side locks or allocates. When the ring is full the new sample is
+ * dropped and counted, so a stalled consumer costs samples rather than
+ * unbounded memory.
+ */
+public class SampleRing {
+    private final brainPacket[] slots;
+    private final int mask;
+
+    // head is only written by the producer, tail only by the consumer.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // Producer-side statistics; volatile so other threads can read them.
+    private volatile long highWaterMark = 0;
+    private volatile long dropCount = 0;
+
+    public SampleRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new brainPacket[size];
+        for (int i = 0; i < size; ++i) {
+            slots[i] = new brainPacket();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the next free slot for the producer to fill, or null (and
+     * counts a drop) if the ring is full. The slot becomes visible to the
+     * consumer on publish().
+     */
+    public brainPacket claim() {
+        final long h = head.get();
+        if (h - tail.get() >= slots.length) {
+            dropCount = dropCount + 1;
+            return null;
+        }
+        return slots[(int) h & mask];
+    }
+
+    public void publish() {
+        final long h = head.get() + 1;
+        head.lazySet(h);
+        final long depth = h - tail.get();
+        if (depth > highWaterMark) {
+            highWaterMark = depth;
+        }
+    }
+
+    /** Copies s into the ring; returns false if it was dropped. */
+    public boolean offer(brainPacket s) {
+        final brainPacket slot = claim();
+        if (slot == null) {
+            return false;
+        }
+        slot.copyFrom(s);
+        publish();
+        return true;
+    }
+
+    /**
+     * Hands up to max samples to sink in arrival order and frees their slots.
+     * Consumer thread only. Returns the number of samples drained.
+     */
+    public int drain(SampleSink sink, int max) {
+        final long t = tail.get();
+        final long available = head.get() - t;
+        final int n = (int) Math.min(available, max);
+        for (int i = 0; i < n; ++i) {
+            sink.accept(slots[(int) (t + i) & mask]);
+        }
+        if (n > 0) {
+            tail.lazySet(t + n);
+        }
+        return n;
+    }
+
+    public int drainAll(SampleSink sink) {
+        return drain(sink, slots.length);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public int depth() {
+        return (int) (head.get() - tail.get());
+    }
+
+    public long highWaterMark() {
+        return highWaterMark;
+    }
+
+    public long dropCount() {
+        return dropCount;
+    }
+
+    public long publishedCount() {
+        return head.get();
+    }
+}
@@ -0,0 +1,10 @@
+package com.choosemuse.example.libmuse;
+
+/**
+ * Consumer side of the sample pipeline. The record passed to accept() is
+ * owned by the caller and only valid for the duration of the call; copy
+ * whatever needs to outlive it.
+ */
+public interface SampleSink {
+    void accept(brainPacket s);
+}
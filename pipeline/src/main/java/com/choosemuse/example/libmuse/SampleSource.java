@@ -0,0 +1,17 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.IOException;
+
+/**
+ * Pull side of the sample pipeline: a recorded session read back one
+ * sample at a time.
+ */
+public interface SampleSource {
+    /**
+     * Fills into with the next sample. Returns false at the end of the
+     * session.
+     */
+    boolean next(brainPacket into) throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,192 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * DataSource whose connection attempts go as scripted, for exercising
+ * ConnectionSupervisor and the reconnect paths without a headband.
+ *
+ * Each start() plays the next step of the script; the last step repeats
+ * once the script runs out. A step either fails after a delay, never
+ * answers at all, or connects and streams EEG for a while before dropping
+ * (or until stop()). Timestamps are in microseconds on the wall clock, as
+ * with a real headband, so a drop shows up as a gap in them.
+ */
+public class ScriptedDataSource implements DataSource {
+    private static final int FAIL = 0;
+    private static final int SILENT = 1;
+    private static final int STREAM = 2;
+
+    private static final class Step {
+        final int kind;
+        final long delayMillis;
+        final long streamMillis;
+
+        Step(int kind, long delayMillis, long streamMillis) {
+            this.kind = kind;
+            this.delayMillis = delayMillis;
+            this.streamMillis = streamMillis;
+        }
+    }
+
+    private final String name;
+    private final double eegRate;
+    private final List<Step> script = new ArrayList<>();
+    private final brainPacket packet = new brainPacket();
+    private volatile Listener listener;
+    private volatile boolean running = false;
+    private Thread thread;
+    private int next = 0;
+    private int state = STATE_DISCONNECTED;
+
+    private volatile long starts = 0;
+    private volatile long emitted = 0;
+
+    public ScriptedDataSource(String name, double eegRate) {
+        this.name = name;
+        this.eegRate = eegRate;
+    }
+
+    /** The next attempt reports DISCONNECTED after delayMillis. */
+    public ScriptedDataSource fail(long delayMillis) {
+        script.add(new Step(FAIL, delayMillis, 0));
+        return this;
+    }
+
+    /** The next attempt stays CONNECTING until stopped. */
+    public ScriptedDataSource silent() {
+        script.add(new Step(SILENT, 0, 0));
+        return this;
+    }
+
+    /**
+     * The next attempt connects after delayMillis and streams for
+     * streamMillis, then drops; a negative streamMillis streams until stop().
+     */
+    public ScriptedDataSource connect(long delayMillis, long streamMillis) {
+        script.add(new Step(STREAM, delayMillis, streamMillis));
+        return this;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running || script.isEmpty()) {
+            return;
+        }
+        final Step step = script.get(Math.min(next, script.size() - 1));
+        final Listener l = listener;
+        ++next;
+        ++starts;
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                play(step, l);
+            }
+        }, "ScriptedDataSource-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        final Thread t;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            t = thread;
+        }
+        LockSupport.unpark(t);
+        if (Thread.currentThread() != t) {
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Number of start() calls that played a step. */
+    public long starts() {
+        return starts;
+    }
+
+    public long emitted() {
+        return emitted;
+    }
+
+    private void setState(Listener l, int current) {
+        final int previous = state;
+        state = current;
+        if (l != null) {
+            l.onConnectionState(previous, current);
+        }
+    }
+
+    private void play(Step step, Listener l) {
+        setState(l, STATE_CONNECTING);
+        if (step.kind == SILENT) {
+            sleepUntil(Long.MAX_VALUE);
+        } else if (sleepUntil(System.nanoTime() + step.delayMillis * 1000000L) && step.kind == STREAM) {
+            setState(l, STATE_CONNECTED);
+            stream(l, step.streamMillis);
+        }
+        synchronized (this) {
+            running = false;
+        }
+        setState(l, STATE_DISCONNECTED);
+    }
+
+    private void stream(Listener l, long streamMillis) {
+        final long startNanos = System.nanoTime();
+        final long endNanos = streamMillis < 0 ? Long.MAX_VALUE : startNanos + streamMillis * 1000000L;
+        final long clockStart = System.currentTimeMillis() * 1000L;
+        final double periodNanos = 1e9 / eegRate;
+        long n = 0;
+        while (running) {
+            final long due = startNanos + (long) (n * periodNanos);
+            if (due >= endNanos) {
+                break;
+            }
+            if (!sleepUntil(due)) {
+                break;
+            }
+            packet.set(clockStart + (due - startNanos) / 1000, brainPacket.TYPE_EEG, 4);
+            for (int c = 0; c < packet.size; ++c) {
+                packet.values[c] = 850.0 + c;
+            }
+            packet.receivedNanos = System.nanoTime();
+            ++emitted;
+            if (l != null) {
+                l.onSample(packet);
+            }
+            ++n;
+        }
+    }
+
+    // False if stopped before the deadline.
+    private boolean sleepUntil(long deadlineNanos) {
+        while (running) {
+            final long wait = deadlineNanos - System.nanoTime();
+            if (wait <= 0) {
+                return true;
+            }
+            LockSupport.parkNanos(wait);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,190 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SessionWriter that splits a recording into numbered segment files in a
+ * session directory, with a SessionJournal so that a session interrupted
+ * by a crash can be recovered to its last flush with SessionJournal.recover.
+ *
+ * Every flush() flushes the current segment and journals its length. After
+ * a flush, the segment is rotated if it is older than maxSegmentMillis or
+ * longer than maxSegmentBytes. The new segment is opened right away, and
+ * the old one is closed on a background thread, so a slow close (e.g. a
+ * writer that finishes with an index) does not hold up the caller.
+ *
+ * A segment that fails to close in the background does not stop the
+ * recording, which goes on in the next segment. The failure is counted in
+ * closeErrors() and kept in lastCloseError(), and close() throws it at the
+ * end of the session.
+ */
+public class SegmentedSessionWriter implements SessionWriter {
+    /** Creates the writer for one segment. */
+    public interface Factory {
+        SessionWriter open(File segmentFile) throws IOException;
+    }
+
+    private final File dir;
+    private final String extension;
+    private final Factory factory;
+    private final long maxSegmentBytes;
+    private final long maxSegmentNanos;
+    private final SessionJournal journal;
+    private final ExecutorService closer;
+
+    private SessionWriter current;
+    private File currentFile;
+    private int segment = -1;
+    private long segmentStartNanos;
+    private long samples = 0;
+    private long lastTimestamp = 0;
+    // Written only by the closer thread.
+    private volatile IOException lastCloseError = null;
+    private volatile int closeErrors = 0;
+    private volatile int failedSegment = -1;
+    private boolean closed = false;
+
+    /**
+     * Starts a new session in dir, which must not hold one already. Segment
+     * files are named by SessionJournal.segmentFile with extension, which
+     * should also be passed to SessionJournal.recover.
+     */
+    public SegmentedSessionWriter(File dir, String extension, Factory factory,
+                                  long maxSegmentBytes, long maxSegmentMillis) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        if (new File(dir, SessionJournal.JOURNAL_NAME).exists()) {
+            throw new IOException(dir + " already holds a session");
+        }
+        this.dir = dir;
+        this.extension = extension;
+        this.factory = factory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentNanos = TimeUnit.MILLISECONDS.toNanos(maxSegmentMillis);
+        this.journal = new SessionJournal(dir);
+        this.closer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "segment-closer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        openNext();
+    }
+
+    @Override
+    public void write(brainPacket s) throws IOException {
+        current.write(s);
+        ++samples;
+        lastTimestamp = s.timestamp;
+    }
+
+    @Override
+    public void annotate(long timestamp, String text) throws IOException {
+        current.annotate(timestamp, text);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        commit();
+        if (System.nanoTime() - segmentStartNanos >= maxSegmentNanos ||
+            currentFile.length() >= maxSegmentBytes) {
+            rotate();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            commit();
+            // Through the closer like the others, so that segments are
+            // always closed, and journaled as closed, in order.
+            closeInBackground(segment, current, currentFile);
+            closer.shutdown();
+            try {
+                closer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Without its CLOSE record the last segment is left for
+            // recover() to cut back to its last commit.
+            if (failedSegment == segment) {
+                throw lastCloseError;
+            }
+            journal.finish(samples, lastTimestamp);
+            if (lastCloseError != null) {
+                throw new IOException(closeErrors + " segment(s) failed to close", lastCloseError);
+            }
+        } finally {
+            journal.release();
+        }
+    }
+
+    public File directory() {
+        return dir;
+    }
+
+    /** Number of the segment being written. */
+    public int segment() {
+        return segment;
+    }
+
+    /** Number of segments that failed to close. */
+    public int closeErrors() {
+        return closeErrors;
+    }
+
+    /** Why the newest failed segment could not be closed, or null. */
+    public IOException lastCloseError() {
+        return lastCloseError;
+    }
+
+    private void commit() throws IOException {
+        current.flush();
+        journal.commit(segment, currentFile.length(), samples, lastTimestamp);
+    }
+
+    private void openNext() throws IOException {
+        final File file = SessionJournal.segmentFile(dir, segment + 1, extension);
+        current = factory.open(file);
+        currentFile = file;
+        ++segment;
+        journal.open(segment);
+        segmentStartNanos = System.nanoTime();
+    }
+
+    private void rotate() throws IOException {
+        final int oldSegment = segment;
+        final SessionWriter oldWriter = current;
+        final File oldFile = currentFile;
+        openNext();
+        closeInBackground(oldSegment, oldWriter, oldFile);
+    }
+
+    private void closeInBackground(final int n, final SessionWriter writer, final File file) {
+        closer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer.close();
+                    journal.close(n, file.length());
+                } catch (IOException e) {
+                    lastCloseError = e;
+                    failedSegment = n;
+                    ++closeErrors;
+                }
+            }
+        });
+    }
+}
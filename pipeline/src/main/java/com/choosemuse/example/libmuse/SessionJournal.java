@@ -0,0 +1,262 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of a segmented recording, kept next to the segments
+ * as JOURNAL_NAME.
+ *
+ * Every record has the same size and carries a CRC32, so the newest valid
+ * record can be found by reading backwards from the end of the file, and a
+ * record torn by a crash is simply ignored. Records:
+ *   OPEN      a segment file was created
+ *   COMMIT    a segment was flushed to storage with the given length
+ *   CLOSE     a segment was closed cleanly and is complete
+ *   FINISHED  the session was closed, or recovered, and needs nothing more
+ *
+ * recover() brings an interrupted session back to its last COMMIT: each
+ * segment that was not closed is truncated to its committed length, and
+ * segments without a commit are deleted. It only reads the journal back to
+ * the OPEN record of the newest segment (plus any segments still being
+ * closed then), so its cost depends on the segment length, not on the
+ * length of the session.
+ *
+ * Appends are synchronized, so segments may be closed on another thread.
+ */
+public class SessionJournal {
+    public static final String JOURNAL_NAME = "journal";
+
+    static final int OPEN = 1;
+    static final int COMMIT = 2;
+    static final int CLOSE = 3;
+    static final int FINISHED = 4;
+
+    // kind, segment, length, samples, timestamp, crc
+    static final int RECORD_SIZE = 4 + 4 + 8 + 8 + 8 + 4;
+
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    /** Outcome of recover(). */
+    public static final class Recovery {
+        /** False if the session had been closed or recovered already. */
+        public boolean recovered;
+        /** Newest segment with committed data, -1 if there is none. */
+        public int lastSegment = -1;
+        /** Segments truncated to their committed length. */
+        public int truncated;
+        /** Segment files deleted because nothing in them was committed. */
+        public int deleted;
+        /** Bytes cut off the truncated segments. */
+        public long bytesDiscarded;
+        /** Samples and newest timestamp as of the last commit. */
+        public long samples;
+        public long timestamp;
+        public long elapsedNanos;
+
+        @Override
+        public String toString() {
+            return "recovered=" + recovered + " last segment=" + lastSegment +
+                " truncated=" + truncated + " deleted=" + deleted +
+                " discarded=" + bytesDiscarded + "B samples=" + samples +
+                " in " + elapsedNanos / 1000 + "us";
+        }
+    }
+
+    /** Opens the journal of dir for appending, creating it if needed. */
+    public SessionJournal(File dir) throws IOException {
+        final File file = new File(dir, JOURNAL_NAME);
+        final long valid = file.length() / RECORD_SIZE * RECORD_SIZE;
+        out = new FileOutputStream(file, true);
+        channel = out.getChannel();
+        // Drop a torn record at the end so the records stay aligned.
+        if (channel.size() > valid) {
+            channel.truncate(valid);
+        }
+    }
+
+    public void open(int segment) throws IOException {
+        append(OPEN, segment, 0, 0, 0, false);
+    }
+
+    /** Records that segment was flushed with the given file length. */
+    public void commit(int segment, long length, long samples, long timestamp) throws IOException {
+        append(COMMIT, segment, length, samples, timestamp, true);
+    }
+
+    public void close(int segment, long length) throws IOException {
+        append(CLOSE, segment, length, 0, 0, true);
+    }
+
+    public void finish(long samples, long timestamp) throws IOException {
+        append(FINISHED, -1, 0, samples, timestamp, true);
+    }
+
+    public synchronized void release() throws IOException {
+        out.close();
+    }
+
+    private synchronized void append(int kind, int segment, long length, long samples,
+                                     long timestamp, boolean force) throws IOException {
+        record.clear();
+        record.putInt(kind);
+        record.putInt(segment);
+        record.putLong(length);
+        record.putLong(samples);
+        record.putLong(timestamp);
+        crc.reset();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        if (force) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Recovers the session in dir, whose segment files are named by
+     * segmentFile(dir, n, extension). Returns what was done; a session
+     * that was closed cleanly is left alone.
+     *
+     * Only the journaled segment files are cut back. Anything else the
+     * session wrote alongside them, e.g. a copy in another format, is not
+     * in the journal and may hold samples from after the last commit, up
+     * to the crash.
+     */
+    public static Recovery recover(File dir, String extension) throws IOException {
+        final long start = System.nanoTime();
+        final Recovery result = new Recovery();
+        final File file = new File(dir, JOURNAL_NAME);
+        if (!file.exists()) {
+            return result;
+        }
+        final Map<Integer, Long> committed = new HashMap<>();
+        int newest = -1;
+        boolean openSeen = false;
+        int closedUpTo = -1;
+        boolean finished = false;
+
+        final RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            final ByteBuffer r = ByteBuffer.allocate(RECORD_SIZE);
+            final CRC32 check = new CRC32();
+            long position = in.length() / RECORD_SIZE * RECORD_SIZE;
+            while (position > 0) {
+                position -= RECORD_SIZE;
+                r.clear();
+                in.seek(position);
+                in.readFully(r.array());
+                check.reset();
+                check.update(r.array(), 0, RECORD_SIZE - 4);
+                if (r.getInt(RECORD_SIZE - 4) != (int) check.getValue()) {
+                    continue;
+                }
+                final int kind = r.getInt();
+                final int segment = r.getInt();
+                final long length = r.getLong();
+                final long samples = r.getLong();
+                final long timestamp = r.getLong();
+                if (kind == FINISHED) {
+                    finished = true;
+                    break;
+                } else if (kind == OPEN) {
+                    newest = Math.max(newest, segment);
+                    if (segment == newest) {
+                        openSeen = true;
+                    }
+                } else if (kind == COMMIT) {
+                    newest = Math.max(newest, segment);
+                    if (!committed.containsKey(segment)) {
+                        committed.put(segment, length);
+                        if (segment >= result.lastSegment) {
+                            result.lastSegment = segment;
+                            result.samples = Math.max(result.samples, samples);
+                            result.timestamp = Math.max(result.timestamp, timestamp);
+                        }
+                    }
+                } else if (kind == CLOSE) {
+                    // Segments are closed in order, so this one closing
+                    // means all older ones are complete.
+                    closedUpTo = Math.max(closedUpTo, segment);
+                }
+                if (openSeen && pendingResolved(committed, closedUpTo, newest)) {
+                    break;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        if (finished) {
+            return result;
+        }
+
+        for (int segment = closedUpTo + 1; segment <= newest; ++segment) {
+            final File f = segmentFile(dir, segment, extension);
+            final Long length = committed.get(segment);
+            if (length == null) {
+                if (f.exists() && f.delete()) {
+                    ++result.deleted;
+                }
+            } else if (f.length() > length) {
+                result.bytesDiscarded += f.length() - length;
+                truncate(f, length);
+                ++result.truncated;
+            }
+        }
+        // A segment file created just before the crash, before its OPEN
+        // record made it to the journal.
+        final File next = segmentFile(dir, newest + 1, extension);
+        if (next.exists() && next.delete()) {
+            ++result.deleted;
+        }
+
+        final SessionJournal journal = new SessionJournal(dir);
+        try {
+            journal.finish(result.samples, result.timestamp);
+        } finally {
+            journal.release();
+        }
+        result.recovered = true;
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    // True once the scan has reached back far enough: every segment older
+    // than the newest that was not seen closed has its final commit, down to
+    // one that was.
+    private static boolean pendingResolved(Map<Integer, Long> committed, int closedUpTo, int newest) {
+        for (int s = newest - 1; s > closedUpTo; --s) {
+            if (!committed.containsKey(s)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static File segmentFile(File dir, int segment, String extension) {
+        return new File(dir, String.format("segment-%05d%s", segment, extension));
+    }
+
+    private static void truncate(File f, long length) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.getChannel().truncate(length);
+            raf.getChannel().force(true);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the DevicePipelines of a group session on one bounded pool of
+ * worker threads. Each device gets a drain task at a fixed delay; a task
+ * never overlaps with itself, so every pipeline is still single-consumer,
+ * and the pool size rather than the device count bounds the thread count.
+ */
+public class SessionManager {
+    private final ScheduledExecutorService workers;
+    private final long drainIntervalMillis;
+    private final List<DevicePipeline> pipelines = new ArrayList<>();
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+
+    public SessionManager(int workerThreads, long drainIntervalMillis) {
+        this.workers = new ScheduledThreadPoolExecutor(workerThreads);
+        this.drainIntervalMillis = drainIntervalMillis;
+    }
+
+    public SessionManager() {
+        this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)), 20);
+    }
+
+    /** Adds p and starts draining it. */
+    public synchronized DevicePipeline add(final DevicePipeline p) {
+        pipelines.add(p);
+        tasks.add(workers.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                p.drain(System.nanoTime());
+            }
+        }, drainIntervalMillis, drainIntervalMillis, TimeUnit.MILLISECONDS));
+        return p;
+    }
+
+    /** Stops draining p and closes it on a worker. */
+    public synchronized void remove(final DevicePipeline p) {
+        final int i = pipelines.indexOf(p);
+        if (i < 0) {
+            return;
+        }
+        pipelines.remove(i);
+        tasks.remove(i).cancel(false);
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                p.close();
+            }
+        });
+    }
+
+    public synchronized List<DevicePipeline> pipelines() {
+        return new ArrayList<>(pipelines);
+    }
+
+    /** Closes every pipeline and stops the workers. */
+    public void shutdown() throws InterruptedException {
+        for (DevicePipeline p : pipelines()) {
+            remove(p);
+        }
+        workers.shutdown();
+        workers.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    public synchronized String summary() {
+        final StringBuilder sb = new StringBuilder();
+        for (DevicePipeline p : pipelines) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(p.summary());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,532 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Count, min, max, mean and variance of every channel of every packet type
+ * over 1 s, 10 s, 1 min and 10 min buckets, kept up to date while a session
+ * is recorded, so history views and exports get aggregates without reading
+ * the samples again.
+ *
+ * A sample only updates the open 1 s bucket of its type (Welford). When a
+ * bucket closes it is merged into the open bucket of the next level up
+ * (Chan et al.'s pairwise update), so each level costs O(1) per closed
+ * bucket below it. Buckets are aligned to multiples of their length since
+ * the epoch of the sample timestamps, and empty ones are not stored.
+ * aggregate() covers a time range with the coarsest whole buckets that fit,
+ * so a query touches a few dozen buckets however long the session is. A
+ * coarse bucket that is still open, or was lost with the open buckets in a
+ * crash, is made up from the closed buckets one level down.
+ * Bucket lookups are direct while a series has no holes and a binary
+ * search otherwise.
+ *
+ * As a SessionWriter it appends every bucket that closes to a sidecar file
+ * on flush() and writes the open ones on close(). The file is a small
+ * append-only log (about 100 bytes per second of EEG) that read() loads
+ * back; a crash loses only the buckets since the last flush. backfill()
+ * builds the sidecar of an existing recording in one pass. Thread-safe.
+ *
+ * Every channel has its own count, since NaN values are left out of it
+ * (e.g. the band powers of a bad electrode).
+ *
+ * Sidecar layout, big-endian: MAGIC, then per bucket: level (byte), type
+ * (byte), width (byte), bucket number (long) and width times count (int),
+ * min, max, mean, variance (floats). read() also takes the MAGIC_V1 layout,
+ * which had one count per bucket, before the channels.
+ */
+public class SessionRollups implements SessionWriter {
+    public static final String FILE_NAME = "rollups";
+    public static final int MAGIC = 0x4d535232; // "MSR2"
+    public static final int MAGIC_V1 = 0x4d535231; // "MSR1"
+    public static final long[] BUCKET_MICROS = { 1000000L, 10000000L, 60000000L, 600000000L };
+    public static final int LEVELS = BUCKET_MICROS.length;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Aggregate of one channel over some buckets. */
+    public static final class Stats {
+        public long count;
+        public double min;
+        public double max;
+        public double mean;
+        // Sum of squared deviations from the mean.
+        double m2;
+
+        public Stats() {
+            reset();
+        }
+
+        public void reset() {
+            count = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            mean = 0.0;
+            m2 = 0.0;
+        }
+
+        /** Population variance. */
+        public double variance() {
+            return count == 0 ? 0.0 : m2 / count;
+        }
+
+        void merge(long n, double min, double max, double mean, double m2) {
+            if (n == 0) {
+                return;
+            }
+            final long total = count + n;
+            final double delta = mean - this.mean;
+            this.mean += delta * n / total;
+            this.m2 += m2 + delta * delta * count * n / total;
+            this.count = total;
+            this.min = Math.min(this.min, min);
+            this.max = Math.max(this.max, max);
+        }
+
+        @Override
+        public String toString() {
+            return "n=" + count + " min=" + min + " max=" + max + " mean=" + mean +
+                " sd=" + Math.sqrt(variance());
+        }
+    }
+
+    /** The closed buckets of one packet type at one level. */
+    public static final class Series {
+        public final int level;
+        public final int width;
+        private long[] buckets = new long[64];
+        // Samples in the bucket: the most of any channel.
+        private int[] counts = new int[64];
+        // [channel][bucket]
+        private final int[][] channelCounts;
+        // [channel][4 * bucket + MIN, MAX, MEAN, M2]
+        private final double[][] values;
+        private int size = 0;
+
+        // The open bucket.
+        private long open = Long.MIN_VALUE;
+        private final Stats[] current;
+
+        Series(int level, int width) {
+            this.level = level;
+            this.width = width;
+            values = new double[width][4 * 64];
+            channelCounts = new int[width][64];
+            current = new Stats[width];
+            for (int c = 0; c < width; ++c) {
+                current[c] = new Stats();
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /** Start timestamp of the i-th stored bucket. */
+        public long start(int i) {
+            return buckets[i] * BUCKET_MICROS[level];
+        }
+
+        public int count(int i) {
+            return counts[i];
+        }
+
+        /** Values of channel in the i-th bucket, NaNs left out. */
+        public int count(int channel, int i) {
+            return channelCounts[channel][i];
+        }
+
+        public double min(int channel, int i) {
+            return values[channel][4 * i];
+        }
+
+        public double max(int channel, int i) {
+            return values[channel][4 * i + 1];
+        }
+
+        public double mean(int channel, int i) {
+            return values[channel][4 * i + 2];
+        }
+
+        public double variance(int channel, int i) {
+            final int n = channelCounts[channel][i];
+            return n == 0 ? 0.0 : values[channel][4 * i + 3] / n;
+        }
+
+        /** Position of bucket number b, or -1 if it is empty. */
+        int find(long b) {
+            if (size == 0) {
+                return -1;
+            }
+            final long guess = b - buckets[0];
+            if (guess >= 0 && guess < size && buckets[(int) guess] == b) {
+                return (int) guess;
+            }
+            final int i = Arrays.binarySearch(buckets, 0, size, b);
+            return i >= 0 ? i : -1;
+        }
+
+        void append(long b, long n, Stats[] s) {
+            if (size == buckets.length) {
+                buckets = Arrays.copyOf(buckets, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+                for (int c = 0; c < width; ++c) {
+                    values[c] = Arrays.copyOf(values[c], 4 * size * 2);
+                    channelCounts[c] = Arrays.copyOf(channelCounts[c], size * 2);
+                }
+            }
+            buckets[size] = b;
+            counts[size] = (int) n;
+            for (int c = 0; c < width; ++c) {
+                channelCounts[c][size] = (int) s[c].count;
+                final double[] v = values[c];
+                v[4 * size] = s[c].min;
+                v[4 * size + 1] = s[c].max;
+                v[4 * size + 2] = s[c].mean;
+                v[4 * size + 3] = s[c].m2;
+            }
+            ++size;
+        }
+    }
+
+    // [type][level]
+    private final Series[][] series = new Series[brainPacket.TYPE_COUNT][];
+    private final Stats[][] totals = new Stats[brainPacket.TYPE_COUNT][];
+    private final FileOutputStream out;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    /** Rollups in memory only. */
+    public SessionRollups() {
+        out = null;
+        channel = null;
+        buffer = null;
+    }
+
+    /** Rollups that are also appended to a new sidecar file. */
+    public SessionRollups(File sidecar) throws IOException {
+        out = new FileOutputStream(sidecar);
+        channel = out.getChannel();
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.putInt(MAGIC);
+    }
+
+    /** Loads a sidecar, ignoring a partial bucket at its end. */
+    public static SessionRollups read(File sidecar) throws IOException {
+        final SessionRollups rollups = new SessionRollups();
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+        try {
+            final int magic = in.readInt();
+            if (magic != MAGIC && magic != MAGIC_V1) {
+                throw new IOException(sidecar + " is not a rollup file");
+            }
+            final Stats[] s = new Stats[brainPacket.MAX_VALUES];
+            for (int c = 0; c < s.length; ++c) {
+                s[c] = new Stats();
+            }
+            while (true) {
+                final int level;
+                try {
+                    level = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                final int type = in.readByte();
+                final int width = in.readByte();
+                final long bucket = in.readLong();
+                final int bucketCount = magic == MAGIC_V1 ? in.readInt() : 0;
+                if (level < 0 || level >= LEVELS || type < 0 || type >= brainPacket.TYPE_COUNT ||
+                    width < 1 || width > brainPacket.MAX_VALUES) {
+                    throw new IOException(sidecar + ": bad bucket record");
+                }
+                int count = 0;
+                for (int c = 0; c < width; ++c) {
+                    s[c].count = magic == MAGIC_V1 ? bucketCount : in.readInt();
+                    s[c].min = in.readFloat();
+                    s[c].max = in.readFloat();
+                    s[c].mean = in.readFloat();
+                    s[c].m2 = in.readFloat() * (double) s[c].count;
+                    count = Math.max(count, (int) s[c].count);
+                }
+                synchronized (rollups) {
+                    final Series series = rollups.series(type, level, width);
+                    series.append(bucket, count, s);
+                    if (level == 0) {
+                        final Stats[] total = rollups.totals[type];
+                        for (int c = 0; c < series.width; ++c) {
+                            total[c].merge(s[c].count, s[c].min, s[c].max, s[c].mean, s[c].m2);
+                        }
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // Partial last record.
+        } finally {
+            in.close();
+        }
+        return rollups;
+    }
+
+    /**
+     * Reads source to its end into a new sidecar and returns the rollups.
+     * Does not close source.
+     */
+    public static SessionRollups backfill(SampleSource source, File sidecar) throws IOException {
+        final SessionRollups rollups = new SessionRollups(sidecar);
+        try {
+            rollups.addAll(source);
+        } finally {
+            rollups.close();
+        }
+        return rollups;
+    }
+
+    /** Adds every remaining sample of source. */
+    public void addAll(SampleSource source) throws IOException {
+        final brainPacket s = new brainPacket();
+        while (source.next(s)) {
+            write(s);
+        }
+    }
+
+    @Override
+    public synchronized void write(brainPacket s) throws IOException {
+        if (s.type < 0 || s.type >= series.length || s.size == 0) {
+            return;
+        }
+        final Series first = series(s.type, 0, s.size);
+        final long b = floorDiv(s.timestamp, BUCKET_MICROS[0]);
+        if (b > first.open) {
+            if (first.open != Long.MIN_VALUE) {
+                close(s.type, 0);
+            }
+            first.open = b;
+        }
+        // A sample from before the open bucket (clock stepped back) is
+        // counted in it rather than rewriting closed buckets.
+        final int n = Math.min(first.width, s.size);
+        for (int c = 0; c < n; ++c) {
+            final double v = s.values[c];
+            if (Double.isNaN(v)) {
+                continue;
+            }
+            first.current[c].merge(1, v, v, v, 0.0);
+        }
+    }
+
+    // Closes the open bucket of type at level, merging it into the one
+    // above and queueing it for the sidecar.
+    private void close(int type, int level) throws IOException {
+        final Series s = series[type][level];
+        long n = 0;
+        for (int c = 0; c < s.width; ++c) {
+            n = Math.max(n, s.current[c].count);
+        }
+        if (n > 0) {
+            s.append(s.open, n, s.current);
+            queue(type, s, s.size - 1);
+            if (level == 0) {
+                final Stats[] total = totals[type];
+                for (int c = 0; c < s.width; ++c) {
+                    final Stats x = s.current[c];
+                    total[c].merge(x.count, x.min, x.max, x.mean, x.m2);
+                }
+            }
+            if (level + 1 < LEVELS) {
+                final Series up = series(type, level + 1, s.width);
+                final long b = floorDiv(s.open * BUCKET_MICROS[level], BUCKET_MICROS[level + 1]);
+                if (b > up.open) {
+                    if (up.open != Long.MIN_VALUE) {
+                        close(type, level + 1);
+                    }
+                    up.open = b;
+                }
+                for (int c = 0; c < s.width; ++c) {
+                    final Stats x = s.current[c];
+                    up.current[c].merge(x.count, x.min, x.max, x.mean, x.m2);
+                }
+            }
+        }
+        for (Stats x : s.current) {
+            x.reset();
+        }
+    }
+
+    private void queue(int type, Series s, int i) throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        final int bytes = 11 + 20 * s.width;
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+        buffer.put((byte) s.level);
+        buffer.put((byte) type);
+        buffer.put((byte) s.width);
+        buffer.putLong(s.buckets[i]);
+        for (int c = 0; c < s.width; ++c) {
+            buffer.putInt(s.channelCounts[c][i]);
+            buffer.putFloat((float) s.min(c, i));
+            buffer.putFloat((float) s.max(c, i));
+            buffer.putFloat((float) s.mean(c, i));
+            buffer.putFloat((float) s.variance(c, i));
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private Series series(int type, int level, int width) {
+        if (series[type] == null) {
+            series[type] = new Series[LEVELS];
+            totals[type] = new Stats[width];
+            for (int c = 0; c < width; ++c) {
+                totals[type][c] = new Stats();
+            }
+        }
+        if (series[type][level] == null) {
+            series[type][level] = new Series(level, totals[type].length);
+        }
+        return series[type][level];
+    }
+
+    @Override
+    public void annotate(long timestamp, String text) {
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (buffer != null) {
+            drain();
+            channel.force(false);
+        }
+    }
+
+    /** Closes the open buckets, bottom level first, and the sidecar. */
+    @Override
+    public synchronized void close() throws IOException {
+        for (int type = 0; type < series.length; ++type) {
+            if (series[type] == null) {
+                continue;
+            }
+            for (int level = 0; level < LEVELS; ++level) {
+                if (series[type][level] != null) {
+                    close(type, level);
+                    series[type][level].open = Long.MIN_VALUE;
+                }
+            }
+        }
+        if (buffer != null) {
+            try {
+                drain();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /** Closed buckets of type at level, or null if type was never seen. */
+    public synchronized Series series(int type, int level) {
+        return series[type] == null ? null : series[type][level];
+    }
+
+    /** The whole session so far (closed 1 s buckets) for one channel. */
+    public synchronized boolean total(int type, int channel, Stats out) {
+        out.reset();
+        if (totals[type] == null || channel >= totals[type].length) {
+            return false;
+        }
+        final Stats t = totals[type][channel];
+        out.merge(t.count, t.min, t.max, t.mean, t.m2);
+        return out.count > 0;
+    }
+
+    /**
+     * Aggregates one channel of type over [from, to), rounded out to whole
+     * seconds, into out, from the closed buckets. Returns false if nothing
+     * was recorded in it.
+     */
+    public synchronized boolean aggregate(int type, int channel, long from, long to, Stats out) {
+        out.reset();
+        final Series seconds = series[type] == null ? null : series[type][0];
+        if (seconds == null || seconds.size == 0 || channel >= seconds.width) {
+            return false;
+        }
+        // Every closed bucket has its seconds at level 0, so those bound
+        // the walk.
+        final long unit = BUCKET_MICROS[0];
+        long p = Math.max(floorDiv(from, unit), seconds.buckets[0]);
+        final long end = Math.min(-floorDiv(-to, unit), seconds.buckets[seconds.size - 1] + 1);
+        while (p < end) {
+            // Coarsest level whose bucket starts at p and fits.
+            int level = 0;
+            while (level + 1 < LEVELS) {
+                final long k = BUCKET_MICROS[level + 1] / unit;
+                if (p - floorDiv(p, k) * k != 0 || p + k > end) {
+                    break;
+                }
+                ++level;
+            }
+            add(type, channel, level, p, out);
+            p += BUCKET_MICROS[level] / unit;
+        }
+        return out.count > 0;
+    }
+
+    // Merges the bucket of level starting at second p into out. If it is
+    // not stored, because it is empty, still open or was lost, its buckets
+    // one level down are merged instead.
+    private void add(int type, int channel, int level, long p, Stats out) {
+        final Series seconds = series[type][0];
+        final long k = BUCKET_MICROS[level] / BUCKET_MICROS[0];
+        // Nothing below to make it up from: skip the whole bucket.
+        int first = Arrays.binarySearch(seconds.buckets, 0, seconds.size, p);
+        if (first < 0) {
+            first = -first - 1;
+        }
+        if (first == seconds.size || seconds.buckets[first] >= p + k) {
+            return;
+        }
+        final Series s = series[type][level];
+        final int i = s == null ? -1 : s.find(floorDiv(p, k));
+        if (i >= 0) {
+            final double[] v = s.values[channel];
+            out.merge(s.channelCounts[channel][i], v[4 * i], v[4 * i + 1], v[4 * i + 2], v[4 * i + 3]);
+        } else if (level > 0) {
+            final long step = BUCKET_MICROS[level - 1] / BUCKET_MICROS[0];
+            for (long q = p; q < p + k; q += step) {
+                add(type, channel, level - 1, q, out);
+            }
+        }
+    }
+
+    // Math.floorDiv is not available before Java 8.
+    private static long floorDiv(long x, long y) {
+        final long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+    public synchronized String summary() {
+        final StringBuilder sb = new StringBuilder();
+        for (int type = 0; type < series.length; ++type) {
+            if (series[type] != null && series[type][0] != null) {
+                sb.append(sb.length() == 0 ? "" : " ").append(PacketStats.typeName(type))
+                    .append('=').append(series[type][0].size()).append('s');
+            }
+        }
+        return sb.length() == 0 ? "empty" : sb.toString();
+    }
+}
@@ -0,0 +1,19 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.IOException;
+
+/**
+ * Destination of a recording. BatchRecorder decides when records are
+ * written and when they are made durable; implementations only need to
+ * store them.
+ */
+public interface SessionWriter {
+    void write(brainPacket s) throws IOException;
+
+    void annotate(long timestamp, String text) throws IOException;
+
+    /** Pushes everything written so far to durable storage. */
+    void flush() throws IOException;
+
+    void close() throws IOException;
+}
@@ -0,0 +1,248 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless stand-in for a headband, for load testing the pipeline without
+ * Bluetooth.
+ *
+ * A generator thread emits EEG, accelerometer, relative alpha and battery
+ * packets at configurable rates, which may be far above what real hardware
+ * does; a rate multiplier of 0 emits as fast as the listener can take them.
+ * Timing jitter, random dropouts and disconnect/reconnect storms can be
+ * switched on to exercise the error paths. Timestamps are in microseconds
+ * like libmuse's, on a clock that starts at the wall clock and advances by
+ * the nominal sample periods.
+ *
+ * A spontaneous disconnect behaves like a headband going out of range: the
+ * source reports DISCONNECTED and stops, and does not reconnect by itself.
+ * Started again, e.g. by a ConnectionSupervisor, it reports CONNECTING and
+ * only connects once reconnectSeconds have passed since the drop. The clock
+ * carries on across the outage, so the gap shows in the timestamps.
+ */
+public class SimulatedDataSource implements DataSource {
+    public static final class Config {
+        public double eegRate = 256.0;
+        public double accelRate = 52.0;
+        public double alphaRate = 10.0;
+        public double batteryRate = 0.1;
+        public int eegChannels = 6;
+        /** Real-time multiplier for all rates; 0 means free-running. */
+        public double speed = 1.0;
+        /** Random timing error, as a fraction of each period. */
+        public double jitter = 0.0;
+        /** Probability that any one packet is silently lost. */
+        public double dropout = 0.0;
+        /** Mean seconds between spontaneous disconnects; 0 for none. */
+        public double meanSecondsBetweenDisconnects = 0.0;
+        /**
+         * How long the source cannot connect after a spontaneous disconnect,
+         * in simulated time: divided by speed in wall time, and no time at
+         * all when free-running.
+         */
+        public double reconnectSeconds = 1.0;
+        public long seed = 1;
+    }
+
+    private static final int EEG = 0;
+    private static final int ACCEL = 1;
+    private static final int ALPHA = 2;
+    private static final int BATTERY = 3;
+
+    private final String name;
+    private final Config config;
+    private final Random random;
+    private final brainPacket packet = new brainPacket();
+    private final double[] periodMicros = new double[4];
+    private final double[] nextMicros = new double[4];
+    private volatile Listener listener;
+    private volatile boolean running = false;
+    private Thread thread;
+    private int state = STATE_DISCONNECTED;
+    // Generator thread only, kept across starts: the clock to carry on
+    // from, and when the current outage ends.
+    private double resumeMicros = Double.NEGATIVE_INFINITY;
+    private long outageEndNanos = System.nanoTime();
+
+    private volatile long generated = 0;
+    private volatile long dropped = 0;
+    private volatile long disconnects = 0;
+
+    public SimulatedDataSource(String name, Config config) {
+        this.name = name;
+        this.config = config;
+        this.random = new Random(config.seed);
+        periodMicros[EEG] = 1e6 / config.eegRate;
+        periodMicros[ACCEL] = 1e6 / config.accelRate;
+        periodMicros[ALPHA] = 1e6 / config.alphaRate;
+        periodMicros[BATTERY] = 1e6 / config.batteryRate;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        final Listener l = listener;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                generate(l);
+            }
+        }, "SimulatedDataSource-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void setState(Listener l, int next) {
+        final int previous = state;
+        state = next;
+        if (l != null) {
+            l.onConnectionState(previous, next);
+        }
+    }
+
+    private void generate(Listener l) {
+        setState(l, STATE_CONNECTING);
+        long outage;
+        while (running && (outage = outageEndNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(outage);
+        }
+        if (!running) {
+            setState(l, STATE_DISCONNECTED);
+            return;
+        }
+        setState(l, STATE_CONNECTED);
+        final long wallStartNanos = System.nanoTime();
+        final double clockStart = Math.max(System.currentTimeMillis() * 1000.0, resumeMicros);
+        for (int i = 0; i < nextMicros.length; ++i) {
+            nextMicros[i] = clockStart;
+        }
+        double nextDisconnect = scheduleDisconnect(clockStart);
+        while (running) {
+            int stream = 0;
+            for (int i = 1; i < nextMicros.length; ++i) {
+                if (nextMicros[i] < nextMicros[stream]) {
+                    stream = i;
+                }
+            }
+            final double t = nextMicros[stream];
+            if (config.speed > 0) {
+                final long due = wallStartNanos + (long) ((t - clockStart) * 1000.0 / config.speed);
+                final long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+            }
+            if (t >= nextDisconnect) {
+                ++disconnects;
+                resumeMicros = t + config.reconnectSeconds * 1e6;
+                if (config.speed > 0) {
+                    outageEndNanos = System.nanoTime() + (long) (config.reconnectSeconds * 1e9 / config.speed);
+                }
+                synchronized (this) {
+                    running = false;
+                }
+                break;
+            }
+            double advance = periodMicros[stream];
+            if (config.jitter > 0) {
+                advance *= 1.0 + config.jitter * (random.nextDouble() * 2.0 - 1.0);
+            }
+            nextMicros[stream] += advance;
+            if (config.dropout > 0 && random.nextDouble() < config.dropout) {
+                ++dropped;
+                continue;
+            }
+            emit(l, stream, (long) t);
+            resumeMicros = nextMicros[stream];
+        }
+        setState(l, STATE_DISCONNECTED);
+    }
+
+    private double scheduleDisconnect(double fromMicros) {
+        if (config.meanSecondsBetweenDisconnects <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        // Exponentially distributed gaps: disconnects arrive as a Poisson process.
+        return fromMicros - Math.log(1.0 - random.nextDouble()) * config.meanSecondsBetweenDisconnects * 1e6;
+    }
+
+    private void emit(Listener l, int stream, long timestamp) {
+        final double seconds = timestamp / 1e6;
+        switch (stream) {
+            case EEG:
+                packet.set(timestamp, brainPacket.TYPE_EEG, config.eegChannels);
+                for (int c = 0; c < packet.size; ++c) {
+                    // ~850 uV offset, a 10 Hz alpha rhythm and some noise.
+                    packet.values[c] = 850.0 + 20.0 * Math.sin(2 * Math.PI * 10.0 * seconds + c) +
+                        5.0 * random.nextGaussian();
+                }
+                break;
+            case ACCEL:
+                packet.set(timestamp, brainPacket.TYPE_ACCELEROMETER, 3);
+                packet.values[0] = 0.02 * random.nextGaussian();
+                packet.values[1] = 1.0 + 0.02 * random.nextGaussian();
+                packet.values[2] = 0.02 * random.nextGaussian();
+                break;
+            case ALPHA:
+                packet.set(timestamp, brainPacket.TYPE_ALPHA_RELATIVE, config.eegChannels);
+                for (int c = 0; c < packet.size; ++c) {
+                    packet.values[c] = 0.3 + 0.05 * random.nextGaussian();
+                }
+                break;
+            default:
+                packet.set(timestamp, brainPacket.TYPE_BATTERY, 3);
+                packet.values[0] = Math.max(0.0, 100.0 - generated * 1e-6);
+                packet.values[1] = 3900.0;
+                packet.values[2] = 30.0;
+                break;
+        }
+        packet.receivedNanos = System.nanoTime();
+        ++generated;
+        if (l != null) {
+            l.onSample(packet);
+        }
+    }
+
+    public long generated() {
+        return generated;
+    }
+
+    public long dropped() {
+        return dropped;
+    }
+
+    public long disconnects() {
+        return disconnects;
+    }
+}
@@ -0,0 +1,341 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.Arrays;
+
+/**
+ * Resamples several packet streams (e.g. EEG, accelerometer and relative
+ * alpha) onto one fixed-rate timeline and emits time-aligned frames.
+ *
+ * Every registered stream keeps a preallocated ring of its recent samples.
+ * The frame at time t is emitted once every stream has a sample at or after
+ * t, so it can be interpolated on both sides. A stream that falls behind
+ * does not hold the others up indefinitely: once any stream is maxLatency
+ * past t, the frame goes out with the laggard's last value held, and the
+ * laggard's bit set in the stale mask. That bounds the latency the stage
+ * adds to maxLatency, plus one period of the slowest stream when all are
+ * on time. Stretches where every stream is silent for over maxGap (a
+ * disconnect) are skipped rather than filled with held frames. Frames are
+ * only emitted from accept(), so nothing comes out while no data arrives.
+ *
+ * Timestamps are the packets' own, in microseconds; all streams should come
+ * from the same device clock. Frame values are the registered streams'
+ * channels one after another, in one array that is reused for every frame.
+ * Nothing is allocated after addStream(). Not thread-safe: accept() and the
+ * frame callback run on the caller's thread.
+ */
+public class StreamAligner implements SampleSink {
+    /** Last sample at or before t. */
+    public static final int HOLD = 0;
+    /** Sample closest to t. */
+    public static final int NEAREST = 1;
+    /** Linear between the samples around t. */
+    public static final int LINEAR = 2;
+
+    /** Receives the aligned frames. */
+    public interface FrameListener {
+        /**
+         * values holds frameWidth() numbers and is only valid during the
+         * call; bit i of staleMask is set if stream i was held or in a gap.
+         */
+        void onFrame(long timestamp, double[] values, int staleMask);
+    }
+
+    private static final class Stream {
+        final int width;
+        final int offset;
+        final long[] timestamps;
+        final double[][] values;
+        final int mask;
+        int head = 0;
+        int count = 0;
+        long last = Long.MIN_VALUE;
+
+        Stream(int width, int offset, int capacity) {
+            this.width = width;
+            this.offset = offset;
+            this.mask = capacity - 1;
+            this.timestamps = new long[capacity];
+            this.values = new double[width][capacity];
+        }
+    }
+
+    private final double periodMicros;
+    private final int interpolation;
+    private final long maxLatencyMicros;
+    private final long maxGapMicros;
+    private final FrameListener listener;
+    private final int[] streamOfType = new int[brainPacket.TYPE_COUNT];
+    private Stream[] streams = new Stream[0];
+    private double[] frame = new double[0];
+
+    private boolean started = false;
+    private long origin;
+    private long frameIndex;
+
+    private long frames = 0;
+    private long staleFrames = 0;
+    private long skippedFrames = 0;
+    private long overflows = 0;
+    private long outOfOrder = 0;
+    private long totalLatencyMicros = 0;
+    private long maxLatency = 0;
+
+    /**
+     * Frames at rate per second; frames wait at most maxLatencyMicros for a
+     * late stream, and silences over maxGapMicros in all streams are skipped.
+     */
+    public StreamAligner(double rate, int interpolation, long maxLatencyMicros, long maxGapMicros,
+                         FrameListener listener) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.periodMicros = 1e6 / rate;
+        this.interpolation = interpolation;
+        this.maxLatencyMicros = maxLatencyMicros;
+        this.maxGapMicros = maxGapMicros;
+        this.listener = listener;
+        Arrays.fill(streamOfType, -1);
+    }
+
+    /**
+     * Registers packets of type, using their first width values, and returns
+     * where they start in the frame. capacity is rounded up to a power of
+     * two and should hold maxLatency worth of the stream, with room to spare.
+     * Streams are added before the first accept().
+     */
+    public int addStream(int type, int width, int capacity) {
+        if (started || streamOfType[type] >= 0) {
+            throw new IllegalStateException("stream " + type + " cannot be added");
+        }
+        if (streams.length == 32) {
+            throw new IllegalStateException("too many streams");
+        }
+        final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        final int offset = frame.length;
+        streams = Arrays.copyOf(streams, streams.length + 1);
+        streams[streams.length - 1] = new Stream(width, offset, size);
+        streamOfType[type] = streams.length - 1;
+        frame = new double[offset + width];
+        return offset;
+    }
+
+    public int frameWidth() {
+        return frame.length;
+    }
+
+    @Override
+    public void accept(brainPacket s) {
+        if (s.type < 0 || s.type >= streamOfType.length || streamOfType[s.type] < 0) {
+            return;
+        }
+        final Stream st = streams[streamOfType[s.type]];
+        if (s.timestamp <= st.last) {
+            ++outOfOrder;
+            return;
+        }
+        if (st.count == st.timestamps.length) {
+            st.head = (st.head + 1) & st.mask;
+            --st.count;
+            ++overflows;
+        }
+        final int i = (st.head + st.count) & st.mask;
+        st.timestamps[i] = s.timestamp;
+        final int n = Math.min(st.width, s.size);
+        for (int c = 0; c < n; ++c) {
+            st.values[c][i] = s.values[c];
+        }
+        for (int c = n; c < st.width; ++c) {
+            st.values[c][i] = 0.0;
+        }
+        ++st.count;
+        st.last = s.timestamp;
+        emitReady();
+    }
+
+    private void emitReady() {
+        if (!started) {
+            long first = Long.MIN_VALUE;
+            for (Stream st : streams) {
+                if (st.count == 0) {
+                    return;
+                }
+                first = Math.max(first, st.timestamps[st.head]);
+            }
+            origin = first;
+            frameIndex = 0;
+            started = true;
+        }
+        while (true) {
+            final long t = origin + (long) (frameIndex * periodMicros);
+            long newest = Long.MIN_VALUE;
+            boolean complete = true;
+            for (Stream st : streams) {
+                newest = Math.max(newest, st.last);
+                if (st.last < t) {
+                    complete = false;
+                }
+            }
+            if (!complete && newest - t < maxLatencyMicros) {
+                return;
+            }
+            if (skipGap(t, newest)) {
+                continue;
+            }
+            int stale = 0;
+            for (int k = 0; k < streams.length; ++k) {
+                if (!sample(streams[k], t)) {
+                    stale |= 1 << k;
+                }
+            }
+            final long latency = newest - t;
+            totalLatencyMicros += latency;
+            if (latency > maxLatency) {
+                maxLatency = latency;
+            }
+            ++frames;
+            if (stale != 0) {
+                ++staleFrames;
+            }
+            ++frameIndex;
+            listener.onFrame(t, frame, stale);
+        }
+    }
+
+    // If t falls into a silence of over maxGap in every stream, moves the
+    // timeline on to the first frame at or after the earliest sample after
+    // the silence. A stream with nothing after t yet counts as silent once
+    // the newest sample of any stream is maxGap past its last one.
+    private boolean skipGap(long t, long newest) {
+        long resume = Long.MAX_VALUE;
+        for (Stream st : streams) {
+            final int before = lastAtOrBefore(st, t);
+            final long tb = before >= 0 ? st.timestamps[(st.head + before) & st.mask] : Long.MIN_VALUE;
+            final int after = before + 1;
+            if (after < st.count) {
+                final long ta = st.timestamps[(st.head + after) & st.mask];
+                if (before >= 0 && ta - tb <= maxGapMicros) {
+                    return false;
+                }
+                resume = Math.min(resume, ta);
+            } else if (newest - tb <= maxGapMicros) {
+                return false;
+            }
+        }
+        if (resume == Long.MAX_VALUE) {
+            return false;
+        }
+        final long target = (long) Math.ceil((resume - origin) / periodMicros);
+        if (target <= frameIndex) {
+            return false;
+        }
+        skippedFrames += target - frameIndex;
+        frameIndex = target;
+        return true;
+    }
+
+    // Position (relative to head) of the newest sample at or before t, -1 if
+    // all are after it.
+    private static int lastAtOrBefore(Stream st, long t) {
+        int k = -1;
+        while (k + 1 < st.count && st.timestamps[(st.head + k + 1) & st.mask] <= t) {
+            ++k;
+        }
+        return k;
+    }
+
+    // Writes the stream's value at t into the frame; false if it had to be
+    // held or bridges a gap.
+    private boolean sample(Stream st, long t) {
+        // Samples before the last one at or before t are no longer needed;
+        // frames only move forward.
+        while (st.count >= 2 && st.timestamps[(st.head + 1) & st.mask] <= t) {
+            st.head = (st.head + 1) & st.mask;
+            --st.count;
+        }
+        final int i0 = st.head;
+        final long t0 = st.timestamps[i0];
+        if (st.count < 2 || t < t0) {
+            // Nothing after t yet (or nothing before it): hold what there is.
+            copy(st, i0, i0, 0.0);
+            return t == t0;
+        }
+        final int i1 = (st.head + 1) & st.mask;
+        final long t1 = st.timestamps[i1];
+        if (t1 - t0 > maxGapMicros) {
+            copy(st, i0, i0, 0.0);
+            return false;
+        }
+        switch (interpolation) {
+            case LINEAR:
+                copy(st, i0, i1, (double) (t - t0) / (t1 - t0));
+                break;
+            case NEAREST:
+                copy(st, i0, i0, 0.0);
+                if (t1 - t < t - t0) {
+                    copy(st, i1, i1, 0.0);
+                }
+                break;
+            default:
+                copy(st, i0, i0, 0.0);
+                break;
+        }
+        return true;
+    }
+
+    private void copy(Stream st, int i0, int i1, double fraction) {
+        final double[] out = frame;
+        final int offset = st.offset;
+        if (fraction == 0.0) {
+            for (int c = 0; c < st.width; ++c) {
+                out[offset + c] = st.values[c][i0];
+            }
+        } else {
+            for (int c = 0; c < st.width; ++c) {
+                final double v0 = st.values[c][i0];
+                out[offset + c] = v0 + (st.values[c][i1] - v0) * fraction;
+            }
+        }
+    }
+
+    public long frames() {
+        return frames;
+    }
+
+    /** Frames in which at least one stream was held or in a gap. */
+    public long staleFrames() {
+        return staleFrames;
+    }
+
+    /** Frames left out because all streams were silent. */
+    public long skippedFrames() {
+        return skippedFrames;
+    }
+
+    /** Samples dropped because a stream's ring was full. */
+    public long overflows() {
+        return overflows;
+    }
+
+    /** Samples dropped because they were not newer than their predecessor. */
+    public long outOfOrder() {
+        return outOfOrder;
+    }
+
+    /**
+     * Mean of how far the newest sample was past each frame when it went
+     * out, i.e. the latency the stage adds, in stream time.
+     */
+    public long meanLatencyMicros() {
+        return frames == 0 ? 0 : totalLatencyMicros / frames;
+    }
+
+    public long maxLatencyMicros() {
+        return maxLatency;
+    }
+
+    public String summary() {
+        return "frames=" + frames + " stale=" + staleFrames + " skipped=" + skippedFrames +
+            " overflows=" + overflows + " out of order=" + outOfOrder +
+            " latency mean/max=" + meanLatencyMicros() / 1000 + "/" + maxLatency / 1000 + "ms";
+    }
+}
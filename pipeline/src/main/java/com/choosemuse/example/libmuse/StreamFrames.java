@@ -0,0 +1,22 @@
+package com.choosemuse.example.libmuse;
+
+/**
+ * Wire format shared by NetworkStreamer and StreamReceiver. Big-endian.
+ *
+ * frame:  length (int, bytes after this field), MAGIC (int),
+ *         sequence (int), send time (long, microseconds since the epoch),
+ *         sample count (short), samples
+ * sample: type (byte), size (byte), timestamp (long), size floats
+ */
+final class StreamFrames {
+    static final int MAGIC = 0x4d535431; // "MST1"
+    static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 2;
+    static final int MAX_SAMPLE_SIZE = 1 + 1 + 8 + 4 * brainPacket.MAX_VALUES;
+
+    static long nowMicros() {
+        return System.currentTimeMillis() * 1000L;
+    }
+
+    private StreamFrames() {
+    }
+}
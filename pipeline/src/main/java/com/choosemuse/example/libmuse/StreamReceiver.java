@@ -0,0 +1,221 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Receiving end of NetworkStreamer, for the desktop host and for loopback
+ * runs. Accepts one connection at a time, decodes its frames into sink on
+ * the receiver thread and measures what arrives: sequence gaps, frame
+ * transit latency (receive time minus the frame's send time) and sample
+ * latency (receive time minus the sample's own timestamp). Both latencies
+ * use wall clocks, so across machines they are only as good as the clock
+ * sync between them.
+ */
+public class StreamReceiver {
+    private final ServerSocketChannel server;
+    private final SampleSink sink;
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+    private final ByteBuffer frame = ByteBuffer.allocate(StreamFrames.HEADER_SIZE +
+        Short.MAX_VALUE * StreamFrames.MAX_SAMPLE_SIZE);
+    private final brainPacket sample = new brainPacket();
+    private volatile boolean running = false;
+    private Thread thread;
+    private volatile SocketChannel client;
+    private int expectedSequence = -1;
+
+    private volatile long frames = 0;
+    private volatile long samples = 0;
+    private volatile long bytes = 0;
+    private volatile long sequenceGaps = 0;
+    private volatile long connections = 0;
+    private volatile long transitMicrosTotal = 0;
+    private volatile long transitMicrosMax = 0;
+    private volatile long sampleMicrosTotal = 0;
+    private volatile long sampleMicrosMax = 0;
+
+    /** Listens on host:port; port 0 picks a free one, see port(). */
+    public StreamReceiver(String host, int port, SampleSink sink) throws IOException {
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(host, port));
+        this.sink = sink;
+    }
+
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "StreamReceiver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        try {
+            server.close();
+            final SocketChannel c = client;
+            if (c != null) {
+                c.close();
+            }
+        } catch (IOException e) {
+            // ignored
+        }
+        if (thread != null) {
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void loop() {
+        while (running) {
+            SocketChannel c;
+            try {
+                c = server.accept();
+            } catch (IOException e) {
+                return;
+            }
+            client = c;
+            ++connections;
+            expectedSequence = -1;
+            try {
+                while (running) {
+                    readFrame(c);
+                }
+            } catch (IOException e) {
+                // Connection ended; wait for the sender to reconnect.
+            } finally {
+                client = null;
+                try {
+                    c.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+            }
+        }
+    }
+
+    private void readFrame(SocketChannel c) throws IOException {
+        lengthBuffer.clear();
+        readFully(c, lengthBuffer);
+        final int length = lengthBuffer.getInt(0);
+        if (length < StreamFrames.HEADER_SIZE - 4 || length > frame.capacity()) {
+            throw new IOException("bad frame length " + length);
+        }
+        frame.clear();
+        frame.limit(length);
+        readFully(c, frame);
+        frame.flip();
+        final long now = StreamFrames.nowMicros();
+        if (frame.getInt() != StreamFrames.MAGIC) {
+            throw new IOException("bad frame magic");
+        }
+        final int sequence = frame.getInt();
+        final long sent = frame.getLong();
+        final int count = frame.getShort() & 0xffff;
+        if (expectedSequence >= 0 && sequence != expectedSequence) {
+            ++sequenceGaps;
+        }
+        expectedSequence = sequence + 1;
+        final long transit = Math.max(0, now - sent);
+        transitMicrosTotal += transit;
+        if (transit > transitMicrosMax) {
+            transitMicrosMax = transit;
+        }
+        for (int i = 0; i < count; ++i) {
+            final int type = frame.get() & 0xff;
+            final int size = frame.get() & 0xff;
+            sample.set(frame.getLong(), type, size);
+            for (int v = 0; v < size; ++v) {
+                final float value = frame.getFloat();
+                if (v < brainPacket.MAX_VALUES) {
+                    sample.values[v] = value;
+                }
+            }
+            final long age = now - sample.timestamp;
+            if (age >= 0) {
+                sampleMicrosTotal += age;
+                if (age > sampleMicrosMax) {
+                    sampleMicrosMax = age;
+                }
+            }
+            if (sink != null) {
+                sink.accept(sample);
+            }
+        }
+        ++frames;
+        samples += count;
+        bytes += 4 + length;
+    }
+
+    private static void readFully(SocketChannel c, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            if (c.read(b) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    public long frames() {
+        return frames;
+    }
+
+    public long samples() {
+        return samples;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    public long sequenceGaps() {
+        return sequenceGaps;
+    }
+
+    public long connections() {
+        return connections;
+    }
+
+    public long meanTransitMicros() {
+        return frames == 0 ? 0 : transitMicrosTotal / frames;
+    }
+
+    public long maxTransitMicros() {
+        return transitMicrosMax;
+    }
+
+    public long meanSampleLatencyMicros() {
+        return samples == 0 ? 0 : sampleMicrosTotal / samples;
+    }
+
+    public long maxSampleLatencyMicros() {
+        return sampleMicrosMax;
+    }
+
+    public String summary() {
+        return "connections=" + connections +
+            " frames=" + frames +
+            " samples=" + samples +
+            " bytes=" + bytes +
+            " gaps=" + sequenceGaps +
+            " transit mean/max=" + meanTransitMicros() / 1000 + "/" + transitMicrosMax / 1000 + "ms" +
+            " latency mean/max=" + meanSampleLatencyMicros() / 1000 + "/" + sampleMicrosMax / 1000 + "ms";
+    }
+}
@@ -0,0 +1,53 @@
+package com.choosemuse.example.libmuse;
+
+/**
+ * Created by tickelbottom on 4/23/2016.
+ *
+ * Fixed-layout primitive copy of a MuseDataPacket: a timestamp, the packet
+ * type as a MuseDataPacketType ordinal and up to 6 values. Instances are
+ * meant to be reused -- SampleRing preallocates its slots and the data
+ * listener fills them in place -- so the listener does not allocate for
+ * every packet.
+ */
+public class brainPacket {
+    // Same as the largest packet layout in MuseDataPacketType (EEG and the
+    // EEG-derived packets carry 6 values).
+    public static final int MAX_VALUES = 6;
+
+    // MuseDataPacketType ordinals, repeated here so code that only sees
+    // brainPacket does not need libmuse to tell packet types apart.
+    public static final int TYPE_ACCELEROMETER = 0;
+    public static final int TYPE_GYRO = 1;
+    public static final int TYPE_EEG = 2;
+    public static final int TYPE_DROPPED_ACCELEROMETER = 3;
+    public static final int TYPE_DROPPED_EEG = 4;
+    public static final int TYPE_QUANTIZATION = 5;
+    public static final int TYPE_BATTERY = 6;
+    public static final int TYPE_DRL_REF = 7;
+    public static final int TYPE_ALPHA_ABSOLUTE = 8;
+    public static final int TYPE_ALPHA_RELATIVE = 13;
+    public static final int TYPE_COUNT = 27;
+
+    public long timestamp;
+    // Host System.nanoTime() when the packet reached our listener, for
+    // latency accounting; 0 if unknown (e.g. read back from a file).
+    public long receivedNanos;
+    public int type;
+    public int size;
+    public final double[] values = new double[MAX_VALUES];
+
+    public void set(long timestamp, int type, int size) {
+        this.timestamp = timestamp;
+        this.receivedNanos = 0;
+        this.type = type;
+        this.size = Math.min(size, MAX_VALUES);
+    }
+
+    public void copyFrom(brainPacket other) {
+        timestamp = other.timestamp;
+        receivedNanos = other.receivedNanos;
+        type = other.type;
+        size = other.size;
+        System.arraycopy(other.values, 0, values, 0, size);
+    }
+}
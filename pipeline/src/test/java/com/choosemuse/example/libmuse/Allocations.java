@@ -0,0 +1,36 @@
+package com.choosemuse.example.libmuse;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assume;
+
+/**
+ * Bytes allocated by the calling thread, from HotSpot's thread MXBean.
+ * Tests that use it are skipped on JVMs without that counter.
+ */
+final class Allocations {
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private Allocations() {
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        try {
+            final com.sun.management.ThreadMXBean t =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            return t.isThreadAllocatedMemorySupported() ? t : null;
+        } catch (ClassCastException e) {
+            return null;
+        }
+    }
+
+    /** Skips the calling test unless allocation can be measured. */
+    static void assumeSupported() {
+        Assume.assumeTrue("thread allocation counter not available", THREADS != null);
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    static long bytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,96 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BandPowerEngineTest {
+    private static final double RATE = 256.0;
+
+    @Test
+    public void fftMatchesANaiveDft() {
+        final int n = 256;
+        final Random random = new Random(3);
+        final double[] re = new double[n];
+        final double[] im = new double[n];
+        for (int i = 0; i < n; ++i) {
+            re[i] = random.nextGaussian();
+            im[i] = random.nextGaussian();
+        }
+        final double[] expectedRe = new double[n];
+        final double[] expectedIm = new double[n];
+        for (int k = 0; k < n; ++k) {
+            for (int t = 0; t < n; ++t) {
+                final double angle = -2 * Math.PI * ((long) k * t % n) / n;
+                expectedRe[k] += re[t] * Math.cos(angle) - im[t] * Math.sin(angle);
+                expectedIm[k] += re[t] * Math.sin(angle) + im[t] * Math.cos(angle);
+            }
+        }
+        new Fft(n).transform(re, im);
+        for (int k = 0; k < n; ++k) {
+            assertEquals("re " + k, expectedRe[k], re[k], 1e-9);
+            assertEquals("im " + k, expectedIm[k], im[k], 1e-9);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fftSizeMustBeAPowerOfTwo() {
+        new Fft(384);
+    }
+
+    // Relative band powers after seconds of a sine of hz on channel 0, on
+    // top of the usual electrode offset.
+    private static double[] relativeOfSine(double hz, double seconds) {
+        final BandPowerEngine engine = new BandPowerEngine(1, RATE, 256, 64, 4);
+        final brainPacket s = new brainPacket();
+        for (int i = 0; i < seconds * RATE; ++i) {
+            s.set(i * 3906L, brainPacket.TYPE_EEG, 1);
+            s.values[0] = 850.0 + 20.0 * Math.sin(2 * Math.PI * hz * i / RATE);
+            engine.accept(s);
+        }
+        assertTrue(engine.windowCount() > 0);
+        return engine.relative()[0].clone();
+    }
+
+    private static int strongest(double[] bands) {
+        int best = 0;
+        for (int b = 1; b < bands.length; ++b) {
+            if (bands[b] > bands[best]) {
+                best = b;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void tenHertzIsAlpha() {
+        final double[] relative = relativeOfSine(10.0, 4.0);
+        assertEquals(BandPowerEngine.ALPHA, strongest(relative));
+        assertTrue("alpha " + relative[BandPowerEngine.ALPHA], relative[BandPowerEngine.ALPHA] > 0.99);
+    }
+
+    @Test
+    public void twentyHertzIsBeta() {
+        final double[] relative = relativeOfSine(20.0, 4.0);
+        assertEquals(BandPowerEngine.BETA, strongest(relative));
+        assertTrue("beta " + relative[BandPowerEngine.BETA], relative[BandPowerEngine.BETA] > 0.99);
+    }
+
+    @Test
+    public void nothingBeforeTheFirstWindow() {
+        final BandPowerEngine engine = new BandPowerEngine(1, RATE, 256, 64, 4);
+        final brainPacket s = new brainPacket();
+        for (int i = 0; i < 255; ++i) {
+            s.set(i * 3906L, brainPacket.TYPE_EEG, 1);
+            s.values[0] = Math.sin(i);
+            engine.accept(s);
+        }
+        assertEquals(0, engine.windowCount());
+        s.set(255 * 3906L, brainPacket.TYPE_EEG, 1);
+        engine.accept(s);
+        assertEquals(1, engine.windowCount());
+    }
+}
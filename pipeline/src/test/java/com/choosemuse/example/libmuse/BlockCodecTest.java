@@ -0,0 +1,111 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BlockCodecTest {
+    private static final int COUNT = 1024;
+    private static final int WIDTH = 6;
+    private static final double EEG_SCALE = 1682.815 / 1023.0;
+    private static final double[] SPECIAL = {
+        Double.NaN,
+        Double.longBitsToDouble(0x7ff0000000000001L), // signalling NaN
+        Double.longBitsToDouble(0xfff8dead0000beefL), // negative NaN with a payload
+        Double.POSITIVE_INFINITY,
+        Double.NEGATIVE_INFINITY,
+        -0.0,
+        0.0,
+        Double.MIN_VALUE,
+        Double.MAX_VALUE,
+    };
+
+    private final BlockCodec codec = new BlockCodec(COUNT);
+    private final long[] timestamps = new long[COUNT];
+    private final double[][] values = new double[brainPacket.MAX_VALUES][COUNT];
+
+    private void fill(Random random, boolean quantized) {
+        long ts = 1000000;
+        for (int i = 0; i < COUNT; ++i) {
+            ts += 3906 + random.nextInt(5) - 2;
+            timestamps[i] = ts;
+            for (int c = 0; c < WIDTH; ++c) {
+                final double counts = 512 + 100 * Math.sin(i * 0.05 + c) + random.nextGaussian() * 20;
+                values[c][i] = quantized ? Math.rint(counts) * EEG_SCALE : counts * EEG_SCALE;
+            }
+        }
+    }
+
+    // Runs of special values, so that both predictors see them as the
+    // previous and the one before.
+    private void sprinkle(Random random) {
+        for (int c = 0; c < WIDTH; ++c) {
+            for (int i = 16 * c; i < COUNT; i += 97) {
+                final int run = 1 + random.nextInt(3);
+                for (int k = 0; k < run && i + k < COUNT; ++k) {
+                    values[c][i + k] = SPECIAL[random.nextInt(SPECIAL.length)];
+                }
+            }
+        }
+        // Infinity twice, then a finite value: the linear prediction is
+        // 2 * inf - inf, a NaN.
+        values[0][500] = Double.POSITIVE_INFINITY;
+        values[0][501] = Double.POSITIVE_INFINITY;
+        values[0][502] = 812.5;
+        values[1][500] = Double.longBitsToDouble(0x7ff4000000000123L);
+        values[1][501] = 800.0;
+        values[1][502] = 801.0;
+    }
+
+    private void assertRoundTrip() {
+        final byte[] encoded = codec.encode(WIDTH, COUNT, timestamps, values);
+        final byte[] copy = new byte[codec.encodedLength()];
+        System.arraycopy(encoded, 0, copy, 0, copy.length);
+        final long[] decodedTimestamps = new long[COUNT];
+        final double[][] decoded = new double[brainPacket.MAX_VALUES][COUNT];
+        new BlockCodec(COUNT).decode(copy, 0, copy.length, WIDTH, COUNT, decodedTimestamps, decoded);
+        for (int i = 0; i < COUNT; ++i) {
+            assertEquals(timestamps[i], decodedTimestamps[i]);
+            for (int c = 0; c < WIDTH; ++c) {
+                assertEquals("channel " + c + " sample " + i,
+                    Double.doubleToRawLongBits(values[c][i]), Double.doubleToRawLongBits(decoded[c][i]));
+            }
+        }
+    }
+
+    @Test
+    public void quantizedRoundTrip() {
+        fill(new Random(1), true);
+        assertRoundTrip();
+    }
+
+    @Test
+    public void floatRoundTrip() {
+        fill(new Random(2), false);
+        assertRoundTrip();
+    }
+
+    @Test
+    public void specialValuesRoundTripBitExact() {
+        for (int seed = 0; seed < 20; ++seed) {
+            final Random random = new Random(seed);
+            fill(random, seed % 2 == 0);
+            sprinkle(random);
+            assertRoundTrip();
+        }
+    }
+
+    @Test
+    public void blockOfOnlySpecialValues() {
+        final Random random = new Random(3);
+        fill(random, false);
+        for (int c = 0; c < WIDTH; ++c) {
+            for (int i = 0; i < COUNT; ++i) {
+                values[c][i] = SPECIAL[(i * (c + 1) + c) % SPECIAL.length];
+            }
+        }
+        assertRoundTrip();
+    }
+}
@@ -0,0 +1,158 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The brain states IngestSession computes live have to come out the same,
+ * bit for bit, when its recording is replayed through a motion filter. The
+ * session is recorded the way SessionFiles lays it out, minus the .muse
+ * segments, which need libmuse: journaled segments with compressed copies,
+ * and a columnar copy. The headband comes off and goes back on half way,
+ * so the replay has to reset the filter where the live one was reset.
+ */
+public class BrainStateReplayTest {
+    // The headband is off from 30 s to 35 s.
+    private static final long OFF_AT = 30000000L;
+    private static final long ON_AT = 35000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private States live;
+    private EventStore events;
+
+    // Timestamp, label and probabilities of every window.
+    private static final class States implements BrainStateClassifier.Listener {
+        final BrainStateClassifier classifier;
+        final List<double[]> windows = new ArrayList<>();
+
+        States(BrainStateClassifier classifier) {
+            this.classifier = classifier;
+            classifier.setListener(this);
+        }
+
+        @Override
+        public void onBrainState(long timestamp, int label, double confidence) {
+            final double[] p = classifier.probabilities();
+            final double[] w = new double[p.length + 2];
+            w[0] = timestamp;
+            w[1] = label;
+            System.arraycopy(p, 0, w, 2, p.length);
+            windows.add(w);
+        }
+    }
+
+    @Before
+    public void recordLive() throws InterruptedException {
+        dir = new File(folder.getRoot(), "session");
+        final IngestSession ingest = new IngestSession(1 << 16, 5);
+        live = new States(ingest.brainState());
+        events = new EventStore();
+        ingest.startRecording(new Callable<SessionWriter>() {
+            @Override
+            public SessionWriter call() throws IOException {
+                return new MultiSessionWriter(
+                    new SegmentedSessionWriter(dir, ".msc", new SegmentedSessionWriter.Factory() {
+                        @Override
+                        public SessionWriter open(File file) throws IOException {
+                            return new CompressedSessionWriter(file);
+                        }
+                    }, 64 * 1024, Long.MAX_VALUE),
+                    new ColumnarSessionWriter(new File(dir, "columns")),
+                    events);
+            }
+        });
+        final Recording session = new SyntheticSession(11)
+            .burst(0, 20.0, 10.0, 40.0).record(60.0);
+        for (int i = 0; i < session.size(); ++i) {
+            final brainPacket s = session.get(i);
+            if (s.type == brainPacket.TYPE_EEG && s.timestamp == OFF_AT) {
+                ingest.onArtifact(0, false, false, false);
+            } else if (s.type == brainPacket.TYPE_EEG && s.timestamp == ON_AT) {
+                ingest.onArtifact(0, true, false, false);
+            }
+            ingest.onSample(s);
+        }
+        ingest.close();
+        assertTrue(live.windows.size() > 200);
+        assertEquals(1, ingest.events().overlapping(OFF_AT, ON_AT, EventStore.ARTIFACT).size());
+    }
+
+    // Feeds packets in the order they went in live -- timestamp order, and
+    // the accelerometer first on a tie, like SyntheticSession -- through a
+    // motion filter that is reset from the recorded events, into the
+    // classifier.
+    private States replay(List<brainPacket> packets, EventStore recorded) {
+        Collections.sort(packets, new Comparator<brainPacket>() {
+            @Override
+            public int compare(brainPacket a, brainPacket b) {
+                if (a.timestamp != b.timestamp) {
+                    return Long.compare(a.timestamp, b.timestamp);
+                }
+                return (a.type == brainPacket.TYPE_ACCELEROMETER ? 0 : 1) -
+                    (b.type == brainPacket.TYPE_ACCELEROMETER ? 0 : 1);
+            }
+        });
+        final States replayed = new States(new BrainStateClassifier());
+        final SampleSink sink = IngestSession.replayMotion(new MotionFilter(replayed.classifier), recorded);
+        for (brainPacket s : packets) {
+            sink.accept(s);
+        }
+        return replayed;
+    }
+
+    private void assertSameAsLive(States replayed) {
+        assertEquals(live.windows.size(), replayed.windows.size());
+        for (int i = 0; i < live.windows.size(); ++i) {
+            assertArrayEquals("window " + i, live.windows.get(i), replayed.windows.get(i), 0.0);
+        }
+    }
+
+    @Test
+    public void compressedSegmentsReplayTheLiveStates() throws IOException {
+        final List<brainPacket> packets = new ArrayList<>();
+        int segments = 0;
+        for (File f; (f = SessionJournal.segmentFile(dir, segments, ".msc")).exists(); ++segments) {
+            final Recording segment = Recording.of(new CompressedSessionReader(f));
+            for (int i = 0; i < segment.size(); ++i) {
+                packets.add(segment.get(i));
+            }
+        }
+        assertTrue(segments > 0);
+        assertSameAsLive(replay(packets, events));
+    }
+
+    @Test
+    public void columnarCopyReplaysTheLiveStates() throws IOException {
+        final ColumnarSessionReader reader = new ColumnarSessionReader(new File(dir, "columns"));
+        final List<brainPacket> packets = new ArrayList<>();
+        for (int type : new int[] { brainPacket.TYPE_ACCELEROMETER, brainPacket.TYPE_EEG }) {
+            final ColumnarSessionReader.Stream stream = reader.stream(type);
+            for (int row = 0; row < stream.rows(); ++row) {
+                final brainPacket s = new brainPacket();
+                s.set(stream.timestamp(row), type, stream.width());
+                for (int c = 0; c < stream.width(); ++c) {
+                    s.values[c] = stream.value(c, row);
+                }
+                packets.add(s);
+            }
+        }
+        assertSameAsLive(replay(packets, reader.events()));
+    }
+}
@@ -0,0 +1,74 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ColumnarSessionReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File record(int samples) throws IOException {
+        final File dir = folder.newFolder();
+        final ColumnarSessionWriter writer = new ColumnarSessionWriter(dir);
+        final brainPacket s = new brainPacket();
+        for (int i = 0; i < samples; ++i) {
+            s.set(i * 3906L, brainPacket.TYPE_EEG, 4);
+            for (int c = 0; c < 4; ++c) {
+                s.values[c] = i + c / 10.0;
+            }
+            writer.write(s);
+        }
+        writer.close();
+        return dir;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        final ColumnarSessionReader.Stream eeg =
+            new ColumnarSessionReader(record(1000)).stream(brainPacket.TYPE_EEG);
+        assertEquals(1000, eeg.rows());
+        assertEquals(4, eeg.width());
+        assertEquals(500 * 3906L, eeg.timestamp(500));
+        assertEquals(500.2, eeg.value(2, 500), 0.0);
+        assertEquals(500, eeg.seek(500 * 3906L));
+        assertEquals(501, eeg.seek(500 * 3906L + 1));
+        assertEquals(1000, eeg.seek(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void tornColumnsLimitTheRows() throws IOException {
+        final File dir = record(1000);
+        // As if the process died between writing the columns of a row:
+        // one value column is short and another ends mid-value.
+        truncate(new File(dir, ColumnarSessionWriter.valueFile(brainPacket.TYPE_EEG, 1)), 900 * 8);
+        truncate(new File(dir, ColumnarSessionWriter.valueFile(brainPacket.TYPE_EEG, 3)), 950 * 8 + 3);
+        final ColumnarSessionReader.Stream eeg = new ColumnarSessionReader(dir).stream(brainPacket.TYPE_EEG);
+        assertEquals(900, eeg.rows());
+        assertEquals(899.3, eeg.value(3, eeg.rows() - 1), 0.0);
+        assertEquals(900, eeg.seek(Long.MAX_VALUE));
+        assertEquals(100, eeg.window(1, 800 * 3906L, Long.MAX_VALUE).remaining());
+    }
+
+    @Test
+    public void shortTimestampsLimitTheRows() throws IOException {
+        final File dir = record(1000);
+        truncate(new File(dir, ColumnarSessionWriter.timestampFile(brainPacket.TYPE_EEG)), 700 * 8);
+        assertEquals(700, new ColumnarSessionReader(dir).stream(brainPacket.TYPE_EEG).rows());
+    }
+}
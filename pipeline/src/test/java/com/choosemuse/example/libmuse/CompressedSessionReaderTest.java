@@ -0,0 +1,113 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompressedSessionReaderTest {
+    private static final int BLOCK_SIZE = 256;
+    // Offset of the count in the first block's header.
+    private static final long FIRST_COUNT = 4 + 1 + 1 + 1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File record(int samples) throws IOException {
+        final File file = folder.newFile();
+        final CompressedSessionWriter writer = new CompressedSessionWriter(file, BLOCK_SIZE);
+        final brainPacket s = new brainPacket();
+        for (int i = 0; i < samples; ++i) {
+            s.set(i * 3906L, brainPacket.TYPE_EEG, 4);
+            for (int c = 0; c < 4; ++c) {
+                s.values[c] = i + c / 10.0;
+            }
+            writer.write(s);
+        }
+        writer.close();
+        return file;
+    }
+
+    private static void putInt(File file, long position, int value) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(position);
+            raf.writeInt(value);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static long indexOffset(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(file.length() - CompressedSessionWriter.FOOTER_SIZE);
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
+    }
+
+    // Breaks the footer, so the reader has to scan the blocks.
+    private static void dropIndex(File file) throws IOException {
+        putInt(file, file.length() - 4, 0);
+    }
+
+    private static int blocks(File file) throws IOException {
+        final CompressedSessionReader reader = new CompressedSessionReader(file);
+        try {
+            return reader.blockCount();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void scanRebuildsTheIndex() throws IOException {
+        final File file = record(1000);
+        dropIndex(file);
+        final CompressedSessionReader reader = new CompressedSessionReader(file);
+        try {
+            assertEquals(4, reader.blockCount());
+            assertEquals(BLOCK_SIZE, reader.maxBlockSize());
+            assertEquals(999 * 3906L, reader.blockLastTimestamp(3));
+            assertEquals(1000, Recording.of(reader).size());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void scanStopsAtAHugeBlockCount() throws IOException {
+        final File file = record(1000);
+        dropIndex(file);
+        putInt(file, FIRST_COUNT, BLOCK_SIZE | 1 << 30);
+        assertEquals(0, blocks(file));
+    }
+
+    @Test
+    public void scanStopsAtACountTheBlockCannotHold() throws IOException {
+        final File file = record(1000);
+        dropIndex(file);
+        // Within MAX_BLOCK_SIZE, but far more than the block's bytes encode.
+        putInt(file, FIRST_COUNT, CompressedSessionWriter.MAX_BLOCK_SIZE);
+        assertEquals(0, blocks(file));
+    }
+
+    @Test
+    public void corruptIndexFallsBackToTheScan() throws IOException {
+        final File file = record(1000);
+        final long indexOffset = indexOffset(file);
+        // The count of the first index entry.
+        putInt(file, indexOffset + 1 + 4 + 8 + 1, -1);
+        assertEquals(4, blocks(file));
+
+        putInt(file, indexOffset + 1, Integer.MAX_VALUE);
+        assertEquals(4, blocks(file));
+    }
+}
@@ -0,0 +1,166 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/** ConnectionSupervisor against scripted sources on a real scheduler. */
+public class ConnectionSupervisorTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    private ConnectionSupervisor supervisor;
+
+    // Records when every attempt began connecting.
+    private static final class Attempts implements DataSource.Listener {
+        final List<Long> connectingNanos = new ArrayList<>();
+
+        @Override
+        public void onSample(brainPacket s) {
+        }
+
+        @Override
+        public void onArtifact(long timestamp, boolean headbandOn, boolean blink, boolean jawClench) {
+        }
+
+        @Override
+        public synchronized void onConnectionState(int previous, int current) {
+            if (current == DataSource.STATE_CONNECTING) {
+                connectingNanos.add(System.nanoTime());
+            }
+        }
+
+        synchronized long gapMillis(int attempt) {
+            return TimeUnit.NANOSECONDS.toMillis(connectingNanos.get(attempt) - connectingNanos.get(attempt - 1));
+        }
+    }
+
+    // A source that only records the listener of every start(), so the
+    // test can answer for any attempt, in any order.
+    private static final class ManualSource implements DataSource {
+        final List<Listener> started = new ArrayList<>();
+        private volatile Listener listener;
+
+        @Override
+        public String name() {
+            return "manual";
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public synchronized void start() {
+            started.add(listener);
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        synchronized int starts() {
+            return started.size();
+        }
+
+        synchronized Listener attempt(int n) {
+            return started.get(n);
+        }
+    }
+
+    @After
+    public void stop() {
+        if (supervisor != null) {
+            supervisor.shutdown();
+        }
+        scheduler.shutdownNow();
+    }
+
+    private void awaitState(int state) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (supervisor.state() != state && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(state, supervisor.state());
+    }
+
+    private static void awaitStarts(ManualSource source, int starts) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (source.starts() < starts && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(starts, source.starts());
+    }
+
+    @Test
+    public void failedAttemptsBackOffExponentially() throws InterruptedException {
+        final ScriptedDataSource source = new ScriptedDataSource("scripted", 256)
+            .fail(0).fail(0).fail(0).fail(0).connect(0, -1);
+        supervisor = new ConnectionSupervisor(source, scheduler, new Random(1), 20, 100, 10000, 5000);
+        final Attempts attempts = new Attempts();
+        supervisor.setListener(attempts);
+        supervisor.connect();
+        awaitState(ConnectionSupervisor.CONNECTED);
+
+        assertEquals(5, supervisor.attempts());
+        assertEquals(5, source.starts());
+        assertEquals(0, supervisor.timeouts());
+        // Attempt n waits at least half of min(100, 20 * 2^(n-1)) ms.
+        final long[] capMillis = {20, 40, 80, 100};
+        for (int n = 1; n < 5; ++n) {
+            assertTrue("attempt " + n + " after " + attempts.gapMillis(n) + "ms",
+                attempts.gapMillis(n) >= capMillis[n - 1] / 2);
+        }
+    }
+
+    @Test
+    public void silentAttemptIsAbandonedAfterTheTimeout() throws InterruptedException {
+        final ScriptedDataSource source = new ScriptedDataSource("scripted", 256)
+            .silent().connect(0, -1);
+        supervisor = new ConnectionSupervisor(source, scheduler, new Random(2), 10, 10, 10000, 100);
+        final Attempts attempts = new Attempts();
+        supervisor.setListener(attempts);
+        final long start = System.nanoTime();
+        supervisor.connect();
+        awaitState(ConnectionSupervisor.CONNECTED);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, supervisor.timeouts());
+        assertEquals(2, supervisor.attempts());
+        assertEquals(2, source.starts());
+    }
+
+    @Test
+    public void lateEventsOfAnAbandonedAttemptAreIgnored() throws InterruptedException {
+        final ManualSource source = new ManualSource();
+        supervisor = new ConnectionSupervisor(source, scheduler, new Random(3), 10, 10, 10000, 50);
+        supervisor.connect();
+        awaitStarts(source, 1);
+        source.attempt(0).onConnectionState(DataSource.STATE_DISCONNECTED, DataSource.STATE_CONNECTING);
+        // The first attempt never answers, times out and is retried.
+        awaitStarts(source, 2);
+        final DataSource.Listener second = source.attempt(1);
+        second.onConnectionState(DataSource.STATE_DISCONNECTED, DataSource.STATE_CONNECTING);
+
+        // The first attempt's DISCONNECTED arrives only now.
+        source.attempt(0).onConnectionState(DataSource.STATE_CONNECTING, DataSource.STATE_DISCONNECTED);
+        assertEquals(ConnectionSupervisor.CONNECTING, supervisor.state());
+        second.onConnectionState(DataSource.STATE_CONNECTING, DataSource.STATE_CONNECTED);
+        assertEquals(ConnectionSupervisor.CONNECTED, supervisor.state());
+
+        // Well past the timeout and any retry: nothing else was started.
+        Thread.sleep(200);
+        assertEquals(ConnectionSupervisor.CONNECTED, supervisor.state());
+        assertEquals(2, source.starts());
+        assertEquals(1, supervisor.timeouts());
+    }
+}
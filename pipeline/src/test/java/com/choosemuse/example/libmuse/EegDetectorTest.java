@@ -0,0 +1,146 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EegDetectorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Everything the listener was told, in order.
+    private static final class Events implements EegDetector.Listener {
+        final List<long[]> events = new ArrayList<>();
+
+        @Override
+        public void onDetection(int channel, long timestamp, boolean active, double value) {
+            events.add(new long[] { channel, timestamp, active ? 1 : 0 });
+        }
+
+        List<long[]> onsets(int channel) {
+            final List<long[]> onsets = new ArrayList<>();
+            for (long[] e : events) {
+                if (e[0] == channel && e[2] == 1) {
+                    onsets.add(e);
+                }
+            }
+            return onsets;
+        }
+    }
+
+    private static Events run(Recording recording) {
+        final EegDetector detector = new EegDetector();
+        final Events events = new Events();
+        detector.setListener(events);
+        recording.replay(detector);
+        return events;
+    }
+
+    @Test
+    public void burstsAreReportedAtTheirFirstSample() {
+        final SyntheticSession session = new SyntheticSession(1)
+            .burst(1, 20.0, 0.5, 300.0)
+            .burst(3, 40.0, 0.5, -300.0)
+            .burst(3, 45.0, 0.5, 300.0);
+        final Events events = run(session.record(60.0));
+
+        final List<long[]> one = events.onsets(1);
+        final List<long[]> three = events.onsets(3);
+        assertEquals(1, one.size());
+        assertEquals(session.eegTimestamp(SyntheticSession.eegSample(20.0)), one.get(0)[1]);
+        // Only excursions above the mean count.
+        assertEquals(1, three.size());
+        assertEquals(session.eegTimestamp(SyntheticSession.eegSample(45.0)), three.get(0)[1]);
+        // Every onset is released again.
+        int active = 0;
+        for (long[] e : events.events) {
+            active += e[2] == 1 ? 1 : -1;
+        }
+        assertEquals(0, active);
+    }
+
+    @Test
+    public void quietSignalStaysQuiet() {
+        final Events events = run(new SyntheticSession(2).record(120.0));
+        // A 4 sd threshold on Gaussian noise still fires now and then, but
+        // not more than a few times a minute on all four channels.
+        int onsets = 0;
+        for (int c = 0; c < 4; ++c) {
+            onsets += events.onsets(c).size();
+        }
+        assertTrue("onsets: " + onsets, onsets <= 10);
+    }
+
+    @Test
+    public void nothingDuringWarmupOrWithinDebounce() {
+        final SyntheticSession session = new SyntheticSession(3).noise(40.0)
+            .burst(0, 0.2, 0.5, 500.0);
+        final Events events = run(session.record(60.0));
+        assertFalse(events.events.isEmpty());
+        final long[] last = { Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE };
+        for (long[] e : events.events) {
+            // The default detector waits 256 samples and debounces 32.
+            assertTrue(e[1] >= session.eegTimestamp(256));
+            final int c = (int) e[0];
+            if (last[c] != Long.MIN_VALUE) {
+                assertTrue(e[1] - last[c] >= session.eegTimestamp(32) - session.eegTimestamp(0));
+            }
+            last[c] = e[1];
+        }
+    }
+
+    @Test
+    public void recordedSessionGivesTheSameEvents() throws IOException {
+        final Recording live = new SyntheticSession(4).burst(2, 10.0, 1.0, 250.0).record(30.0);
+        final File file = new File(folder.getRoot(), "session.bin");
+        final BinarySessionWriter writer = new BinarySessionWriter(file);
+        live.writeTo(writer);
+        writer.close();
+        final Recording replayed = Recording.of(new BinarySessionReader(file));
+
+        final List<long[]> expected = run(live).events;
+        final List<long[]> actual = run(replayed).events;
+        assertFalse(expected.isEmpty());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i)[0], actual.get(i)[0]);
+            assertEquals(expected.get(i)[1], actual.get(i)[1]);
+            assertEquals(expected.get(i)[2], actual.get(i)[2]);
+        }
+    }
+
+    @Test
+    public void detectionDoesNotAllocate() {
+        Allocations.assumeSupported();
+        final Recording recording = new SyntheticSession(5).burst(0, 5.0, 0.5, 300.0).record(20.0);
+        final EegDetector detector = new EegDetector();
+        final int[] onsets = new int[1];
+        detector.setListener(new EegDetector.Listener() {
+            @Override
+            public void onDetection(int channel, long timestamp, boolean active, double value) {
+                onsets[0] += active ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < recording.size(); ++i) {
+            detector.accept(recording.get(i));
+        }
+        final long before = Allocations.bytes();
+        for (int round = 0; round < 5; ++round) {
+            for (int i = 0; i < recording.size(); ++i) {
+                detector.accept(recording.get(i));
+            }
+        }
+        final long allocated = Allocations.bytes() - before;
+        assertTrue(onsets[0] > 0);
+        assertEquals("bytes allocated", 0, allocated / 1024);
+    }
+}
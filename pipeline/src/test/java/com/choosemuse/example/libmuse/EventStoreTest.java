@@ -0,0 +1,148 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** The interval index against brute-force scans of the same events. */
+public class EventStoreTest {
+    private final Random random = new Random(7);
+    private final EventStore store = new EventStore();
+    private final List<EventStore.Event> added = new ArrayList<>();
+
+    // Mostly in start order like a live session, with every fifth event
+    // starting before the latest and a few markers.
+    private void addEvents(int n) {
+        for (int i = 0; i < n; ++i) {
+            final long latest = added.isEmpty() ? 0 : added.get(added.size() - 1).start;
+            final long start = i % 5 == 4 ? latest - random.nextInt(50000) : latest + random.nextInt(1000);
+            final long end = i % 7 == 0 ? start : start + random.nextInt(20000);
+            final EventStore.Event e = store.add(random.nextInt(5), start, end, "event " + added.size());
+            added.add(e);
+        }
+    }
+
+    // The added events in start order, ties in the order they were added.
+    private List<EventStore.Event> byStart() {
+        final List<EventStore.Event> sorted = new ArrayList<>(added);
+        Collections.sort(sorted, new Comparator<EventStore.Event>() {
+            @Override
+            public int compare(EventStore.Event a, EventStore.Event b) {
+                return Long.compare(a.start, b.start);
+            }
+        });
+        return sorted;
+    }
+
+    private void checkQueries(int queries) {
+        final List<EventStore.Event> sorted = byStart();
+        final long first = sorted.get(0).start - 1000;
+        final long span = sorted.get(sorted.size() - 1).end - first + 2000;
+        for (int q = 0; q < queries; ++q) {
+            final long from = first + (long) (random.nextDouble() * span);
+            final long to = from + random.nextInt(q % 2 == 0 ? 100 : 100000);
+            final int kind = random.nextInt(6) - 1;
+            final List<EventStore.Event> expected = new ArrayList<>();
+            for (EventStore.Event e : sorted) {
+                if (e.start < to && e.end >= from && (kind < 0 || e.kind == kind)) {
+                    expected.add(e);
+                }
+            }
+            assertEquals("[" + from + ", " + to + ") kind " + kind, expected, store.overlapping(from, to, kind));
+
+            EventStore.Event next = null;
+            EventStore.Event previous = null;
+            for (EventStore.Event e : sorted) {
+                if (next == null && e.start >= from && (kind < 0 || e.kind == kind)) {
+                    next = e;
+                }
+                if (e.start < from && (kind < 0 || e.kind == kind)) {
+                    previous = e;
+                }
+            }
+            assertSame("next " + from + " kind " + kind, next, store.next(from, kind));
+            assertSame("previous " + from + " kind " + kind, previous, store.previous(from, kind));
+        }
+    }
+
+    @Test
+    public void queriesMatchABruteForceScan() {
+        // Across the growths of the index, from 64 leaves up to 1024.
+        final int[] sizes = { 1, 10, 63, 64, 65, 127, 128, 129, 500, 1000 };
+        for (int size : sizes) {
+            addEvents(size - added.size());
+            assertEquals(size, store.size());
+            checkQueries(200);
+        }
+        for (int i = 0; i < added.size(); ++i) {
+            assertSame(added.get(i), store.get(i));
+        }
+    }
+
+    @Test
+    public void markersOnTheQueryStartAreIncluded() {
+        final EventStore.Event marker = store.mark(EventStore.USER, 100, "here");
+        store.add(EventStore.DETECTOR, 50, 99, "before");
+        assertEquals(Collections.singletonList(marker), store.overlapping(100, 200));
+        assertEquals(0, store.overlapping(101, 200).size());
+        assertEquals(1, store.overlapping(99, 100).size());
+        assertEquals("before", store.overlapping(99, 100).get(0).text);
+    }
+
+    @Test
+    public void parsesWhatEventsAreRecordedAs() {
+        final EventStore.Event e = new EventStore.Event(EventStore.ARTIFACT, -20, 30, "jaw clench");
+        final EventStore.Event parsed = EventStore.parse(999, e.toString());
+        assertEquals(EventStore.ARTIFACT, parsed.kind);
+        assertEquals(-20, parsed.start);
+        assertEquals(30, parsed.end);
+        assertEquals("jaw clench", parsed.text);
+        assertEquals(e.toString(), parsed.toString());
+
+        final EventStore.Event marker = EventStore.parse(999, "user @5 two  words");
+        assertEquals(5, marker.start);
+        assertEquals(5, marker.end);
+        assertEquals("two  words", marker.text);
+
+        final EventStore.Event bare = EventStore.parse(999, "quality");
+        assertEquals(EventStore.QUALITY, bare.kind);
+        assertEquals(999, bare.start);
+        assertEquals("", bare.text);
+    }
+
+    @Test
+    public void malformedNumbersAreText() {
+        EventStore.Event e = EventStore.parse(999, "user @- x");
+        assertEquals(EventStore.USER, e.kind);
+        assertEquals(999, e.start);
+        assertEquals("@- x", e.text);
+
+        e = EventStore.parse(999, "user @12 +- x");
+        assertEquals(12, e.start);
+        assertEquals(12, e.end);
+        assertEquals("+- x", e.text);
+
+        e = EventStore.parse(999, "user @1234567890123456789 x");
+        assertEquals(999, e.start);
+        assertEquals("@1234567890123456789 x", e.text);
+
+        e = EventStore.parse(999, "user @12a");
+        assertEquals(999, e.start);
+        assertEquals("@12a", e.text);
+    }
+
+    @Test
+    public void otherAnnotationsAreNotes() {
+        final EventStore.Event e = EventStore.parse(999, "session closed");
+        assertEquals(EventStore.NOTE, e.kind);
+        assertEquals(999, e.start);
+        assertEquals("session closed", e.text);
+    }
+}
@@ -0,0 +1,137 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * FixedPointText against String.format over a sweep of values, widths and
+ * precisions. They are meant to differ in three cases only:
+ *
+ *   - a negative value that rounds to zero is shown without the sign;
+ *   - String.format rounds the shortest decimal that reads back as the
+ *     double (Double.toString's digits, padded with zeros), FixedPointText
+ *     the double times 10^decimals. So 1.005, which is just below 1.005,
+ *     is "1.01" in one and "1.00" in the other, and past 17 significant
+ *     digits one pads zeros where the other shows the product's digits.
+ *     FixedPointText must still be within half a unit of the last place,
+ *     plus the rounding of the product, of the double's exact value;
+ *   - a magnitude whose scaled value does not fit a long is shown as
+ *     Infinity.
+ */
+public class FixedPointTextTest {
+    private static final int[] WIDTHS = { 1, 6, 12, 24 };
+
+    private final char[] out = new char[64];
+    private int negativeZeros = 0;
+    private int roundings = 0;
+    private int overflows = 0;
+
+    private static List<Double> values() {
+        final List<Double> values = new ArrayList<>();
+        final double[] special = {
+            0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+            Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, Long.MAX_VALUE, 9.0e18, 1e15,
+            0.5, 1.5, 2.5, -0.5, -2.5, 0.125, 0.375, -0.125, 0.005, 1.005, 0.285, 1.0 / 3, -2.0 / 3,
+            999.995, 9.995, -9.995, 0.049, -0.0049, 123456.789, -850.25, 0.1, 0.7, 99.999999999,
+        };
+        for (double v : special) {
+            values.add(v);
+        }
+        final Random random = new Random(5);
+        for (int i = 0; i < 1000; ++i) {
+            final double magnitude = Math.pow(10, random.nextInt(22) - 6);
+            final double v = random.nextDouble() * magnitude;
+            values.add(random.nextBoolean() ? v : -v);
+        }
+        // Ties and their neighbours at every precision.
+        for (int d = 0; d < 9; ++d) {
+            for (int i = 0; i < 100; ++i) {
+                final double tie = (random.nextInt(200000) + 0.5) / Math.pow(10, d);
+                values.add(tie);
+                values.add(-tie);
+                values.add(Math.nextUp(tie));
+                values.add(Math.nextAfter(tie, 0));
+            }
+        }
+        return values;
+    }
+
+    private static String printf(Object value, int width, int decimals) {
+        return String.format(Locale.ROOT, "%" + width + "." + decimals + "f", value);
+    }
+
+    private void check(double value, int width, int decimals) {
+        final String actual = new String(out, 0, FixedPointText.format(value, width, decimals, out, 0));
+        final String expected = printf(value, width, decimals);
+        if (actual.equals(expected)) {
+            return;
+        }
+        final String where = value + " as %" + width + "." + decimals + "f";
+        if (Math.abs(value) * Math.pow(10, decimals) + 0.5 >= 9.0e18) {
+            assertEquals(where, String.format("%" + width + "s", value > 0 ? "Infinity" : "-Infinity"), actual);
+            ++overflows;
+            return;
+        }
+        final BigDecimal exact = new BigDecimal(value);
+        if (exact.setScale(decimals, RoundingMode.HALF_UP).signum() == 0) {
+            assertEquals(where, printf(0.0, width, decimals), actual);
+            ++negativeZeros;
+            return;
+        }
+        final BigDecimal shown = new BigDecimal(actual.trim());
+        final double error = shown.subtract(exact).abs().movePointRight(decimals).doubleValue();
+        final double slack = 2 * Math.ulp(Math.abs(value) * Math.pow(10, decimals));
+        assertTrue(where + ": expected <" + expected + "> but was <" + actual + ">", error <= 0.5 + slack);
+        ++roundings;
+    }
+
+    @Test
+    public void matchesStringFormat() {
+        for (double value : values()) {
+            for (int width : WIDTHS) {
+                for (int decimals = 0; decimals < 9; ++decimals) {
+                    check(value, width, decimals);
+                }
+            }
+        }
+        // Each documented difference does come up in the sweep.
+        assertTrue(negativeZeros > 0);
+        assertTrue(roundings > 0);
+        assertTrue(overflows > 0);
+    }
+
+    @Test
+    public void specialValuesArePadded() {
+        assertEquals("   NaN", new String(out, 0, FixedPointText.format(Double.NaN, 6, 2, out, 0)));
+        assertEquals("Infinity", new String(out, 0, FixedPointText.format(Double.POSITIVE_INFINITY, 6, 2, out, 0)));
+        assertEquals("  -Infinity", new String(out, 0, FixedPointText.format(Double.NEGATIVE_INFINITY, 11, 2, out, 0)));
+        assertEquals("  0.00", new String(out, 0, FixedPointText.format(-0.001, 6, 2, out, 0)));
+        assertEquals("-12", new String(out, 0, FixedPointText.format(-12.4, 1, 0, out, 0)));
+    }
+
+    @Test
+    public void updateOnlyReportsVisibleChanges() {
+        final FixedPointText text = new FixedPointText(6, 2);
+        assertTrue(text.update(1.234));
+        assertEquals("  1.23", text.toString());
+        assertFalse(text.update(1.2341));
+        assertTrue(text.update(1.236));
+        assertEquals("  1.24", text.toString());
+        text.invalidate();
+        assertTrue(text.update(1.236));
+        assertTrue(text.update(Double.NaN));
+        assertFalse(text.update(Double.NaN));
+        assertEquals("   NaN", text.toString());
+    }
+}
@@ -0,0 +1,116 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * render() against a brute-force min/max over the raw samples of the same
+ * whole buckets, while the rings wrap several times.
+ */
+public class MinMaxPyramidTest {
+    private static final int CHANNELS = 2;
+    private static final int CAPACITY = 5000;
+    private static final int[] COLUMNS = { 1, 3, 7, 64, 300, 1250, CAPACITY };
+
+    private final Random random = new Random(9);
+    private final MinMaxPyramid pyramid = new MinMaxPyramid(CHANNELS, CAPACITY);
+    // Every sample ever accepted, as the pyramid stores them.
+    private final float[][] all = new float[CHANNELS][4 * CAPACITY];
+    private final boolean[] levelsUsed = new boolean[pyramid.levels()];
+
+    private void add(int n) {
+        final brainPacket s = new brainPacket();
+        for (int i = 0; i < n; ++i) {
+            final int k = (int) pyramid.samples();
+            s.set(k * 3906L, brainPacket.TYPE_EEG, CHANNELS);
+            for (int c = 0; c < CHANNELS; ++c) {
+                // A random walk with the odd spike, so the extremes move.
+                final double previous = k == 0 ? 0.0 : all[c][k - 1];
+                s.values[c] = random.nextInt(100) == 0 ? 1000 * random.nextGaussian() :
+                    previous + random.nextGaussian();
+                all[c][k] = (float) s.values[c];
+            }
+            pyramid.accept(s);
+        }
+    }
+
+    private void check(long from, long to, int columns) {
+        final long total = pyramid.samples();
+        final float[] outMin = new float[columns];
+        final float[] outMax = new float[columns];
+        for (int c = 0; c < CHANNELS; ++c) {
+            final int level = pyramid.render(c, from, to, columns, outMin, outMax);
+            levelsUsed[level] = true;
+            final long bucket = 1L << (2 * level);
+            final double perColumn = (double) (to - from) / columns;
+            assertTrue(level == 0 || bucket <= perColumn);
+            assertTrue(level == pyramid.levels() - 1 || bucket * MinMaxPyramid.FACTOR > perColumn);
+            // Whole buckets that are complete and still in the history.
+            final long first = (Math.max(0, total - CAPACITY) + bucket - 1) / bucket * bucket;
+            final long last = total / bucket * bucket;
+            for (int i = 0; i < columns; ++i) {
+                final String where = "[" + from + ", " + to + ") in " + columns + " column " + i +
+                    " channel " + c + " level " + level + " of " + total;
+                final long s0 = from + (long) (i * perColumn);
+                final long s1 = from + (long) ((i + 1) * perColumn);
+                final long b0 = Math.max(s0 / bucket * bucket, first);
+                final long b1 = Math.min(Math.max((s1 + bucket - 1) / bucket * bucket, b0 + bucket), last);
+                if (b0 >= b1) {
+                    assertTrue(where, Float.isNaN(outMin[i]) && Float.isNaN(outMax[i]));
+                    continue;
+                }
+                float lo = Float.POSITIVE_INFINITY;
+                float hi = Float.NEGATIVE_INFINITY;
+                for (long k = b0; k < b1; ++k) {
+                    lo = Math.min(lo, all[c][(int) k]);
+                    hi = Math.max(hi, all[c][(int) k]);
+                }
+                assertEquals(where, lo, outMin[i], 0.0f);
+                assertEquals(where, hi, outMax[i], 0.0f);
+            }
+        }
+    }
+
+    private void checkWindows() {
+        final long total = pyramid.samples();
+        for (int columns : COLUMNS) {
+            // The whole history, the latest stretch, a window reaching back
+            // before the history, and a random one inside it.
+            check(Math.max(0, total - CAPACITY), total, columns);
+            check(Math.max(0, total - columns * 3), total, columns);
+            check(total - CAPACITY - 500, total - CAPACITY + 1500, columns);
+            final long from = Math.max(0, total - CAPACITY) + random.nextInt(CAPACITY / 2);
+            check(from, from + 1 + random.nextInt(CAPACITY / 2), columns);
+        }
+    }
+
+    @Test
+    public void renderMatchesABruteForceMinMax() {
+        assertTrue(pyramid.levels() > 2);
+        // Odd steps, so every level is caught mid-bucket and mid-ring.
+        while (pyramid.samples() + 997 <= all[0].length) {
+            add(997);
+            checkWindows();
+        }
+        for (int level = 0; level < levelsUsed.length; ++level) {
+            assertTrue("level " + level + " never used", levelsUsed[level]);
+        }
+    }
+
+    @Test
+    public void nothingToRenderIsNaN() {
+        add(100);
+        final float[] outMin = new float[4];
+        final float[] outMax = new float[4];
+        pyramid.render(0, 200, 300, 4, outMin, outMax);
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(Float.isNaN(outMin[i]) && Float.isNaN(outMax[i]));
+        }
+        pyramid.render(0, 50, 50, 4, outMin, outMax);
+        assertTrue(Float.isNaN(outMin[0]));
+    }
+}
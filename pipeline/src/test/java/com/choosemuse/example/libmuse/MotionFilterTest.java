@@ -0,0 +1,178 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * MotionFilter on synthetic data with known motion artifacts. Four channels
+ * of EEG-like signal get a mix of the head's acceleration and its delayed
+ * copy added, with a different mix per channel. After three minutes of
+ * adaptation, what is left of the artifacts has to be at least 10 dB below
+ * what was injected. The same signal without movement must come through
+ * within 1% (-20 dB) of its power.
+ */
+public class MotionFilterTest {
+    private static final int EEG_RATE = 256;
+    private static final int ACCEL_RATE = 52;
+    private static final int CHANNELS = 4;
+    // Injected artifact, microvolts per g for each channel and axis, for
+    // the acceleration and for it 40 ms earlier.
+    private static final double[][] GAIN = {
+        { 60, -20, 10 }, { -40, 30, 0 }, { 10, 50, -30 }, { 0, -10, 70 } };
+    private static final double[][] DELAYED_GAIN = {
+        { -20, 0, 10 }, { 10, -10, 0 }, { 0, 20, 0 }, { 15, 0, -25 } };
+    private static final double DELAY = 0.040;
+    private static final long MEASURED_FROM = 120000000L;
+
+    // Head movement as bursts of slow sway and nods, and EEG as an alpha
+    // rhythm over noise, both functions of time.
+    private static final class Synthetic {
+        final Random random;
+        final double[] noise = new double[CHANNELS];
+        final boolean moving;
+
+        Synthetic(long seed, boolean moving) {
+            this.random = new Random(seed);
+            this.moving = moving;
+        }
+
+        // Head acceleration in g, gravity excluded.
+        double motion(int axis, double t) {
+            if (!moving) {
+                return 0.0;
+            }
+            // Movement comes and goes every few seconds.
+            final double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * 0.13 * t + axis);
+            return envelope * (0.15 * Math.sin(2 * Math.PI * 0.7 * t + 1.3 * axis) +
+                0.08 * Math.sin(2 * Math.PI * 2.3 * t + 0.4 * axis) +
+                0.04 * Math.sin(2 * Math.PI * 5.1 * t + 2.0 * axis));
+        }
+
+        // What the accelerometer reads: gravity, movement and sensor noise.
+        double accel(int axis, double t) {
+            return (axis == 2 ? 1.0 : 0.0) + motion(axis, t) + random.nextGaussian() * 0.002;
+        }
+
+        double artifact(int channel, double t) {
+            double a = 0.0;
+            for (int axis = 0; axis < 3; ++axis) {
+                a += GAIN[channel][axis] * motion(axis, t) + DELAYED_GAIN[channel][axis] * motion(axis, t - DELAY);
+            }
+            return a;
+        }
+
+        // Fills clean with the EEG without artifacts at t.
+        void eeg(double t, double[] clean) {
+            for (int c = 0; c < CHANNELS; ++c) {
+                noise[c] = 0.9 * noise[c] + random.nextGaussian() * 3.0;
+                clean[c] = 800.0 + 10.0 * Math.sin(2 * Math.PI * 10.0 * t + c) + noise[c];
+            }
+        }
+    }
+
+    // Runs three minutes through a fresh filter and returns, over the last
+    // minute, the power of cleaned minus clean EEG relative to the power of
+    // the artifacts (with motion) or of the clean EEG (without), in dB.
+    // With nans, one EEG value and one accelerometer value early on are NaN.
+    private static double residualDb(boolean moving, boolean nans) {
+        final Synthetic synthetic = new Synthetic(7, moving);
+        final double[] clean = new double[CHANNELS];
+        final double[] error = new double[1];
+        final MotionFilter f = new MotionFilter(new SampleSink() {
+            @Override
+            public void accept(brainPacket s) {
+                if (s.type == brainPacket.TYPE_EEG && s.timestamp >= MEASURED_FROM) {
+                    for (int c = 0; c < CHANNELS; ++c) {
+                        final double d = s.values[c] - clean[c];
+                        error[0] += d * d;
+                    }
+                }
+            }
+        });
+        final brainPacket s = new brainPacket();
+        double reference = 0.0;
+        int a = 0;
+        for (int e = 0; e < 180 * EEG_RATE; ++e) {
+            final long ts = e * 1000000L / EEG_RATE;
+            while ((long) a * EEG_RATE <= (long) e * ACCEL_RATE) {
+                final long ta = a * 1000000L / ACCEL_RATE;
+                s.set(ta, brainPacket.TYPE_ACCELEROMETER, 3);
+                for (int axis = 0; axis < 3; ++axis) {
+                    s.values[axis] = synthetic.accel(axis, ta / 1e6);
+                }
+                if (nans && a == 6 * ACCEL_RATE) {
+                    s.values[0] = Double.NaN;
+                }
+                f.accept(s);
+                ++a;
+            }
+            final double t = ts / 1e6;
+            synthetic.eeg(t, clean);
+            s.set(ts, brainPacket.TYPE_EEG, 6);
+            for (int c = 0; c < CHANNELS; ++c) {
+                final double artifact = synthetic.artifact(c, t);
+                s.values[c] = clean[c] + artifact;
+                if (ts >= MEASURED_FROM) {
+                    final double r = moving ? artifact : clean[c] - 800.0;
+                    reference += r * r;
+                }
+            }
+            if (nans && e == 5 * EEG_RATE) {
+                s.values[1] = Double.NaN;
+            }
+            f.accept(s);
+        }
+        return 10.0 * Math.log10(error[0] / reference);
+    }
+
+    @Test
+    public void removesMotionArtifacts() {
+        final double db = residualDb(true, false);
+        assertTrue("motion artifacts only reduced by " + -db + " dB", db <= -10.0);
+    }
+
+    @Test
+    public void leavesCleanEegAlone() {
+        final double db = residualDb(false, false);
+        assertTrue("clean EEG changed by " + db + " dB", db <= -20.0);
+    }
+
+    @Test
+    public void nanValuesDoNotPoisonTheFilter() {
+        // Still the full reduction on every channel, so none went NaN.
+        final double db = residualDb(true, true);
+        assertTrue("motion artifacts only reduced by " + -db + " dB", db <= -10.0);
+    }
+
+    @Test
+    public void nanIsPassedOnUnchanged() {
+        final brainPacket[] last = new brainPacket[1];
+        final MotionFilter f = new MotionFilter(new SampleSink() {
+            @Override
+            public void accept(brainPacket s) {
+                last[0] = s;
+            }
+        });
+        final brainPacket s = new brainPacket();
+        for (int i = 0; i < 100; ++i) {
+            s.set(i * 20000L, brainPacket.TYPE_ACCELEROMETER, 3);
+            s.values[2] = 1.0 + 0.01 * Math.sin(i);
+            f.accept(s);
+            s.set(i * 20000L + 10000L, brainPacket.TYPE_EEG, 4);
+            for (int c = 0; c < 4; ++c) {
+                s.values[c] = 800.0 + c;
+            }
+            if (i == 50) {
+                s.values[1] = Double.NaN;
+            }
+            f.accept(s);
+            assertEquals(i == 50, Double.isNaN(last[0].values[1]));
+            assertFalse(Double.isNaN(last[0].values[0]));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+/** NetworkStreamer to StreamReceiver over loopback. */
+public class NetworkStreamerTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private NetworkStreamer streamer;
+    private StreamReceiver receiver;
+
+    // The receiver thread delivers into it while the test thread reads.
+    private static final class SharedRecording implements SampleSink {
+        final Recording recording = new Recording();
+
+        @Override
+        public synchronized void accept(brainPacket s) {
+            recording.accept(s);
+        }
+
+        synchronized int size() {
+            return recording.size();
+        }
+
+        synchronized brainPacket get(int i) {
+            return recording.get(i);
+        }
+    }
+
+    @After
+    public void stop() {
+        if (streamer != null) {
+            streamer.stop();
+        }
+        if (receiver != null) {
+            receiver.stop();
+        }
+    }
+
+    private static void await(SharedRecording received, int size) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (received.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(size, received.size());
+    }
+
+    private void offer(Recording session, int from, int to) throws InterruptedException {
+        for (int i = from; i < to; ++i) {
+            while (!streamer.offer(session.get(i))) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    @Test
+    public void samplesArriveInOrderAsFloats() throws IOException, InterruptedException {
+        final SharedRecording received = new SharedRecording();
+        receiver = new StreamReceiver("127.0.0.1", 0, received);
+        receiver.start();
+        final Recording session = new SyntheticSession(1).alphaPackets(true).record(20.0);
+        // Room for the whole session, so nothing is dropped.
+        streamer = new NetworkStreamer("127.0.0.1", receiver.port(),
+            NetworkStreamer.BackPressure.DROP_NEWEST, 8192, 64, 5);
+        streamer.start();
+        offer(session, 0, session.size());
+        await(received, session.size());
+
+        for (int i = 0; i < session.size(); ++i) {
+            final brainPacket sent = session.get(i);
+            final brainPacket got = received.get(i);
+            assertEquals(sent.type, got.type);
+            assertEquals(sent.timestamp, got.timestamp);
+            assertEquals(sent.size, got.size);
+            for (int c = 0; c < sent.size; ++c) {
+                assertEquals((float) sent.values[c], got.values[c], 0.0);
+            }
+        }
+        assertEquals(0, receiver.sequenceGaps());
+        assertEquals(1, receiver.connections());
+        assertEquals(session.size(), streamer.samplesSent());
+        assertEquals(0, streamer.samplesDropped());
+    }
+
+    @Test
+    public void reconnectsWhenTheReceiverComesBack() throws IOException, InterruptedException {
+        final SharedRecording first = new SharedRecording();
+        receiver = new StreamReceiver("127.0.0.1", 0, first);
+        final int port = receiver.port();
+        receiver.start();
+        streamer = new NetworkStreamer("127.0.0.1", port,
+            NetworkStreamer.BackPressure.DROP_NEWEST, 1024, 64, 5);
+        streamer.start();
+        final Recording session = new SyntheticSession(2).record(10.0);
+        offer(session, 0, 1000);
+        await(first, 1000);
+
+        receiver.stop();
+        final SharedRecording second = new SharedRecording();
+        receiver = new StreamReceiver("127.0.0.1", port, second);
+        receiver.start();
+        // Keep sending until the streamer has noticed and connected again.
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        int next = 1000;
+        while (second.size() == 0 && next < session.size() && System.currentTimeMillis() < deadline) {
+            offer(session, next, next + 1);
+            ++next;
+            Thread.sleep(1);
+        }
+        assertTrue(second.size() > 0);
+        assertEquals(2, streamer.connectCount());
+        // Whatever reaches the new receiver is in order.
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < second.size(); ++i) {
+            assertTrue(second.get(i).timestamp >= last);
+            last = second.get(i).timestamp;
+        }
+    }
+}
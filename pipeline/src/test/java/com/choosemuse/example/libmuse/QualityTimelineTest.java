@@ -0,0 +1,47 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class QualityTimelineTest {
+    private static final long WINDOW = 1000000;
+
+    @Test
+    public void windowsKeepTheirStartsAcrossAClockJump() {
+        final QualityTimeline timeline = new QualityTimeline(WINDOW);
+        timeline.anchor(0, 5000000);
+        for (int i = 0; i < 100; ++i) {
+            timeline.append(i);
+        }
+        // The clock goes back an hour.
+        timeline.anchor(100, 5000000 - 3600 * WINDOW);
+        for (int i = 100; i < 200; ++i) {
+            timeline.append(i);
+        }
+
+        assertEquals(5000000, timeline.origin());
+        assertEquals(5000000 + 99 * WINDOW, timeline.startOf(99));
+        assertEquals(5000000 + 100 * WINDOW, timeline.endOf(99));
+        assertEquals(5000000 - 3600 * WINDOW, timeline.startOf(100));
+        assertEquals(5000000 - 3501 * WINDOW, timeline.startOf(199));
+        // Extrapolated from the last window.
+        assertEquals(5000000 - 3500 * WINDOW, timeline.startOf(200));
+        assertEquals(150, timeline.indexOf(timeline.startOf(150) + WINDOW / 2));
+        assertEquals(200, timeline.indexOf(timeline.startOf(200)));
+    }
+
+    @Test
+    public void startsGrowWithTheMasks() {
+        final QualityTimeline timeline = new QualityTimeline(WINDOW);
+        timeline.anchor(0, 0);
+        final int n = QualityTimeline.BLOCK * 40;
+        for (int i = 0; i < n; ++i) {
+            timeline.append(0);
+        }
+        assertEquals(n, timeline.size());
+        for (int i = 0; i < n; ++i) {
+            assertEquals(i * WINDOW, timeline.startOf(i));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A packet stream held in memory, for replaying into pipeline stages in
+ * tests. It records whatever is passed to it as a sink or a writer, can be
+ * filled from any SampleSource (a session file reader, say), and replays
+ * through ReplayEngine like a recorded file.
+ */
+final class Recording implements SampleSink, SessionWriter {
+    private final List<brainPacket> packets = new ArrayList<>();
+
+    /** Reads source to the end and closes it. */
+    static Recording of(SampleSource source) throws IOException {
+        final Recording recording = new Recording();
+        try {
+            final brainPacket s = new brainPacket();
+            while (source.next(s)) {
+                recording.accept(s);
+            }
+        } finally {
+            source.close();
+        }
+        return recording;
+    }
+
+    @Override
+    public void accept(brainPacket s) {
+        final brainPacket copy = new brainPacket();
+        copy.copyFrom(s);
+        packets.add(copy);
+    }
+
+    @Override
+    public void write(brainPacket s) {
+        accept(s);
+    }
+
+    @Override
+    public void annotate(long timestamp, String text) {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    int size() {
+        return packets.size();
+    }
+
+    brainPacket get(int i) {
+        return packets.get(i);
+    }
+
+    /** Number of packets of the given type. */
+    int count(int type) {
+        int n = 0;
+        for (brainPacket s : packets) {
+            if (s.type == type) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    SampleSource source() {
+        return new SampleSource() {
+            private int next = 0;
+
+            @Override
+            public boolean next(brainPacket into) {
+                if (next == packets.size()) {
+                    return false;
+                }
+                into.copyFrom(packets.get(next++));
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    ReplayEngine.Job job(final String name, final SampleSink sink) {
+        return new ReplayEngine.Job() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public SampleSource open() {
+                return source();
+            }
+
+            @Override
+            public SampleSink sink() {
+                return sink;
+            }
+        };
+    }
+
+    /** Replays every packet into sink the way ReplayEngine does. */
+    long replay(SampleSink sink) {
+        try {
+            return ReplayEngine.replayOne(job("recording", sink));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /** Writes every packet to writer, without closing it. */
+    void writeTo(SessionWriter writer) throws IOException {
+        for (brainPacket s : packets) {
+            writer.write(s);
+        }
+    }
+}
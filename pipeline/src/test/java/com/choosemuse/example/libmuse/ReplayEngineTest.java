@@ -0,0 +1,137 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ReplayEngineTest {
+    private final ReplayEngine engine = new ReplayEngine(4);
+
+    // A session of n EEG samples; the sink throws at sample failAt.
+    private static class CountingJob implements ReplayEngine.Job {
+        final String name;
+        final int n;
+        final int failAt;
+        long received;
+        boolean closed;
+
+        CountingJob(String name, int n, int failAt) {
+            this.name = name;
+            this.n = n;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public SampleSource open() {
+            return new SampleSource() {
+                int i = 0;
+
+                @Override
+                public boolean next(brainPacket into) {
+                    if (i == n) {
+                        return false;
+                    }
+                    into.set(i * 3906L, brainPacket.TYPE_EEG, 4);
+                    into.values[0] = i++;
+                    return true;
+                }
+
+                @Override
+                public void close() {
+                    closed = true;
+                }
+            };
+        }
+
+        @Override
+        public SampleSink sink() {
+            return new SampleSink() {
+                @Override
+                public void accept(brainPacket s) {
+                    if (received == failAt) {
+                        throw new IllegalStateException("bad sample " + (long) s.values[0]);
+                    }
+                    ++received;
+                }
+            };
+        }
+    }
+
+    @After
+    public void shutdown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void replaysEveryFile() {
+        final List<CountingJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 7; ++i) {
+            jobs.add(new CountingJob("f" + i, 1000 + i * ReplayEngine.BLOCK_SIZE, -1));
+        }
+        final ReplayEngine.Stats stats = engine.replay(jobs);
+        assertEquals(7, stats.files);
+        assertEquals(0, stats.failedFiles);
+        assertNull(stats.firstError);
+        long total = 0;
+        for (CountingJob job : jobs) {
+            assertEquals(job.n, job.received);
+            assertTrue(job.closed);
+            total += job.n;
+        }
+        assertEquals(total, stats.samples);
+    }
+
+    @Test
+    public void runtimeExceptionFailsOnlyItsJob() {
+        final List<CountingJob> jobs = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            jobs.add(new CountingJob("f" + i, 2000, i == 2 ? 300 : -1));
+        }
+        final ReplayEngine.Stats stats = engine.replay(jobs);
+        assertEquals(5, stats.files);
+        assertEquals(1, stats.failedFiles);
+        assertEquals("f2: java.lang.IllegalStateException: bad sample 300", stats.firstError);
+        assertEquals(4 * 2000L, stats.samples);
+        for (CountingJob job : jobs) {
+            assertEquals(job.failAt < 0 ? job.n : job.failAt, job.received);
+            assertTrue(job.closed);
+        }
+    }
+
+    @Test
+    public void ioExceptionFailsOnlyItsJob() {
+        final List<ReplayEngine.Job> jobs = new ArrayList<>();
+        jobs.add(new CountingJob("good", 500, -1));
+        jobs.add(new CountingJob("missing", 0, -1) {
+            @Override
+            public SampleSource open() {
+                return new SampleSource() {
+                    @Override
+                    public boolean next(brainPacket into) throws IOException {
+                        throw new IOException("truncated");
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        });
+        final ReplayEngine.Stats stats = engine.replay(jobs);
+        assertEquals(1, stats.failedFiles);
+        assertEquals("missing: truncated", stats.firstError);
+        assertEquals(500, stats.samples);
+    }
+}
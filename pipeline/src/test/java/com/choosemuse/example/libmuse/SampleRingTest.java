@@ -0,0 +1,86 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class SampleRingTest {
+    private static final int PACKETS = 200000;
+
+    // Counts what it is given and keeps a checksum, like a consumer would.
+    private static final class CountingSink implements SampleSink {
+        long count;
+        double sum;
+
+        @Override
+        public void accept(brainPacket s) {
+            ++count;
+            sum += s.values[0];
+        }
+    }
+
+    // What the data listener does for every packet: fill a claimed slot in
+    // place and publish it.
+    private static void produce(SampleRing ring, long i) {
+        final brainPacket slot = ring.claim();
+        slot.set(i * 1000000L / 256, i % 3 == 0 ? brainPacket.TYPE_ACCELEROMETER : brainPacket.TYPE_EEG, 6);
+        for (int c = 0; c < slot.size; ++c) {
+            slot.values[c] = 800.0 + c + i % 100;
+        }
+        slot.receivedNanos = i;
+        ring.publish();
+    }
+
+    @Test
+    public void deliversInOrderAndCountsDrops() {
+        final SampleRing ring = new SampleRing(8);
+        for (int i = 0; i < 8; ++i) {
+            produce(ring, i);
+        }
+        assertNull(ring.claim());
+        assertEquals(1, ring.dropCount());
+        final long[] seen = new long[8];
+        final int[] n = new int[1];
+        assertEquals(8, ring.drainAll(new SampleSink() {
+            @Override
+            public void accept(brainPacket s) {
+                seen[n[0]++] = s.receivedNanos;
+            }
+        }));
+        for (int i = 0; i < 8; ++i) {
+            assertEquals(i, seen[i]);
+        }
+        assertEquals(8, ring.highWaterMark());
+    }
+
+    @Test
+    public void handoffDoesNotAllocate() {
+        Allocations.assumeSupported();
+        final SampleRing ring = new SampleRing(1024);
+        final CountingSink sink = new CountingSink();
+        // Warm up so class loading and compilation are not counted.
+        for (long i = 0; i < PACKETS; ++i) {
+            produce(ring, i);
+            if (i % 16 == 15) {
+                ring.drainAll(sink);
+            }
+        }
+        ring.drainAll(sink);
+
+        final long before = Allocations.bytes();
+        for (long i = 0; i < PACKETS; ++i) {
+            produce(ring, i);
+            if (i % 16 == 15) {
+                ring.drainAll(sink);
+            }
+        }
+        ring.drainAll(sink);
+        final long allocated = Allocations.bytes() - before;
+
+        assertEquals(2L * PACKETS, sink.count);
+        assertEquals(0, ring.dropCount());
+        // Nothing per packet; a few bytes of slack for the JVM itself.
+        assertEquals("bytes allocated for " + PACKETS + " packets", 0, allocated / 1024);
+    }
+}
@@ -0,0 +1,111 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentedSessionWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Writes one byte per sample; closing segment number failing fails.
+    private static final class Segments implements SegmentedSessionWriter.Factory {
+        final int failing;
+        final IOException error = new IOException("close failed");
+
+        Segments(int failing) {
+            this.failing = failing;
+        }
+
+        @Override
+        public SessionWriter open(final File file) throws IOException {
+            final FileOutputStream out = new FileOutputStream(file);
+            final int n = Integer.parseInt(file.getName().substring(8, 13));
+            return new SessionWriter() {
+                @Override
+                public void write(brainPacket s) throws IOException {
+                    out.write(s.type);
+                }
+
+                @Override
+                public void annotate(long timestamp, String text) {
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    out.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                    if (n == failing) {
+                        throw error;
+                    }
+                }
+            };
+        }
+    }
+
+    @Test
+    public void keepsRecordingWhenASegmentFailsToClose() throws IOException {
+        final File dir = new File(folder.getRoot(), "session");
+        final Segments segments = new Segments(0);
+        // Every flush rotates.
+        final SegmentedSessionWriter writer = new SegmentedSessionWriter(dir, ".seg", segments, 1, 0);
+        final Recording session = new SyntheticSession(1).record(1.0);
+        for (int i = 0; i < session.size(); ++i) {
+            writer.write(session.get(i));
+            if (i % 64 == 63) {
+                writer.flush();
+            }
+        }
+        try {
+            writer.close();
+            fail("close() should report the failed segment");
+        } catch (IOException e) {
+            assertSame(segments.error, e.getCause());
+        }
+        assertEquals(1, writer.closeErrors());
+        assertSame(segments.error, writer.lastCloseError());
+        assertTrue(writer.segment() > 1);
+
+        long bytes = 0;
+        for (int n = 0; n <= writer.segment(); ++n) {
+            bytes += SessionJournal.segmentFile(dir, n, ".seg").length();
+        }
+        assertEquals(session.size(), bytes);
+        // The session was still finished, so there is nothing to recover.
+        assertEquals(false, SessionJournal.recover(dir, ".seg").recovered);
+    }
+
+    @Test
+    public void lastSegmentFailingLeavesTheSessionToRecover() throws IOException {
+        final File dir = new File(folder.getRoot(), "session");
+        final Segments segments = new Segments(0);
+        final SegmentedSessionWriter writer =
+            new SegmentedSessionWriter(dir, ".seg", segments, Long.MAX_VALUE, Long.MAX_VALUE);
+        final Recording session = new SyntheticSession(2).record(0.5);
+        for (int i = 0; i < session.size(); ++i) {
+            writer.write(session.get(i));
+        }
+        try {
+            writer.close();
+            fail("close() should report the failed segment");
+        } catch (IOException e) {
+            assertSame(segments.error, e);
+        }
+        final SessionJournal.Recovery r = SessionJournal.recover(dir, ".seg");
+        assertTrue(r.recovered);
+        assertEquals(session.size(), r.samples);
+    }
+}
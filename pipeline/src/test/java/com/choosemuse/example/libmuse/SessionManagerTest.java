@@ -0,0 +1,105 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * A group session of simulated headbands on one SessionManager: every
+ * device's recording must hold exactly what that device's ring accepted,
+ * in order, however the workers interleave the drains.
+ */
+public class SessionManagerTest {
+    private static final int DEVICES = 16;
+    private static final long RUN_MILLIS = 2000;
+
+    // Keeps a copy of every packet the pipeline's ring accepted.
+    private static final class Feed implements DataSource.Listener {
+        final DevicePipeline pipeline;
+        final Recording offered = new Recording();
+        long rejected = 0;
+
+        Feed(DevicePipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        @Override
+        public void onSample(brainPacket s) {
+            if (pipeline.offer(s)) {
+                offered.accept(s);
+            } else {
+                ++rejected;
+            }
+        }
+
+        @Override
+        public void onArtifact(long timestamp, boolean headbandOn, boolean blink, boolean jawClench) {
+        }
+
+        @Override
+        public void onConnectionState(int previous, int current) {
+        }
+    }
+
+    @Test
+    public void devicesAreRecordedInIsolation() throws Exception {
+        final SessionManager manager = new SessionManager(4, 5);
+        final List<SimulatedDataSource> sources = new ArrayList<>();
+        final List<DevicePipeline> pipelines = new ArrayList<>();
+        final List<Feed> feeds = new ArrayList<>();
+        final List<Recording> recorded = new ArrayList<>();
+        for (int i = 0; i < DEVICES; ++i) {
+            final SimulatedDataSource.Config config = new SimulatedDataSource.Config();
+            config.speed = 4.0;
+            config.jitter = 0.1;
+            config.eegChannels = 1 + i % brainPacket.MAX_VALUES;
+            config.seed = i + 1;
+            final Recording recording = new Recording();
+            final DevicePipeline pipeline = manager.add(new DevicePipeline("sim" + i, 1 << 14,
+                new BatchRecorder(recording, 64, 50, 1000), new BandPowerEngine(), new EegDetector()));
+            final SimulatedDataSource source = new SimulatedDataSource("sim" + i, config);
+            final Feed feed = new Feed(pipeline);
+            source.setListener(feed);
+            sources.add(source);
+            pipelines.add(pipeline);
+            feeds.add(feed);
+            recorded.add(recording);
+        }
+        for (SimulatedDataSource source : sources) {
+            source.start();
+        }
+        Thread.sleep(RUN_MILLIS);
+        for (SimulatedDataSource source : sources) {
+            source.stop();
+        }
+        final List<String> summaries = new ArrayList<>();
+        for (DevicePipeline p : pipelines) {
+            summaries.add(p.summary());
+        }
+        manager.shutdown();
+
+        for (int i = 0; i < DEVICES; ++i) {
+            final Recording offered = feeds.get(i).offered;
+            final Recording recording = recorded.get(i);
+            final String name = pipelines.get(i).name();
+            assertTrue(name + " got no samples", offered.size() > 0);
+            assertEquals(name, offered.size(), pipelines.get(i).processed());
+            assertEquals(name, offered.size(), recording.size());
+            for (int k = 0; k < offered.size(); ++k) {
+                final brainPacket expected = offered.get(k);
+                final brainPacket actual = recording.get(k);
+                assertEquals(name + " #" + k, expected.timestamp, actual.timestamp);
+                assertEquals(name + " #" + k, expected.type, actual.type);
+                assertEquals(name + " #" + k, expected.size, actual.size);
+                for (int c = 0; c < expected.size; ++c) {
+                    assertEquals(name + " #" + k, expected.values[c], actual.values[c], 0.0);
+                }
+            }
+            System.out.println(summaries.get(i) + " rejected=" + feeds.get(i).rejected);
+        }
+    }
+}
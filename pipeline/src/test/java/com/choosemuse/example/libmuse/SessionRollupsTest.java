@@ -0,0 +1,115 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionRollupsTest {
+    private static final long SECOND = 1000000L;
+    private static final int PER_SECOND = SyntheticSession.EEG_RATE;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(SessionRollups rollups, Recording session) throws IOException {
+        for (int i = 0; i < session.size(); ++i) {
+            rollups.write(session.get(i));
+        }
+    }
+
+    private static long count(SessionRollups rollups, long from, long to) {
+        final SessionRollups.Stats stats = new SessionRollups.Stats();
+        rollups.aggregate(brainPacket.TYPE_EEG, 0, from, to, stats);
+        return stats.count;
+    }
+
+    @Test
+    public void openCoarseBucketsFallBackToFinerOnes() throws IOException {
+        final SessionRollups rollups = new SessionRollups();
+        write(rollups, new SyntheticSession(1).record(66.0));
+        // The minute bucket is still open, its 10 s buckets are not.
+        assertEquals(60 * PER_SECOND, count(rollups, 0, 60 * SECOND));
+        assertEquals(59 * PER_SECOND, count(rollups, 0, 59 * SECOND));
+        assertEquals(40 * PER_SECOND, count(rollups, 20 * SECOND, 60 * SECOND));
+        // Up to the last closed second.
+        assertEquals(65 * PER_SECOND, count(rollups, 0, 600 * SECOND));
+    }
+
+    @Test
+    public void crashedSidecarFallsBackToFinerBuckets() throws IOException {
+        final File file = new File(folder.getRoot(), SessionRollups.FILE_NAME);
+        final SessionRollups rollups = new SessionRollups(file);
+        write(rollups, new SyntheticSession(2).record(66.0));
+        // Flushed but never closed, as after a crash.
+        rollups.flush();
+
+        final SessionRollups read = SessionRollups.read(file);
+        assertEquals(60 * PER_SECOND, count(read, 0, 60 * SECOND));
+        assertEquals(65 * PER_SECOND, count(read, 0, 600 * SECOND));
+    }
+
+    @Test
+    public void aggregatesMatchTheSamples() throws IOException {
+        final Recording session = new SyntheticSession(3).record(130.0);
+        final SessionRollups rollups = new SessionRollups();
+        write(rollups, session);
+        rollups.close();
+
+        double sum = 0.0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        long n = 0;
+        for (int i = 0; i < session.size(); ++i) {
+            final brainPacket s = session.get(i);
+            if (s.type == brainPacket.TYPE_EEG && s.timestamp >= 5 * SECOND && s.timestamp < 125 * SECOND) {
+                sum += s.values[0];
+                min = Math.min(min, s.values[0]);
+                max = Math.max(max, s.values[0]);
+                ++n;
+            }
+        }
+        final SessionRollups.Stats stats = new SessionRollups.Stats();
+        assertTrue(rollups.aggregate(brainPacket.TYPE_EEG, 0, 5 * SECOND, 125 * SECOND, stats));
+        assertEquals(n, stats.count);
+        assertEquals(min, stats.min, 0.0);
+        assertEquals(max, stats.max, 0.0);
+        assertEquals(sum / n, stats.mean, 1e-9);
+    }
+
+    @Test
+    public void channelsWithNaNsKeepTheirOwnCounts() throws IOException {
+        final File file = new File(folder.getRoot(), SessionRollups.FILE_NAME);
+        final SessionRollups rollups = new SessionRollups(file);
+        final brainPacket s = new brainPacket();
+        // Channel 1 is NaN every other sample, and 1 otherwise; channel 0 is 0.
+        for (int i = 0; i < 30 * PER_SECOND; ++i) {
+            s.set(i * SECOND / PER_SECOND, brainPacket.TYPE_EEG, 2);
+            s.values[0] = 0.0;
+            s.values[1] = i % 2 == 0 ? Double.NaN : 1.0;
+            rollups.write(s);
+        }
+        rollups.close();
+
+        for (SessionRollups r : new SessionRollups[] { rollups, SessionRollups.read(file) }) {
+            final SessionRollups.Stats total = new SessionRollups.Stats();
+            assertTrue(r.total(brainPacket.TYPE_EEG, 1, total));
+            assertEquals(15 * PER_SECOND, total.count);
+            final SessionRollups.Stats stats = new SessionRollups.Stats();
+            assertTrue(r.aggregate(brainPacket.TYPE_EEG, 1, 0, 30 * SECOND, stats));
+            assertEquals(15 * PER_SECOND, stats.count);
+            assertEquals(1.0, stats.mean, 0.0);
+            assertEquals(0.0, stats.variance(), 0.0);
+            assertTrue(r.aggregate(brainPacket.TYPE_EEG, 0, 0, 30 * SECOND, stats));
+            assertEquals(30 * PER_SECOND, stats.count);
+            final SessionRollups.Series tens = r.series(brainPacket.TYPE_EEG, 1);
+            assertEquals(10 * PER_SECOND, tens.count(0));
+            assertEquals(5 * PER_SECOND, tens.count(1, 0));
+        }
+    }
+}
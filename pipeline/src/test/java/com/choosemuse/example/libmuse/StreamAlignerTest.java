@@ -0,0 +1,69 @@
+package com.choosemuse.example.libmuse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class StreamAlignerTest {
+    private static final long MAX_LATENCY = 200000;
+
+    private static final class Frames implements StreamAligner.FrameListener {
+        long count;
+        long stale;
+        long last = Long.MIN_VALUE;
+        boolean ordered = true;
+
+        @Override
+        public void onFrame(long timestamp, double[] values, int staleMask) {
+            ++count;
+            if (staleMask != 0) {
+                ++stale;
+            }
+            ordered &= timestamp > last;
+            last = timestamp;
+        }
+    }
+
+    private static StreamAligner aligner(int interpolation, Frames frames) {
+        final StreamAligner aligner = new StreamAligner(256, interpolation, MAX_LATENCY, 500000, frames);
+        aligner.addStream(brainPacket.TYPE_EEG, 4, 256);
+        aligner.addStream(brainPacket.TYPE_ACCELEROMETER, 3, 64);
+        aligner.addStream(brainPacket.TYPE_ALPHA_RELATIVE, 4, 16);
+        return aligner;
+    }
+
+    @Test
+    public void onTimeStreamsAddAtMostTheSlowestPeriod() {
+        for (int mode = StreamAligner.HOLD; mode <= StreamAligner.LINEAR; ++mode) {
+            final Frames frames = new Frames();
+            final StreamAligner aligner = aligner(mode, frames);
+            new SyntheticSession(1).alphaPackets(true).record(30.0).replay(aligner);
+            // Everything up to the last alpha packet can be aligned.
+            assertTrue(frames.count >= 29 * 256);
+            assertEquals(0, frames.stale);
+            assertTrue(frames.ordered);
+            assertTrue("latency " + aligner.maxLatencyMicros(),
+                aligner.maxLatencyMicros() <= 1000000 / SyntheticSession.ALPHA_RATE);
+        }
+    }
+
+    @Test
+    public void laggingStreamIsHeldAfterMaxLatency() {
+        final Frames frames = new Frames();
+        final StreamAligner aligner = aligner(StreamAligner.LINEAR, frames);
+        // The accelerometer stops after ten seconds; the others carry on.
+        final Recording session = new SyntheticSession(2).alphaPackets(true).record(20.0);
+        for (int i = 0; i < session.size(); ++i) {
+            final brainPacket s = session.get(i);
+            if (s.type != brainPacket.TYPE_ACCELEROMETER || s.timestamp < 10000000L) {
+                aligner.accept(s);
+            }
+        }
+        assertTrue(frames.count >= 19 * 256);
+        assertTrue(frames.stale >= 9 * 256);
+        assertTrue(frames.ordered);
+        assertTrue("latency " + aligner.maxLatencyMicros(),
+            aligner.maxLatencyMicros() <= MAX_LATENCY + 1000000 / SyntheticSession.ALPHA_RATE);
+    }
+}
@@ -0,0 +1,116 @@
+package com.choosemuse.example.libmuse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic headband streams for tests: EEG as an offset, a 10 Hz
+ * alpha rhythm and white noise on every channel, plus accelerometer and
+ * relative alpha packets, merged in timestamp order. Bursts of known
+ * amplitude can be added to single channels so detectors have something
+ * with an exact onset to find. Timestamps are whole microseconds from
+ * start, at the nominal rates.
+ */
+final class SyntheticSession {
+    static final int EEG_RATE = 256;
+    static final int ACCEL_RATE = 52;
+    static final int ALPHA_RATE = 10;
+
+    private final long seed;
+    private int channels = 4;
+    private long start = 0;
+    private double offset = 800.0;
+    private double alpha = 10.0;
+    private double noise = 5.0;
+    private boolean accelerometer = true;
+    private boolean alphaPackets = false;
+    // channel, start and end in seconds, amplitude
+    private final List<double[]> bursts = new ArrayList<>();
+
+    SyntheticSession(long seed) {
+        this.seed = seed;
+    }
+
+    SyntheticSession channels(int channels) {
+        this.channels = channels;
+        return this;
+    }
+
+    SyntheticSession start(long micros) {
+        this.start = micros;
+        return this;
+    }
+
+    SyntheticSession noise(double sd) {
+        this.noise = sd;
+        return this;
+    }
+
+    SyntheticSession accelerometer(boolean on) {
+        this.accelerometer = on;
+        return this;
+    }
+
+    SyntheticSession alphaPackets(boolean on) {
+        this.alphaPackets = on;
+        return this;
+    }
+
+    /** Adds amplitude to one channel from startSeconds for seconds. */
+    SyntheticSession burst(int channel, double startSeconds, double seconds, double amplitude) {
+        bursts.add(new double[] { channel, startSeconds, startSeconds + seconds, amplitude });
+        return this;
+    }
+
+    /** Timestamp of EEG sample n. */
+    long eegTimestamp(long n) {
+        return start + n * 1000000L / EEG_RATE;
+    }
+
+    /** Index of the first EEG sample at or after the given second. */
+    static long eegSample(double seconds) {
+        return (long) Math.ceil(seconds * EEG_RATE);
+    }
+
+    Recording record(double seconds) {
+        final Recording recording = new Recording();
+        final Random random = new Random(seed);
+        final brainPacket s = new brainPacket();
+        final long eegCount = (long) (seconds * EEG_RATE);
+        long a = 0;
+        long b = 0;
+        for (long e = 0; e < eegCount; ++e) {
+            // Slower streams first when they share a timestamp.
+            while (accelerometer && a * EEG_RATE <= e * ACCEL_RATE) {
+                s.set(start + a * 1000000L / ACCEL_RATE, brainPacket.TYPE_ACCELEROMETER, 3);
+                s.values[0] = 0.02 * random.nextGaussian();
+                s.values[1] = 0.02 * random.nextGaussian();
+                s.values[2] = 1.0 + 0.02 * random.nextGaussian();
+                recording.accept(s);
+                ++a;
+            }
+            while (alphaPackets && b * EEG_RATE <= e * ALPHA_RATE) {
+                s.set(start + b * 1000000L / ALPHA_RATE, brainPacket.TYPE_ALPHA_RELATIVE, channels);
+                for (int c = 0; c < channels; ++c) {
+                    s.values[c] = 0.3 + 0.05 * random.nextGaussian();
+                }
+                recording.accept(s);
+                ++b;
+            }
+            final double t = (double) e / EEG_RATE;
+            s.set(eegTimestamp(e), brainPacket.TYPE_EEG, channels);
+            for (int c = 0; c < channels; ++c) {
+                double x = offset + alpha * Math.sin(2 * Math.PI * 10.0 * t + c) + noise * random.nextGaussian();
+                for (double[] burst : bursts) {
+                    if (burst[0] == c && t >= burst[1] && t < burst[2]) {
+                        x += burst[3];
+                    }
+                }
+                s.values[c] = x;
+            }
+            recording.accept(s);
+        }
+        return recording;
+    }
+}